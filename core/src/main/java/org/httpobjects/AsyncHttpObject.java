@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import org.httpobjects.path.PathPattern;
+
+/**
+ * An {@link HttpObject} whose verbs answer later rather than right away, so that one that's
+ * waiting on something else (a backend, a queue) doesn't have to hold onto a server thread while
+ * it waits.  Override the <code>...Async</code> verbs rather than the usual ones:
+ * <pre>
+ * new AsyncHttpObject("/users/{id}") {
+ *     public CompletionStage&lt;Response&gt; getAsync(Request req) {
+ *         return users.lookup(req.path().valueFor("id")).thenApply(user -&gt; OK(Json(user)));
+ *     }
+ * };
+ * </pre>
+ * As with the usual verbs, a null response means "not me", and the request moves on to the next
+ * object that matches.
+ * <p>
+ * Adapters that can hand a request back to the server until its response is ready do so; the
+ * rest (and anything that calls the usual verbs, like a mask) wait for it.
+ */
+public class AsyncHttpObject extends HttpObject {
+
+    public AsyncHttpObject(PathPattern pathPattern, Response defaultResponse) {
+        super(pathPattern, defaultResponse);
+    }
+
+    public AsyncHttpObject(String pathPattern, Response defaultResponse) {
+        super(pathPattern, defaultResponse);
+    }
+
+    public AsyncHttpObject(PathPattern pathPattern) {
+        super(pathPattern);
+    }
+
+    public AsyncHttpObject(String pathPattern) {
+        super(pathPattern);
+    }
+
+    public CompletionStage<Response> deleteAsync(Request req){return completed(defaultResponse());}
+    public CompletionStage<Response> getAsync(Request req){return completed(defaultResponse());}
+    public CompletionStage<Response> headAsync(Request req){return completed(defaultResponse());}
+    public CompletionStage<Response> optionsAsync(Request req){return completed(defaultResponse());}
+    public CompletionStage<Response> postAsync(Request req){return completed(defaultResponse());}
+    public CompletionStage<Response> putAsync(Request req){return completed(defaultResponse());}
+    public CompletionStage<Response> traceAsync(Request req){return completed(defaultResponse());}
+    public CompletionStage<Response> patchAsync(Request req){return completed(defaultResponse());}
+
+    @Override public final Response delete(Request req){return await(deleteAsync(req));}
+    @Override public final Response get(Request req){return await(getAsync(req));}
+    @Override public final Response head(Request req){return await(headAsync(req));}
+    @Override public final Response options(Request req){return await(optionsAsync(req));}
+    @Override public final Response post(Request req){return await(postAsync(req));}
+    @Override public final Response put(Request req){return await(putAsync(req));}
+    @Override public final Response trace(Request req){return await(traceAsync(req));}
+    @Override public final Response patch(Request req){return await(patchAsync(req));}
+
+    /**
+     * @return a response that's already there
+     */
+    public static CompletionStage<Response> completed(Response response) {
+        return CompletableFuture.completedFuture(response);
+    }
+
+    /**
+     * Waits for the response, rethrowing whatever it failed with.
+     */
+    public static Response await(CompletionStage<Response> response) {
+        try {
+            return response.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+}
@@ -38,7 +38,6 @@
 package org.httpobjects;
 
 import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -51,6 +50,7 @@ import org.httpobjects.header.response.AllowField;
 import org.httpobjects.header.response.LocationField;
 import org.httpobjects.header.response.SetCookieField;
 import org.httpobjects.header.response.WWWAuthenticateField;
+import org.httpobjects.representation.FileRep;
 import org.httpobjects.representation.ImmutableRep;
 import org.httpobjects.util.ClasspathResourcesObject;
 import org.httpobjects.util.Method;
@@ -95,6 +95,14 @@ public class DSL {
         return new Response(ResponseCode.OK, r, header);
     }
 
+    public static final Response PARTIAL_CONTENT(Representation r, HeaderField ... header){
+        return new Response(ResponseCode.PARTIAL_CONTENT, r, header);
+    }
+
+    public static final Response REQUESTED_RANGE_NOT_SATISFIABLE(Representation r, HeaderField ... header){
+        return new Response(ResponseCode.REQUESTED_RANGE_NOT_SATISFIABLE, r, header);
+    }
+
     public static final Response CREATED(LocationField location){
         return new Response(ResponseCode.CREATED, null, location);
     }
@@ -177,7 +185,7 @@ public class DSL {
     }
 
     public static final Representation Bytes(String contentType, byte[] data){
-        return new ImmutableRep(contentType, new ByteArrayInputStream(data));
+        return new ImmutableRep(contentType, Arrays.copyOf(data, data.length));
     }
 
     public static final Representation Bytes(String contentType, InputStream data){
@@ -185,11 +193,8 @@ public class DSL {
     }
 
     public static final Representation File(String contentType, java.io.File path){
-        try {
-            return Bytes("", new FileInputStream(path));
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
+        if(!path.isFile()) throw new RuntimeException(new FileNotFoundException(path.getPath()));
+        return new FileRep(contentType, path);
     }
 
     /* ########################################################
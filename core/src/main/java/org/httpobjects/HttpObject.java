@@ -40,11 +40,15 @@ package org.httpobjects;
 import org.httpobjects.path.Path;
 import org.httpobjects.path.PathParamName;
 import org.httpobjects.path.PathPattern;
+import org.httpobjects.path.PathPatternIndex;
 import org.httpobjects.path.SimplePathPattern;
 import org.httpobjects.util.HttpObjectUtil;
 import org.httpobjects.util.Method;
+import org.httpobjects.util.RequestBodyLimit;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class HttpObject extends DSL{
@@ -74,6 +78,31 @@ public class HttpObject extends DSL{
         return pathPattern;
     }
 
+    /**
+     * @return what the verb methods that aren't overridden respond with (may be null)
+     */
+    public Response defaultResponse() {
+        return defaultResponse;
+    }
+
+    /**
+     * @return the most bytes this object will take in a request body, or
+     *         {@link RequestBodyLimit#UNLIMITED} to leave it to the server.  Anything bigger is
+     *         answered with {@link #REQUEST_ENTITY_TOO_LARGE()}, without this object being asked.
+     */
+    public long maxRequestBodySize() {
+        return RequestBodyLimit.UNLIMITED;
+    }
+
+    /**
+     * What the servers go by, since they can tell the path before reading the body.
+     *
+     * @return {@link #maxRequestBodySize()}; a mask says what the resource the path goes to would
+     */
+    public long maxRequestBodySize(String path) {
+        return maxRequestBodySize();
+    }
+
     public Response delete(Request req){return defaultResponse;}
     public Response get(Request req){return defaultResponse;}
     public Response head(Request req){return defaultResponse;}
@@ -101,94 +130,161 @@ public class HttpObject extends DSL{
         return eventsResource(this, events);
     }
 
+    /*
+     * Masks are kept flat: masking a mask adds to its list of resources rather than wrapping it,
+     * so however they're composed, picking one is a single lookup in a compiled index of all of
+     * their patterns.  (Resources inside a mask are only ever reached through the outermost one,
+     * so its notFound is the only one that can apply.)
+     */
     private static HttpObject maskResources(final HttpObject left,
                                             final HttpObject right,
                                             final Response notFound) {
-        return new HttpObject(maskPatterns(left.pattern(), right.pattern())) {
-
-            private Response match(Method method, Request req) {
-                if (left.pattern().matches(req.path().toString())) {
-                    return HttpObjectUtil.invokeMethod(left, method, req);
-                } else if (right.pattern().matches(req.path().toString())) {
-                    return HttpObjectUtil.invokeMethod(right, method, req);
-                } else {
-                    return notFound;
-                }
-            }
-
-            @Override
-            public Response delete(Request req) {
-                return match(Method.DELETE, req);
-            }
-
-            @Override
-            public Response get(Request req) {
-                return match(Method.GET, req);
-            }
-
-            @Override
-            public Response head(Request req) {
-                return match(Method.HEAD, req);
-            }
-
-            @Override
-            public Response options(Request req) {
-                return match(Method.OPTIONS, req);
-            }
-
-            @Override
-            public Response post(Request req) {
-                return match(Method.POST, req);
-            }
+        final List<HttpObject> resources = new ArrayList<HttpObject>();
+        addMaskedResources(left, resources);
+        addMaskedResources(right, resources);
 
-            @Override
-            public Response put(Request req) {
-                return match(Method.PUT, req);
-            }
-
-            @Override
-            public Response trace(Request req) {
-                return match(Method.TRACE, req);
-            }
+        return new MaskedResources(new MaskPattern(resources), notFound);
+    }
 
-            @Override
-            public Response patch(Request req) {
-                return match(Method.PATCH, req);
+    private static final class MaskedResources extends HttpObject {
+        private final MaskPattern pattern;
+        private final Response notFound;
+
+        MaskedResources(MaskPattern pattern, Response notFound) {
+            super(pattern);
+            this.pattern = pattern;
+            this.notFound = notFound;
+        }
+
+        @Override
+        public long maxRequestBodySize(String path) {
+            final int position = pattern.firstMatch(path);
+            return position != -1 ? pattern.resources[position].maxRequestBodySize(path) : maxRequestBodySize();
+        }
+
+        private Response match(Method method, Request req) {
+            final int position = pattern.firstMatch(req.path().toString());
+            if (position != -1) {
+                return HttpObjectUtil.invokeMethod(pattern.resources[position], method, req);
+            } else {
+                return notFound;
             }
-        };
+        }
+
+        @Override
+        public Response delete(Request req) {
+            return match(Method.DELETE, req);
+        }
+
+        @Override
+        public Response get(Request req) {
+            return match(Method.GET, req);
+        }
+
+        @Override
+        public Response head(Request req) {
+            return match(Method.HEAD, req);
+        }
+
+        @Override
+        public Response options(Request req) {
+            return match(Method.OPTIONS, req);
+        }
+
+        @Override
+        public Response post(Request req) {
+            return match(Method.POST, req);
+        }
+
+        @Override
+        public Response put(Request req) {
+            return match(Method.PUT, req);
+        }
+
+        @Override
+        public Response trace(Request req) {
+            return match(Method.TRACE, req);
+        }
+
+        @Override
+        public Response patch(Request req) {
+            return match(Method.PATCH, req);
+        }
     }
 
-    private static PathPattern maskPatterns(final PathPattern left,
-                                            final PathPattern right) {
-        return new PathPattern() {
-
-            @Override
-            public List<PathParamName> varNames() {
-                List<PathParamName> result = new ArrayList<PathParamName>();
-                result.addAll(left.varNames());
-                result.addAll(right.varNames());
-                return result;
-            }
+    private static void addMaskedResources(HttpObject resource, List<HttpObject> resources) {
+        if (resource instanceof MaskedResources) {
+            resources.addAll(Arrays.asList(((MaskedResources) resource).pattern.resources));
+        } else {
+            resources.add(resource);
+        }
+    }
 
-            @Override
-            public boolean matches(String path) {
-                return left.matches(path) || right.matches(path);
+    private static final class MaskPattern implements PathPattern {
+        private final HttpObject[] resources;
+        private final PathPatternIndex index;
+        private final List<PathParamName> varNames;
+        private final String raw;
+
+        MaskPattern(List<HttpObject> resources) {
+            this.resources = resources.toArray(new HttpObject[resources.size()]);
+
+            final List<PathPattern> patterns = new ArrayList<PathPattern>(resources.size());
+            final List<PathParamName> varNames = new ArrayList<PathParamName>();
+            final StringBuilder raw = new StringBuilder();
+            for (HttpObject next : resources) {
+                patterns.add(next.pattern());
+                varNames.addAll(next.pattern().varNames());
+                if (raw.length() > 0) raw.append(':');
+                raw.append(next.pattern().raw());
             }
-
-            @Override
-            public Path match(String path) {
-                if (left.matches(path)) {
-                    return left.match(path);
-                } else {
-                    return right.match(path);
+            this.index = new PathPatternIndex(patterns);
+            this.varNames = Collections.unmodifiableList(varNames);
+            this.raw = raw.toString();
+        }
+
+        /**
+         * @return the position of the first resource whose pattern matches, or -1 if none do
+         */
+        int firstMatch(String path) {
+            for (int position : index.candidates(path)) {
+                if (resources[position].pattern().matches(path)) {
+                    return position;
                 }
             }
-
-            @Override
-            public String raw() {
-                return left.raw() + ":" + right.raw();
+            return -1;
+        }
+
+        @Override
+        public List<PathParamName> varNames() {
+            return varNames;
+        }
+
+        @Override
+        public boolean matches(String path) {
+            return firstMatch(path) != -1;
+        }
+
+        @Override
+        public Path match(String path) {
+            final Path match = matchIfAble(path);
+            // the last one gets a chance to match however it likes, as when masks were nested
+            return match != null ? match : resources[resources.length - 1].pattern().match(path);
+        }
+
+        @Override
+        public Path matchIfAble(String path) {
+            for (int position : index.candidates(path)) {
+                final Path match = index.match(position, path);
+                if (match != null) return match;
             }
-        };
+            return null;
+        }
+
+        @Override
+        public String raw() {
+            return raw;
+        }
     }
 
     private static <Id> HttpObject eventsResource(final HttpObject resource,
@@ -207,6 +303,16 @@ public class HttpObject extends DSL{
                 }
             }
 
+            @Override
+            public long maxRequestBodySize() {
+                return resource.maxRequestBodySize();
+            }
+
+            @Override
+            public long maxRequestBodySize(String path) {
+                return resource.maxRequestBodySize(path);
+            }
+
             @Override
             public Response delete(Request req) {
                 return dec(Method.DELETE, req);
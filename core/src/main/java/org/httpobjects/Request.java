@@ -52,9 +52,18 @@ public interface Request {
     RequestHeader header();
     Path path();
     Query query();
+    /**
+     * @return the body, which on every server is streamed in and can be read once: call
+     *         {@link #immutableCopy()} first to read it more than once.  (The netty adapters,
+     *         holding the whole body already, happen to give it back again; that's not to be relied on.)
+     */
     Representation representation();
     ConnectionInfo connectionInfo();
     boolean hasRepresentation();
+    /**
+     * @return a copy that outlives the request, with a body that can be read any number of times;
+     *         when the body was already read, the copy's body says so rather than this failing
+     */
     Request immutableCopy();
 
     default Optional<String> body() {
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.impl;
+
+import org.httpobjects.ConnectionInfo;
+import org.httpobjects.Query;
+import org.httpobjects.Representation;
+import org.httpobjects.Request;
+import org.httpobjects.header.request.RequestHeader;
+import org.httpobjects.path.Path;
+import org.httpobjects.representation.ImmutableRep;
+import org.httpobjects.util.HttpObjectUtil;
+import org.httpobjects.util.Method;
+
+/**
+ * A request as it was when it was taken, body and all, holding onto nothing of the server's.
+ * It's what servers that read bodies into buffers they reuse (or free) once the response is out
+ * give back from {@link Request#immutableCopy()}: the copy has to outlive the buffers.
+ */
+public final class RequestSnapshot implements Request {
+    private final Method method;
+    private final RequestHeader header;
+    private final Path path;
+    private final Query query;
+    private final Representation representation;
+    private final ConnectionInfo connectionInfo;
+
+    private RequestSnapshot(Request request, Representation representation) {
+        this.method = request.method();
+        this.header = request.header();
+        this.path = request.path();
+        this.query = request.query();
+        this.connectionInfo = request.connectionInfo();
+        this.representation = representation;
+    }
+
+    public static Request of(Request request) {
+        if (request instanceof RequestSnapshot) return request;
+        if (!request.hasRepresentation()) return new RequestSnapshot(request, null);
+        final Representation body = request.representation();
+        // the bytes are copied out of wherever the server keeps them
+        return new RequestSnapshot(request, new ImmutableRep(body.contentType(), HttpObjectUtil.toByteArray(body)));
+    }
+
+    /**
+     * For servers that can copy the body out more directly than by writing it.
+     *
+     * @param body the request's body, already copied out
+     */
+    public static Request of(Request request, ImmutableRep body) {
+        return new RequestSnapshot(request, body);
+    }
+
+    @Override
+    public Method method() {
+        return method;
+    }
+
+    @Override
+    public RequestHeader header() {
+        return header;
+    }
+
+    @Override
+    public Path path() {
+        return path;
+    }
+
+    @Override
+    public Query query() {
+        return query;
+    }
+
+    @Override
+    public Representation representation() {
+        return representation;
+    }
+
+    @Override
+    public ConnectionInfo connectionInfo() {
+        return connectionInfo;
+    }
+
+    @Override
+    public boolean hasRepresentation() {
+        return representation != null;
+    }
+
+    @Override
+    public Request immutableCopy() {
+        return this;
+    }
+}
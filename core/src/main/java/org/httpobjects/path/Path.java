@@ -42,10 +42,10 @@ import java.util.Optional;
 
 public class Path {
     private final String rawPath;
-	private final HashMap<String, String> params = new HashMap<String, String>();
+	private final HashMap<String, String> params;
 
 	public Path(String rawPath, PathParam ... params) {
-	    this.rawPath = rawPath;
+	    this(rawPath, new HashMap<String, String>());
 		if(params!=null){
 			for(PathParam next : params){
 				this.params.put(next.name.name, next.value);
@@ -53,6 +53,15 @@ public class Path {
 		}
 	}
 
+	/**
+	 * For subclasses that look their values up some other way, and so override
+	 * {@link #valueFor(String)} and {@link #size()}.
+	 */
+	Path(String rawPath, HashMap<String, String> params) {
+	    this.rawPath = rawPath;
+	    this.params = params;
+	}
+
 	public String valueFor(String key){
 		return params.get(key);
 	}
@@ -44,4 +44,14 @@ public interface PathPattern{
 	boolean matches(String path);
 	Path match(String path);
 	String raw();
+
+	/**
+	 * Checks and parses the path in a single pass, for callers that would otherwise call
+	 * {@link #matches(String)} and then {@link #match(String)}.
+	 *
+	 * @return the parsed {@link Path}, or null if the path doesn't match this pattern
+	 */
+	default Path matchIfAble(String path) {
+		return matches(path) ? match(path) : null;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled lookup over an ordered list of {@link PathPattern}s.
+ * <p>
+ * Plain {@link SimplePathPattern}s are folded into a trie of their segments, so finding the ones
+ * that can match a path costs time proportional to the depth of the path rather than the number
+ * of patterns.  Plain {@link RegexPathPattern}s are gathered into a {@link RegexRouteSet}, which
+ * finds the first of them that matches in a single scan.  Any other kind of pattern can't be
+ * looked inside of, so it is offered as a candidate for every path.
+ */
+public final class PathPatternIndex {
+    private static final int[] NONE = new int[0];
+    
+    private final PathPattern[] patterns;
+    private final int[] unindexed;
+    private final Node root = new Node();
+    private final int[] regexPositions;
+    private final RegexRouteSet regexes;
+    
+    public PathPatternIndex(List<? extends PathPattern> patterns) {
+        this.patterns = patterns.toArray(new PathPattern[patterns.size()]);
+        
+        List<Integer> unindexed = new ArrayList<Integer>();
+        List<Integer> regexPositions = new ArrayList<Integer>();
+        List<RegexPathPattern> regexes = new ArrayList<RegexPathPattern>();
+        for(int x=0;x<this.patterns.length;x++){
+            final PathPattern next = this.patterns[x];
+            if(next!=null && next.getClass() == SimplePathPattern.class){
+                add(x, (SimplePathPattern) next);
+            }else if(next!=null && next.getClass() == RegexPathPattern.class){
+                regexPositions.add(x);
+                regexes.add((RegexPathPattern) next);
+            }else{
+                unindexed.add(x);
+            }
+        }
+        this.unindexed = toArray(unindexed);
+        this.regexPositions = toArray(regexPositions);
+        this.regexes = new RegexRouteSet(regexes);
+    }
+    
+    public int size() {
+        return patterns.length;
+    }
+    
+    /**
+     * @return the positions of the patterns that might match the path, in the order they were given.
+     *         Each one still has to be confirmed with {@link #match(int, String)}.
+     */
+    public int[] candidates(String path) {
+        if(path==null) return unindexed;
+        
+        final Hits hits = new Hits();
+        collect(root, path, 0, SimplePathPattern.segmentsEnd(path), hits);
+        
+        if(regexPositions.length>0){
+            // the ones before the first match are out, but any after it could still be needed if it falls through
+            final int first = regexes.first(path);
+            if(first!=-1) hits.addAll(regexPositions, first);
+        }
+        
+        if(hits.size==0) return unindexed;
+        
+        Arrays.sort(hits.values, 0, hits.size);
+        return merge(hits.values, hits.size, unindexed);
+    }
+    
+    /**
+     * @return the {@link Path} for the pattern at the given position, or null if it doesn't match
+     */
+    public Path match(int position, String path) {
+        return patterns[position].matchIfAble(path);
+    }
+    
+    private void add(int position, SimplePathPattern pattern) {
+        Node node = root;
+        for(SimplePathPattern.Seg seg : pattern.segs()){
+            if(seg.hasWildcard){
+                // anything that follows a wildcard is treated as part of it
+                node.remainder = append(node.remainder, position);
+                return;
+            }else if(seg.isVar || seg.name.equals("*")){
+                if(node.variable==null) node.variable = new Node();
+                node = node.variable;
+            }else{
+                Node next = node.literals.get(seg.name.name);
+                if(next==null){
+                    next = new Node();
+                    node.literals.put(seg.name.name, next);
+                }
+                node = next;
+            }
+        }
+        node.terminal = append(node.terminal, position);
+    }
+    
+    private static void collect(Node node, String path, int start, int limit, Hits hits) {
+        hits.addAll(node.remainder);
+        if(limit==-1 || start>limit){
+            hits.addAll(node.terminal);
+            // variables (and '*') also accept a missing segment
+            if(node.variable!=null) collect(node.variable, path, start, limit, hits);
+        }else{
+            final int end = SimplePathPattern.segmentEnd(path, start, limit);
+            if(!node.literals.isEmpty()){
+                final Node literal = node.literals.get(path.substring(start, end));
+                if(literal!=null) collect(literal, path, end + 1, limit, hits);
+            }
+            if(node.variable!=null) collect(node.variable, path, end + 1, limit, hits);
+        }
+    }
+    
+    private static int[] merge(int[] a, int aSize, int[] b) {
+        final int[] result = new int[aSize + b.length];
+        int i = 0, j = 0, k = 0;
+        while(i<aSize && j<b.length){
+            result[k++] = a[i] < b[j] ? a[i++] : b[j++];
+        }
+        while(i<aSize) result[k++] = a[i++];
+        while(j<b.length) result[k++] = b[j++];
+        return result;
+    }
+    
+    private static int[] append(int[] values, int value) {
+        final int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+    
+    private static int[] toArray(List<Integer> values) {
+        if(values.isEmpty()) return NONE;
+        final int[] result = new int[values.size()];
+        for(int x=0;x<result.length;x++){
+            result[x] = values.get(x);
+        }
+        return result;
+    }
+    
+    private static final class Node {
+        final Map<String, Node> literals = new HashMap<String, Node>();
+        Node variable;
+        int[] terminal = NONE;
+        int[] remainder = NONE;
+    }
+    
+    private static final class Hits {
+        int[] values = new int[4];
+        int size = 0;
+        
+        void addAll(int[] more) {
+            addAll(more, 0);
+        }
+        
+        void addAll(int[] more, int from) {
+            final int count = more.length - from;
+            if(count<=0) return;
+            if(size + count > values.length){
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + count));
+            }
+            System.arraycopy(more, from, values, size, count);
+            size += count;
+        }
+    }
+}
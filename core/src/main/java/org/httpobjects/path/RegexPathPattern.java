@@ -85,16 +85,41 @@ public class RegexPathPattern implements PathPattern {
     public Path match(String path) {
         final Matcher m = pattern.matcher(path);
         if(m.find()){
-            PathParam[] params = new PathParam[(varNames.size())];
-            for(int x=0;x<varNames.size();x++){
-                params[x] = new PathParam(varNames.get(x), m.group(x+1));
-            }
-            return new Path(path, params);
+            return toPath(path, m);
         }else{
             return null;
         }
     }
     
+    @Override
+    public Path matchIfAble(String path) {
+        final Matcher m = pattern.matcher(path);
+        if(m.matches()){
+            return toPath(path, m);
+        }else{
+            return null;
+        }
+    }
+    
+    private Path toPath(String path, Matcher m) {
+        return toPath(path, m, 0);
+    }
+    
+    /**
+     * @param offset how many groups come before this pattern's first one in the matcher
+     */
+    Path toPath(String path, Matcher m, int offset) {
+        PathParam[] params = new PathParam[(varNames.size())];
+        for(int x=0;x<varNames.size();x++){
+            params[x] = new PathParam(varNames.get(x), m.group(offset+x+1));
+        }
+        return new Path(path, params);
+    }
+    
+    Pattern pattern() {
+        return pattern;
+    }
+    
     @Override
     public boolean matches(String path) {
         return pattern.matcher(path).matches();
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.path;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An ordered list of {@link RegexPathPattern}s that are tried against a path all at once.
+ * <p>
+ * The patterns are joined into a single alternation, each wrapped in its own group, so finding
+ * the first one that matches a whole path takes one scan rather than one per pattern.  The group
+ * that took part in the match tells which pattern it was, and that pattern's own groups become
+ * the values of its {@link Path}.
+ * <p>
+ * A few patterns can't be joined without changing what they mean: ones compiled with flags, ones
+ * with back references or named groups (whose numbering or names would collide), and ones with
+ * more variable names than groups.  Those are still matched, just one at a time, in their place
+ * in the order.
+ */
+public final class RegexRouteSet {
+    private static final Pattern NEVER = Pattern.compile("(?!)");
+    
+    private final RegexPathPattern[] routes;
+    private final boolean[] joined;
+    /** the group that wraps each joined route in the combined pattern */
+    private final int[] groups;
+    /** the joined routes, in the order they appear in the combined pattern */
+    private final int[] joinedRoutes;
+    private final Pattern combined;
+    
+    public RegexRouteSet(List<? extends RegexPathPattern> routes) {
+        this.routes = routes.toArray(new RegexPathPattern[routes.size()]);
+        this.joined = new boolean[this.routes.length];
+        this.groups = new int[this.routes.length];
+        
+        final StringBuilder alternation = new StringBuilder();
+        final List<Integer> joinedRoutes = new ArrayList<Integer>();
+        int group = 1;
+        for(int x=0;x<this.routes.length;x++){
+            final RegexPathPattern route = this.routes[x];
+            if(canBeJoined(route)){
+                if(alternation.length()>0) alternation.append('|');
+                alternation.append('(').append(route.pattern().pattern()).append(')');
+                joined[x] = true;
+                groups[x] = group;
+                joinedRoutes.add(x);
+                group += 1 + groupCount(route.pattern());
+            }
+        }
+        
+        this.combined = joinedRoutes.isEmpty() ? NEVER : Pattern.compile(alternation.toString());
+        this.joinedRoutes = new int[joinedRoutes.size()];
+        for(int x=0;x<this.joinedRoutes.length;x++){
+            this.joinedRoutes[x] = joinedRoutes.get(x);
+        }
+    }
+    
+    public int size() {
+        return routes.length;
+    }
+    
+    /**
+     * @return the position of the first route that matches the whole path, or -1 if none of them do
+     */
+    public int first(String path) {
+        final Matcher m = combined.matcher(path);
+        return first(path, m, m.matches() ? matchedRoute(m) : routes.length);
+    }
+    
+    /**
+     * @return the first route that matches the whole path along with its {@link Path}, or null if
+     *         none of them match
+     */
+    public Match match(String path) {
+        final Matcher m = combined.matcher(path);
+        final int fromCombined = m.matches() ? matchedRoute(m) : routes.length;
+        final int route = first(path, m, fromCombined);
+        
+        if(route==-1){
+            return null;
+        }else if(route==fromCombined){
+            return new Match(route, routes[route].toPath(path, m, groups[route]));
+        }else{
+            return new Match(route, routes[route].matchIfAble(path));
+        }
+    }
+    
+    private int first(String path, Matcher m, int fromCombined) {
+        // anything that couldn't be joined and comes earlier still gets its turn
+        for(int x=0;x<fromCombined;x++){
+            if(!joined[x] && routes[x].matches(path)){
+                return x;
+            }
+        }
+        return fromCombined==routes.length ? -1 : fromCombined;
+    }
+    
+    private int matchedRoute(Matcher m) {
+        for(int route : joinedRoutes){
+            if(m.start(groups[route])!=-1){
+                return route;
+            }
+        }
+        throw new IllegalStateException("Nothing matched " + combined.pattern());
+    }
+    
+    private static boolean canBeJoined(RegexPathPattern route) {
+        final Pattern pattern = route.pattern();
+        final String regex = pattern.pattern();
+        
+        return pattern.flags()==0 && 
+                !regex.matches("(?s).*\\\\([1-9]|k<).*") && 
+                !regex.matches("(?s).*\\(\\?<[a-zA-Z].*") && 
+                route.varNames().size() <= groupCount(pattern);
+    }
+    
+    private static int groupCount(Pattern pattern) {
+        return pattern.matcher("").groupCount();
+    }
+    
+    public static final class Match {
+        /** the position of the route that matched */
+        public final int route;
+        public final Path path;
+        
+        private Match(int route, Path path) {
+            this.route = route;
+            this.path = path;
+        }
+    }
+}
@@ -38,13 +38,15 @@
 package org.httpobjects.path;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.regex.Pattern;
 
 public class SimplePathPattern implements PathPattern {
     private final String pattern;
     private final List<Seg> segs = new ArrayList<Seg>();
+    private final int varCount;
+    private final boolean hasInnerWildcard;
     
     public SimplePathPattern(String pattern) {
         super();
@@ -64,6 +66,13 @@ public class SimplePathPattern implements PathPattern {
             }
         }
         
+        this.varCount = varNames().size();
+        
+        boolean hasInnerWildcard = false;
+        for(int x=0;x<segs.size()-1;x++){
+            if(segs.get(x).hasWildcard) hasInnerWildcard = true;
+        }
+        this.hasInnerWildcard = hasInnerWildcard;
     }
     
     public List<PathParamName> varNames(){
@@ -79,83 +88,225 @@ public class SimplePathPattern implements PathPattern {
         return v;
     }
     
-    private void stripQueryString(String[] segments){
-        if(segments.length>0){
-            final int x = segments.length -1;
-            final String s = segments[x];
-            final int index = s.lastIndexOf('?');
-            if(index!=-1){
-                segments[x] = s.substring(0, index);
-            }
-            
+    @Override
+    public Path matchIfAble(String path) {
+        return match(path);
+    }
+    
+    List<Seg> segs() {
+        return segs;
+    }
+    
+    /*
+     * Paths are read the way String.split("/") would see them (ignoring trailing empty
+     * segments) but in place, by index, with any query string cut off the last segment.
+     */
+    
+    /**
+     * @return where the last segment of the path ends, or -1 if the path has no segments at all
+     */
+    static int segmentsEnd(String path) {
+        int end = path.length();
+        if(path.indexOf('/')!=-1){
+            while(end>0 && path.charAt(end-1)=='/') end--;
+            if(end==0) return -1;
         }
+        final int lastStart = path.lastIndexOf('/', end-1) + 1;
+        final int query = path.lastIndexOf('?', end-1);
+        return query>=lastStart ? query : end;
+    }
+    
+    /**
+     * @return where the segment beginning at start ends
+     */
+    static int segmentEnd(String path, int start, int limit) {
+        final int slash = path.indexOf('/', start);
+        return (slash==-1 || slash>limit) ? limit : slash;
     }
     
     public Path match(String path){
         if(path == null) return null;
         
-        String[] segments = path.split(Pattern.quote("/"));
-        stripQueryString(segments);
-        
-        List<PathParam> params = new LinkedList<PathParam>();
-        boolean matches = true;
-        
-        Seg lastSeg = null;
-        String wildcardMatch = "";
+        final int limit = segmentsEnd(path);
+        final int[] found = varCount==0 ? null : new int[(varCount + 1) * 3];
+        int count = 0;
         
-        int limit = Math.max(segs.size(), segments.length);
+        int start = 0;
+        int lastSeg = -1;
+        int wildcardStart = -1;
+        int wildcardEnd = -1;
+        // wildcards that aren't at the end soak up pieces of the path unevenly; those are spelled out as they go
+        final StringBuilder innerWildcards = hasInnerWildcard ? new StringBuilder() : null;
         
-        for(int x=0;x<limit;x++){
-            Seg seg = x<segs.size()?segs.get(x):null;
-            String s = x<segments.length?segments[x]:null;
+        for(int x=0; x<segs.size() || (limit!=-1 && start<=limit); x++){
+            final Seg seg = x<segs.size() ? segs.get(x) : null;
+            final boolean hasSegment = limit!=-1 && start<=limit;
+            final int end = hasSegment ? segmentEnd(path, start, limit) : -1;
+            final boolean lastWasWildcard = lastSeg!=-1 && segs.get(lastSeg).hasWildcard;
             
-            if(seg==null && (lastSeg==null || !lastSeg.hasWildcard)){
-                matches = false;
-                break;
-            }else if(lastSeg!=null && lastSeg.hasWildcard){
-                if(s.length()>0 && s!=null){
-                    wildcardMatch += "/";
+            if(seg==null && !lastWasWildcard){
+                return null;
+            }else if(lastWasWildcard){
+                if(hasSegment) wildcardEnd = end;
+                if(hasSegment && innerWildcards!=null){
+                    if(end>start) innerWildcards.append('/');
+                    innerWildcards.append(path, start, end);
                 }
-                wildcardMatch += s;
-            }else if(seg!=null){
-                if(seg.isVar){
-                    if(seg.hasWildcard && s!=null){
-                        wildcardMatch += s;
-                    }else{
-                        params.add(seg.name.withValue(s));
-                    }
-                }else if(!seg.name.equals(s) && !seg.name.equals("*")){
-                    matches = false;
+            }else if(seg.isVar){
+                if(seg.hasWildcard && hasSegment){
+                    wildcardStart = start;
+                    wildcardEnd = end;
+                    if(innerWildcards!=null) innerWildcards.append(path, start, end);
+                }else{
+                    count = record(found, count, x, hasSegment ? start : -1, end);
                 }
+            }else if(!seg.isAnything && !(hasSegment && seg.is(path, start, end))){
+                return null;
             }
-            if(seg!=null) lastSeg = seg;
+            
+            if(seg!=null) lastSeg = x;
+            if(hasSegment) start = end + 1;
         }
         
-        if(lastSeg!=null && lastSeg.hasWildcard && !wildcardMatch.isEmpty()){
-            params.add(lastSeg.name.withValue(wildcardMatch));
+        final boolean endsWithWildcard = lastSeg!=-1 && segs.get(lastSeg).hasWildcard;
+        if(endsWithWildcard && innerWildcards!=null){
+            if(innerWildcards.length()>0){
+                count = record(found, count, lastSeg, wildcardStart, wildcardEnd);
+                return new MatchedPath(path, segs, found, count, true, innerWildcards.toString());
+            }
+        }else if(endsWithWildcard && wildcardStart!=-1 && hasContent(path, wildcardStart, wildcardEnd)){
+            count = record(found, count, lastSeg, wildcardStart, wildcardEnd);
+            return new MatchedPath(path, segs, found, count, true, null);
         }
         
-        if(matches){
-            return new Path(path, params.toArray(new PathParam[]{}));
-        }else{
+        return new MatchedPath(path, segs, found, count, false, null);
+    }
+    
+    private static int record(int[] found, int count, int seg, int start, int end) {
+        final int at = count * 3;
+        found[at] = seg;
+        found[at + 1] = start;
+        found[at + 2] = end;
+        return count + 1;
+    }
+    
+    private static boolean hasContent(String path, int start, int end) {
+        for(int x=start;x<end;x++){
+            if(path.charAt(x)!='/') return true;
+        }
+        return false;
+    }
+    
+    /**
+     * The wildcard value is the covered segments joined with single slashes, leaving out the
+     * empty ones (other than the first).
+     */
+    private static String wildcardValue(String path, int start, int end) {
+        final int doubleSlash = path.indexOf("//", start);
+        if((doubleSlash==-1 || doubleSlash+1>=end) && path.charAt(end-1)!='/'){
+            return path.substring(start, end);
+        }
+        final StringBuilder value = new StringBuilder(end - start);
+        int segStart = start;
+        while(segStart<=end){
+            final int segEnd = segmentEnd(path, segStart, end);
+            if(segStart==start){
+                value.append(path, segStart, segEnd);
+            }else if(segEnd>segStart){
+                value.append('/').append(path, segStart, segEnd);
+            }
+            segStart = segEnd + 1;
+        }
+        return value.toString();
+    }
+    
+    /**
+     * A {@link Path} that only remembers where its values are, and cuts them out of the raw path
+     * when they're asked for.
+     */
+    private static final class MatchedPath extends Path {
+        private final String path;
+        private final List<Seg> segs;
+        private final int[] found;
+        private final int count;
+        private final boolean endsWithWildcard;
+        private final String wildcard;
+        
+        MatchedPath(String path, List<Seg> segs, int[] found, int count, boolean endsWithWildcard, String wildcard) {
+            super(path, (HashMap<String, String>) null);
+            this.path = path;
+            this.segs = segs;
+            this.found = found;
+            this.count = count;
+            this.endsWithWildcard = endsWithWildcard;
+            this.wildcard = wildcard;
+        }
+        
+        @Override
+        public String valueFor(String key) {
+            // like a map, later values for the same name win
+            for(int x=count-1;x>=0;x--){
+                if(nameAt(x).equals(key)){
+                    return valueAt(x);
+                }
+            }
             return null;
         }
+        
+        @Override
+        public int size() {
+            int size = 0;
+            for(int x=0;x<count;x++){
+                if(indexOf(nameAt(x))==x) size++;
+            }
+            return size;
+        }
+        
+        private int indexOf(String name) {
+            for(int x=0;x<count;x++){
+                if(nameAt(x).equals(name)) return x;
+            }
+            return -1;
+        }
+        
+        private String nameAt(int x) {
+            return segs.get(found[x * 3]).name.name;
+        }
+        
+        private String valueAt(int x) {
+            final int start = found[x * 3 + 1];
+            final int end = found[x * 3 + 2];
+            if(endsWithWildcard && x==count-1){
+                return wildcard!=null ? wildcard : wildcardValue(path, start, end);
+            }else if(start==-1){
+                return null;
+            }else{
+                return path.substring(start, end);
+            }
+        }
     }
     
     public String raw() {
         return pattern;
     }
     
-    private static class Seg {
+    static class Seg {
         final PathParamName name;
         final boolean isVar;
         final boolean hasWildcard;
+        final boolean isAnything;
         
         private Seg(String name, boolean isVar, boolean hasWildcard) {
             super();
             this.name = new PathParamName(name);
             this.isVar = isVar;
             this.hasWildcard = hasWildcard;
+            this.isAnything = !isVar && name.equals("*");
+        }
+        
+        boolean is(String path, int start, int end) {
+            final String literal = name.name;
+            return literal.length()==end-start && path.regionMatches(start, literal, 0, literal.length());
         }
         
         @Override
@@ -0,0 +1,96 @@
+package org.httpobjects.representation;
+
+import org.httpobjects.Representation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file, or a stretch of one, to be sent as it is.  Servers that can hand a file straight to the
+ * socket (sendfile, memory mapping) look out for these, and do just that: the bytes never pass
+ * through the JVM's heap.  Anywhere else, {@link #write(OutputStream)} copies it across in big
+ * pieces, reading each from where it sits in the file.
+ */
+public class FileRep implements Representation {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String contentType;
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    public FileRep(String contentType, File file) {
+        this(contentType, file, 0, -1);
+    }
+
+    /**
+     * Just part of the file.
+     *
+     * @param offset where in the file to start
+     * @param length how many bytes to send from there, or -1 for the rest of the file
+     */
+    public FileRep(String contentType, File file, long offset, long length) {
+        if (file == null) throw new NullPointerException("File is null");
+        if (offset < 0) throw new IllegalArgumentException("Negative offset: " + offset);
+        this.contentType = contentType;
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    /**
+     * @return where in the file the bytes to send start
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return how many bytes there are to send
+     */
+    public long length() {
+        return length == -1 ? Math.max(file.length() - offset, 0) : length;
+    }
+
+    @Override
+    public void write(OutputStream out) {
+        try {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                final long end = offset + length();
+                long position = offset;
+                while (position < end) {
+                    chunk.clear();
+                    chunk.limit((int) Math.min(CHUNK_SIZE, end - position));
+                    final int n = channel.read(chunk, position);
+                    if (n == -1) break;
+                    out.write(chunk.array(), 0, n);
+                    position += n;
+                }
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileRep(" + contentType + "," + file + (offset == 0 && length == -1 ? "" : "," + offset + "+" + length()) + ")";
+    }
+}
@@ -3,11 +3,10 @@ package org.httpobjects.representation;
 import org.httpobjects.Representation;
 import org.httpobjects.util.HttpObjectUtil;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
 
 public class ImmutableRep implements Representation {
 
@@ -15,26 +14,57 @@ public class ImmutableRep implements Representation {
     private final byte[] representation;
 
     public ImmutableRep(String contentType, InputStream data) {
+        this(contentType, data, -1);
+    }
+
+    /**
+     * @param length how many bytes there are (e.g. the request's Content-Length), or -1 when that isn't known
+     */
+    public ImmutableRep(String contentType, InputStream data, long length) {
         try {
             this.contentType = contentType;
-            java.io.ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            byte[] b = new byte[256];
-            int n;
-            while ((n = data.read(b)) != -1) {
-                buf.write(b, 0, n);
-            }
-            this.representation = buf.toByteArray();
+            this.representation = HttpObjectUtil.toByteArray(data, length);
             data.close();
         } catch (IOException err) {
             throw new RuntimeException(err);
         }
     }
 
+    /**
+     * @param data taken as it is, not copied, so not to be changed afterwards
+     */
+    public ImmutableRep(String contentType, byte[] data) {
+        if (data == null) throw new NullPointerException("Data is null");
+        this.contentType = contentType;
+        this.representation = data;
+    }
+
     @Override
     public String contentType() {
         return contentType;
     }
 
+    /**
+     * @return how many bytes there are
+     */
+    public long length() {
+        return representation.length;
+    }
+
+    /**
+     * @return the bytes, to be read (rather than written) without being copied
+     */
+    public InputStream stream() {
+        return new ByteArrayInputStream(representation);
+    }
+
+    /**
+     * @return the bytes themselves, not a copy, so not to be changed
+     */
+    byte[] bytes() {
+        return representation;
+    }
+
     @Override
     public void write(OutputStream out) {
         try {
@@ -0,0 +1,145 @@
+package org.httpobjects.representation;
+
+import org.httpobjects.Representation;
+import org.httpobjects.util.HttpObjectUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A body that is passed along as it's read rather than held in memory, so it can be as big as
+ * the disk or the network will bear.  The flip side is that it can only be read once: after
+ * {@link #stream()} or {@link #write(OutputStream)} it's gone.  Whatever needs to read it more
+ * than once should call {@link #buffered()} first, and then read that (or this) as often as it likes.
+ */
+public class StreamingRep implements Representation {
+    private static final int CHUNK_SIZE = 8192;
+    private static final String ALREADY_READ = "<streamed body, already read>";
+
+    private final String contentType;
+    private final long length;
+    private final boolean exact;
+    private InputStream data;
+    private ImmutableRep buffered;
+
+    public StreamingRep(String contentType, InputStream data) {
+        this(contentType, data, -1);
+    }
+
+    /**
+     * @param length how many bytes there are (e.g. the request's Content-Length), or -1 when that
+     *        isn't known; it only goes to sizing the buffer, should there be one
+     */
+    public StreamingRep(String contentType, InputStream data, long length) {
+        this(contentType, data, length, false);
+    }
+
+    /**
+     * @param exact whether the length is known for sure (the bytes are already in memory, or on
+     *        disk) rather than only claimed, so that a buffer can be set aside for all of it up front
+     */
+    public StreamingRep(String contentType, InputStream data, long length, boolean exact) {
+        if (data == null) throw new NullPointerException("Stream is null");
+        this.contentType = contentType;
+        this.length = length;
+        this.exact = exact;
+        this.data = data;
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the body, which is the caller's to read and close
+     * @throws IllegalStateException when it has already been read, and wasn't buffered
+     */
+    public synchronized InputStream stream() {
+        if (buffered != null) {
+            return new ByteArrayInputStream(buffered.bytes());
+        }
+        return take();
+    }
+
+    /**
+     * Reads the rest of the body into memory, after which it can be read any number of times.
+     *
+     * @return the body, held in memory
+     */
+    public synchronized Representation buffered() {
+        if (buffered == null) {
+            final InputStream in = take();
+            try {
+                try {
+                    buffered = new ImmutableRep(contentType, HttpObjectUtil.toByteArray(in, length, exact));
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return buffered;
+    }
+
+    public synchronized boolean isBuffered() {
+        return buffered != null;
+    }
+
+    @Override
+    public void write(OutputStream out) {
+        final InputStream in = stream();
+        try {
+            final byte[] chunk = new byte[CHUNK_SIZE];
+            for (int n = in.read(chunk); n != -1; n = in.read(chunk)) {
+                out.write(chunk, 0, n);
+            }
+            in.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Buffers the body, if it's still there to be read; if it's already gone, just says so (this
+     * is what ends up in logged requests, which mustn't fail for it).
+     */
+    @Override
+    public synchronized String show() {
+        if (isSpent()) return ALREADY_READ;
+        return buffered().show();
+    }
+
+    /**
+     * Compares bodies, buffering this one to do so; once it has been read without being buffered,
+     * there's nothing left to compare, and it's only equal to itself.
+     */
+    @Override
+    public synchronized boolean eq(Representation that) {
+        if (isSpent()) return this == that;
+        return buffered().eq(that);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingRep(" + contentType + "," + (isBuffered() ? show() : "[not-yet-read]") + ")";
+    }
+
+    /**
+     * @return true when the body has been read, and wasn't buffered first, so that there's nothing
+     *         left of it to read
+     */
+    public synchronized boolean isSpent() {
+        return data == null && buffered == null;
+    }
+
+    private InputStream take() {
+        if (data == null) throw new IllegalStateException("The body has already been read; call buffered() before reading it, to be able to read it more than once");
+        final InputStream stream = data;
+        data = null;
+        return stream;
+    }
+}
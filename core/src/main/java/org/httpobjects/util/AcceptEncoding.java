@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.httpobjects.Request;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
+
+/**
+ * Reads <code>Accept-Encoding</code> (RFC 7231), for picking between encodings of the same thing.
+ */
+public final class AcceptEncoding {
+    /**
+     * To go out with anything that might have been encoded otherwise for another client.
+     */
+    public static final HeaderField VARY = new GenericHeaderField("Vary", "Accept-Encoding");
+
+    /**
+     * What's added to the name of something to get the name of the same thing, compressed ahead
+     * of time, by coding; the one to prefer first.
+     */
+    public static final Map<String, String> SIDECAR_EXTENSIONS;
+    static {
+        final Map<String, String> extensions = new LinkedHashMap<String, String>();
+        extensions.put("br", ".br");
+        extensions.put("gzip", ".gz");
+        SIDECAR_EXTENSIONS = Collections.unmodifiableMap(extensions);
+    }
+
+    private AcceptEncoding() {
+    }
+
+    public static HeaderField contentEncoding(String coding) {
+        return new GenericHeaderField("Content-Encoding", coding);
+    }
+
+    /**
+     * @param coding e.g. <code>gzip</code>
+     * @return whether the client will take the coding: it's listed (or, failing that,
+     *         <code>*</code> is) without being given a q of 0
+     */
+    public static boolean accepts(Request req, String coding) {
+        final String acceptEncoding = HttpObjectUtil.headerValue(req, "Accept-Encoding");
+        if (acceptEncoding == null) return false;
+
+        Boolean anything = null;
+        for (String next : acceptEncoding.split(",")) {
+            final String[] parts = next.split(";");
+            final String name = parts[0].trim();
+            final boolean accepted = quality(parts) > 0;
+            if (name.equalsIgnoreCase(coding)) return accepted;
+            if (name.equals("*")) anything = accepted;
+        }
+        return anything != null && anything;
+    }
+
+    private static double quality(String[] parts) {
+        for (int x = 1; x < parts.length; x++) {
+            final String param = parts[x].trim();
+            if (param.startsWith("q=") || param.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.httpobjects.Request;
+
+/**
+ * Keeps assets (e.g. what's served from the classpath) in memory, ready to go: the bytes, their
+ * compressed twins, and their validators.  Names that turned out not to be there are remembered
+ * too, apart from the rest, so that asking for lots of things that don't exist can't push out
+ * the things that do.
+ * <p>
+ * Both are bounded, and lose whatever was used longest ago first.  An asset too big to fit at all
+ * isn't kept; only what there is to know about it without its bytes is (see {@link Oversized}),
+ * again apart from the rest, so that it can be streamed each time without being looked into again.
+ */
+public final class AssetCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * What {@link #get(String)} says about names that are known not to be there.
+     */
+    public static final Asset MISSING = new Asset(null, new byte[0], null, Collections.<Encoded>emptyList());
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Asset> assets = new LinkedHashMap<String, Asset>(16, 0.75f, true);
+    private final LinkedHashMap<String, Asset> missing = new LinkedHashMap<String, Asset>(16, 0.75f, true);
+    private final LinkedHashMap<String, Oversized> oversized = new LinkedHashMap<String, Oversized>(16, 0.75f, true);
+    private long bytes = 0;
+
+    public AssetCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxEntries how many assets to keep (and, separately, how many missing names, and
+     *        how many assets too big to keep)
+     * @param maxBytes how many bytes, all told, the assets kept can come to
+     */
+    public AssetCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the asset; {@link #MISSING} when it's known not to be there; or null when nothing's
+     *         known about it (any more)
+     */
+    public synchronized Asset get(String name) {
+        final Asset asset = assets.get(name);
+        return asset != null ? asset : missing.get(name);
+    }
+
+    /**
+     * @return whether something of the size (bytes and compressed twins together) could be kept
+     */
+    public boolean fits(long size) {
+        return size <= maxBytes;
+    }
+
+    /**
+     * @return whether the asset is being kept; when it doesn't {@link #fits(long) fit}, it isn't
+     */
+    public synchronized boolean put(String name, Asset asset) {
+        missing.remove(name);
+        oversized.remove(name);
+        forget(assets.remove(name));
+        if (!fits(asset.size()) || maxEntries < 1) return false;
+
+        assets.put(name, asset);
+        bytes += asset.size();
+        final Iterator<Asset> eldest = assets.values().iterator();
+        while (assets.size() > maxEntries || bytes > maxBytes) {
+            forget(eldest.next());
+            eldest.remove();
+        }
+        return true;
+    }
+
+    public synchronized void putMissing(String name) {
+        forget(assets.remove(name));
+        oversized.remove(name);
+        missing.put(name, MISSING);
+        final Iterator<Asset> eldest = missing.values().iterator();
+        while (missing.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return what's known about the asset, when it's one that was too big to keep; otherwise null
+     */
+    public synchronized Oversized oversized(String name) {
+        return oversized.get(name);
+    }
+
+    public synchronized void putOversized(String name, Oversized asset) {
+        missing.remove(name);
+        forget(assets.remove(name));
+        oversized.put(name, asset);
+        final Iterator<Oversized> eldest = oversized.values().iterator();
+        while (oversized.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return how many assets (not counting missing or oversized ones) are being kept
+     */
+    public synchronized int size() {
+        return assets.size();
+    }
+
+    /**
+     * @return how many bytes the assets being kept come to
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    private void forget(Asset asset) {
+        if (asset != null) bytes -= asset.size();
+    }
+
+    public static final class Asset {
+        public final String contentType;
+        public final byte[] data;
+        public final ConditionalGet.Validators validators;
+        /**
+         * The same, encoded (e.g. gzipped), the one to prefer first.
+         */
+        public final List<Encoded> encoded;
+
+        private Asset(String contentType, byte[] data, ConditionalGet.Validators validators, List<Encoded> encoded) {
+            this.contentType = contentType;
+            this.data = data;
+            this.validators = validators;
+            this.encoded = encoded;
+        }
+
+        /**
+         * Works out everything there is to know about the bytes up front: their validators, and
+         * their gzipped twin.
+         *
+         * @param lastModified when they were last changed, or -1 when that isn't known
+         */
+        public static Asset of(String contentType, byte[] data, long lastModified) {
+            return of(contentType, data, lastModified, Collections.<String, byte[]>emptyMap());
+        }
+
+        /**
+         * @param precompressed the bytes as already encoded ahead of time, by coding (<code>br</code>,
+         *        <code>gzip</code>); brotli is preferred to gzip, and gzip is only worked out here
+         *        when there isn't one already
+         */
+        public static Asset of(String contentType, byte[] data, long lastModified, Map<String, byte[]> precompressed) {
+            final ConditionalGet.Validators validators = ConditionalGet.of(data, lastModified);
+            final List<Encoded> encoded = new ArrayList<Encoded>();
+            if (precompressed.containsKey("br")) {
+                encoded.add(new Encoded("br", precompressed.get("br"), validators));
+            }
+            final byte[] gzipped = precompressed.containsKey("gzip") ? precompressed.get("gzip") : gzip(data);
+            if (gzipped.length < data.length) {
+                encoded.add(new Encoded("gzip", gzipped, validators));
+            }
+            return new Asset(contentType, data, validators, Collections.unmodifiableList(encoded));
+        }
+
+        /**
+         * @return the encoding to send the client, or null when it's to have the bytes as they are
+         */
+        public Encoded encodedFor(Request req) {
+            for (Encoded next : encoded) {
+                if (AcceptEncoding.accepts(req, next.coding)) return next;
+            }
+            return null;
+        }
+
+        long size() {
+            long size = data.length;
+            for (Encoded next : encoded) size += next.data.length;
+            return size;
+        }
+
+        private static byte[] gzip(byte[] data) {
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                final GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(data);
+                gzip.close();
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * An asset too big to keep, without its bytes: what it is, how to validate it, and which
+     * compressed copies of it there are, which is all it takes to stream it.
+     */
+    public static final class Oversized {
+        public final String contentType;
+        public final ConditionalGet.Validators validators;
+        /**
+         * The validators of its copies compressed ahead of time, by coding; the one to prefer first.
+         */
+        public final Map<String, ConditionalGet.Validators> precompressed;
+
+        public Oversized(String contentType, ConditionalGet.Validators validators, Map<String, ConditionalGet.Validators> precompressed) {
+            this.contentType = contentType;
+            this.validators = validators;
+            this.precompressed = Collections.unmodifiableMap(new LinkedHashMap<String, ConditionalGet.Validators>(precompressed));
+        }
+
+        /**
+         * @return the coding to send the client, or null when it's to have the bytes as they are
+         */
+        public String codingFor(Request req) {
+            for (String next : precompressed.keySet()) {
+                if (AcceptEncoding.accepts(req, next)) return next;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An asset's bytes, encoded.  They're different bytes, so they have validators of their own.
+     */
+    public static final class Encoded {
+        /**
+         * As it goes in Content-Encoding.
+         */
+        public final String coding;
+        public final byte[] data;
+        public final ConditionalGet.Validators validators;
+
+        private Encoded(String coding, byte[] data, ConditionalGet.Validators unencoded) {
+            this.coding = coding;
+            this.data = data;
+            this.validators = unencoded.encoded(coding, data.length);
+        }
+    }
+}
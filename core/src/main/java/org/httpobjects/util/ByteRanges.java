@@ -0,0 +1,340 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.httpobjects.DSL;
+import org.httpobjects.Representation;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.representation.ImmutableRep;
+
+/**
+ * Answers <code>Range</code> requests (RFC 7233) for things whose bytes can be read from anywhere
+ * in them: a 206 with just the bytes asked for (as <code>multipart/byteranges</code>, when there's
+ * more than one range), a 416 when none of them are there to be had, or else a 200 with the lot.
+ * <code>If-Range</code> is checked against the validators (<code>ETag</code>,
+ * <code>Last-Modified</code>) that go out with the response, and every answer says
+ * <code>Accept-Ranges: bytes</code>.
+ */
+public final class ByteRanges {
+    public static final HeaderField ACCEPT_RANGES = new GenericHeaderField("Accept-Ranges", "bytes");
+
+    /**
+     * More ranges than this and the <code>Range</code> header is ignored: that many is more likely
+     * an attempt to have the same bytes sent over and over than anything a real client wants.
+     */
+    public static final int MAX_RANGES = 32;
+
+    private ByteRanges() {
+    }
+
+    /**
+     * @param header whatever else goes out with the response, validators included
+     */
+    public static Response respond(Request req, final FileRep file, HeaderField... header) {
+        return respond(req, new Source() {
+            @Override
+            public long length() {
+                return file.length();
+            }
+
+            @Override
+            public Representation whole() {
+                return file;
+            }
+
+            @Override
+            public Representation slice(long offset, long length) {
+                return new FileRep(file.contentType(), file.file(), file.offset() + offset, length);
+            }
+        }, header);
+    }
+
+    /**
+     * @param data sent as it is (it isn't copied, so it mustn't change)
+     * @param header whatever else goes out with the response, validators included
+     */
+    public static Response respond(Request req, final String contentType, final byte[] data, HeaderField... header) {
+        return respond(req, new Source() {
+            @Override
+            public long length() {
+                return data.length;
+            }
+
+            @Override
+            public Representation whole() {
+                return new ImmutableRep(contentType, data);
+            }
+
+            @Override
+            public Representation slice(final long offset, final long length) {
+                return new Representation() {
+                    @Override
+                    public String contentType() {
+                        return contentType;
+                    }
+
+                    @Override
+                    public void write(OutputStream out) {
+                        try {
+                            out.write(data, (int) offset, (int) length);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+            }
+        }, header);
+    }
+
+    /**
+     * @return the ranges asked for, in order, with those that overlap or abut merged together;
+     *         empty when none of them are within the <code>length</code> bytes there are; or null
+     *         when the header is to be ignored (it isn't for bytes, doesn't parse, or asks for too many)
+     */
+    public static List<Range> parse(String rangeHeader, long length) {
+        final String spec = rangeHeader.trim();
+        if (!spec.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+
+        final String[] specs = spec.substring(6).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        final List<Range> ranges = new ArrayList<Range>();
+        for (String next : specs) {
+            final String s = next.trim();
+            final int dash = s.indexOf('-');
+            if (dash == -1) return null;
+            final String from = s.substring(0, dash).trim();
+            final String to = s.substring(dash + 1).trim();
+            try {
+                if (from.isEmpty()) {
+                    // the last so many bytes
+                    final long suffix = Long.parseLong(to);
+                    if (suffix < 0) return null;
+                    if (suffix > 0 && length > 0) ranges.add(new Range(Math.max(length - suffix, 0), length - 1));
+                } else {
+                    final long first = Long.parseLong(from);
+                    final long last = to.isEmpty() ? Long.MAX_VALUE : Long.parseLong(to);
+                    if (first < 0 || last < first) return null;
+                    if (first < length) ranges.add(new Range(first, Math.min(last, length - 1)));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return coalesce(ranges);
+    }
+
+    /**
+     * @return whether the request's <code>If-Range</code>, if it has one, matches the validators
+     *         going out with the response: an <code>ETag</code> that's strong and the same, or the
+     *         very same <code>Last-Modified</code> date
+     */
+    public static boolean ifRangeMatches(Request req, HeaderField... header) {
+        final String ifRange = HttpObjectUtil.headerValue(req, "If-Range");
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("W/")) return false;
+        final String validator = ifRange.startsWith("\"") ? "ETag" : "Last-Modified";
+        for (HeaderField next : header) {
+            if (next.name().equalsIgnoreCase(validator)) {
+                return next.value().equals(ifRange);
+            }
+        }
+        return false;
+    }
+
+    private static Response respond(Request req, Source source, HeaderField... header) {
+        final long length = source.length();
+        final String range = HttpObjectUtil.headerValue(req, "Range");
+        final List<Range> ranges = range == null || !ifRangeMatches(req, header) ? null : parse(range, length);
+
+        if (ranges == null) {
+            return DSL.OK(source.whole(), HttpObjectUtil.withHeader(header, ACCEPT_RANGES));
+        } else if (ranges.isEmpty()) {
+            return DSL.REQUESTED_RANGE_NOT_SATISFIABLE(DSL.Text("416 Client Error: Requested Range Not Satisfiable"),
+                    HttpObjectUtil.withHeader(header, ACCEPT_RANGES, contentRange("*", length)));
+        } else if (ranges.size() == 1) {
+            final Range only = ranges.get(0);
+            return DSL.PARTIAL_CONTENT(source.slice(only.first, only.length()),
+                    HttpObjectUtil.withHeader(header, ACCEPT_RANGES, contentRange(only.show(), length)));
+        } else {
+            return DSL.PARTIAL_CONTENT(new MultipartByteRanges(source, ranges), HttpObjectUtil.withHeader(header, ACCEPT_RANGES));
+        }
+    }
+
+    private static List<Range> coalesce(List<Range> ranges) {
+        final List<Range> sorted = new ArrayList<Range>(ranges);
+        Collections.sort(sorted, new Comparator<Range>() {
+            @Override
+            public int compare(Range a, Range b) {
+                return Long.compare(a.first, b.first);
+            }
+        });
+        final List<Range> merged = new ArrayList<Range>();
+        for (Range next : sorted) {
+            final Range previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (previous != null && next.first <= previous.last + 1) {
+                merged.set(merged.size() - 1, new Range(previous.first, Math.max(previous.last, next.last)));
+            } else {
+                merged.add(next);
+            }
+        }
+        // nothing was merged, so they can go out in the order they were asked for
+        return merged.size() == ranges.size() ? ranges : merged;
+    }
+
+    private static HeaderField contentRange(String range, long length) {
+        return new GenericHeaderField("Content-Range", "bytes " + range + "/" + length);
+    }
+
+    /**
+     * The bytes from <code>first</code> through <code>last</code>, inclusive.
+     */
+    public static final class Range {
+        public final long first;
+        public final long last;
+
+        public Range(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        public long length() {
+            return last - first + 1;
+        }
+
+        public String show() {
+            return first + "-" + last;
+        }
+
+        @Override
+        public String toString() {
+            return "Range(" + show() + ")";
+        }
+    }
+
+    private interface Source {
+        long length();
+
+        Representation whole();
+
+        Representation slice(long offset, long length);
+    }
+
+    /**
+     * The <code>multipart/byteranges</code> body of a response to more than one range.  Some
+     * servers take it to be self-delimiting (as RFC 2616 had it) and send it with neither a length
+     * nor chunks, so adapters should say how long it is, as they do for a {@link FileRep}.
+     */
+    public static final class MultipartByteRanges implements Representation {
+        private final String boundary = UUID.randomUUID().toString().replace("-", "");
+        private final Source source;
+        private final List<Range> ranges;
+
+        private MultipartByteRanges(Source source, List<Range> ranges) {
+            this.source = source;
+            this.ranges = ranges;
+        }
+
+        @Override
+        public String contentType() {
+            return "multipart/byteranges; boundary=" + boundary;
+        }
+
+        /**
+         * @return how many bytes the body comes to, parts and boundaries together
+         */
+        public long length() {
+            long length = trailer().length;
+            for (Range next : ranges) {
+                length += partHeader(next).length + next.length() + 2;
+            }
+            return length;
+        }
+
+        /**
+         * @return the body, in the order it goes out: each part's header, then the part itself (a
+         *         {@link FileRep} when the ranges are of a file), and so on, ending with the trailer;
+         *         so that an adapter can send each of them the way it sends that kind of representation
+         */
+        public List<Representation> pieces() {
+            final List<Representation> pieces = new ArrayList<Representation>(ranges.size() * 3 + 1);
+            for (Range next : ranges) {
+                pieces.add(new ImmutableRep(null, partHeader(next)));
+                pieces.add(source.slice(next.first, next.length()));
+                pieces.add(new ImmutableRep(null, ascii("\r\n")));
+            }
+            pieces.add(new ImmutableRep(null, trailer()));
+            return pieces;
+        }
+
+        @Override
+        public void write(OutputStream out) {
+            for (Representation piece : pieces()) {
+                piece.write(out);
+            }
+        }
+
+        private byte[] partHeader(Range range) {
+            final String contentType = source.whole().contentType();
+            return ascii("--" + boundary + "\r\n" +
+                    (contentType == null ? "" : "Content-Type: " + contentType + "\r\n") +
+                    "Content-Range: bytes " + range.show() + "/" + source.length() + "\r\n\r\n");
+        }
+
+        private byte[] trailer() {
+            return ascii("--" + boundary + "--\r\n");
+        }
+
+        private static byte[] ascii(String s) {
+            return s.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -40,10 +40,14 @@ package org.httpobjects.util;
 import org.httpobjects.HttpObject;
 import org.httpobjects.Request;
 import org.httpobjects.Response;
+import org.httpobjects.util.impl.ClassResourceLoader;
+import org.httpobjects.util.impl.ResourceLoader;
+import org.httpobjects.util.impl.WrapperForInsecureClassloader;
 
 public class ClasspathResourceObject extends HttpObject {
 	private final Class<?> clazz;
 	private final String contentType, resourceName;
+	private ConditionalGet.Validators validators;
 
 	public ClasspathResourceObject(String pathPattern, String resourceName, Class<?> clazz) {
 		this(pathPattern, new MimeTypeTool().guessMimeTypeFromName(resourceName), resourceName, clazz);
@@ -58,7 +62,23 @@ public class ClasspathResourceObject extends HttpObject {
 
 	@Override
 	public Response get(Request req) {
-		return OK(FromClasspath(contentType, resourceName, clazz));
+		final ConditionalGet.Validators validators = validators();
+		if(ConditionalGet.isNotModified(req, validators)){
+			return ConditionalGet.notModified(validators);
+		}
+		return OK(FromClasspath(contentType, resourceName, clazz), validators.header());
+	}
+	
+	/**
+	 * Worked out the first time they're needed, from the resource as it was then.
+	 */
+	private synchronized ConditionalGet.Validators validators() {
+		if(validators==null){
+			final ResourceLoader loader = new WrapperForInsecureClassloader(new ClassResourceLoader(clazz));
+			validators = ConditionalGet.of(HttpObjectUtil.toByteArray(FromClasspath(contentType, resourceName, clazz)),
+			                               ConditionalGet.lastModified(loader.getResource(resourceName)));
+		}
+		return validators;
 	}
 
 }
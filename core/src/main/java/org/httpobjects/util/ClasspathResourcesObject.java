@@ -37,11 +37,16 @@
  */
 package org.httpobjects.util;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.httpobjects.HttpObject;
 import org.httpobjects.Request;
 import org.httpobjects.Response;
+import org.httpobjects.header.HeaderField;
 import org.httpobjects.impl.fn.FunctionalJava;
 import org.httpobjects.util.impl.ClassResourceLoader;
 import org.httpobjects.util.impl.ResourceLoader;
@@ -49,14 +54,26 @@ import org.httpobjects.util.impl.WrapperForInsecureClassloader;
 
 public class ClasspathResourcesObject  extends HttpObject {
     private static final String PATH_VAR_NAME = "resource";
+    private static final MimeTypeTool MIME_TYPES = new MimeTypeTool();
 	private final ResourceLoader loader;
+	private final AssetCache cache;
 	private final String prefix;
+	/** what the names are looked up relative to, which goes into their keys in the cache */
+	private final Class<?> relativeTo;
 	
 	public ClasspathResourcesObject(String pathPattern, Class<?> relativeTo) {
 		this(pathPattern, relativeTo, "");
 	}
 
 	public ClasspathResourcesObject(String pathPattern, Class<?> relativeTo, String prefix) {
+		this(pathPattern, relativeTo, prefix, new AssetCache());
+	}
+
+	/**
+	 * @param cache where what's been looked up (or found not to be there) is kept, so it can be
+	 *        served from memory the next time
+	 */
+	public ClasspathResourcesObject(String pathPattern, Class<?> relativeTo, String prefix, AssetCache cache) {
 		super(pathPattern, null);
 		
 		if(!hasExpectedPathVar()) {
@@ -66,10 +83,21 @@ public class ClasspathResourcesObject  extends HttpObject {
 		}
 		this.prefix = (!prefix.equals("") && !prefix.endsWith("/"))? prefix + "/" : prefix;
 		this.loader = new WrapperForInsecureClassloader(new ClassResourceLoader(relativeTo));
+		this.relativeTo = relativeTo;
+		this.cache = cache;
 	}
 
 	
 	
+	/**
+	 * @return what the resource is kept under in the cache: a name is looked up relative to the
+	 *         class's package, so the same one can be a different resource (or none) for an object
+	 *         loading relative to another class
+	 */
+	static String cacheKey(Class<?> relativeTo, String name) {
+		return relativeTo.getName() + ":" + name;
+	}
+
 	private boolean hasExpectedPathVar() {
        return FunctionalJava
             .asSeq(pattern().varNames())
@@ -81,17 +109,143 @@ public class ClasspathResourcesObject  extends HttpObject {
 		final String resource = req.path().valueFor(PATH_VAR_NAME);
 		if(isNullOrEmpty(resource) ||  resource.endsWith("/")) return null;
 		
-		final InputStream data = loader.getResourceAsStream(prefix + resource);
+		final String name = prefix + resource;
+		final String key = cacheKey(relativeTo, name);
+		final AssetCache.Asset known = cache.get(key);
+		if(known==AssetCache.MISSING) return null;
+		
+		if(known!=null) return respond(req, known);
+		
+		final AssetCache.Oversized oversized = cache.oversized(key);
+		if(oversized!=null) return stream(req, name, oversized);
 		
-		if(data!=null){
-			return OK(Bytes(mimeTypeFor(resource), data));
-		}else{
+		return load(req, key, name, resource);
+	}
+	
+	/**
+	 * Looks the resource up, and keeps it (or, when it's too big for the cache, what there is to
+	 * know about it without its bytes).  When its size can't be told ahead of time, it's read
+	 * into memory the once, to find out.
+	 */
+	private Response load(Request req, String key, String name, String resource) {
+		final InputStream data = loader.getResourceAsStream(name);
+		if(data==null){
+			cache.putMissing(key);
 			return null;
 		}
+		final URL location = loader.getResource(name);
+		final long lastModified = ConditionalGet.lastModified(location);
+		if(!cache.fits(lengthOf(location))){
+			final ConditionalGet.Validators validators = ConditionalGet.of(data, lastModified);
+			final AssetCache.Oversized oversized = new AssetCache.Oversized(mimeTypeFor(resource), validators, precompressedValidators(name, validators));
+			cache.putOversized(key, oversized);
+			return stream(req, name, oversized);
+		}
+		
+		final Map<String, byte[]> precompressed = precompressed(name);
+		final AssetCache.Asset asset = AssetCache.Asset.of(mimeTypeFor(resource), readFully(data), lastModified, precompressed);
+		if(!cache.put(key, asset)){
+			final Map<String, ConditionalGet.Validators> encoded = new LinkedHashMap<String, ConditionalGet.Validators>();
+			for(Map.Entry<String, byte[]> next : precompressed.entrySet()){
+				encoded.put(next.getKey(), asset.validators.encoded(next.getKey(), next.getValue().length));
+			}
+			cache.putOversized(key, new AssetCache.Oversized(asset.contentType, asset.validators, encoded));
+		}
+		return respond(req, asset);
+	}
+	
+	/**
+	 * Streams it from the classpath, as it's too big to keep.  Any ranges asked for aren't cut 
+	 * from it: the client gets the whole thing.
+	 */
+	private Response stream(Request req, String name, AssetCache.Oversized asset) {
+		final HeaderField[] vary = asset.precompressed.isEmpty() ? new HeaderField[]{} : new HeaderField[]{AcceptEncoding.VARY};
+		final String coding = asset.codingFor(req);
+		final ConditionalGet.Validators validators = coding==null ? asset.validators : asset.precompressed.get(coding);
+		if(ConditionalGet.isNotModified(req, validators)){
+			return ConditionalGet.notModified(validators, vary);
+		}
+		
+		final InputStream data = loader.getResourceAsStream(coding==null ? name : name + AcceptEncoding.SIDECAR_EXTENSIONS.get(coding));
+		if(data==null) return null;
+		final HeaderField[] header = coding==null ? vary : new HeaderField[]{AcceptEncoding.contentEncoding(coding), AcceptEncoding.VARY};
+		return OK(Bytes(asset.contentType, data), HttpObjectUtil.withHeader(validators.header(), header));
+	}
+	
+	/**
+	 * @return the validators of whatever was compressed ahead of time and put alongside, by coding
+	 */
+	private Map<String, ConditionalGet.Validators> precompressedValidators(String name, ConditionalGet.Validators unencoded) {
+		final Map<String, ConditionalGet.Validators> precompressed = new LinkedHashMap<String, ConditionalGet.Validators>();
+		for(Map.Entry<String, String> next : AcceptEncoding.SIDECAR_EXTENSIONS.entrySet()){
+			final URL location = loader.getResource(name + next.getValue());
+			if(location!=null){
+				precompressed.put(next.getKey(), unencoded.encoded(next.getKey(), lengthOf(location)));
+			}
+		}
+		return precompressed;
+	}
+	
+	/**
+	 * @return how many bytes there are at the location, or -1 when that can't be told
+	 */
+	private static long lengthOf(URL location) {
+		if(location==null) return -1;
+		try {
+			return location.openConnection().getContentLengthLong();
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * @return whatever was compressed ahead of time and put alongside (e.g. <code>app.js.br</code>
+	 *         and <code>app.js.gz</code> next to <code>app.js</code>), by coding
+	 */
+	private Map<String, byte[]> precompressed(String name) {
+		final Map<String, byte[]> precompressed = new LinkedHashMap<String, byte[]>();
+		for(Map.Entry<String, String> next : AcceptEncoding.SIDECAR_EXTENSIONS.entrySet()){
+			final InputStream data = loader.getResourceAsStream(name + next.getValue());
+			if(data!=null){
+				precompressed.put(next.getKey(), readFully(data));
+			}
+		}
+		return precompressed;
+	}
+	
+	private static Response respond(Request req, AssetCache.Asset asset) {
+		final HeaderField[] vary = asset.encoded.isEmpty() ? new HeaderField[]{} : new HeaderField[]{AcceptEncoding.VARY};
+		final AssetCache.Encoded encoded = asset.encodedFor(req);
+		if(encoded!=null){
+			if(ConditionalGet.isNotModified(req, encoded.validators)){
+				return ConditionalGet.notModified(encoded.validators, vary);
+			}
+			// any ranges are of the encoded bytes, which is what the client is being sent
+			return ByteRanges.respond(req, asset.contentType, encoded.data, 
+			                          HttpObjectUtil.withHeader(encoded.validators.header(), AcceptEncoding.contentEncoding(encoded.coding), AcceptEncoding.VARY));
+		}
+		
+		if(ConditionalGet.isNotModified(req, asset.validators)){
+			return ConditionalGet.notModified(asset.validators, vary);
+		}
+		// there's no reading from the middle of a jar entry, so any ranges are cut from the whole thing
+		return ByteRanges.respond(req, asset.contentType, asset.data, HttpObjectUtil.withHeader(asset.validators.header(), vary));
+	}
+
+	private static byte[] readFully(InputStream data) {
+		try {
+			try {
+				return HttpObjectUtil.toByteArray(data, -1);
+			} finally {
+				data.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	private static String mimeTypeFor(String resource){
-		return ieCompat(new MimeTypeTool().guessMimeTypeFromName(resource));
+		return ieCompat(MIME_TYPES.guessMimeTypeFromName(resource));
 	}
 
 	private static String ieCompat(String t) {
@@ -105,11 +259,17 @@ public class ClasspathResourcesObject  extends HttpObject {
 	public static final class Builder {
 		final Class<?> clazz;
 		final String resourcePattern;
+		final AssetCache cache;
 		
 		public Builder(Class<?> clazz, String resourcePattern) {
+			this(clazz, resourcePattern, null);
+		}
+
+		private Builder(Class<?> clazz, String resourcePattern, AssetCache cache) {
 			super();
 			this.clazz = clazz;
 			this.resourcePattern = resourcePattern;
+			this.cache = cache;
 		}
 
 		public ClasspathResourcesObject servedAt(String pathPattern) {
@@ -119,13 +279,17 @@ public class ClasspathResourcesObject  extends HttpObject {
 			}else{
 				p = pathPattern;
 			}
-			return new ClasspathResourcesObject(p + "/{resource*}", clazz, resourcePattern);
+			return new ClasspathResourcesObject(p + "/{resource*}", clazz, resourcePattern, cache!=null ? cache : new AssetCache());
 		}
 
 		public Builder loadedVia(Class<?> clazz) {
-			return new Builder(clazz, resourcePattern);
+			return new Builder(clazz, resourcePattern, cache);
+		}
+		
+		public Builder cachedIn(AssetCache cache) {
+			return new Builder(clazz, resourcePattern, cache);
 		}
 		
 	}
 
-}
\ No newline at end of file
+}
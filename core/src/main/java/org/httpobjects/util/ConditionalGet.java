@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
+
+/**
+ * Conditional GET (RFC 7232), for things that seldom change: each is given a strong ETag (a hash
+ * of its content) and a Last-Modified date, and a client that already has the current version
+ * gets a 304 rather than the whole thing again.  Working out the ETag means reading everything,
+ * so the {@link Validators} are meant to be worked out once and kept; checking a request against
+ * them doesn't need the content at all.
+ */
+public final class ConditionalGet {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * What a client can check its copy against.
+     */
+    public static final class Validators {
+        /**
+         * The ETag, quotes and all.
+         */
+        public final String etag;
+        /**
+         * When it was last changed, or -1 when that isn't known.
+         */
+        public final long lastModified;
+        /**
+         * How many bytes there are.
+         */
+        public final long length;
+
+        public Validators(String etag, long lastModified, long length) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        /**
+         * @return the ETag and (when it's known) Last-Modified fields, to go out with the response
+         */
+        public HeaderField[] header() {
+            final List<HeaderField> fields = new ArrayList<HeaderField>();
+            fields.add(new GenericHeaderField("ETag", etag));
+            if (lastModified > 0) {
+                fields.add(new GenericHeaderField("Last-Modified", HttpObjectUtil.httpDate(lastModified)));
+            }
+            return fields.toArray(new HeaderField[fields.size()]);
+        }
+
+        /**
+         * @param coding as it goes in Content-Encoding
+         * @param length how many bytes there are once encoded
+         * @return validators for the same content, encoded; they're different bytes, so they get a tag of their own
+         */
+        public Validators encoded(String coding, long length) {
+            return new Validators(etag.substring(0, etag.length() - 1) + "-" + coding + "\"", lastModified, length);
+        }
+    }
+
+    /**
+     * @param lastModified when it was last changed, or -1 when that isn't known
+     */
+    public static Validators of(byte[] data, long lastModified) {
+        final MessageDigest digest = digest();
+        digest.update(data);
+        return new Validators(etag(digest), lastModified, data.length);
+    }
+
+    /**
+     * Reads the stream to the end (and closes it), hashing it as it goes, so it doesn't have to
+     * be held in memory.
+     *
+     * @param lastModified when it was last changed, or -1 when that isn't known
+     */
+    public static Validators of(InputStream data, long lastModified) {
+        try {
+            try {
+                final MessageDigest digest = digest();
+                final byte[] chunk = new byte[CHUNK_SIZE];
+                long length = 0;
+                for (int n = data.read(chunk); n != -1; n = data.read(chunk)) {
+                    digest.update(chunk, 0, n);
+                    length += n;
+                }
+                return new Validators(etag(digest), lastModified, length);
+            } finally {
+                data.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the whole file, to hash it.
+     */
+    public static Validators of(File file) {
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        try {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                final MessageDigest digest = digest();
+                final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                while (channel.read(chunk) != -1) {
+                    chunk.flip();
+                    digest.update(chunk);
+                    chunk.clear();
+                }
+                return new Validators(etag(digest), lastModified, length);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Doesn't read the file: the tag is made from its size and date, so it changes whenever they do
+     * (but not if the content changes without either changing).
+     */
+    public static Validators ofSizeAndDate(File file) {
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        return new Validators("\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"", lastModified, length);
+    }
+
+    /**
+     * @return whether the validators still hold for the file, as far as its size and date go
+     */
+    public static boolean stillHold(Validators validators, File file) {
+        return validators.lastModified == file.lastModified() && validators.length == file.length();
+    }
+
+    /**
+     * @return when the resource (a file, or an entry in a jar) was last changed, or -1 when that
+     *         can't be told
+     */
+    public static long lastModified(URL resource) {
+        if (resource == null) return -1;
+        try {
+            if (resource.getProtocol().equals("file")) {
+                final long lastModified = new File(resource.toURI()).lastModified();
+                return lastModified == 0 ? -1 : lastModified;
+            }
+            final URLConnection connection = resource.openConnection();
+            if (connection instanceof JarURLConnection) {
+                final JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                return entry == null ? -1 : entry.getTime();
+            }
+            return -1;
+        } catch (IOException e) {
+            return -1;
+        } catch (URISyntaxException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return whether the client already has what the validators describe: one of the tags in its
+     *         <code>If-None-Match</code> is this one (or it's <code>*</code>), or, when it didn't
+     *         send that, nothing has changed since its <code>If-Modified-Since</code>
+     */
+    public static boolean isNotModified(Request req, Validators validators) {
+        final String ifNoneMatch = HttpObjectUtil.headerValue(req, "If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String next : ifNoneMatch.split(",")) {
+                final String tag = next.trim();
+                if (tag.equals("*") || opaque(tag).equals(validators.etag)) return true;
+            }
+            return false;
+        }
+        final String ifModifiedSince = HttpObjectUtil.headerValue(req, "If-Modified-Since");
+        if (ifModifiedSince != null && validators.lastModified > 0) {
+            final long since = HttpObjectUtil.parseHttpDate(ifModifiedSince);
+            // dates only go to the second
+            return since != -1 && validators.lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * @param header whatever else the full response would have had that has a bearing on caching
+     *        (e.g. Vary)
+     * @return a 304, with the validators
+     */
+    public static Response notModified(Validators validators, HeaderField... header) {
+        final List<HeaderField> fields = new ArrayList<HeaderField>(Arrays.asList(validators.header()));
+        fields.addAll(Arrays.asList(header));
+        return new Response(ResponseCode.NOT_MODIFIED, null, fields.toArray(new HeaderField[fields.size()]));
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String etag(MessageDigest digest) {
+        final byte[] hash = digest.digest();
+        final StringBuilder tag = new StringBuilder("\"");
+        // half the hash is plenty to tell versions apart
+        for (int x = 0; x < 16; x++) {
+            tag.append(Character.forDigit((hash[x] >> 4) & 0xf, 16)).append(Character.forDigit(hash[x] & 0xf, 16));
+        }
+        return tag.append('"').toString();
+    }
+}
@@ -38,21 +38,55 @@
 package org.httpobjects.util;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.httpobjects.HttpObject;
 import org.httpobjects.Request;
 import org.httpobjects.Response;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
 
-public class FilesystemResourcesObject  extends HttpObject {
+public class FilesystemResourcesObject  extends HttpObject implements RouteCache.Uncacheable {
+	/**
+	 * How many files' validators are kept by default.
+	 */
+	public static final int DEFAULT_MAX_VALIDATORS = 10000;
+	/**
+	 * Files bigger than this (16MB) are tagged by their size and date by default, rather than hashed.
+	 */
+	public static final long DEFAULT_MAX_HASHED_BYTES = 16 * 1024 * 1024;
+	
+	private static final MimeTypeTool MIME_TYPES = new MimeTypeTool();
 	private final File relativeTo;
+	private final int maxValidators;
+	private final long maxHashedBytes;
+	/** the least recently used go first, once there are too many; guarded by itself */
+	private final Map<File, FutureTask<ConditionalGet.Validators>> validators;
 	
 	public FilesystemResourcesObject(String pathPattern, File relativeTo) {
+		this(pathPattern, relativeTo, DEFAULT_MAX_VALIDATORS, DEFAULT_MAX_HASHED_BYTES);
+	}
+	
+	/**
+	 * @param maxValidators how many files' validators to keep; past that, the least recently used are dropped (and worked out again when next asked for)
+	 * @param maxHashedBytes files bigger than this are tagged by their size and date instead of being read through and hashed
+	 */
+	public FilesystemResourcesObject(String pathPattern, File relativeTo, int maxValidators, long maxHashedBytes) {
 		super(pathPattern, null);
 		this.relativeTo = relativeTo;
+		this.maxValidators = maxValidators;
+		this.maxHashedBytes = maxHashedBytes;
+		this.validators = new LinkedHashMap<File, FutureTask<ConditionalGet.Validators>>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, FutureTask<ConditionalGet.Validators>> eldest) {
+				return size() > FilesystemResourcesObject.this.maxValidators;
+			}
+		};
 	}
 	
 	@Override
@@ -67,12 +101,98 @@ public class FilesystemResourcesObject  extends HttpObject {
 		}
 		
 		if(path.exists() && path.isFile()){
-			return OK(Bytes(mimeTypeFor(resource), openStream(path)));
+			final Map<String, File> sidecars = sidecarsOf(path);
+			final HeaderField[] vary = sidecars.isEmpty() ? new HeaderField[]{} : new HeaderField[]{AcceptEncoding.VARY};
+			
+			String coding = null;
+			for(String next : sidecars.keySet()){
+				if(AcceptEncoding.accepts(req, next)){
+					coding = next;
+					break;
+				}
+			}
+			final File file = coding==null ? path : sidecars.get(coding);
+			final HeaderField[] header = coding==null ? vary : new HeaderField[]{AcceptEncoding.contentEncoding(coding), AcceptEncoding.VARY};
+			
+			final ConditionalGet.Validators validators = validatorsFor(file);
+			if(ConditionalGet.isNotModified(req, validators)){
+				return ConditionalGet.notModified(validators, vary);
+			}
+			return ByteRanges.respond(req, new FileRep(mimeTypeFor(resource), file), HttpObjectUtil.withHeader(validators.header(), header));
 		}else{
 			return null;
 		}
 	}
 	
+	/**
+	 * @return the compressed copies made ahead of time (e.g. <code>app.js.br</code> and 
+	 *         <code>app.js.gz</code> next to <code>app.js</code>), by coding; any older than the 
+	 *         file itself are out of date, and left out
+	 */
+	private static Map<String, File> sidecarsOf(File path) {
+		final Map<String, File> sidecars = new LinkedHashMap<String, File>();
+		for(Map.Entry<String, String> next : AcceptEncoding.SIDECAR_EXTENSIONS.entrySet()){
+			final File sidecar = new File(path.getPath() + next.getValue());
+			if(sidecar.isFile() && sidecar.lastModified() >= path.lastModified()){
+				sidecars.put(next.getKey(), sidecar);
+			}
+		}
+		return sidecars;
+	}
+	
+	/**
+	 * The file is hashed the first time round, and again only once its size or date changes; when
+	 * several requests ask at once, only one of them does the hashing and the rest wait for it.  The
+	 * hashing is done outside the lock, so that requests for other files don't wait on it.
+	 */
+	private ConditionalGet.Validators validatorsFor(final File path) {
+		final FutureTask<ConditionalGet.Validators> known;
+		synchronized(validators){
+			known = validators.get(path);
+		}
+		if(known!=null){
+			final ConditionalGet.Validators cached = await(path, known);
+			if(ConditionalGet.stillHold(cached, path)) return cached;
+		}
+		
+		final FutureTask<ConditionalGet.Validators> fresh = new FutureTask<ConditionalGet.Validators>(new Callable<ConditionalGet.Validators>() {
+			@Override
+			public ConditionalGet.Validators call() {
+				return path.length() > maxHashedBytes ? ConditionalGet.ofSizeAndDate(path) : ConditionalGet.of(path);
+			}
+		});
+		final FutureTask<ConditionalGet.Validators> task;
+		synchronized(validators){
+			final FutureTask<ConditionalGet.Validators> current = validators.get(path);
+			if(current!=null && current!=known){
+				// someone else got there first
+				task = current;
+			}else{
+				validators.put(path, fresh);
+				task = fresh;
+			}
+		}
+		if(task==fresh) fresh.run();
+		return await(path, task);
+	}
+	
+	/**
+	 * @return what the task worked out; when it failed, it's forgotten, so the next request tries again
+	 */
+	private ConditionalGet.Validators await(File path, FutureTask<ConditionalGet.Validators> task) {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			synchronized(validators){
+				if(validators.get(path)==task) validators.remove(path);
+			}
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+	
 	private boolean isBelow(java.io.File path, java.io.File dir) {
 	    try {
 	        final File pdir = dir.getCanonicalFile();
@@ -88,16 +208,8 @@ public class FilesystemResourcesObject  extends HttpObject {
 	    }
 	}
 
-    private InputStream openStream(File path){
-		try {
-			return new FileInputStream(path);
-		} catch (FileNotFoundException e) {
-			throw new RuntimeException(e);
-		}
-	}
-
 	private static String mimeTypeFor(String resource){
-		return ieCompat(new MimeTypeTool().guessMimeTypeFromName(resource));
+		return ieCompat(MIME_TYPES.guessMimeTypeFromName(resource));
 	}
 
 	private static String ieCompat(String t) {
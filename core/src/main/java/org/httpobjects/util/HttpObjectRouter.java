@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import org.httpobjects.AsyncHttpObject;
+
+import org.httpobjects.DSL;
+import org.httpobjects.HttpObject;
+import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.header.response.AllowField;
+import org.httpobjects.path.Path;
+import org.httpobjects.path.PathPattern;
+import org.httpobjects.path.PathPatternIndex;
+
+/**
+ * Picks which {@link HttpObject}s a path should be offered to.  The patterns are compiled once, up
+ * front, into a {@link PathPatternIndex}; routing a path then only visits the objects whose
+ * patterns actually match it, in the order they were given, and parses the path once for each.
+ * <p>
+ * Which verbs each object overrides is worked out up front too, so a request for a verb an object
+ * doesn't handle gets its default response straight away (or skips past it, when that's null)
+ * without the object being invoked.
+ * <p>
+ * Given a {@link RouteCache}, it also remembers where recent paths ended up.
+ */
+public class HttpObjectRouter {
+    
+    public interface Attempt {
+        /**
+         * @return the response, or null to move on to the next object that matches
+         */
+        Response attempt(HttpObject object, Path path);
+    }
+    
+    public interface AsyncAttempt {
+        /**
+         * @return the response, which may turn out to be null to move on to the next object that matches
+         */
+        CompletionStage<Response> attempt(HttpObject object, Path path);
+    }
+    
+    private final HttpObject[] objects;
+    private final PathPatternIndex index;
+    /** what each object does with each verb, by its place */
+    private final Verbs[] verbs;
+    private final RouteCache cache;
+    
+    public HttpObjectRouter(HttpObject ... objects) {
+        this(Arrays.asList(objects));
+    }
+    
+    public HttpObjectRouter(List<HttpObject> objects) {
+        this(objects, null);
+    }
+    
+    /**
+     * @param cache where to remember recent routes, or null not to
+     */
+    public HttpObjectRouter(List<HttpObject> objects, RouteCache cache) {
+        this.cache = cache;
+        this.objects = objects.toArray(new HttpObject[objects.size()]);
+        this.verbs = new Verbs[this.objects.length];
+        
+        final List<PathPattern> patterns = new ArrayList<PathPattern>(objects.size());
+        for(int x=0;x<this.objects.length;x++){
+            final HttpObject next = this.objects[x];
+            patterns.add(next.pattern());
+            verbs[x] = new Verbs(next);
+        }
+        this.index = new PathPatternIndex(patterns);
+    }
+    
+    /**
+     * Which verbs an object handles, and what it answers the rest with.
+     */
+    private static final class Verbs {
+        final EnumSet<Method> implemented;
+        final Response unimplemented;
+        
+        Verbs(HttpObject object) {
+            this.implemented = HttpObjectUtil.implementedMethods(object);
+            this.unimplemented = unimplementedResponse(object.defaultResponse(), implemented);
+        }
+        
+        /**
+         * @return whether the object is to be offered a request with the method (which it always
+         *         is, when there isn't one)
+         */
+        boolean handle(Method method) {
+            return method==null || implemented.contains(method);
+        }
+    }
+    
+    /**
+     * A bare 405 (which is what {@link HttpObject}s give by default) gets told which verbs are
+     * actually allowed.
+     */
+    private static Response unimplementedResponse(Response defaultResponse, EnumSet<Method> implemented) {
+        if(defaultResponse==null || 
+                !defaultResponse.code().eq(ResponseCode.METHOD_NOT_ALLOWED) || 
+                hasAllowField(defaultResponse)){
+            return defaultResponse;
+        }else{
+            final Method[] allowed = implemented.toArray(new Method[implemented.size()]);
+            return DSL.METHOD_NOT_ALLOWED(defaultResponse.representation(), allowed);
+        }
+    }
+    
+    private static boolean hasAllowField(Response response) {
+        for(HeaderField field : response.header()){
+            if(field instanceof AllowField) return true;
+        }
+        return false;
+    }
+    
+    public List<HttpObject> objects() {
+        return Collections.unmodifiableList(Arrays.asList(objects));
+    }
+    
+    /**
+     * @return the object that would be offered a request for the path first, without offering it
+     *         (e.g. to see to its body limit before the body is read); or null when the request
+     *         isn't going to be offered to any object
+     */
+    public HttpObject firstMatch(String path, Method method) {
+        if(path==null) return null;
+        for(int position : index.candidates(path)){
+            if(index.match(position, path)!=null){
+                if(verbs[position].handle(method)) return objects[position];
+                // the default response is the answer
+                if(verbs[position].unimplemented!=null) return null;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Offers the path to each matching object in turn, until one of them gives a response.
+     * 
+     * @return the first non-null response, or null if there wasn't one
+     */
+    public Response route(String path, Attempt attempt) {
+        return route(path, null, attempt);
+    }
+    
+    /**
+     * Like {@link #route(String, Attempt)}, but objects that don't implement the method aren't
+     * offered the request; their default response is used in its place.
+     * 
+     * @param method the request's method, or null to offer it to every matching object
+     */
+    public Response route(String path, Method method, Attempt attempt) {
+        if(cache==null || path==null){
+            return route(path, method, attempt, null);
+        }
+        
+        final RouteCache.Entry cached = cache.get(method, path);
+        if(cached!=null){
+            final Response response = respond(cached.position, cached.path, method, attempt);
+            if(response!=null) return response;
+            cache.remove(method, path);
+        }
+        
+        final RouteCache.Entry[] winner = new RouteCache.Entry[1];
+        final Response response = route(path, method, attempt, winner);
+        if(winner[0]!=null) cache.put(method, path, winner[0]);
+        return response;
+    }
+    
+    /**
+     * @param winner where to put the route that was taken, if it can be cached (or null when
+     *        that's not wanted)
+     */
+    private Response route(String path, Method method, Attempt attempt, RouteCache.Entry[] winner) {
+        boolean cacheable = true;
+        for(int position : index.candidates(path)){
+            final Path match = index.match(position, path);
+            if(match!=null){
+                final Response response = respond(position, match, method, attempt);
+                cacheable &= !(objects[position] instanceof RouteCache.Uncacheable);
+                if(response!=null){
+                    if(winner!=null && cacheable) winner[0] = new RouteCache.Entry(position, match);
+                    return response;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Like {@link #route(String, Method, Attempt)}, but for attempts that may answer later.  The
+     * next matching object is only offered the request once the one before it has turned it down.
+     * 
+     * @return the first non-null response, or null if there wasn't one
+     */
+    public CompletionStage<Response> routeAsync(final String path, final Method method, final AsyncAttempt attempt) {
+        final RouteCache.Entry cached = cache==null || path==null ? null : cache.get(method, path);
+        if(cached==null){
+            return routeAsync(path, method, attempt, index.candidates(path), 0, true);
+        }
+        
+        return respondAsync(cached.position, cached.path, method, attempt).thenCompose(new Function<Response, CompletionStage<Response>>() {
+            @Override
+            public CompletionStage<Response> apply(Response response) {
+                if(response!=null) return AsyncHttpObject.completed(response);
+                cache.remove(method, path);
+                return routeAsync(path, method, attempt, index.candidates(path), 0, true);
+            }
+        });
+    }
+    
+    /**
+     * Offers the request to the matching objects from the given one on.
+     * 
+     * @param cacheable whether none of the objects it has been through so far were uncacheable
+     */
+    private CompletionStage<Response> routeAsync(final String path, final Method method, final AsyncAttempt attempt, 
+                                                 final int[] candidates, int from, boolean cacheable) {
+        for(int x=from;x<candidates.length;x++){
+            final int position = candidates[x];
+            final Path match = index.match(position, path);
+            if(match!=null){
+                final int next = x + 1;
+                final boolean stillCacheable = cacheable && !(objects[position] instanceof RouteCache.Uncacheable);
+                return respondAsync(position, match, method, attempt).thenCompose(new Function<Response, CompletionStage<Response>>() {
+                    @Override
+                    public CompletionStage<Response> apply(Response response) {
+                        if(response==null){
+                            return routeAsync(path, method, attempt, candidates, next, stillCacheable);
+                        }
+                        if(cache!=null && path!=null && stillCacheable){
+                            cache.put(method, path, new RouteCache.Entry(position, match));
+                        }
+                        return AsyncHttpObject.completed(response);
+                    }
+                });
+            }
+        }
+        return AsyncHttpObject.completed(null);
+    }
+    
+    private CompletionStage<Response> respondAsync(int position, Path match, Method method, AsyncAttempt attempt) {
+        if(verbs[position].handle(method)){
+            return attempt.attempt(objects[position], match);
+        }else{
+            return AsyncHttpObject.completed(verbs[position].unimplemented);
+        }
+    }
+    
+    private Response respond(int position, Path match, Method method, Attempt attempt) {
+        if(verbs[position].handle(method)){
+            return attempt.attempt(objects[position], match);
+        }else{
+            return verbs[position].unimplemented;
+        }
+    }
+}
@@ -39,14 +39,33 @@ package org.httpobjects.util;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionStage;
 
+import org.httpobjects.AsyncHttpObject;
 import org.httpobjects.HttpObject;
 import org.httpobjects.Representation;
 import org.httpobjects.Request;
 import org.httpobjects.Response;
+import org.httpobjects.header.HeaderField;
 
 public class HttpObjectUtil {
+    private static final int READ_CHUNK_SIZE = 8192;
+    /** as much as is set aside up front on the strength of a length that's only claimed (e.g. by a client) */
+    private static final int MAX_PRESIZED_LENGTH = 64 * 1024;
+    /** the most some VMs will allocate */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
 
     public static Response invokeMethod(HttpObject object, final Method m, final Request input) {
         final Response output;
@@ -81,6 +100,70 @@ public class HttpObjectUtil {
         return output;
     }
 
+    /**
+     * Like {@link #invokeMethod(HttpObject, Method, Request)}, but an {@link AsyncHttpObject} is
+     * given the chance to answer later.  Any other object answers right away, on this thread.
+     */
+    public static CompletionStage<Response> invokeMethodAsync(HttpObject object, final Method m, final Request input) {
+        if(!(object instanceof AsyncHttpObject)){
+            return AsyncHttpObject.completed(invokeMethod(object, m, input));
+        }
+        final AsyncHttpObject async = (AsyncHttpObject) object;
+        final CompletionStage<Response> output;
+        switch(m){
+        case GET:
+            output = async.getAsync(input);
+            break;
+        case DELETE:
+            output = async.deleteAsync(input);
+            break;
+        case POST:
+            output = async.postAsync(input);
+            break;
+        case PUT:
+            output = async.putAsync(input);
+            break;
+        case PATCH:
+            output = async.patchAsync(input);
+            break;
+        case HEAD:
+            output = async.headAsync(input);
+            break;
+        case OPTIONS:
+            output = async.optionsAsync(input);
+            break;
+        case TRACE:
+            output = async.traceAsync(input);
+            break;
+        default:
+            output = AsyncHttpObject.completed(HttpObject.NOT_IMPLEMENTED());
+        }
+        return output;
+    }
+
+    /**
+     * Works out which verbs an object actually handles, i.e. which of the verb methods its class
+     * overrides.  The rest all just give back its {@link HttpObject#defaultResponse()}.  (For an
+     * {@link AsyncHttpObject}, it's the <code>...Async</code> verbs that count.)
+     */
+    public static EnumSet<Method> implementedMethods(HttpObject object) {
+        final boolean async = object instanceof AsyncHttpObject;
+        final Class<?> base = async ? AsyncHttpObject.class : HttpObject.class;
+        final EnumSet<Method> implemented = EnumSet.noneOf(Method.class);
+        for(Method m : Method.values()){
+            try {
+                final String name = m.name().toLowerCase(Locale.ENGLISH) + (async ? "Async" : "");
+                final java.lang.reflect.Method handler = object.getClass().getMethod(name, Request.class);
+                if(handler.getDeclaringClass() != base){
+                    implemented.add(m);
+                }
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return implemented;
+    }
+
     public static byte[] toByteArray(Representation r){
         try {
             final ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -92,6 +175,114 @@ public class HttpObjectUtil {
         }
     }
 
+    /**
+     * Reads everything there is into an array that's allocated once, at just the right size.  A
+     * length that's only claimed (e.g. a request's Content-Length) is trusted up to 64KB; past
+     * that, the bytes go into chunks as they actually arrive, which are put together at the end,
+     * so that a length a client made up can't have memory set aside for bytes that never come.
+     *
+     * @param expectedLength how long it should turn out to be, or -1 when that isn't known
+     */
+    public static byte[] toByteArray(InputStream in, long expectedLength) throws IOException {
+        return toByteArray(in, expectedLength, false);
+    }
+
+    /**
+     * @param exact whether the length is known for sure (e.g. the bytes are already in memory, or
+     *        on disk) rather than only claimed, in which case they're read straight into an array
+     *        of that length
+     */
+    public static byte[] toByteArray(InputStream in, long length, boolean exact) throws IOException {
+        final long presized = length < 0 ? READ_CHUNK_SIZE : exact ? length : Math.min(length, MAX_PRESIZED_LENGTH);
+        if (presized > MAX_ARRAY_LENGTH) throw new IOException("Too big for an array: " + length + " bytes");
+        final byte[] first = new byte[(int) presized];
+        final int size = readInto(in, first);
+        if (size < first.length) return Arrays.copyOf(first, size);
+        final int next = in.read();
+        if (next == -1) return first;
+
+        // there's more than that, so it's read a chunk at a time, and only put together at the end
+        final List<byte[]> chunks = new ArrayList<byte[]>();
+        chunks.add(first);
+        long total = first.length;
+        byte[] chunk = new byte[MAX_PRESIZED_LENGTH];
+        chunk[0] = (byte) next;
+        int filled = 1 + readInto(in, chunk, 1);
+        while (true) {
+            total += filled;
+            if (total > MAX_ARRAY_LENGTH) throw new IOException("Too big for an array: more than " + MAX_ARRAY_LENGTH + " bytes");
+            if (filled < chunk.length) break;
+            chunks.add(chunk);
+            chunk = new byte[MAX_PRESIZED_LENGTH];
+            filled = readInto(in, chunk);
+        }
+        final byte[] all = new byte[(int) total];
+        int at = 0;
+        for (byte[] full : chunks) {
+            System.arraycopy(full, 0, all, at, full.length);
+            at += full.length;
+        }
+        System.arraycopy(chunk, 0, all, at, filled);
+        return all;
+    }
+
+    /**
+     * @return how many bytes were read: all the array takes, unless the stream ran out first
+     */
+    private static int readInto(InputStream in, byte[] bytes) throws IOException {
+        return readInto(in, bytes, 0);
+    }
+
+    private static int readInto(InputStream in, byte[] bytes, int from) throws IOException {
+        int size = from;
+        while (size < bytes.length) {
+            final int read = in.read(bytes, size, bytes.length - size);
+            if (read == -1) break;
+            size += read;
+        }
+        return size - from;
+    }
+
+    /**
+     * @return the moment as an HTTP-date (e.g. <code>Sun, 06 Nov 1994 08:49:37 GMT</code>), as
+     *         it goes in Last-Modified, If-Range and the like
+     */
+    public static String httpDate(long millis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * @return the moment an HTTP-date (as it comes in If-Modified-Since and the like) stands for,
+     *         or -1 when it isn't one
+     */
+    public static long parseHttpDate(String date) {
+        try {
+            return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(date.trim())).toEpochMilli();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the value of the request's header field, whatever case its name came in, or null
+     *         when there's no such field
+     */
+    static String headerValue(Request req, String name) {
+        for (HeaderField next : req.header().fields()) {
+            if (next.name().equalsIgnoreCase(name)) return next.value().trim();
+        }
+        return null;
+    }
+
+    /**
+     * @return the fields, followed by the others
+     */
+    static HeaderField[] withHeader(HeaderField[] header, HeaderField... more) {
+        final HeaderField[] all = Arrays.copyOf(header, header.length + more.length);
+        System.arraycopy(more, 0, all, header.length, more.length);
+        return all;
+    }
+
     public static String toAscii(Representation r){
         return toString(r, "ascii");
     }
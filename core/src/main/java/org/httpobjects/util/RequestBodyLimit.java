@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import org.httpobjects.AsyncHttpObject;
+import org.httpobjects.DSL;
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+
+/**
+ * Keeps request bodies down to size, for the servers: a body that says up front that it's too
+ * big is turned away before any of it is read, and one that turns out to be too big is cut off
+ * as soon as it gets there, rather than after it has all been gathered up.  Either way the
+ * answer is {@link DSL#REQUEST_ENTITY_TOO_LARGE()}.
+ */
+public final class RequestBodyLimit {
+    public static final long UNLIMITED = -1;
+
+    private RequestBodyLimit() {
+    }
+
+    /**
+     * @return the tighter of the server's limit and the object's
+     */
+    public static long forObject(long serverLimit, HttpObject object) {
+        return tighter(serverLimit, object.maxRequestBodySize());
+    }
+
+    /**
+     * @return the tighter of the server's limit and the object's, for a request to the path
+     */
+    public static long forObject(long serverLimit, HttpObject object, String path) {
+        return tighter(serverLimit, object.maxRequestBodySize(path));
+    }
+
+    public static long tighter(long serverLimit, long objectLimit) {
+        if (objectLimit == UNLIMITED) return serverLimit;
+        if (serverLimit == UNLIMITED) return objectLimit;
+        return Math.min(serverLimit, objectLimit);
+    }
+
+    /**
+     * @param length how long the body is, or says it is (negative when it doesn't say)
+     */
+    public static boolean exceeds(long limit, long length) {
+        return limit != UNLIMITED && length > limit;
+    }
+
+    /**
+     * @return the body, which fails with a {@link TooLargeException} once more than the limit
+     *         has been read from it
+     */
+    public static InputStream limit(InputStream body, long limit) {
+        return limit == UNLIMITED ? body : new LimitedInputStream(body, limit);
+    }
+
+    public static Response tooLarge() {
+        return DSL.REQUEST_ENTITY_TOO_LARGE();
+    }
+
+    /**
+     * @return whether the error came of reading past the limit (however it was wrapped up on the way out)
+     */
+    public static boolean isTooLarge(Throwable error) {
+        for (Throwable next = error; next != null; next = next.getCause()) {
+            if (next instanceof TooLargeException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Like {@link HttpObjectUtil#invokeMethod(HttpObject, Method, Request)}, but an object that
+     * reads past the limit gets {@link #tooLarge()} for an answer.
+     */
+    public static Response invokeMethod(HttpObject object, Method m, Request input) {
+        try {
+            return HttpObjectUtil.invokeMethod(object, m, input);
+        } catch (RuntimeException e) {
+            if (isTooLarge(e)) return tooLarge();
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link HttpObjectUtil#invokeMethodAsync(HttpObject, Method, Request)}, but an object
+     * that reads past the limit gets {@link #tooLarge()} for an answer.
+     */
+    public static CompletionStage<Response> invokeMethodAsync(HttpObject object, Method m, Request input) {
+        final CompletionStage<Response> output;
+        try {
+            output = HttpObjectUtil.invokeMethodAsync(object, m, input);
+        } catch (RuntimeException e) {
+            if (isTooLarge(e)) return AsyncHttpObject.completed(tooLarge());
+            throw e;
+        }
+        return output.exceptionally(new Function<Throwable, Response>() {
+            @Override
+            public Response apply(Throwable error) {
+                if (isTooLarge(error)) return tooLarge();
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+        });
+    }
+
+    /**
+     * What reading a body past its limit fails with.
+     */
+    public static final class TooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public TooLargeException(long limit) {
+            super("The request body is more than " + limit + " bytes");
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long read = 0;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long n) throws TooLargeException {
+            read += n;
+            if (read > limit) throw new TooLargeException(limit);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.httpobjects.path.Path;
+
+/**
+ * A bounded, least-recently-used memory of which object answered a given method and raw path,
+ * and the {@link Path} it was given, so that an {@link HttpObjectRouter} can go straight to it
+ * the next time.
+ * <p>
+ * Looking a route up takes no lock, since that's what every request does: the least recently
+ * used are worked out the way a CLOCK does it, each entry being marked when it's used, and only
+ * dropped once it comes round again without having been used since.  Only remembering a route
+ * (which happens once per route, more or less) waits on the others doing so.
+ * <p>
+ * This assumes that an object that gave back null for a path will keep doing so.  Objects for
+ * which that isn't true should implement {@link Uncacheable}; any route they took part in isn't
+ * remembered.  If a remembered object does give back null, the request is routed the long way and
+ * the entry is forgotten.
+ * <p>
+ * Entries refer to objects by their place in the router, so a cache can only be given to one
+ * router.
+ */
+public final class RouteCache {
+    
+    /**
+     * Marks an {@link org.httpobjects.HttpObject} whose responses (or lack of them) can change
+     * for the same path, so routes through it mustn't be cached.
+     */
+    public interface Uncacheable {}
+    
+    private final int maxEntries;
+    private final ConcurrentMap<Key, Node> entries = new ConcurrentHashMap<Key, Node>();
+    /** the entries, in the order they come round to be dropped (with any since replaced or removed in there too); guarded by itself */
+    private final Queue<Node> clock = new ArrayDeque<Node>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    public RouteCache(final int maxEntries) {
+        if(maxEntries<1) throw new IllegalArgumentException("maxEntries must be at least 1, but was " + maxEntries);
+        this.maxEntries = maxEntries;
+    }
+    
+    public int maxEntries() {
+        return maxEntries;
+    }
+    
+    public long hits() {
+        return hits.get();
+    }
+    
+    public long misses() {
+        return misses.get();
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    public void clear() {
+        synchronized(clock){
+            entries.clear();
+            clock.clear();
+        }
+    }
+    
+    Entry get(Method method, String path) {
+        final Node node = entries.get(new Key(method, path));
+        if(node==null){
+            misses.incrementAndGet();
+            return null;
+        }
+        // only written when it changes, so that a popular entry isn't written to by every request
+        if(!node.used) node.used = true;
+        hits.incrementAndGet();
+        return node.entry;
+    }
+    
+    void put(Method method, String path, Entry entry) {
+        final Node node = new Node(new Key(method, path), entry);
+        synchronized(clock){
+            entries.put(node.key, node);
+            clock.add(node);
+            while(entries.size() > maxEntries){
+                final Node next = clock.poll();
+                if(next==null) break;
+                if(!isCurrent(next)) continue;
+                if(next.used){
+                    // a second chance
+                    next.used = false;
+                    clock.add(next);
+                }else{
+                    entries.remove(next.key, next);
+                }
+            }
+            if(clock.size() > 2 * maxEntries) sweep();
+        }
+    }
+    
+    void remove(Method method, String path) {
+        entries.remove(new Key(method, path));
+    }
+    
+    /**
+     * Lets go of the nodes that have been replaced or removed since they were put in, for when
+     * there are enough of them to matter.  Guarded by the clock.
+     */
+    private void sweep() {
+        final int n = clock.size();
+        for(int x=0;x<n;x++){
+            final Node next = clock.poll();
+            if(isCurrent(next)) clock.add(next);
+        }
+    }
+    
+    private boolean isCurrent(Node node) {
+        return entries.get(node.key)==node;
+    }
+    
+    private static final class Node {
+        final Key key;
+        final Entry entry;
+        /** whether it's been used since the clock last came round to it */
+        volatile boolean used;
+        
+        Node(Key key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+    
+    static final class Entry {
+        final int position;
+        final Path path;
+        
+        Entry(int position, Path path) {
+            this.position = position;
+            this.path = path;
+        }
+    }
+    
+    private static final class Key {
+        final Method method;
+        final String path;
+        
+        Key(Method method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * (method==null ? 0 : method.hashCode()) + path.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) return false;
+            final Key that = (Key) obj;
+            return this.method==that.method && this.path.equals(that.path);
+        }
+    }
+}
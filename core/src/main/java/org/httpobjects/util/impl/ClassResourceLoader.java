@@ -38,6 +38,7 @@
 package org.httpobjects.util.impl;
 
 import java.io.InputStream;
+import java.net.URL;
 
 public final class ClassResourceLoader implements ResourceLoader {
     private final Class<?> clazz;
@@ -51,4 +52,9 @@ public final class ClassResourceLoader implements ResourceLoader {
     public InputStream getResourceAsStream(String name) {
         return clazz.getResourceAsStream(name);
     }
+
+    @Override
+    public URL getResource(String name) {
+        return clazz.getResource(name);
+    }
 }
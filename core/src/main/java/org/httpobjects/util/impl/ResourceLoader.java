@@ -38,7 +38,15 @@
 package org.httpobjects.util.impl;
 
 import java.io.InputStream;
+import java.net.URL;
 
 public interface ResourceLoader {
     InputStream getResourceAsStream(String name);
+
+    /**
+     * @return where the resource is, or null when it isn't there (or this can't say)
+     */
+    default URL getResource(String name) {
+        return null;
+    }
 }
@@ -38,6 +38,7 @@
 package org.httpobjects.util.impl;
 
 import java.io.InputStream;
+import java.net.URL;
 
 public final class WrapperForInsecureClassloader implements ResourceLoader {
     private final ResourceLoader loader;
@@ -55,4 +56,13 @@ public final class WrapperForInsecureClassloader implements ResourceLoader {
             return loader.getResourceAsStream(name);
         }
     }
+
+    @Override
+    public URL getResource(String name) {
+        if(name.contains("..")){
+            return null;
+        }else{
+            return loader.getResource(name);
+        }
+    }
 }
@@ -4,6 +4,7 @@ import org.httpobjects.header.request.RequestHeader;
 import org.httpobjects.path.Path;
 import org.httpobjects.util.HttpObjectUtil;
 import org.httpobjects.util.Method;
+import org.httpobjects.util.RequestBodyLimit;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -55,6 +56,50 @@ public class HttpObjectTest {
                 HttpObjectUtil.toUtf8(maybe404.representation()));
     }
 
+    @Test
+    public void maskShouldSayWhatBodiesTheResourceThePathGoesToWillTake() throws Exception {
+        // given
+        HttpObject tight = new HttpObject("/tight") {
+            @Override
+            public long maxRequestBodySize() {
+                return 10;
+            }
+        };
+        HttpObject masked = tight.mask(new HttpObject("/loose")).onEvents(new HttpObject.Events<Void>() {
+            public Void onRequest(Request request) { return null; }
+            public void onResponse(Void id, Response response) {}
+            public void onError(Throwable error) {}
+        }).mask(new HttpObject("/other"));
+
+        // then
+        assertEquals(10, masked.maxRequestBodySize("/tight"));
+        assertEquals(RequestBodyLimit.UNLIMITED, masked.maxRequestBodySize("/loose"));
+        assertEquals(RequestBodyLimit.UNLIMITED, masked.maxRequestBodySize("/nowhere"));
+    }
+
+    @Test
+    public void longMaskChainsShouldBehaveLikeNestedMasks() throws Exception {
+        // given
+        HttpObject masked = new HttpObject("/r0", OK(Text("r0")));
+        for (int x = 1; x < 200; x++) {
+            masked = masked.mask(new HttpObject("/r" + x, OK(Text("r" + x))));
+        }
+        HttpObject inner = new HttpObject("/a", OK(Text("a"))).mask(new HttpObject("/{name}", OK(Text("name"))));
+        HttpObject outer = new HttpObject("/b", OK(Text("b"))).mask(inner);
+
+        // when
+        Response r150 = masked.get(request("/r150", Method.GET));
+        Response missing = masked.get(request("/r200", Method.GET));
+        Response fromInner = outer.get(request("/c", Method.GET));
+
+        // then
+        assertEquals("r150", HttpObjectUtil.toUtf8(r150.representation()));
+        assertEquals(ResponseCode.NOT_FOUND, missing.code());
+        assertEquals("name", HttpObjectUtil.toUtf8(fromInner.representation()));
+        assertEquals("/b:/a:/{name}", outer.pattern().raw());
+        assertEquals("c", outer.pattern().match("/c").valueFor("name"));
+    }
+
     @Test
     public void decorateShouldApplyDecoratorOnEvents() throws Exception {
         // given
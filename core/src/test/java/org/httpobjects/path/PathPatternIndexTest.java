@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.path;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PathPatternIndexTest {
+    
+    @Test
+    public void findsOnlyThePatternsThatCanMatch() {
+        // given
+        PathPatternIndex index = index(
+                new SimplePathPattern("/foo/baz"),
+                new SimplePathPattern("/user/{id}/account/{name}"),
+                new SimplePathPattern("/bar/baz"),
+                new SimplePathPattern("/user/{id}/account/savings"));
+        
+        // when
+        int[] result = index.candidates("/user/123/account/savings");
+        
+        // then
+        assertArrayEquals(new int[]{1, 3}, result);
+    }
+    
+    @Test
+    public void keepsTheOrderThePatternsWereGivenIn() {
+        // given
+        PathPatternIndex index = index(
+                new SimplePathPattern("/{anything*}"),
+                new SimplePathPattern("/app/{name}"),
+                new SimplePathPattern("/app/inbox"));
+        
+        // when
+        int[] result = index.candidates("/app/inbox");
+        
+        // then
+        assertArrayEquals(new int[]{0, 1, 2}, result);
+    }
+    
+    @Test
+    public void offersPatternsItCantLookInsideOfForEveryPath() {
+        // given
+        PathPatternIndex index = index(
+                new SimplePathPattern("/a"),
+                new SimplePathPattern("/b"){},
+                new SimplePathPattern("/c"));
+        
+        // when
+        int[] result = index.candidates("/c");
+        
+        // then
+        assertArrayEquals(new int[]{1, 2}, result);
+    }
+    
+    @Test
+    public void skipsRegexPatternsBeforeTheFirstOneThatMatches() {
+        // given
+        PathPatternIndex index = index(
+                new RegexPathPattern(Pattern.compile("/a/(.*)")),
+                new SimplePathPattern("/b/c"),
+                new RegexPathPattern(Pattern.compile("/b/(.*)")),
+                new RegexPathPattern(Pattern.compile("/z/(.*)")));
+        
+        // when
+        int[] result = index.candidates("/b/c");
+        
+        // then
+        assertArrayEquals(new int[]{1, 2, 3}, result);
+    }
+    
+    @Test
+    public void variablesAndWildcardsAcceptMissingSegments() {
+        // given
+        PathPatternIndex index = index(
+                new SimplePathPattern("/pows/{name}/{rank}"),
+                new SimplePathPattern("/house/{apple*}"),
+                new SimplePathPattern("/house/door"));
+        
+        // when
+        int[] pows = index.candidates("/pows");
+        int[] house = index.candidates("/house/");
+        
+        // then
+        assertArrayEquals(new int[]{0}, pows);
+        assertArrayEquals(new int[]{1}, house);
+    }
+    
+    @Test
+    public void ignoresTheQueryString() {
+        // given
+        PathPatternIndex index = index(new SimplePathPattern("/{apple}/{orange}"));
+        
+        // when
+        int[] result = index.candidates("/jane/doe?flavor=chocolate");
+        
+        // then
+        assertArrayEquals(new int[]{0}, result);
+    }
+    
+    @Test
+    public void rootOnlyMatchesRoot() {
+        // given
+        PathPatternIndex index = index(new SimplePathPattern("/"));
+        
+        // then
+        assertArrayEquals(new int[]{0}, index.candidates("/"));
+        assertArrayEquals(new int[]{}, index.candidates("/test"));
+    }
+
+    private static PathPatternIndex index(PathPattern ... patterns) {
+        List<PathPattern> list = Arrays.asList(patterns);
+        return new PathPatternIndex(list);
+    }
+}
@@ -117,6 +117,21 @@ public class RegexPathPatternTest {
         assertNotNull(pattern.match("/dogs"));
     }
 
+    @Test
+    public void matchIfAbleOnlyAcceptsWholePathMatches() {
+        // given
+        final PathPattern pattern = new RegexPathPattern(Pattern.compile("\\/dogs\\/([a-z]*)"), "name");
+        
+        // when
+        final Path match = pattern.matchIfAble("/dogs/spot");
+        final Path partial = pattern.matchIfAble("/dogs/spot/bones");
+        
+        // then
+        assertNotNull(match);
+        assertEquals("spot", match.valueFor("name"));
+        assertNull(partial);
+    }
+
     private <T> void assertListsEqual(List<T> expected, List<T> actual) {
         assertEquals(expected.size(), actual.size());
         for(int x=0;x<expected.size();x++){
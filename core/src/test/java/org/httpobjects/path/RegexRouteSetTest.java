@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class RegexRouteSetTest {
+    
+    @Test
+    public void findsTheFirstRouteThatMatchesTheWholePath() {
+        // given
+        RegexRouteSet routes = routes(
+                new RegexPathPattern(Pattern.compile("/dogs/([a-z]*)"), "name"),
+                new RegexPathPattern(Pattern.compile("/cats/([a-z]*)/(\\d+)"), "name", "age"),
+                new RegexPathPattern(Pattern.compile("/cats/(.*)"), "rest"));
+        
+        // when
+        RegexRouteSet.Match result = routes.match("/cats/tom/4");
+        
+        // then
+        assertEquals(1, result.route);
+        assertEquals("tom", result.path.valueFor("name"));
+        assertEquals("4", result.path.valueFor("age"));
+        assertEquals(2, result.path.size());
+    }
+    
+    @Test
+    public void onlyAcceptsWholePathMatches() {
+        // given
+        RegexRouteSet routes = routes(
+                new RegexPathPattern(Pattern.compile("/dogs")),
+                new RegexPathPattern(Pattern.compile("/cats")));
+        
+        // then
+        assertNull(routes.match("/dogs/fido"));
+        assertEquals(-1, routes.first("/dogs/fido"));
+    }
+    
+    @Test
+    public void keepsItsPlaceForRoutesThatCantBeJoined() {
+        // given
+        RegexRouteSet routes = routes(
+                new RegexPathPattern(Pattern.compile("/a/(.*)")),
+                new RegexPathPattern(Pattern.compile("/B/(\\w+)", Pattern.CASE_INSENSITIVE), "name"),
+                new RegexPathPattern(Pattern.compile("/b/(.*)"), "rest"),
+                new RegexPathPattern(Pattern.compile("/(\\w)/\\1"), "letter"));
+        
+        // when
+        RegexRouteSet.Match b = routes.match("/b/bee");
+        RegexRouteSet.Match repeated = routes.match("/c/c");
+        
+        // then
+        assertEquals(1, b.route);
+        assertEquals("bee", b.path.valueFor("name"));
+        assertEquals(3, repeated.route);
+        assertEquals("c", repeated.path.valueFor("letter"));
+    }
+    
+    @Test
+    public void worksWithQuotedPatterns() {
+        // given
+        RegexRouteSet routes = routes(
+                new RegexPathPattern(Pattern.compile(Pattern.quote("/mount.a") + "/?(.*)"), "path"),
+                new RegexPathPattern(Pattern.compile(Pattern.quote("/mount.b") + "/?(.*)"), "path"));
+        
+        // when
+        RegexRouteSet.Match result = routes.match("/mount.b/some/file.txt");
+        
+        // then
+        assertEquals(1, result.route);
+        assertEquals("some/file.txt", result.path.valueFor("path"));
+    }
+    
+    private static RegexRouteSet routes(RegexPathPattern ... routes) {
+        return new RegexRouteSet(Arrays.asList(routes));
+    }
+}
@@ -127,6 +127,34 @@ public class SimplePathPatternTest {
 		assertNull(r.valueFor("apple"));
 	}
 	
+	@Test
+	public void matchIfAbleParsesAMatchingPath(){
+		Path r = new SimplePathPattern("/{apple}/{orange}").matchIfAble("/jane/doe");
+		assertNotNull(r);
+		assertEquals("jane", r.valueFor("apple"));
+		assertEquals("doe", r.valueFor("orange"));
+	}
+	
+	@Test
+	public void matchIfAbleReturnsNullForAPathThatDoesntMatch(){
+		assertNull(new SimplePathPattern("/test").matchIfAble("/test/123"));
+	}
+	
+	@Test
+	public void wildcardsCollapseRepeatedSlashesAndIgnoreTheQueryString(){
+		Path r = new SimplePathPattern("/files/{rest*}").match("/files/a//b/c.txt?download=true");
+		assertNotNull(r);
+		assertEquals("a/b/c.txt", r.valueFor("rest"));
+	}
+	
+	@Test
+	public void laterValuesForTheSameNameWin(){
+		Path r = new SimplePathPattern("/{id}/{id}").match("/first/second");
+		assertNotNull(r);
+		assertEquals(1, r.size());
+		assertEquals("second", r.valueFor("id"));
+	}
+	
 	@Test
 	public void returnsRawPath(){
 		PathPattern p = new SimplePathPattern("/house/{apple*}");
@@ -0,0 +1,124 @@
+package org.httpobjects.representation;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import static org.junit.Assert.*;
+
+public class StreamingRepTest {
+
+    @Test
+    public void handsOverTheStreamItself() throws Exception {
+        // given
+        InputStream data = in("foo");
+        StreamingRep rep = new StreamingRep(text, data);
+
+        // when
+        InputStream stream = rep.stream();
+
+        // then
+        assertSame(data, stream);
+        assertFalse(rep.isBuffered());
+    }
+
+    @Test
+    public void writesEverythingThroughInChunks() throws Exception {
+        // given
+        byte[] big = new byte[100000];
+        for (int x = 0; x < big.length; x++) big[x] = (byte) x;
+        StreamingRep rep = new StreamingRep(text, new ByteArrayInputStream(big));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // when
+        rep.write(out);
+
+        // then
+        assertArrayEquals(big, out.toByteArray());
+    }
+
+    @Test
+    public void canOnlyBeReadOnce() throws Exception {
+        // given
+        StreamingRep rep = new StreamingRep(text, in("bar"));
+        rep.write(new ByteArrayOutputStream());
+
+        // when
+        Exception err = null;
+        try {
+            rep.write(new ByteArrayOutputStream());
+        } catch (IllegalStateException e) {
+            err = e;
+        }
+
+        // then
+        assertNotNull(err);
+    }
+
+    @Test
+    public void canBeReadAgainOnceBuffered() throws Exception {
+        // given
+        StreamingRep rep = new StreamingRep(text, in("baz"));
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+
+        // when
+        rep.buffered();
+        rep.write(out1);
+        rep.write(out2);
+
+        // then
+        assertTrue(rep.isBuffered());
+        assertEquals("baz", string(out1.toByteArray()));
+        assertEquals("baz", string(out2.toByteArray()));
+        assertEquals("baz", rep.buffered().show());
+        assertEquals(text, rep.buffered().contentType());
+    }
+
+    @Test
+    public void canStillBeShownOnceRead() throws Exception {
+        // given
+        StreamingRep rep = new StreamingRep(text, in("qux"));
+        rep.stream();
+
+        // when
+        String shown = rep.show();
+
+        // then
+        assertEquals("<streamed body, already read>", shown);
+        assertTrue(rep.eq(rep));
+        assertFalse(rep.eq(new StreamingRep(text, in("qux"))));
+    }
+
+    @Test
+    public void showsTheBodyWhenItHasNotBeenRead() throws Exception {
+        // given
+        StreamingRep rep = new StreamingRep(text, in("quux"));
+
+        // when
+        String shown = rep.show();
+
+        // then
+        assertEquals("quux", shown);
+        assertEquals("quux", string(toBytes(rep)));
+    }
+
+    private static byte[] toBytes(StreamingRep rep) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        rep.write(out);
+        return out.toByteArray();
+    }
+
+    private static String text = "text/plain";
+
+    private static InputStream in(String str) {
+        return new ByteArrayInputStream(str.getBytes(UTF_8));
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+package org.httpobjects.util;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.test.MockRequest;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AssetCacheTest {
+
+    @Test
+    public void losesTheLeastRecentlyUsedWhenThereAreTooMany() throws Exception {
+        // given
+        AssetCache cache = new AssetCache(2, 1000);
+        cache.put("a", asset(10));
+        cache.put("b", asset(10));
+
+        // when
+        cache.get("a");
+        cache.put("c", asset(10));
+
+        // then
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.bytes());
+    }
+
+    @Test
+    public void losesTheLeastRecentlyUsedWhenThereAreTooManyBytes() throws Exception {
+        // given
+        AssetCache cache = new AssetCache(10, 25);
+        cache.put("a", asset(10));
+        cache.put("b", asset(10));
+
+        // when
+        cache.put("c", asset(10));
+        cache.put("huge", asset(26));
+
+        // then
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertNull(cache.get("huge"));
+        assertEquals(20, cache.bytes());
+    }
+
+    @Test
+    public void missingNamesDontPushOutAssets() throws Exception {
+        // given
+        AssetCache cache = new AssetCache(2, 1000);
+        cache.put("a", asset(10));
+
+        // when
+        cache.putMissing("x");
+        cache.putMissing("y");
+        cache.putMissing("z");
+
+        // then
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("x"));
+        assertSame(AssetCache.MISSING, cache.get("z"));
+    }
+
+    @Test
+    public void remembersAssetsTooBigToKeepApart() throws Exception {
+        // given
+        AssetCache cache = new AssetCache(1, 25);
+        cache.put("a", asset(10));
+        AssetCache.Oversized huge = new AssetCache.Oversized("text/plain", new ConditionalGet.Validators("\"x\"", -1, 100), Collections.<String, ConditionalGet.Validators>emptyMap());
+
+        // when
+        boolean kept = cache.put("huge", asset(26));
+        cache.putOversized("huge", huge);
+
+        // then
+        assertFalse(kept);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("huge"));
+        assertSame(huge, cache.oversized("huge"));
+    }
+
+    @Test
+    public void gzipsWhatShrinks() throws Exception {
+        // given
+        byte[] repetitive = new byte[1000];
+        byte[] tiny = new byte[]{1};
+
+        // when
+        AssetCache.Asset shrinks = AssetCache.Asset.of("text/plain", repetitive, -1);
+        AssetCache.Asset doesnt = AssetCache.Asset.of("text/plain", tiny, -1);
+
+        // then
+        assertEquals(1, shrinks.encoded.size());
+        assertEquals("gzip", shrinks.encoded.get(0).coding);
+        assertTrue(shrinks.encoded.get(0).data.length < repetitive.length);
+        assertNotEquals(shrinks.validators.etag, shrinks.encoded.get(0).validators.etag);
+        assertTrue(doesnt.encoded.isEmpty());
+    }
+
+    @Test
+    public void prefersWhatWasCompressedAheadOfTime() throws Exception {
+        // given
+        byte[] repetitive = new byte[1000];
+        Map<String, byte[]> precompressed = new HashMap<String, byte[]>();
+        precompressed.put("gzip", new byte[]{1, 2, 3});
+        precompressed.put("br", new byte[]{4, 5});
+        AssetCache.Asset asset = AssetCache.Asset.of("text/plain", repetitive, -1, precompressed);
+
+        // when
+        AssetCache.Encoded forBrotli = asset.encodedFor(new MockRequest(new HttpObject("/"), "/", new GenericHeaderField("Accept-Encoding", "gzip, br")));
+        AssetCache.Encoded forGzip = asset.encodedFor(new MockRequest(new HttpObject("/"), "/", new GenericHeaderField("Accept-Encoding", "gzip")));
+        AssetCache.Encoded forNeither = asset.encodedFor(new MockRequest(new HttpObject("/"), "/"));
+
+        // then
+        assertEquals("br", forBrotli.coding);
+        assertArrayEquals(new byte[]{4, 5}, forBrotli.data);
+        assertEquals("gzip", forGzip.coding);
+        assertArrayEquals(new byte[]{1, 2, 3}, forGzip.data);
+        assertNull(forNeither);
+    }
+
+    private static AssetCache.Asset asset(int size) {
+        // a single byte doesn't shrink when gzipped, so there's no twin to count
+        byte[] data = new byte[size];
+        for (int x = 0; x < size; x++) data[x] = (byte) (x * 151 + 17);
+        return AssetCache.Asset.of("application/octet-stream", data, -1);
+    }
+}
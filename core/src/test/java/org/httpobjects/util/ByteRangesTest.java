@@ -0,0 +1,156 @@
+package org.httpobjects.util;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Representation;
+import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.test.MockRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ByteRangesTest {
+    private final HttpObject object = new HttpObject("/");
+    private final byte[] data = "0123456789".getBytes(UTF_8);
+
+    @Test
+    public void parsesAllTheKindsOfRange() throws Exception {
+        // when
+        List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=0-1, 4-, -2", 10);
+
+        // then
+        assertEquals(2, ranges.size());
+        assertEquals("0-1", ranges.get(0).show());
+        assertEquals("4-9", ranges.get(1).show());
+    }
+
+    @Test
+    public void keepsTheOrderAskedForWhenNothingOverlaps() throws Exception {
+        // when
+        List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=6-7,0-1", 10);
+
+        // then
+        assertEquals("6-7", ranges.get(0).show());
+        assertEquals("0-1", ranges.get(1).show());
+    }
+
+    @Test
+    public void ignoresRangesItCantMakeSenseOf() throws Exception {
+        // then
+        assertNull(ByteRanges.parse("lines=1-2", 10));
+        assertNull(ByteRanges.parse("bytes=5-2", 10));
+        assertNull(ByteRanges.parse("bytes=a-b", 10));
+        assertNull(ByteRanges.parse("bytes=7", 10));
+        assertTrue(ByteRanges.parse("bytes=10-", 10).isEmpty());
+        assertTrue(ByteRanges.parse("bytes=-0", 10).isEmpty());
+    }
+
+    @Test
+    public void answersASingleRangeWithJustThoseBytes() throws Exception {
+        // when
+        Response response = ByteRanges.respond(new MockRequest(object, "/", range("bytes=-3")), "text/plain", data);
+
+        // then
+        assertEquals(ResponseCode.PARTIAL_CONTENT, response.code());
+        assertEquals("789", HttpObjectUtil.toUtf8(response.representation()));
+        assertEquals("bytes 7-9/10", valueOf(response, "Content-Range"));
+        assertEquals("bytes", valueOf(response, "Accept-Ranges"));
+    }
+
+    @Test
+    public void answersSeveralRangesAsMultipartByteranges() throws Exception {
+        // when
+        Response response = ByteRanges.respond(new MockRequest(object, "/", range("bytes=0-1,8-")), "text/plain", data);
+
+        // then
+        assertEquals(ResponseCode.PARTIAL_CONTENT, response.code());
+        String contentType = response.representation().contentType();
+        assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+        String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        assertEquals(
+                "--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-1/10\r\n\r\n01\r\n" +
+                "--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 8-9/10\r\n\r\n89\r\n" +
+                "--" + boundary + "--\r\n",
+                HttpObjectUtil.toUtf8(response.representation()));
+    }
+
+    @Test
+    public void knowsHowLongSeveralRangesComeTo() throws Exception {
+        // given
+        Response response = ByteRanges.respond(new MockRequest(object, "/", range("bytes=0-1,4-5,8-")), "text/plain", data);
+
+        // when
+        long length = ((ByteRanges.MultipartByteRanges) response.representation()).length();
+
+        // then
+        assertEquals(HttpObjectUtil.toByteArray(response.representation()).length, length);
+    }
+
+    @Test
+    public void givesRangesOfAFileAsSlicesOfIt() throws Exception {
+        // given
+        File file = File.createTempFile("ranges", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+        Response response = ByteRanges.respond(new MockRequest(object, "/", range("bytes=0-1,8-")), new FileRep("text/plain", file));
+
+        // when
+        List<Representation> pieces = ((ByteRanges.MultipartByteRanges) response.representation()).pieces();
+
+        // then
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        for (Representation piece : pieces) piece.write(whole);
+        assertEquals(HttpObjectUtil.toUtf8(response.representation()), new String(whole.toByteArray(), UTF_8));
+        assertEquals(8L, ((FileRep) pieces.get(4)).offset());
+        assertEquals(2L, ((FileRep) pieces.get(4)).length());
+        file.delete();
+    }
+
+    @Test
+    public void answersRangesPastTheEndWith416() throws Exception {
+        // when
+        Response response = ByteRanges.respond(new MockRequest(object, "/", range("bytes=20-30")), "text/plain", data);
+
+        // then
+        assertEquals(ResponseCode.REQUESTED_RANGE_NOT_SATISFIABLE, response.code());
+        assertEquals("bytes */10", valueOf(response, "Content-Range"));
+    }
+
+    @Test
+    public void sendsTheWholeThingWhenIfRangeDoesntMatch() throws Exception {
+        // given
+        HeaderField lastModified = new GenericHeaderField("Last-Modified", "Sun, 06 Nov 1994 08:49:37 GMT");
+
+        // when
+        Response stale = ByteRanges.respond(new MockRequest(object, "/", range("bytes=0-1"),
+                new GenericHeaderField("If-Range", "Sat, 05 Nov 1994 08:49:37 GMT")), "text/plain", data, lastModified);
+        Response current = ByteRanges.respond(new MockRequest(object, "/", range("bytes=0-1"),
+                new GenericHeaderField("If-Range", "Sun, 06 Nov 1994 08:49:37 GMT")), "text/plain", data, lastModified);
+
+        // then
+        assertEquals(ResponseCode.OK, stale.code());
+        assertEquals("0123456789", HttpObjectUtil.toUtf8(stale.representation()));
+        assertEquals(ResponseCode.PARTIAL_CONTENT, current.code());
+        assertEquals("01", HttpObjectUtil.toUtf8(current.representation()));
+    }
+
+    private static HeaderField range(String value) {
+        return new GenericHeaderField("Range", value);
+    }
+
+    private static String valueOf(Response response, String name) {
+        for (HeaderField next : response.header()) {
+            if (next.name().equals(name)) return next.value();
+        }
+        return null;
+    }
+}
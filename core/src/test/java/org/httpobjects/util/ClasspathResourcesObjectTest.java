@@ -39,8 +39,15 @@ package org.httpobjects.util;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.httpobjects.DSL;
 import org.httpobjects.Request;
 import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
 import org.httpobjects.test.MockRequest;
 import org.junit.Test;
 
@@ -78,6 +85,117 @@ public class ClasspathResourcesObjectTest {
         // then
         assertNull(err);
     }
-    
-    
+
+    @Test
+    public void retrievesPartsOfResources() {
+        // given
+        ClasspathResourcesObject testSubject = new ClasspathResourcesObject("/{resource*}", getClass(), "ClasspathResourcesObjectTest_resources");
+
+        // when
+        Response result = testSubject.get(new MockRequest(testSubject, "/a.txt", new GenericHeaderField("Range", "bytes=1-3")));
+
+        // then
+        assertEquals(ResponseCode.PARTIAL_CONTENT, result.code());
+        assertEquals("ell", HttpObjectUtil.toUtf8(result.representation()));
+    }
+
+    @Test
+    public void remembersWhatIsntThere() {
+        // given
+        AssetCache cache = new AssetCache();
+        ClasspathResourcesObject testSubject = new ClasspathResourcesObject("/{resource*}", getClass(), "ClasspathResourcesObjectTest_resources", cache);
+
+        // when
+        Response found = testSubject.get(new MockRequest(testSubject, "/a.txt"));
+        Response notFound = testSubject.get(new MockRequest(testSubject, "/nothing-here.txt"));
+
+        // then
+        assertEquals("hello", HttpObjectUtil.toUtf8(found.representation()));
+        assertNull(notFound);
+        assertNotNull(cache.get(ClasspathResourcesObject.cacheKey(getClass(), "ClasspathResourcesObjectTest_resources/a.txt")));
+        assertSame(AssetCache.MISSING, cache.get(ClasspathResourcesObject.cacheKey(getClass(), "ClasspathResourcesObjectTest_resources/nothing-here.txt")));
+    }
+
+    @Test
+    public void objectsSharingACacheDontServeEachOthersResources() {
+        // given
+        AssetCache cache = new AssetCache();
+        ClasspathResourcesObject elsewhere = new ClasspathResourcesObject("/{resource*}", DSL.class, "ClasspathResourcesObjectTest_resources", cache);
+        ClasspathResourcesObject here = new ClasspathResourcesObject("/{resource*}", getClass(), "ClasspathResourcesObjectTest_resources", cache);
+
+        // when
+        Response fromElsewhere = elsewhere.get(new MockRequest(elsewhere, "/a.txt"));
+        Response fromHere = here.get(new MockRequest(here, "/a.txt"));
+
+        // then
+        assertNull(fromElsewhere);
+        assertEquals("hello", HttpObjectUtil.toUtf8(fromHere.representation()));
+    }
+
+    @Test
+    public void servesTheGzippedTwinToThoseThatTakeIt() throws Exception {
+        // given
+        AssetCache cache = new AssetCache();
+        byte[] big = new byte[1000];
+        cache.put(ClasspathResourcesObject.cacheKey(getClass(), "ClasspathResourcesObjectTest_resources/big.txt"), AssetCache.Asset.of("text/plain", big, -1));
+        ClasspathResourcesObject testSubject = new ClasspathResourcesObject("/{resource*}", getClass(), "ClasspathResourcesObjectTest_resources", cache);
+
+        // when
+        Response gzipped = testSubject.get(new MockRequest(testSubject, "/big.txt", new GenericHeaderField("Accept-Encoding", "gzip, deflate")));
+        Response plain = testSubject.get(new MockRequest(testSubject, "/big.txt", new GenericHeaderField("Accept-Encoding", "gzip;q=0")));
+
+        // then
+        assertEquals("gzip", valueOf(gzipped, "Content-Encoding"));
+        assertEquals("Accept-Encoding", valueOf(gzipped, "Vary"));
+        assertArrayEquals(big, HttpObjectUtil.toByteArray(new GZIPInputStream(new ByteArrayInputStream(HttpObjectUtil.toByteArray(gzipped.representation()))), -1));
+        assertNull(valueOf(plain, "Content-Encoding"));
+        assertEquals("Accept-Encoding", valueOf(plain, "Vary"));
+        assertEquals(1000, HttpObjectUtil.toByteArray(plain.representation()).length);
+        assertNotEquals(valueOf(gzipped, "ETag"), valueOf(plain, "ETag"));
+    }
+
+    @Test
+    public void answersRevalidationsWith304() {
+        // given
+        ClasspathResourcesObject testSubject = new ClasspathResourcesObject("/{resource*}", getClass(), "ClasspathResourcesObjectTest_resources");
+        Response first = testSubject.get(new MockRequest(testSubject, "/a.txt"));
+        String etag = first.header()[0].value();
+
+        // when
+        Response result = testSubject.get(new MockRequest(testSubject, "/a.txt", new GenericHeaderField("If-None-Match", etag)));
+
+        // then
+        assertEquals("ETag", first.header()[0].name());
+        assertEquals("Last-Modified", first.header()[1].name());
+        assertEquals(ResponseCode.NOT_MODIFIED, result.code());
+        assertEquals(etag, result.header()[0].value());
+    }
+
+    @Test
+    public void streamsWhatsTooBigToKeep() {
+        // given
+        AssetCache cache = new AssetCache(10, 3);
+        ClasspathResourcesObject testSubject = new ClasspathResourcesObject("/{resource*}", getClass(), "ClasspathResourcesObjectTest_resources", cache);
+        Response first = testSubject.get(new MockRequest(testSubject, "/a.txt"));
+
+        // when
+        Response second = testSubject.get(new MockRequest(testSubject, "/a.txt"));
+        Response revalidated = testSubject.get(new MockRequest(testSubject, "/a.txt", new GenericHeaderField("If-None-Match", valueOf(first, "ETag"))));
+
+        // then
+        assertEquals("hello", HttpObjectUtil.toUtf8(first.representation()));
+        assertEquals("hello", HttpObjectUtil.toUtf8(second.representation()));
+        assertEquals(valueOf(first, "ETag"), valueOf(second, "ETag"));
+        assertEquals(ResponseCode.NOT_MODIFIED, revalidated.code());
+        assertNull(cache.get(ClasspathResourcesObject.cacheKey(getClass(), "ClasspathResourcesObjectTest_resources/a.txt")));
+        assertNotNull(cache.oversized(ClasspathResourcesObject.cacheKey(getClass(), "ClasspathResourcesObjectTest_resources/a.txt")));
+        assertEquals(0, cache.bytes());
+    }
+
+    private static String valueOf(Response response, String name) {
+        for (HeaderField next : response.header()) {
+            if (next.name().equals(name)) return next.value();
+        }
+        return null;
+    }
 }
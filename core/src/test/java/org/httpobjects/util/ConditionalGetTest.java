@@ -0,0 +1,77 @@
+package org.httpobjects.util;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.test.MockRequest;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ConditionalGetTest {
+    private final HttpObject object = new HttpObject("/");
+    private final long lastModified = HttpObjectUtil.parseHttpDate("Sun, 06 Nov 1994 08:49:37 GMT");
+    private final ConditionalGet.Validators validators = ConditionalGet.of("foo".getBytes(UTF_8), lastModified);
+
+    @Test
+    public void tagsAreStrongAndFollowTheContent() throws Exception {
+        // given
+        ConditionalGet.Validators same = ConditionalGet.of("foo".getBytes(UTF_8), -1);
+        ConditionalGet.Validators different = ConditionalGet.of("bar".getBytes(UTF_8), lastModified);
+
+        // then
+        assertTrue(validators.etag.matches("\"[0-9a-f]{32}\""));
+        assertEquals(validators.etag, same.etag);
+        assertNotEquals(validators.etag, different.etag);
+    }
+
+    @Test
+    public void matchesAnyOfTheTagsInIfNoneMatch() throws Exception {
+        // then
+        assertTrue(isNotModified("If-None-Match", "\"other\", " + validators.etag));
+        assertTrue(isNotModified("If-None-Match", "W/" + validators.etag));
+        assertTrue(isNotModified("If-None-Match", "*"));
+        assertFalse(isNotModified("If-None-Match", "\"other\""));
+    }
+
+    @Test
+    public void goesByTheDateWhenThereAreNoTags() throws Exception {
+        // then
+        assertTrue(isNotModified("If-Modified-Since", "Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertTrue(isNotModified("If-Modified-Since", "Mon, 07 Nov 1994 08:49:37 GMT"));
+        assertFalse(isNotModified("If-Modified-Since", "Sat, 05 Nov 1994 08:49:37 GMT"));
+        assertFalse(isNotModified("If-Modified-Since", "yesterday"));
+    }
+
+    @Test
+    public void tagsTrumpDates() throws Exception {
+        // when
+        boolean result = ConditionalGet.isNotModified(new MockRequest(object, "/",
+                new GenericHeaderField("If-None-Match", "\"other\""),
+                new GenericHeaderField("If-Modified-Since", "Mon, 07 Nov 1994 08:49:37 GMT")), validators);
+
+        // then
+        assertFalse(result);
+    }
+
+    @Test
+    public void notModifiedCarriesTheValidators() throws Exception {
+        // when
+        Response response = ConditionalGet.notModified(validators);
+
+        // then
+        assertEquals(ResponseCode.NOT_MODIFIED, response.code());
+        assertFalse(response.hasRepresentation());
+        assertEquals(2, response.header().length);
+        assertEquals("ETag", response.header()[0].name());
+        assertEquals(validators.etag, response.header()[0].value());
+        assertEquals("Last-Modified", response.header()[1].name());
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", response.header()[1].value());
+    }
+
+    private boolean isNotModified(String name, String value) {
+        return ConditionalGet.isNotModified(new MockRequest(object, "/", new GenericHeaderField(name, value)), validators);
+    }
+}
@@ -39,6 +39,10 @@ package org.httpobjects.util;
 
 import org.httpobjects.Representation;
 import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
 import org.httpobjects.test.MockRequest;
 import org.httpobjects.util.FsTools.*;
 import org.junit.Assert;
@@ -46,6 +50,7 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 
 import static org.httpobjects.util.FsTools.*;
 
@@ -71,6 +76,119 @@ public class FilesystemResourcesObjectTest {
         Assert.assertEquals("some stuff", toString(result.representation()));
     }
     
+    @Test
+    public void retrievesPartsOfFiles() {
+        // given
+        DirSpec fs = dir("my-filesystem",
+                        file("stuff.txt", "some stuff"));
+        File temp = fs.create(tempDir());
+
+        FilesystemResourcesObject testSubject = new FilesystemResourcesObject("/{resource*}", temp);
+        MockRequest req = new MockRequest(testSubject, "/stuff.txt", new GenericHeaderField("Range", "bytes=5-"));
+
+        // when
+        Response result = testSubject.get(req);
+
+        // then
+        Assert.assertEquals(ResponseCode.PARTIAL_CONTENT, result.code());
+        Assert.assertEquals("stuff", toString(result.representation()));
+        Assert.assertEquals(5, ((FileRep) result.representation()).offset());
+    }
+
+    @Test
+    public void answersRevalidationsWith304UntilTheFileChanges() throws Exception {
+        // given
+        DirSpec fs = dir("my-filesystem",
+                        file("stuff.txt", "some stuff"));
+        File temp = fs.create(tempDir());
+
+        FilesystemResourcesObject testSubject = new FilesystemResourcesObject("/{resource*}", temp);
+        String etag = valueOf(testSubject.get(new MockRequest(testSubject, "/stuff.txt")), "ETag");
+        MockRequest revalidation = new MockRequest(testSubject, "/stuff.txt", new GenericHeaderField("If-None-Match", etag));
+
+        // when
+        Response unchanged = testSubject.get(revalidation);
+        File stuff = new File(temp, "stuff.txt");
+        FileOutputStream out = new FileOutputStream(stuff);
+        out.write("other stuff".getBytes());
+        out.close();
+        Response changed = testSubject.get(revalidation);
+
+        // then
+        Assert.assertEquals(ResponseCode.NOT_MODIFIED, unchanged.code());
+        Assert.assertFalse(unchanged.hasRepresentation());
+        Assert.assertEquals(ResponseCode.OK, changed.code());
+        Assert.assertEquals("other stuff", toString(changed.representation()));
+        Assert.assertNotEquals(etag, valueOf(changed, "ETag"));
+    }
+
+    @Test
+    public void tagsFilesOverTheHashLimitByTheirSizeAndDate() throws Exception {
+        // given
+        DirSpec fs = dir("my-filesystem",
+                        file("small.txt", "tiny"),
+                        file("big.txt", "some bigger stuff"));
+        File temp = fs.create(tempDir());
+
+        FilesystemResourcesObject testSubject = new FilesystemResourcesObject("/{resource*}", temp, 100, 4);
+
+        // when
+        String small = valueOf(testSubject.get(new MockRequest(testSubject, "/small.txt")), "ETag");
+        String big = valueOf(testSubject.get(new MockRequest(testSubject, "/big.txt")), "ETag");
+
+        // then
+        Assert.assertEquals(ConditionalGet.of(new File(temp, "small.txt")).etag, small);
+        Assert.assertEquals(ConditionalGet.ofSizeAndDate(new File(temp, "big.txt")).etag, big);
+    }
+
+    @Test
+    public void keepsAnsweringRevalidationsWhenItCantRememberEveryFile() throws Exception {
+        // given
+        DirSpec fs = dir("my-filesystem",
+                        file("a.txt", "some stuff"),
+                        file("b.txt", "other stuff"));
+        File temp = fs.create(tempDir());
+
+        FilesystemResourcesObject testSubject = new FilesystemResourcesObject("/{resource*}", temp, 1, FilesystemResourcesObject.DEFAULT_MAX_HASHED_BYTES);
+        String a = valueOf(testSubject.get(new MockRequest(testSubject, "/a.txt")), "ETag");
+        String b = valueOf(testSubject.get(new MockRequest(testSubject, "/b.txt")), "ETag");
+
+        // when
+        Response revalidatedA = testSubject.get(new MockRequest(testSubject, "/a.txt", new GenericHeaderField("If-None-Match", a)));
+        Response revalidatedB = testSubject.get(new MockRequest(testSubject, "/b.txt", new GenericHeaderField("If-None-Match", b)));
+
+        // then
+        Assert.assertEquals(ResponseCode.NOT_MODIFIED, revalidatedA.code());
+        Assert.assertEquals(ResponseCode.NOT_MODIFIED, revalidatedB.code());
+    }
+
+    @Test
+    public void servesWhatWasCompressedAheadOfTimeToThoseThatTakeIt() throws Exception {
+        // given
+        DirSpec fs = dir("my-filesystem",
+                        file("app.js", "plain"),
+                        file("app.js.br", "brotli"),
+                        file("app.js.gz", "gzipped"));
+        File temp = fs.create(tempDir());
+        FilesystemResourcesObject testSubject = new FilesystemResourcesObject("/{resource*}", temp);
+
+        // when
+        Response brotli = testSubject.get(new MockRequest(testSubject, "/app.js", new GenericHeaderField("Accept-Encoding", "gzip, deflate, br")));
+        Response gzipped = testSubject.get(new MockRequest(testSubject, "/app.js", new GenericHeaderField("Accept-Encoding", "gzip")));
+        Response plain = testSubject.get(new MockRequest(testSubject, "/app.js"));
+
+        // then
+        Assert.assertEquals("brotli", toString(brotli.representation()));
+        Assert.assertEquals("br", valueOf(brotli, "Content-Encoding"));
+        Assert.assertEquals("text/javascript", brotli.representation().contentType());
+        Assert.assertEquals("gzipped", toString(gzipped.representation()));
+        Assert.assertEquals("gzip", valueOf(gzipped, "Content-Encoding"));
+        Assert.assertEquals("plain", toString(plain.representation()));
+        Assert.assertNull(valueOf(plain, "Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", valueOf(plain, "Vary"));
+        Assert.assertEquals("Accept-Encoding", valueOf(gzipped, "Vary"));
+    }
+
     @Test
     public void doesntServeFilesOutsideOfTheBaseDir() {
         // given
@@ -94,6 +212,13 @@ public class FilesystemResourcesObjectTest {
     }
     
 
+    private static String valueOf(Response response, String name) {
+        for (HeaderField next : response.header()) {
+            if (next.name().equals(name)) return next.value();
+        }
+        return null;
+    }
+
     private static String toString(Representation representation) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         representation.write(out);
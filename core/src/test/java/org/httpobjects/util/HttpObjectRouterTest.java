@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+package org.httpobjects.util;
+
+import static org.httpobjects.DSL.OK;
+import static org.httpobjects.DSL.Text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.httpobjects.AsyncHttpObject;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.path.Path;
+import org.junit.Test;
+
+public class HttpObjectRouterTest {
+    
+    @Test
+    public void asyncRoutingMovesOnOnlyOnceAnObjectTurnsTheRequestDown() {
+        // given
+        final CompletableFuture<Response> later = new CompletableFuture<Response>();
+        HttpObject slow = new AsyncHttpObject("/app/{name}") {
+            @Override
+            public CompletionStage<Response> getAsync(Request req) {
+                return later;
+            }
+        };
+        HttpObject inbox = new HttpObject("/app/inbox") {
+            @Override
+            public Response get(Request req) {
+                return OK(Text("inbox"));
+            }
+        };
+        HttpObjectRouter router = new HttpObjectRouter(slow, inbox);
+        final List<HttpObject> offeredTo = new ArrayList<HttpObject>();
+        
+        // when
+        CompletableFuture<Response> result = router.routeAsync("/app/inbox", Method.GET, new HttpObjectRouter.AsyncAttempt() {
+            @Override
+            public CompletionStage<Response> attempt(HttpObject object, Path path) {
+                offeredTo.add(object);
+                return HttpObjectUtil.invokeMethodAsync(object, Method.GET, null);
+            }
+        }).toCompletableFuture();
+        boolean doneBeforeTheSlowOneAnswered = result.isDone();
+        int offeredBeforeTheSlowOneAnswered = offeredTo.size();
+        later.complete(null);
+        
+        // then
+        assertEquals(false, doneBeforeTheSlowOneAnswered);
+        assertEquals(1, offeredBeforeTheSlowOneAnswered);
+        assertEquals("inbox", HttpObjectUtil.toUtf8(result.join().representation()));
+        assertEquals(Arrays.asList(slow, inbox), offeredTo);
+    }
+    
+    @Test
+    public void theFirstNonNullResponseWins() {
+        // given
+        HttpObject nothing = new HttpObject("/app/{name}", null);
+        HttpObject inbox = new HttpObject("/app/inbox", OK(Text("inbox")));
+        HttpObject anything = new HttpObject("/{everything*}", OK(Text("anything")));
+        HttpObjectRouter router = new HttpObjectRouter(anything, nothing, inbox);
+        final List<HttpObject> offeredTo = new ArrayList<HttpObject>();
+        
+        // when
+        Response result = router.route("/app/inbox", new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                offeredTo.add(object);
+                return object == anything ? null : HttpObjectUtil.invokeMethod(object, Method.GET, null);
+            }
+        });
+        
+        // then
+        assertEquals("inbox", HttpObjectUtil.toUtf8(result.representation()));
+        assertEquals(3, offeredTo.size());
+        assertEquals(anything, offeredTo.get(0));
+        assertEquals(nothing, offeredTo.get(1));
+        assertEquals(inbox, offeredTo.get(2));
+    }
+    
+    @Test
+    public void passesAlongTheParsedPath() {
+        // given
+        HttpObjectRouter router = new HttpObjectRouter(
+                new HttpObject("/foo/baz"),
+                new HttpObject("/user/{id}/account/{name}"));
+        final List<Path> paths = new ArrayList<Path>();
+        
+        // when
+        router.route("/user/123/account/blah", new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                paths.add(path);
+                return null;
+            }
+        });
+        
+        // then
+        assertEquals(1, paths.size());
+        assertEquals("123", paths.get(0).valueFor("id"));
+        assertEquals("blah", paths.get(0).valueFor("name"));
+    }
+    
+    @Test
+    public void skipsObjectsThatDontImplementTheMethodAndHaveNoDefault() {
+        // given
+        HttpObject getOnly = new HttpObject("/app/inbox", null){
+            @Override
+            public Response get(Request req) {
+                return OK(Text("get"));
+            }
+        };
+        HttpObject post = new HttpObject("/app/{name}"){
+            @Override
+            public Response post(Request req) {
+                return OK(Text("post"));
+            }
+        };
+        HttpObjectRouter router = new HttpObjectRouter(getOnly, post);
+        final List<HttpObject> offeredTo = new ArrayList<HttpObject>();
+        
+        // when
+        Response result = router.route("/app/inbox", Method.POST, new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                offeredTo.add(object);
+                return HttpObjectUtil.invokeMethod(object, Method.POST, null);
+            }
+        });
+        
+        // then
+        assertEquals("post", HttpObjectUtil.toUtf8(result.representation()));
+        assertEquals(1, offeredTo.size());
+        assertEquals(post, offeredTo.get(0));
+    }
+    
+    @Test
+    public void saysWhichMethodsAreAllowedWithoutInvokingTheObject() {
+        // given
+        HttpObjectRouter router = new HttpObjectRouter(new HttpObject("/app/inbox"){
+            @Override
+            public Response get(Request req) {
+                return OK(Text("get"));
+            }
+            @Override
+            public Response put(Request req) {
+                return OK(Text("put"));
+            }
+        });
+        final List<HttpObject> offeredTo = new ArrayList<HttpObject>();
+        
+        // when
+        Response result = router.route("/app/inbox", Method.DELETE, new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                offeredTo.add(object);
+                return HttpObjectUtil.invokeMethod(object, Method.DELETE, null);
+            }
+        });
+        
+        // then
+        assertTrue(offeredTo.isEmpty());
+        assertTrue(result.code().eq(ResponseCode.METHOD_NOT_ALLOWED));
+        assertEquals("Allow", result.header()[0].name());
+        assertEquals("GET, PUT", result.header()[0].value());
+    }
+    
+    @Test
+    public void goesStraightToTheObjectThatAnsweredLastTime() {
+        // given
+        HttpObject nothing = new HttpObject("/app/{name}", null);
+        HttpObject inbox = new HttpObject("/app/inbox"){
+            @Override
+            public Response get(Request req) {
+                return OK(Text("inbox"));
+            }
+        };
+        RouteCache cache = new RouteCache(10);
+        HttpObjectRouter router = new HttpObjectRouter(Arrays.asList(nothing, inbox), cache);
+        final List<HttpObject> offeredTo = new ArrayList<HttpObject>();
+        HttpObjectRouter.Attempt attempt = new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                offeredTo.add(object);
+                return HttpObjectUtil.invokeMethod(object, Method.GET, null);
+            }
+        };
+        
+        // when
+        router.route("/app/inbox", Method.GET, attempt);
+        offeredTo.clear();
+        Response result = router.route("/app/inbox", Method.GET, attempt);
+        
+        // then
+        assertEquals("inbox", HttpObjectUtil.toUtf8(result.representation()));
+        assertEquals(Arrays.asList(inbox), offeredTo);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+    
+    @Test
+    public void doesntCacheRoutesThroughUncacheableObjects() {
+        // given
+        class Sometimes extends HttpObject implements RouteCache.Uncacheable {
+            Response response = null;
+            Sometimes() { super("/app/{name}"); }
+            @Override
+            public Response get(Request req) {
+                return response;
+            }
+        }
+        Sometimes sometimes = new Sometimes();
+        HttpObject inbox = new HttpObject("/app/inbox", OK(Text("inbox")));
+        RouteCache cache = new RouteCache(10);
+        HttpObjectRouter router = new HttpObjectRouter(Arrays.asList(sometimes, inbox), cache);
+        HttpObjectRouter.Attempt attempt = new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                return HttpObjectUtil.invokeMethod(object, Method.GET, null);
+            }
+        };
+        
+        // when
+        router.route("/app/inbox", Method.GET, attempt);
+        sometimes.response = OK(Text("sometimes"));
+        Response result = router.route("/app/inbox", Method.GET, attempt);
+        
+        // then
+        assertEquals("sometimes", HttpObjectUtil.toUtf8(result.representation()));
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void forgetsTheLeastRecentlyUsedRoutes() {
+        // given
+        RouteCache cache = new RouteCache(2);
+        HttpObjectRouter router = new HttpObjectRouter(Arrays.asList(new HttpObject("/{name}", OK(Text("hi")))), cache);
+        HttpObjectRouter.Attempt attempt = new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                return HttpObjectUtil.invokeMethod(object, Method.GET, null);
+            }
+        };
+        
+        // when
+        router.route("/a", Method.GET, attempt);
+        router.route("/b", Method.GET, attempt);
+        router.route("/a", Method.GET, attempt);
+        router.route("/c", Method.GET, attempt);
+        router.route("/a", Method.GET, attempt);
+        router.route("/b", Method.GET, attempt);
+        
+        // then
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.hits());
+        assertEquals(4, cache.misses());
+    }
+    
+    @Test
+    public void staysWithinItsBoundWhenRoutedToFromManyThreads() throws Exception {
+        // given
+        final RouteCache cache = new RouteCache(50);
+        final HttpObjectRouter router = new HttpObjectRouter(Arrays.asList(new HttpObject("/{name}", OK(Text("hi")))), cache);
+        final HttpObjectRouter.Attempt attempt = new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                return HttpObjectUtil.invokeMethod(object, Method.GET, null);
+            }
+        };
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int x = 0; x < 5000; x++) {
+                        // mostly the same few routes, with the odd one-off
+                        final int n = x % 10 == 0 ? seed * 100000 + x : x % 20;
+                        router.route("/" + n, Method.GET, attempt);
+                    }
+                }
+            });
+        }
+        
+        // when
+        for (Thread next : threads) next.start();
+        for (Thread next : threads) next.join();
+        
+        // then
+        assertTrue(cache.size() <= 50);
+        assertEquals(8 * 5000, cache.hits() + cache.misses());
+        assertTrue(cache.hits() > cache.misses());
+    }
+    
+    @Test
+    public void returnsNullWhenNothingMatches() {
+        // given
+        HttpObjectRouter router = new HttpObjectRouter(new HttpObject("/foo", OK(Text("foo"))));
+        
+        // when
+        Response result = router.route("/bar", new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject object, Path path) {
+                return HttpObjectUtil.invokeMethod(object, Method.GET, null);
+            }
+        });
+        
+        // then
+        assertNull(result);
+    }
+}
@@ -42,9 +42,14 @@ import static org.httpobjects.DSL.OK;
 import static org.httpobjects.DSL.Text;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 
+import org.httpobjects.AsyncHttpObject;
+import org.httpobjects.DSL;
 import org.httpobjects.HttpObject;
 import org.httpobjects.Representation;
 import org.httpobjects.Request;
@@ -89,6 +94,35 @@ public class HttpObjectUtilTest {
 
     }
 
+    @Test
+    public void knowsWhichVerbsAreOverridden() {
+        // given
+        final PatchTestingObject o = new PatchTestingObject("/foo", OK(Text("Hello World")));
+
+        // when
+        EnumSet<Method> result = HttpObjectUtil.implementedMethods(o);
+
+        // then
+        assertEquals(EnumSet.of(Method.PATCH), result);
+    }
+
+    @Test
+    public void knowsWhichAsyncVerbsAreOverridden() {
+        // given
+        final HttpObject o = new AsyncHttpObject("/foo") {
+            @Override
+            public CompletionStage<Response> postAsync(Request req) {
+                return completed(OK(Text("Hello World")));
+            }
+        };
+
+        // when
+        EnumSet<Method> result = HttpObjectUtil.implementedMethods(o);
+
+        // then
+        assertEquals(EnumSet.of(Method.POST), result);
+    }
+
     @Test
     public void representationToAscii() {
         // given
@@ -112,4 +146,52 @@ public class HttpObjectUtilTest {
         String actual = HttpObjectUtil.toString(body, "UTF-8");
         assertThat(actual, is("Hello World!"));
     }
+
+    @Test
+    public void bytesAreCopiedSoTheArrayCanBeReused() {
+        // given
+        byte[] data = {1, 2, 3};
+        Representation body = DSL.Bytes("application/octet-stream", data);
+
+        // when
+        data[0] = 9;
+
+        // then
+        assertArrayEquals(new byte[]{1, 2, 3}, HttpObjectUtil.toByteArray(body));
+    }
+
+    @Test
+    public void streamToByteArrayWhateverTheClaimedLength() throws Exception {
+        // given
+        byte[] data = new byte[20000];
+        for (int x = 0; x < data.length; x++) data[x] = (byte) x;
+
+        // when
+        byte[] exact = HttpObjectUtil.toByteArray(new ByteArrayInputStream(data), data.length);
+        byte[] unknown = HttpObjectUtil.toByteArray(new ByteArrayInputStream(data), -1);
+        byte[] claimedTooLittle = HttpObjectUtil.toByteArray(new ByteArrayInputStream(data), 10);
+        byte[] claimedTooMuch = HttpObjectUtil.toByteArray(new ByteArrayInputStream(data), 30000);
+        byte[] claimedEnormously = HttpObjectUtil.toByteArray(new ByteArrayInputStream(data), Long.MAX_VALUE);
+        byte[] empty = HttpObjectUtil.toByteArray(new ByteArrayInputStream(new byte[0]), 0);
+        byte[] big = new byte[200000];
+        for (int x = 0; x < big.length; x++) big[x] = (byte) (x * 7);
+        byte[] bigExact = HttpObjectUtil.toByteArray(new ByteArrayInputStream(big), big.length);
+        byte[] bigKnown = HttpObjectUtil.toByteArray(new ByteArrayInputStream(big), big.length, true);
+        byte[] bigUnknown = HttpObjectUtil.toByteArray(new ByteArrayInputStream(big), -1);
+        byte[] bigClaimedTooLittle = HttpObjectUtil.toByteArray(new ByteArrayInputStream(big), 100000);
+        byte[] knownTooShort = HttpObjectUtil.toByteArray(new ByteArrayInputStream(data), data.length - 1, true);
+
+        // then
+        assertArrayEquals(data, exact);
+        assertArrayEquals(data, unknown);
+        assertArrayEquals(data, claimedTooLittle);
+        assertArrayEquals(data, claimedTooMuch);
+        assertArrayEquals(data, claimedEnormously);
+        assertEquals(0, empty.length);
+        assertArrayEquals(big, bigExact);
+        assertArrayEquals(big, bigKnown);
+        assertArrayEquals(big, bigUnknown);
+        assertArrayEquals(big, bigClaimedTooLittle);
+        assertArrayEquals(data, knownTooShort);
+    }
 }
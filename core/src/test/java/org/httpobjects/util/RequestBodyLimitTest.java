@@ -0,0 +1,93 @@
+package org.httpobjects.util;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
+import org.httpobjects.representation.StreamingRep;
+import org.httpobjects.test.MockRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class RequestBodyLimitTest {
+
+    @Test
+    public void theTighterLimitWins() throws Exception {
+        // given
+        HttpObject unlimited = new HttpObject("/");
+        HttpObject limited = new HttpObject("/") {
+            @Override
+            public long maxRequestBodySize() {
+                return 10;
+            }
+        };
+
+        // then
+        assertEquals(100, RequestBodyLimit.forObject(100, unlimited));
+        assertEquals(10, RequestBodyLimit.forObject(100, limited));
+        assertEquals(10, RequestBodyLimit.forObject(RequestBodyLimit.UNLIMITED, limited));
+        assertEquals(5, RequestBodyLimit.forObject(5, limited));
+        assertEquals(RequestBodyLimit.UNLIMITED, RequestBodyLimit.forObject(RequestBodyLimit.UNLIMITED, unlimited));
+    }
+
+    @Test
+    public void onlyKnownLengthsOverTheLimitExceedIt() throws Exception {
+        // then
+        assertFalse(RequestBodyLimit.exceeds(10, 10));
+        assertTrue(RequestBodyLimit.exceeds(10, 11));
+        assertFalse(RequestBodyLimit.exceeds(10, -1));
+        assertFalse(RequestBodyLimit.exceeds(RequestBodyLimit.UNLIMITED, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readingStopsOncePastTheLimit() throws Exception {
+        // given
+        InputStream body = RequestBodyLimit.limit(in("0123456789"), 5);
+        byte[] buffer = new byte[4];
+
+        // when
+        int first = body.read(buffer);
+        Exception err = null;
+        try {
+            body.read(buffer);
+        } catch (IOException e) {
+            err = e;
+        }
+
+        // then
+        assertEquals(4, first);
+        assertTrue(RequestBodyLimit.isTooLarge(err));
+    }
+
+    @Test
+    public void objectsThatReadPastTheLimitGetA413() throws Exception {
+        // given
+        HttpObject echo = new HttpObject("/") {
+            @Override
+            public Response post(Request req) {
+                return OK(Text(HttpObjectUtil.toUtf8(req.representation())));
+            }
+        };
+        Request request = new MockRequest(echo, "/", new StreamingRep("text/plain", RequestBodyLimit.limit(in("0123456789"), 5)));
+
+        // when
+        Response response = RequestBodyLimit.invokeMethod(echo, Method.POST, request);
+        Response later = RequestBodyLimit.invokeMethodAsync(echo, Method.POST,
+                new MockRequest(echo, "/", new StreamingRep("text/plain", RequestBodyLimit.limit(in("0123456789"), 5))))
+                .toCompletableFuture().get();
+
+        // then
+        assertEquals(ResponseCode.REQUEST_ENTITY_TOO_LARGE, response.code());
+        assertEquals(ResponseCode.REQUEST_ENTITY_TOO_LARGE, later.code());
+    }
+
+    private static InputStream in(String str) {
+        return new ByteArrayInputStream(str.getBytes(UTF_8));
+    }
+}
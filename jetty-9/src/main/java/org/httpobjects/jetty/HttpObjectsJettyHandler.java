@@ -41,21 +41,53 @@ import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.httpobjects.AsyncHttpObject;
 import org.httpobjects.HttpObject;
+import org.httpobjects.Response;
+import org.httpobjects.util.RequestBodyLimit;
 import org.httpobjects.header.GenericHeaderField;
 import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.servlet.PathMatchObserver;
 import org.httpobjects.servlet.ServletMethodInvoker;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 
 public class HttpObjectsJettyHandler extends org.eclipse.jetty.server.handler.AbstractHandler {
+    /**
+     * Where a response that took its time is left for the request's next dispatch.
+     */
+    private static final String PENDING = HttpObjectsJettyHandler.class.getName() + ".pending";
+
+    /**
+     * How long a request can be waited on, unless told otherwise: jetty's own default.
+     */
+    public static final long DEFAULT_ASYNC_TIMEOUT = 30000;
+
+    /** where a request being handled without blocking has got to; it only ever moves forward */
+    private static final int READING = 0, WAITING = 1, WRITING = 2, OVER = 3;
+
     private final ServletMethodInvoker invoker;
+    private final boolean nonBlockingIO;
+    private final long asyncTimeout;
 
     public HttpObjectsJettyHandler(HttpObject... objects) {
         this(Collections.<HeaderField>emptyList(), objects);
@@ -63,23 +95,236 @@ public class HttpObjectsJettyHandler extends org.eclipse.jetty.server.handler.Ab
 
 
     public HttpObjectsJettyHandler(List<? extends HeaderField> defaultResponseHeaders, HttpObject... objects) {
-        invoker = new ServletMethodInvoker(defaultResponseHeaders, HttpObject.NOT_FOUND(HttpObject.Text("Error: NOT_FOUND")), objects);
+        this(defaultResponseHeaders, false, objects);
+    }
+
+    /**
+     * @param nonBlockingIO read request bodies and write response bodies with {@link NonBlockingServletIO},
+     *        so that no thread waits on a slow client.  Request bodies are read in before the object
+     *        is asked for its response, into memory while they're small and a temp file once they
+     *        aren't, and are limited to {@link NonBlockingServletIO#DEFAULT_MAX_REQUEST_BODY_SIZE};
+     *        response bodies are passed along a chunk at a time where the representation allows it.
+     */
+    public HttpObjectsJettyHandler(List<? extends HeaderField> defaultResponseHeaders, boolean nonBlockingIO, HttpObject... objects) {
+        this(defaultResponseHeaders, nonBlockingIO, nonBlockingIO ? NonBlockingServletIO.DEFAULT_MAX_REQUEST_BODY_SIZE : RequestBodyLimit.UNLIMITED, objects);
+    }
+
+    /**
+     * @param maxRequestBodySize the most bytes any request body may have, or {@link RequestBodyLimit#UNLIMITED};
+     *        bigger ones are answered with a 413
+     */
+    public HttpObjectsJettyHandler(List<? extends HeaderField> defaultResponseHeaders, boolean nonBlockingIO, long maxRequestBodySize, HttpObject... objects) {
+        this(defaultResponseHeaders, nonBlockingIO, maxRequestBodySize, DEFAULT_ASYNC_TIMEOUT, objects);
+    }
+
+    /**
+     * @param asyncTimeout how many milliseconds a request is given once the thread has been handed
+     *        back to jetty, i.e. while its body is read without blocking (after which it's answered
+     *        with a 408), or while the object takes its time with the response (a 503).  Once the
+     *        response is being written, it's the time there is to finish writing it, so it should be
+     *        long enough for the biggest response to reach the slowest client there is to serve;
+     *        past that the connection is cut off.
+     */
+    public HttpObjectsJettyHandler(List<? extends HeaderField> defaultResponseHeaders, boolean nonBlockingIO, long maxRequestBodySize, long asyncTimeout, HttpObject... objects) {
+        this.invoker = new ServletMethodInvoker(PathMatchObserver.DO_NOTHING, defaultResponseHeaders, HttpObject.NOT_FOUND(HttpObject.Text("Error: NOT_FOUND")), objects, null, maxRequestBodySize);
+        this.nonBlockingIO = nonBlockingIO;
+        this.asyncTimeout = asyncTimeout;
     }
 
     @Override
-    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+    public void handle(String target, Request baseRequest, HttpServletRequest request, final HttpServletResponse response)
             throws IOException, ServletException {
 
-        try {
-            final boolean invocationHappened = invoker.invokeFirstPathMatchIfAble(target, request, response);
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Response> answered = (CompletableFuture<Response>) request.getAttribute(PENDING);
+        if (answered != null) {
+            // dispatched again, now that the response is here
+            request.removeAttribute(PENDING);
+            respond(answered, baseRequest, request, response);
+            return;
+        }
+
+        if (nonBlockingIO) {
+            handleWithoutBlocking(target, baseRequest, request, response);
+            return;
+        }
+
+        respond(invoker.respondAsync(target, request).toCompletableFuture(), baseRequest, request, response);
+    }
 
-            if (invocationHappened)
+    /**
+     * Writes the response if it's there, or else waits for it without holding on to the thread.  Once
+     * it comes, the request is {@link AsyncContext#dispatch() dispatched} again to write it, so that it's
+     * written on one of jetty's threads (rather than whichever one happened to finish it) and
+     * exactly as it would have been had it come straight away: in particular, a null response
+     * leaves the request unhandled either way.
+     */
+    private void respond(final CompletableFuture<Response> pending, Request baseRequest, final HttpServletRequest request, final HttpServletResponse response) {
+        try {
+            if (pending.isDone()) {
+                final Response r = AsyncHttpObject.await(pending);
+                if (r != null) {
+                    returnResponse(r, response);
+                    setHandled(baseRequest);
+                }
+            } else {
+                // the response is on its way; hand the thread back to jetty in the meantime
+                final AsyncContext async = request.startAsync();
+                final AtomicBoolean over = new AtomicBoolean();
+                async.setTimeout(asyncTimeout);
+                async.addListener(new OnTimeout() {
+                    @Override
+                    public void onTimeout(AsyncEvent event) throws IOException {
+                        if (over.compareAndSet(false, true)) {
+                            request.removeAttribute(PENDING);
+                            response.sendError(503);
+                            async.complete();
+                        }
+                    }
+                });
                 setHandled(baseRequest);
+                request.setAttribute(PENDING, pending);
+                pending.whenComplete(new BiConsumer<Response, Throwable>() {
+                    @Override
+                    public void accept(Response r, Throwable error) {
+                        if (over.compareAndSet(false, true)) async.dispatch();
+                    }
+                });
+            }
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Unhandled error: " + e, e);
         }
+    }
+
+    private void handleWithoutBlocking(final String target, Request baseRequest, final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        final AsyncContext async = request.startAsync();
+        final AtomicInteger stage = new AtomicInteger(READING);
+        async.setTimeout(asyncTimeout);
+        async.addListener(new OnTimeout() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                final int was = stage.getAndSet(OVER);
+                if (was == OVER) return;
+                // once it's being written, there's nothing left to do but let go of it
+                if (was != WRITING) response.sendError(was == READING ? 408 : 503);
+                async.complete();
+            }
+        });
+        setHandled(baseRequest);
+
+        final AtomicReference<NonBlockingServletIO.SpooledBody> spooled = new AtomicReference<NonBlockingServletIO.SpooledBody>();
+        final String contentType = request.getContentType();
+        NonBlockingServletIO.spoolBody(request, invoker.maxRequestBodySize(target, request), NonBlockingServletIO.DEFAULT_MEMORY_THRESHOLD).thenCompose(new Function<NonBlockingServletIO.SpooledBody, CompletionStage<Response>>() {
+            @Override
+            public CompletionStage<Response> apply(NonBlockingServletIO.SpooledBody body) {
+                spooled.set(body);
+                if (!advance(stage, WAITING)) return CompletableFuture.completedFuture(null);
+                try {
+                    return invoker.respondAsync(target, request, body.representation(contentType));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }
+        }).exceptionally(new Function<Throwable, Response>() {
+            @Override
+            public Response apply(Throwable error) {
+                if (RequestBodyLimit.isTooLarge(error)) return RequestBodyLimit.tooLarge();
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            }
+        }).thenCompose(new Function<Response, CompletionStage<Void>>() {
+            @Override
+            public CompletionStage<Void> apply(Response r) {
+                try {
+                    if (r == null) {
+                        // left unhandled, as it would be without non-blocking IO
+                        if (advance(stage, OVER)) {
+                            request.setAttribute(PENDING, CompletableFuture.completedFuture(null));
+                            async.dispatch();
+                        }
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    if (!advance(stage, WRITING)) return CompletableFuture.completedFuture(null);
+                    invoker.returnHeaders(r, response);
+                    final FileRep file = fileIn(r);
+                    if (file != null && NonBlockingServletIO.canWriteFiles(response)) {
+                        return NonBlockingServletIO.writeFile(response, file);
+                    }
+                    if (!r.hasRepresentation()) {
+                        return NonBlockingServletIO.writeBody(response, new byte[0]);
+                    }
+                    // pushed out on one of jetty's threads (AsyncContext.start() wants a ContextHandler to run it in)
+                    return NonBlockingServletIO.writeBody(response, r.representation(), getServer().getThreadPool(), NonBlockingServletIO.DEFAULT_WRITE_TIMEOUT);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void done, Throwable error) {
+                // already over if it timed out, or was dispatched again
+                final boolean over = stage.getAndSet(OVER) == OVER;
+                try {
+                    if (error != null) {
+                        error.printStackTrace();
+                        if (!over && !response.isCommitted()) response.sendError(500);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    final NonBlockingServletIO.SpooledBody body = spooled.get();
+                    if (body != null) body.dispose();
+                    if (!over) async.complete();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return whether the request was moved on to the stage, i.e. hadn't got to it (or past it) already
+     */
+    private static boolean advance(AtomicInteger stage, int to) {
+        while (true) {
+            final int was = stage.get();
+            if (was >= to) return false;
+            if (stage.compareAndSet(was, to)) return true;
+        }
+    }
+
+    /**
+     * An {@link AsyncListener} for just the timeout.
+     */
+    private static abstract class OnTimeout implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Like {@link ServletMethodInvoker#returnResponse(Response, HttpServletResponse)}, except that
+     * a file is handed to jetty to send as it is, rather than copied through the output stream.
+     */
+    private void returnResponse(Response r, HttpServletResponse response) throws IOException {
+        final FileRep file = fileIn(r);
+        if (file != null && NonBlockingServletIO.canWriteFiles(response)) {
+            invoker.returnHeaders(r, response);
+            NonBlockingServletIO.writeFileAndWait(response, file);
+        } else {
+            invoker.returnResponse(r, response);
+        }
+    }
 
+    private static FileRep fileIn(Response r) {
+        return r.hasRepresentation() && r.representation() instanceof FileRep ? (FileRep) r.representation() : null;
     }
 
     private void setHandled(Request baseRequest) {
@@ -120,6 +365,46 @@ public class HttpObjectsJettyHandler extends org.eclipse.jetty.server.handler.Ab
         }
     }
 
+    /**
+     * @param threadPool what runs the objects (and jetty's own acceptors and selectors), e.g.
+     *        {@link VirtualThreadPool#orQueuedThreadPool()}; see {@link ThreadPoolStats} for
+     *        keeping an eye on it
+     */
+    public static Server launchServer(int port, ThreadPool threadPool, HttpObject... objects) {
+        try {
+            Server s = new Server(threadPool);
+
+            ServerConnector connector = new ServerConnector(s);
+            connector.setPort(port);
+            s.setConnectors(new Connector[]{connector});
+
+            s.setHandler(new HttpObjectsJettyHandler(Collections.singletonList(new GenericHeaderField("Cache-Control", "no-cache")), objects));
+
+            s.start();
+
+            return s;
+        } catch (Exception e) {
+            throw new RuntimeException("" + e.getMessage() + " (port = " + port + ")", e);
+        }
+    }
+
+    /**
+     * Like {@link #launchServer(int, HttpObject...)}, but with bodies read and written without
+     * blocking; see {@link #HttpObjectsJettyHandler(List, boolean, HttpObject...)}.
+     */
+    public static Server launchNonBlockingServer(int port, HttpObject... objects) {
+        try {
+            Server s = new Server(port);
+            s.setHandler(new HttpObjectsJettyHandler(Collections.singletonList(new GenericHeaderField("Cache-Control", "no-cache")), true, objects));
+
+            s.start();
+
+            return s;
+        } catch (Exception e) {
+            throw new RuntimeException("" + e.getMessage() + " (port = " + port + ")", e);
+        }
+    }
+
     //Replacement for launchServer.
     //Easier to test because the jetty server is hidden behind an interface.
     //Replaced checked exceptions with unchecked exceptions.
@@ -0,0 +1,629 @@
+package org.httpobjects.jetty;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.util.Callback;
+import org.httpobjects.Representation;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.representation.ImmutableRep;
+import org.httpobjects.representation.StreamingRep;
+import org.httpobjects.servlet.impl.HttpServletRequestUtil;
+import org.httpobjects.util.ByteRanges;
+import org.httpobjects.util.RequestBodyLimit;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads request bodies and writes response bodies with Servlet 3.1's {@link ReadListener} and
+ * {@link WriteListener}, so that a client that's slow to send or to take its bytes doesn't hold
+ * onto a thread in the meantime: the container calls back whenever there's more that can be done.
+ * <p>
+ * Reading and writing bodies need the request to have been put into async mode
+ * (<code>startAsync()</code>) first.  Files can be written either way.
+ */
+public final class NonBlockingServletIO {
+    /**
+     * How much is read or written at a go.
+     */
+    public static final int CHUNK_SIZE = 8192;
+
+    /**
+     * How much of a file is read at a go: as big a buffer as jetty's pool keeps by default, so
+     * that it's a pooled (direct) one, rather than one allocated for each response.
+     */
+    public static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * How many chunks a push-style representation can get ahead of the client.
+     */
+    public static final int MAX_PIPED_CHUNKS = 16;
+
+    /**
+     * How long a push-style representation waits for the client to take something, once it's
+     * {@link #MAX_PIPED_CHUNKS} chunks ahead, before giving up on it.
+     */
+    public static final long DEFAULT_WRITE_TIMEOUT = 30000;
+
+    /**
+     * How much of a request body is kept in memory, unless told otherwise; any more and it's moved
+     * out to a temp file.
+     */
+    public static final int DEFAULT_MEMORY_THRESHOLD = 64 * 1024;
+
+    /**
+     * The most bytes a request body may have, unless told otherwise.
+     */
+    public static final long DEFAULT_MAX_REQUEST_BODY_SIZE = 8 * 1024 * 1024;
+
+    private NonBlockingServletIO() {
+    }
+
+    /**
+     * @return the whole body, once it has all come in; or a {@link RequestBodyLimit.TooLargeException}
+     *         when it's bigger than {@link #DEFAULT_MAX_REQUEST_BODY_SIZE}
+     */
+    public static CompletionStage<SpooledBody> spoolBody(HttpServletRequest request) throws IOException {
+        return spoolBody(request, DEFAULT_MAX_REQUEST_BODY_SIZE, DEFAULT_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Reads the body as it comes in, into memory while there's no more of it than the threshold,
+     * and into a temp file after that.
+     *
+     * @param limit the most bytes the body may have, or {@link RequestBodyLimit#UNLIMITED}
+     * @return the whole body, once it has all come in, to be {@link SpooledBody#dispose() disposed}
+     *         of when done with; or a {@link RequestBodyLimit.TooLargeException} as soon as it's
+     *         clear that there's too much of it
+     */
+    public static CompletionStage<SpooledBody> spoolBody(HttpServletRequest request, final long limit, final int memoryThreshold) throws IOException {
+        final CompletableFuture<SpooledBody> body = new CompletableFuture<SpooledBody>();
+        final long contentLength = HttpServletRequestUtil.contentLength(request);
+        if (RequestBodyLimit.exceeds(limit, contentLength)) {
+            body.completeExceptionally(new RequestBodyLimit.TooLargeException(limit));
+            return body;
+        }
+        final ServletInputStream in = request.getInputStream();
+        // what the body says about its length only goes so far: it's the bytes that count
+        final int expected = (int) Math.min(contentLength, memoryThreshold);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+
+        in.setReadListener(new ReadListener() {
+            private Memory memory = new Memory(Math.max(expected, 32));
+            private File file;
+            private OutputStream fileOut;
+            private long size;
+
+            @Override
+            public void onDataAvailable() throws IOException {
+                while (in.isReady() && !in.isFinished()) {
+                    final int read = in.read(chunk);
+                    if (read == -1) return;
+                    size += read;
+                    if (RequestBodyLimit.exceeds(limit, size)) {
+                        // reading no further leaves the rest of it to the container, which hangs up
+                        discard();
+                        body.completeExceptionally(new RequestBodyLimit.TooLargeException(limit));
+                        return;
+                    }
+                    if (file == null && size > memoryThreshold) {
+                        file = File.createTempFile(NonBlockingServletIO.class.getSimpleName(), ".body");
+                        fileOut = new FileOutputStream(file);
+                        memory.writeTo(fileOut);
+                        memory = null;
+                    }
+                    if (file != null) {
+                        fileOut.write(chunk, 0, read);
+                    } else {
+                        memory.write(chunk, 0, read);
+                    }
+                }
+            }
+
+            @Override
+            public void onAllDataRead() throws IOException {
+                if (fileOut != null) fileOut.close();
+                body.complete(new SpooledBody(memory, file, size));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                discard();
+                body.completeExceptionally(t);
+            }
+
+            private void discard() {
+                if (file != null) {
+                    close(fileOut);
+                    delete(file);
+                }
+                memory = null;
+            }
+        });
+        return body;
+    }
+
+    /**
+     * A request body that has all come in, be it in memory or in a temp file.
+     */
+    public static final class SpooledBody {
+        private final Memory memory;
+        private final File file;
+        private final long length;
+
+        private SpooledBody(Memory memory, File file, long length) {
+            this.memory = memory;
+            this.file = file;
+            this.length = length;
+        }
+
+        /**
+         * @return how many bytes there are
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @return whether it was too big to be kept in memory
+         */
+        public boolean isSpooledToDisk() {
+            return file != null;
+        }
+
+        /**
+         * @return the body, from the start, which is the caller's to close
+         */
+        public InputStream stream() throws IOException {
+            return file != null ? new FileInputStream(file) : memory.stream();
+        }
+
+        /**
+         * @return the body, read from where it's kept (rather than copied anywhere else)
+         */
+        public StreamingRep representation(String contentType) throws IOException {
+            return new StreamingRep(contentType, stream(), length, true);
+        }
+
+        /**
+         * Deletes the temp file, if there is one.
+         */
+        public void dispose() {
+            if (file != null) delete(file);
+        }
+    }
+
+    /**
+     * Bytes in memory that can be read back without being copied.
+     */
+    private static final class Memory extends ByteArrayOutputStream {
+        Memory(int size) {
+            super(size);
+        }
+
+        InputStream stream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    /**
+     * Writes the body, along with its length.
+     *
+     * @return done once all of it has been handed over to the container
+     */
+    public static CompletionStage<Void> writeBody(HttpServletResponse response, byte[] body) throws IOException {
+        return writeBody(response, new ByteArrayInputStream(body), body.length);
+    }
+
+    /**
+     * Writes the representation as the client takes it, without it being rendered into memory
+     * first.  One that can be read from ({@link ImmutableRep}, {@link StreamingRep}) is passed along
+     * {@link #CHUNK_SIZE} bytes at a time; the {@link ByteRanges.MultipartByteRanges ranges} of a
+     * file go the way a {@link #writeFile(HttpServletResponse, FileRep) file} does; and any other,
+     * which can only push its bytes, pushes them into a pipe on one of the producers' threads,
+     * from which they're passed along.  That thread waits whenever the pipe has
+     * {@link #MAX_PIPED_CHUNKS} chunks in it, for as long as the timeout, before giving up on the
+     * client.
+     *
+     * @param producers where push-style representations are written out
+     * @return done once all of it has been handed over to the container
+     */
+    public static CompletionStage<Void> writeBody(HttpServletResponse response, Representation body, Executor producers, long timeoutMillis) throws IOException {
+        if (body instanceof ImmutableRep) {
+            final ImmutableRep rep = (ImmutableRep) body;
+            return writeBody(response, rep.stream(), rep.length());
+        } else if (body instanceof StreamingRep) {
+            return writeBody(response, ((StreamingRep) body).stream(), -1);
+        } else if (body instanceof ByteRanges.MultipartByteRanges) {
+            final ByteRanges.MultipartByteRanges ranges = (ByteRanges.MultipartByteRanges) body;
+            final List<Representation> pieces = ranges.pieces();
+            response.setContentLengthLong(ranges.length());
+            if (canWriteFiles(response) && canBeRead(pieces)) {
+                return writeChannel(response, channelOf(pieces));
+            }
+            return writePushed(response, body, producers, timeoutMillis);
+        } else {
+            return writePushed(response, body, producers, timeoutMillis);
+        }
+    }
+
+    private static boolean canBeRead(List<Representation> pieces) {
+        for (Representation piece : pieces) {
+            if (!(piece instanceof FileRep || piece instanceof ImmutableRep)) return false;
+        }
+        return true;
+    }
+
+    private static CompletionStage<Void> writePushed(HttpServletResponse response, final Representation body, Executor producers, long timeoutMillis) throws IOException {
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        final Pipe pipe = new Pipe(response.getOutputStream(), done, timeoutMillis);
+        response.getOutputStream().setWriteListener(pipe);
+        producers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    body.write(pipe);
+                    pipe.close();
+                } catch (Throwable t) {
+                    pipe.fail(t);
+                }
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Writes what's read from the stream, {@link #CHUNK_SIZE} bytes at a time, as the client takes
+     * them, and then closes it.
+     *
+     * @param length how many bytes there are, or -1 when that isn't known (and the body is sent chunked)
+     * @return done once all of it has been handed over to the container
+     */
+    public static CompletionStage<Void> writeBody(HttpServletResponse response, final InputStream body, long length) throws IOException {
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        if (length >= 0) response.setContentLengthLong(length);
+        final ServletOutputStream out = response.getOutputStream();
+        // the container only calls back for more once it's done with what it was last given
+        final byte[] chunk = new byte[CHUNK_SIZE];
+
+        out.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritePossible() throws IOException {
+                while (out.isReady()) {
+                    final int read = body.read(chunk);
+                    if (read == -1) {
+                        body.close();
+                        done.complete(null);
+                        return;
+                    }
+                    out.write(chunk, 0, read);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                close(body);
+                done.completeExceptionally(t);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * @return whether {@link #writeFile(HttpServletResponse, FileRep)} can send files to this response
+     */
+    public static boolean canWriteFiles(HttpServletResponse response) throws IOException {
+        return response.getOutputStream() instanceof HttpOutput;
+    }
+
+    /**
+     * Writes the file (or the stretch of it that the {@link FileRep} covers), along with its length,
+     * without it passing through the heap: it's handed to jetty as a channel, which jetty reads
+     * {@link #FILE_BUFFER_SIZE} bytes at a time into a direct buffer, as the client takes them.  (The
+     * file isn't mapped into memory: a mapping per response would take as much address space as
+     * the file is long, for each response in progress, and wouldn't be let go of until collected.)
+     *
+     * @return done once all of it has been written
+     */
+    public static CompletionStage<Void> writeFile(HttpServletResponse response, FileRep file) throws IOException {
+        response.setContentLengthLong(file.length());
+        return writeChannel(response, channelOf(file));
+    }
+
+    /**
+     * Hands the channel to jetty, which reads it {@link #FILE_BUFFER_SIZE} bytes at a time into
+     * a pooled (direct) buffer as the client takes them, and closes it once it's done.
+     */
+    private static CompletionStage<Void> writeChannel(HttpServletResponse response, final ReadableByteChannel channel) throws IOException {
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        final HttpOutput out = (HttpOutput) response.getOutputStream();
+        final Callback callback = new Callback() {
+            @Override
+            public void succeeded() {
+                close(channel);
+                done.complete(null);
+            }
+
+            @Override
+            public void failed(Throwable t) {
+                close(channel);
+                done.completeExceptionally(t);
+            }
+        };
+        if (response.getBufferSize() < FILE_BUFFER_SIZE) response.setBufferSize(FILE_BUFFER_SIZE);
+        out.sendContent(channel, callback);
+        return done;
+    }
+
+    /**
+     * Like {@link #writeFile(HttpServletResponse, FileRep)}, but waits until it's been written.
+     */
+    public static void writeFileAndWait(HttpServletResponse response, FileRep file) throws IOException {
+        try {
+            writeFile(response, file).toCompletableFuture().get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the stretch of the file that the representation covers
+     */
+    private static ReadableByteChannel channelOf(FileRep file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.file().toPath(), StandardOpenOption.READ);
+        channel.position(file.offset());
+        return limit(channel, file.length());
+    }
+
+    /**
+     * @param pieces {@link FileRep}s and {@link ImmutableRep}s, each of which is only opened once
+     *        the ones before it have been read
+     * @return them all, one after the other
+     */
+    private static ReadableByteChannel channelOf(final List<Representation> pieces) {
+        return new ReadableByteChannel() {
+            private final Iterator<Representation> next = pieces.iterator();
+            private ReadableByteChannel current;
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                while (true) {
+                    if (current == null) {
+                        if (!next.hasNext()) return -1;
+                        final Representation piece = next.next();
+                        current = piece instanceof FileRep ?
+                                channelOf((FileRep) piece) :
+                                Channels.newChannel(((ImmutableRep) piece).stream());
+                    }
+                    final int n = current.read(dst);
+                    if (n != -1) return n;
+                    current.close();
+                    current = null;
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() throws IOException {
+                open = false;
+                if (current != null) current.close();
+            }
+        };
+    }
+
+    /**
+     * @return the next <code>length</code> bytes of the channel, after which it reads as finished
+     */
+    private static ReadableByteChannel limit(final FileChannel channel, final long length) {
+        return new ReadableByteChannel() {
+            private long remaining = length;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (remaining <= 0) return -1;
+                final ByteBuffer window = dst.duplicate();
+                if (window.remaining() > remaining) window.limit(window.position() + (int) remaining);
+                final int n = channel.read(window);
+                if (n > 0) {
+                    dst.position(dst.position() + n);
+                    remaining -= n;
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Bytes pushed by a representation on a thread of its own, passed along to the container as
+     * it's ready for them by whichever thread finds it so: the container's, when it calls back, or
+     * the representation's, when it has put more in.
+     */
+    private static final class Pipe extends OutputStream implements WriteListener {
+        private final ServletOutputStream out;
+        private final CompletableFuture<Void> done;
+        private final long timeoutMillis;
+        /** guarded by this, as are the rest */
+        private final Queue<byte[]> chunks = new ArrayDeque<byte[]>();
+        private boolean finished;
+        private boolean writing;
+        private Throwable failure;
+        /** the representation's own */
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int filled;
+
+        Pipe(ServletOutputStream out, CompletableFuture<Void> done, long timeoutMillis) {
+            this.out = out;
+            this.done = done;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                final int n = Math.min(len, CHUNK_SIZE - filled);
+                System.arraycopy(b, off, chunk, filled, n);
+                filled += n;
+                off += n;
+                len -= n;
+                if (filled == CHUNK_SIZE) flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (filled > 0) {
+                put(filled == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, filled));
+                chunk = new byte[CHUNK_SIZE];
+                filled = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            synchronized (this) {
+                finished = true;
+            }
+            drain();
+        }
+
+        private void put(byte[] next) throws IOException {
+            synchronized (this) {
+                final long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (failure == null && chunks.size() >= MAX_PIPED_CHUNKS) {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        fail(new IOException("The client took nothing for " + timeoutMillis + "ms"));
+                        break;
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException(e);
+                    }
+                }
+                if (failure != null) throw new IOException(failure);
+                chunks.add(next);
+            }
+            drain();
+        }
+
+        @Override
+        public void onWritePossible() {
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(t);
+        }
+
+        void fail(Throwable t) {
+            synchronized (this) {
+                if (failure == null) failure = t;
+                chunks.clear();
+                notifyAll();
+            }
+            done.completeExceptionally(t);
+        }
+
+        /**
+         * Writes out what's there for as long as the container is ready for it.
+         */
+        private void drain() {
+            synchronized (this) {
+                if (writing || failure != null) return;
+                writing = true;
+            }
+            try {
+                while (true) {
+                    final byte[] next;
+                    synchronized (this) {
+                        // the container calls back once it's ready again; the representation, once it has put more in
+                        if (!out.isReady() || (chunks.isEmpty() && !finished)) {
+                            writing = false;
+                            return;
+                        }
+                        next = chunks.poll();
+                        if (next == null) {
+                            writing = false;
+                            break;
+                        }
+                        notifyAll();
+                    }
+                    out.write(next);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    writing = false;
+                }
+                fail(e);
+                return;
+            }
+            done.complete(null);
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            System.err.println("Unable to delete " + file.getAbsolutePath());
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.httpobjects.jetty;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * How busy a server's {@link ThreadPool} is at a given moment, for sizing and watching it.
+ * <pre>
+ * ThreadPoolStats stats = ThreadPoolStats.of(server);
+ * log.info("busy=" + stats.busy + " idle=" + stats.idle + " queued=" + stats.queued);
+ * </pre>
+ */
+public final class ThreadPoolStats {
+    /** threads running a job */
+    public final int busy;
+    /** threads waiting for a job */
+    public final int idle;
+    /** jobs waiting for a thread, or -1 when the pool doesn't say */
+    public final int queued;
+
+    public ThreadPoolStats(int busy, int idle, int queued) {
+        this.busy = busy;
+        this.idle = idle;
+        this.queued = queued;
+    }
+
+    public static ThreadPoolStats of(Server server) {
+        return of(server.getThreadPool());
+    }
+
+    public static ThreadPoolStats of(ThreadPool pool) {
+        if (pool instanceof QueuedThreadPool) {
+            final QueuedThreadPool queuedPool = (QueuedThreadPool) pool;
+            return new ThreadPoolStats(queuedPool.getBusyThreads(), queuedPool.getIdleThreads(), queuedPool.getQueueSize());
+        } else if (pool instanceof VirtualThreadPool) {
+            final VirtualThreadPool virtualPool = (VirtualThreadPool) pool;
+            return new ThreadPoolStats(virtualPool.getBusyThreads(), virtualPool.getIdleThreads(), virtualPool.getQueueSize());
+        } else {
+            return new ThreadPoolStats(pool.getThreads() - pool.getIdleThreads(), pool.getIdleThreads(), -1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadPoolStats(busy=" + busy + ", idle=" + idle + ", queued=" + queued + ")";
+    }
+}
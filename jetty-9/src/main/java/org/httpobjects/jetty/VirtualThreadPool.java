@@ -0,0 +1,174 @@
+package org.httpobjects.jetty;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A jetty {@link ThreadPool} that starts a new virtual thread for every job, so handlers that
+ * block on JDBC, HTTP calls and the like don't use up a scarce pool of platform threads.
+ * <p>
+ * Virtual threads came in with JDK 21; they're found reflectively, so this still compiles and
+ * loads on older JDKs, where {@link #orQueuedThreadPool()} falls back to jetty's usual pool.
+ * <p>
+ * Like any jetty component it can be stopped and started again: each start makes a new executor,
+ * and stopping lets the jobs that are running finish (for up to {@link #getStopTimeout()}, after
+ * which they're interrupted).
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+    private final Supplier<ExecutorService> executors;
+    private volatile ExecutorService executor;
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * @throws IllegalStateException when this JDK doesn't have virtual threads
+     */
+    public VirtualThreadPool() {
+        this(new Supplier<ExecutorService>() {
+            @Override
+            public ExecutorService get() {
+                return newVirtualThreadPerTaskExecutor();
+            }
+        });
+        if (!isAvailable()) throw new IllegalStateException("Virtual threads need JDK 21 or later");
+    }
+
+    /**
+     * @param executors makes the executor for each time the pool is started
+     */
+    VirtualThreadPool(Supplier<ExecutorService> executors) {
+        this.executors = executors;
+    }
+
+    /**
+     * @return whether this JDK has virtual threads
+     */
+    public static boolean isAvailable() {
+        return virtualThreadPerTaskExecutorFactory() != null;
+    }
+
+    /**
+     * @return a {@link VirtualThreadPool} where the JDK has virtual threads, and a default
+     *         {@link QueuedThreadPool} where it doesn't
+     */
+    public static ThreadPool orQueuedThreadPool() {
+        return isAvailable() ? new VirtualThreadPool() : new QueuedThreadPool();
+    }
+
+    private static Method virtualThreadPerTaskExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        final Method factory = virtualThreadPerTaskExecutorFactory();
+        if (factory == null) throw new IllegalStateException("Virtual threads need JDK 21 or later");
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable job) {
+        final ExecutorService executor = this.executor;
+        if (!isRunning() || executor == null) throw new RejectedExecutionException("Not running");
+        queued.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    queued.decrementAndGet();
+                    busy.incrementAndGet();
+                    try {
+                        job.run();
+                    } finally {
+                        busy.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        executor = executors.get();
+        super.doStart();
+    }
+
+    /**
+     * Takes no more jobs, and waits for the running ones to finish; any still running after
+     * {@link #getStopTimeout()} are interrupted.
+     */
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        final ExecutorService stopping = executor;
+        if (stopping == null) return;
+        stopping.shutdown();
+        if (!stopping.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS)) {
+            stopping.shutdownNow();
+        }
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        final ExecutorService running = executor;
+        if (running == null) return;
+        while (!running.awaitTermination(1, TimeUnit.HOURS)) ;
+    }
+
+    /**
+     * @return how many jobs are running, each on a thread of its own
+     */
+    @Override
+    public int getThreads() {
+        return busy.get();
+    }
+
+    /**
+     * @return always 0: a thread goes away when its job is done
+     */
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * @return how many jobs are running
+     */
+    public int getBusyThreads() {
+        return busy.get();
+    }
+
+    /**
+     * @return how many jobs have been handed over but haven't started running yet
+     */
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    /**
+     * @return always false, since there's no limit on how many there can be
+     */
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
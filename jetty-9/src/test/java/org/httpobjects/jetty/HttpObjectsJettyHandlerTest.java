@@ -3,13 +3,36 @@ package org.httpobjects.jetty;
 import org.httpobjects.*;
 import org.httpobjects.client.ApacheCommons4xHttpClient;
 import org.httpobjects.client.HttpClient;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.representation.StreamingRep;
+import org.httpobjects.util.ByteRanges;
+import org.httpobjects.util.HttpObjectUtil;
 import org.httpobjects.util.Method;
+import org.httpobjects.util.RequestBodyLimit;
 
 import static org.httpobjects.DSL.Text;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 public class HttpObjectsJettyHandlerTest {
 
@@ -47,4 +70,421 @@ public class HttpObjectsJettyHandlerTest {
         // then
         assertEquals(ResponseCode.OK, result.code());
     }
+
+    @Test
+    public void asyncResourcesAnswerWhenTheyreReady() throws Exception {
+        // given
+        HttpObject resource = new AsyncHttpObject("/") {
+            @Override
+            public CompletionStage<Response> getAsync(Request req) {
+                return CompletableFuture.supplyAsync(new Supplier<Response>() {
+                    @Override
+                    public Response get() {
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return OK(Text("Worth the wait"));
+                    }
+                });
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = HttpObjectsJettyHandler.launchServer(port, resource);
+
+        try {
+            // when
+            Response result = client.resource("http://localhost:" + port).get();
+
+            // then
+            assertEquals(ResponseCode.OK, result.code());
+            assertEquals("Worth the wait", HttpObjectUtil.toUtf8(result.representation()));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void lateResponsesAreWrittenOnJettysThreadsRatherThanTheOneThatFinishedThem() throws Exception {
+        // given
+        final AtomicReference<String> writtenOn = new AtomicReference<String>();
+        HttpObject resource = new AsyncHttpObject("/") {
+            @Override
+            public CompletionStage<Response> getAsync(Request req) {
+                final CompletableFuture<Response> response = new CompletableFuture<Response>();
+                new Thread("finisher") {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        response.complete(OK(new Representation() {
+                            @Override
+                            public String contentType() {
+                                return "text/plain";
+                            }
+
+                            @Override
+                            public void write(OutputStream out) {
+                                writtenOn.set(Thread.currentThread().getName());
+                                Text("Worth the wait").write(out);
+                            }
+                        }));
+                    }
+                }.start();
+                return response;
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = HttpObjectsJettyHandler.launchServer(port, resource);
+
+        try {
+            // when
+            Response result = client.resource("http://localhost:" + port).get();
+
+            // then
+            assertEquals(ResponseCode.OK, result.code());
+            assertEquals("Worth the wait", HttpObjectUtil.toUtf8(result.representation()));
+            assertNotEquals("finisher", writtenOn.get());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void objectsThatTakeTooLongAreGivenUpOn() throws Exception {
+        // given
+        HttpObject resource = new AsyncHttpObject("/") {
+            @Override
+            public CompletionStage<Response> getAsync(Request req) {
+                return new CompletableFuture<Response>();
+            }
+        };
+        int blockingPort = findFreePort();
+        org.eclipse.jetty.server.Server blocking = new org.eclipse.jetty.server.Server(blockingPort);
+        blocking.setHandler(new HttpObjectsJettyHandler(Collections.<HeaderField>emptyList(), false, RequestBodyLimit.UNLIMITED, 200, resource));
+        blocking.start();
+        int nonBlockingPort = findFreePort();
+        org.eclipse.jetty.server.Server nonBlocking = new org.eclipse.jetty.server.Server(nonBlockingPort);
+        nonBlocking.setHandler(new HttpObjectsJettyHandler(Collections.<HeaderField>emptyList(), true, 1024, 200, resource));
+        nonBlocking.start();
+        HttpClient client = new ApacheCommons4xHttpClient();
+
+        try {
+            // when
+            Response fromBlocking = client.resource("http://localhost:" + blockingPort).get();
+            Response fromNonBlocking = client.resource("http://localhost:" + nonBlockingPort).get();
+
+            // then
+            assertEquals(ResponseCode.SERVICE_UNAVAILABLE, fromBlocking.code());
+            assertEquals(ResponseCode.SERVICE_UNAVAILABLE, fromNonBlocking.code());
+        } finally {
+            blocking.stop();
+            nonBlocking.stop();
+        }
+    }
+
+    @Test
+    public void bodiesThatTakeTooLongToArriveAreGivenUpOnWithoutBlocking() throws Exception {
+        // given
+        HttpObject resource = new HttpObject("/", DSL.allowed(Method.POST)) {
+            @Override
+            public Response post(Request req) {
+                return OK(Text("got " + HttpObjectUtil.toUtf8(req.representation())));
+            }
+        };
+        int port = findFreePort();
+        org.eclipse.jetty.server.Server server = new org.eclipse.jetty.server.Server(port);
+        server.setHandler(new HttpObjectsJettyHandler(Collections.<HeaderField>emptyList(), true, 1024, 200, resource));
+        server.start();
+
+        try (Socket socket = new Socket("localhost", port)) {
+            // when
+            socket.getOutputStream().write((
+                    "POST / HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Content-Type: text/plain\r\n" +
+                    "Content-Length: 100\r\n" +
+                    "\r\n" +
+                    "only some of it").getBytes("ASCII"));
+            socket.getOutputStream().flush();
+            final String statusLine = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ASCII")).readLine();
+
+            // then
+            assertEquals("HTTP/1.1 408 Request Timeout", statusLine);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void objectsCanTurnAwayBodiesThatAreTooBig() throws Exception {
+        // given
+        HttpObject resource = new HttpObject("/", DSL.allowed(Method.POST)) {
+            @Override
+            public long maxRequestBodySize() {
+                return 4;
+            }
+
+            @Override
+            public Response post(Request req) {
+                return OK(Text("got " + HttpObjectUtil.toUtf8(req.representation())));
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = HttpObjectsJettyHandler.launchServer(port, resource);
+
+        try {
+            // when
+            Response small = client.resource("http://localhost:" + port).post(Text("tiny"));
+            Response big = client.resource("http://localhost:" + port).post(Text("not so tiny"));
+
+            // then
+            assertEquals("got tiny", HttpObjectUtil.toUtf8(small.representation()));
+            assertEquals(ResponseCode.REQUEST_ENTITY_TOO_LARGE, big.code());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void bodiesOverTheServersLimitAreTurnedAwayWithoutBlocking() throws Exception {
+        // given
+        HttpObject resource = new HttpObject("/", DSL.allowed(Method.POST)) {
+            @Override
+            public Response post(Request req) {
+                return OK(Text("got " + HttpObjectUtil.toUtf8(req.representation())));
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = new org.eclipse.jetty.server.Server(port);
+        server.setHandler(new HttpObjectsJettyHandler(Collections.<HeaderField>emptyList(), true, 4, resource));
+        server.start();
+
+        try {
+            // when
+            Response small = client.resource("http://localhost:" + port).post(Text("tiny"));
+            Response big = client.resource("http://localhost:" + port).post(Text("not so tiny"));
+
+            // then
+            assertEquals("got tiny", HttpObjectUtil.toUtf8(small.representation()));
+            assertEquals(ResponseCode.REQUEST_ENTITY_TOO_LARGE, big.code());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void bodiesAreLimitedByDefaultWhenReadWithoutBlocking() throws Exception {
+        // given
+        HttpObject resource = new HttpObject("/", DSL.allowed(Method.POST)) {
+            @Override
+            public Response post(Request req) {
+                return OK(Text("got it"));
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = HttpObjectsJettyHandler.launchNonBlockingServer(port, resource);
+
+        try {
+            // when
+            Response big = client.resource("http://localhost:" + port).post(
+                    DSL.Bytes("application/octet-stream", new byte[(int) NonBlockingServletIO.DEFAULT_MAX_REQUEST_BODY_SIZE + 1]));
+
+            // then
+            assertEquals(ResponseCode.REQUEST_ENTITY_TOO_LARGE, big.code());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void bodiesTooBigForMemoryAreSpooledToDiskWhenReadWithoutBlocking() throws Exception {
+        // given
+        final byte[] content = new byte[NonBlockingServletIO.DEFAULT_MEMORY_THRESHOLD * 4 + 3];
+        for (int x = 0; x < content.length; x++) content[x] = (byte) (x * 7);
+        final AtomicReference<Representation> received = new AtomicReference<Representation>();
+        HttpObject resource = new HttpObject("/", DSL.allowed(Method.POST)) {
+            @Override
+            public Response post(Request req) {
+                received.set(req.representation());
+                return OK(Bytes("application/octet-stream", HttpObjectUtil.toByteArray(req.representation())));
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = HttpObjectsJettyHandler.launchNonBlockingServer(port, resource);
+
+        try {
+            // when
+            Response result = client.resource("http://localhost:" + port).post(DSL.Bytes("application/octet-stream", content));
+
+            // then
+            assertArrayEquals(content, HttpObjectUtil.toByteArray(result.representation()));
+            assertTrue(received.get() instanceof StreamingRep);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void streamedResponsesArePassedAlongWithoutBlocking() throws Exception {
+        // given
+        final byte[] content = new byte[NonBlockingServletIO.CHUNK_SIZE * 10 + 7];
+        for (int x = 0; x < content.length; x++) content[x] = (byte) x;
+        HttpObject resource = new HttpObject("/") {
+            @Override
+            public Response get(Request req) {
+                return OK(new StreamingRep("application/octet-stream", new ByteArrayInputStream(content)));
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = HttpObjectsJettyHandler.launchNonBlockingServer(port, resource);
+
+        try {
+            // when
+            Response result = client.resource("http://localhost:" + port).get();
+
+            // then
+            assertEquals(ResponseCode.OK, result.code());
+            assertArrayEquals(content, HttpObjectUtil.toByteArray(result.representation()));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void pushedResponsesArePassedAlongWithoutBlocking() throws Exception {
+        // given
+        final byte[] content = new byte[NonBlockingServletIO.CHUNK_SIZE * NonBlockingServletIO.MAX_PIPED_CHUNKS * 4 + 7];
+        for (int x = 0; x < content.length; x++) content[x] = (byte) (x * 3);
+        HttpObject resource = new HttpObject("/") {
+            @Override
+            public Response get(Request req) {
+                return OK(new Representation() {
+                    @Override
+                    public String contentType() {
+                        return "application/octet-stream";
+                    }
+
+                    @Override
+                    public void write(OutputStream out) {
+                        try {
+                            for (int x = 0; x < content.length; x += 1000) {
+                                out.write(content, x, Math.min(1000, content.length - x));
+                            }
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+        };
+        int port = findFreePort();
+        HttpClient client = new ApacheCommons4xHttpClient();
+        org.eclipse.jetty.server.Server server = HttpObjectsJettyHandler.launchNonBlockingServer(port, resource);
+
+        try {
+            // when
+            Response result = client.resource("http://localhost:" + port).get();
+
+            // then
+            assertEquals(ResponseCode.OK, result.code());
+            assertArrayEquals(content, HttpObjectUtil.toByteArray(result.representation()));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void severalRangesOfAFileAreServedTheSameWithoutBlocking() throws Exception {
+        // given
+        final File file = File.createTempFile("ranges", ".bin");
+        file.deleteOnExit();
+        final byte[] content = new byte[1024 * 1024];
+        for (int x = 0; x < content.length; x++) content[x] = (byte) (x * 13);
+        Files.write(file.toPath(), content);
+        HttpObject resource = new HttpObject("/") {
+            @Override
+            public Response get(Request req) {
+                return ByteRanges.respond(req, new FileRep("application/octet-stream", file));
+            }
+        };
+        int blockingPort = findFreePort();
+        org.eclipse.jetty.server.Server blocking = HttpObjectsJettyHandler.launchServer(blockingPort, resource);
+        int nonBlockingPort = findFreePort();
+        org.eclipse.jetty.server.Server nonBlocking = HttpObjectsJettyHandler.launchNonBlockingServer(nonBlockingPort, resource);
+        HttpClient client = new ApacheCommons4xHttpClient();
+        HeaderField range = new GenericHeaderField("Range", "bytes=0-9,100000-399999,1000000-");
+
+        try {
+            // when
+            Response fromBlocking = client.resource("http://localhost:" + blockingPort).get(range);
+            Response fromNonBlocking = client.resource("http://localhost:" + nonBlockingPort).get(range);
+
+            // then
+            assertEquals(ResponseCode.PARTIAL_CONTENT, fromNonBlocking.code());
+            final byte[] expected = HttpObjectUtil.toByteArray(fromBlocking.representation());
+            final byte[] actual = HttpObjectUtil.toByteArray(fromNonBlocking.representation());
+            assertTrue(actual.length > 300000);
+            assertEquals(
+                    new String(expected, "ISO-8859-1").replace(boundaryOf(fromBlocking), "BOUNDARY"),
+                    new String(actual, "ISO-8859-1").replace(boundaryOf(fromNonBlocking), "BOUNDARY"));
+        } finally {
+            blocking.stop();
+            nonBlocking.stop();
+            file.delete();
+        }
+    }
+
+    private static String boundaryOf(Response response) {
+        final String contentType = response.representation().contentType();
+        return contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+    }
+
+    @Test
+    public void theSameBigFileCanBeServedOverAndOver() throws Exception {
+        // given
+        final File file = File.createTempFile("big", ".bin");
+        file.deleteOnExit();
+        final byte[] content = new byte[4 * 1024 * 1024 + 3];
+        for (int x = 0; x < content.length; x++) content[x] = (byte) (x * 31);
+        Files.write(file.toPath(), content);
+        HttpObject resource = new HttpObject("/") {
+            @Override
+            public Response get(Request req) {
+                return OK(new FileRep("application/octet-stream", file));
+            }
+        };
+        int blockingPort = findFreePort();
+        org.eclipse.jetty.server.Server blocking = HttpObjectsJettyHandler.launchServer(blockingPort, resource);
+        int nonBlockingPort = findFreePort();
+        org.eclipse.jetty.server.Server nonBlocking = HttpObjectsJettyHandler.launchNonBlockingServer(nonBlockingPort, resource);
+        HttpClient client = new ApacheCommons4xHttpClient();
+
+        try {
+            for (int x = 0; x < 25; x++) {
+                // when
+                Response fromBlocking = client.resource("http://localhost:" + blockingPort).get();
+                Response fromNonBlocking = client.resource("http://localhost:" + nonBlockingPort).get();
+
+                // then
+                assertArrayEquals(content, HttpObjectUtil.toByteArray(fromBlocking.representation()));
+                assertArrayEquals(content, HttpObjectUtil.toByteArray(fromNonBlocking.representation()));
+            }
+        } finally {
+            blocking.stop();
+            nonBlocking.stop();
+            file.delete();
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package org.httpobjects.jetty;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadPoolTest {
+
+    @Test
+    public void countsTheJobsThatAreRunning() throws Exception {
+        // given
+        VirtualThreadPool pool = threadPerJob();
+        pool.start();
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(2);
+        Runnable job = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        };
+
+        // when
+        pool.execute(job);
+        pool.execute(job);
+        started.await(5, TimeUnit.SECONDS);
+        ThreadPoolStats whileRunning = ThreadPoolStats.of(pool);
+        release.countDown();
+        finished.await(5, TimeUnit.SECONDS);
+        pool.stop();
+        ThreadPoolStats afterwards = ThreadPoolStats.of(pool);
+
+        // then
+        assertEquals(2, whileRunning.busy);
+        assertEquals(0, whileRunning.idle);
+        assertEquals(0, whileRunning.queued);
+        assertEquals(0, afterwards.busy);
+    }
+
+    @Test
+    public void turnsJobsAwayOnceStopped() throws Exception {
+        // given
+        VirtualThreadPool pool = threadPerJob();
+        pool.start();
+        pool.stop();
+        Object result;
+
+        // when
+        try {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            result = null;
+        } catch (Throwable t) {
+            result = t;
+        }
+
+        // then
+        assertTrue(result instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void letsRunningJobsFinishWhenStopped() throws Exception {
+        // given
+        VirtualThreadPool pool = threadPerJob();
+        pool.start();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+
+        // when
+        pool.stop();
+
+        // then
+        assertFalse(interrupted.get());
+        assertEquals(0, ThreadPoolStats.of(pool).busy);
+    }
+
+    @Test
+    public void canBeStartedAgainOnceStopped() throws Exception {
+        // given
+        VirtualThreadPool pool = threadPerJob();
+        pool.start();
+        pool.stop();
+        final CountDownLatch ran = new CountDownLatch(1);
+
+        // when
+        pool.start();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+
+        // then
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        pool.stop();
+    }
+
+    @Test
+    public void fallsBackToJettysPoolWithoutVirtualThreads() {
+        // when
+        Object pool = VirtualThreadPool.orQueuedThreadPool();
+
+        // then
+        assertEquals(VirtualThreadPool.isAvailable(), pool instanceof VirtualThreadPool);
+    }
+
+    /**
+     * A thread per job, even where the JDK is too old for them to be virtual.
+     */
+    private static VirtualThreadPool threadPerJob() {
+        return new VirtualThreadPool(new Supplier<ExecutorService>() {
+            @Override
+            public ExecutorService get() {
+                return Executors.newCachedThreadPool();
+            }
+        });
+    }
+}
@@ -1,19 +1,15 @@
 package org.httpobjects.netty;
 
-import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Executors;
 
 import org.httpobjects.HttpObject;
 import org.httpobjects.Request;
 import org.httpobjects.Response;
 import org.httpobjects.netty.http.ByteAccumulatorFactory;
-import org.httpobjects.netty.http.HttpServerPipelineFactory;
+import org.httpobjects.netty.http.HandlerExecutor;
 import org.httpobjects.netty.http.InMemoryByteAccumulatorFactory;
-import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 
 public class HttpobjectsNettySupport {
 
@@ -27,17 +23,37 @@ public class HttpobjectsNettySupport {
       }
 
       public static Channel serve(int port, List<HttpObject> objects, ByteAccumulatorFactory buffers) {
-          // Configure the server.
-          ServerBootstrap bootstrap = new ServerBootstrap(
-                  new NioServerSocketChannelFactory(
-                          Executors.newCachedThreadPool(),
-                          Executors.newCachedThreadPool()));
-  
-          // Set up the event pipeline factory.
-          bootstrap.setPipelineFactory(new HttpServerPipelineFactory(new NettyHttpobjectsRequestHandler(objects), buffers));
-  
-          // Bind and start to accept incoming connections.
-          return bootstrap.bind(new InetSocketAddress(port));
+          return serve(port, objects, buffers, false).channel();
+      }
+
+      /**
+       * @param streamResponses write response bodies out in chunks as they're produced, instead of buffering each one whole
+       * @return the running server, to be {@link NettyServer#stop()}ped along with the threads it made for streaming
+       */
+      public static NettyServer serve(int port, List<HttpObject> objects, ByteAccumulatorFactory buffers, boolean streamResponses) {
+          return serve(port, objects, buffers, streamResponses, null);
+      }
+
+      /**
+       * @param handlerExecutor where to run the objects, or null to run them on netty's I/O threads
+       */
+      public static NettyServer serve(int port, List<HttpObject> objects, ByteAccumulatorFactory buffers, boolean streamResponses, HandlerExecutor handlerExecutor) {
+          return builder(objects)
+                      .buffers(buffers)
+                      .streamResponses(streamResponses)
+                      .handlerExecutor(handlerExecutor)
+                      .serve(port);
+      }
+
+      /**
+       * @return a builder for a server with more say over its threads and sockets
+       */
+      public static NettyServerBuilder builder(HttpObject ... objects) {
+          return builder(Arrays.asList(objects));
+      }
+
+      public static NettyServerBuilder builder(List<HttpObject> objects) {
+          return new NettyServerBuilder(objects);
       }
   
       public static void main(String[] args) {
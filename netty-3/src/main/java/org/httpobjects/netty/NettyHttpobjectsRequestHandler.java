@@ -8,7 +8,10 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
+import org.httpobjects.AsyncHttpObject;
 import org.httpobjects.ConnectionInfo;
 import org.httpobjects.DSL;
 import org.httpobjects.HttpObject;
@@ -21,47 +24,116 @@ import org.httpobjects.header.HeaderField;
 import org.httpobjects.header.request.AuthorizationField;
 import org.httpobjects.header.request.CookieField;
 import org.httpobjects.header.request.RequestHeader;
+import org.httpobjects.impl.RequestSnapshot;
 import org.httpobjects.netty.http.ByteAccumulator;
 import org.httpobjects.netty.http.HttpChannelHandler;
 import org.httpobjects.path.Path;
 import org.httpobjects.path.PathPattern;
-import org.httpobjects.representation.ImmutableRep;
-import org.httpobjects.util.HttpObjectUtil;
+import org.httpobjects.representation.StreamingRep;
+import org.httpobjects.util.HttpObjectRouter;
+import org.httpobjects.util.RequestBodyLimit;
 import org.httpobjects.util.Method;
+import org.httpobjects.util.RouteCache;
 import org.jboss.netty.handler.codec.http.HttpChunkTrailer;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 
-public class NettyHttpobjectsRequestHandler implements HttpChannelHandler.RequestHandler {
-	private final List<HttpObject> objects;
+public class NettyHttpobjectsRequestHandler implements HttpChannelHandler.AsyncRequestHandler {
+	private final HttpObjectRouter router;
     private final Response defaultResponse = DSL.NOT_FOUND();
 
 	public NettyHttpobjectsRequestHandler(List<HttpObject> objects) {
+		this(objects, null);
+	}
+
+	/**
+	 * @param routeCache remembers where recent paths were routed to; null to route every request from scratch
+	 */
+	public NettyHttpobjectsRequestHandler(List<HttpObject> objects, RouteCache routeCache) {
 		super();
-		this.objects = objects;
+		this.router = new HttpObjectRouter(objects, routeCache);
+	}
+
+	/**
+	 * Routes the request on its headers alone, so that the limit of the object it goes to is seen
+	 * to before its body is read.
+	 */
+	@Override
+	public long maxRequestBodySize(HttpRequest request) {
+		if (!request.isChunked() && !request.getContent().readable()) return RequestBodyLimit.UNLIMITED;
+		final String path = pathOf(request.getUri());
+		final HttpObject first = router.firstMatch(path, Method.fromString(request.getMethod().getName()));
+		return first == null ? RequestBodyLimit.UNLIMITED : first.maxRequestBodySize(path);
+	}
+
+	@Override
+	public Response respond(final HttpRequest request, final HttpChunkTrailer lastChunk, final ByteAccumulator body, final ConnectionInfo connectionInfo) {
+
+		final String path = pathOf(request.getUri());
+		final Method m = Method.fromString(request.getMethod().getName());
+
+		final Response out = router.route(path, m, new HttpObjectRouter.Attempt() {
+			@Override
+			public Response attempt(HttpObject next, Path match) {
+				// the server's own limit was seen to as the body came in
+				final long limit = next.maxRequestBodySize(path);
+				if (RequestBodyLimit.exceeds(limit, HttpHeaders.getContentLength(request, -1))) {
+					return RequestBodyLimit.tooLarge();
+				}
+				Request in = readRequest(next.pattern(), match, request, lastChunk, body, connectionInfo, limit);
+				return RequestBodyLimit.invokeMethod(next, m, in);
+			}
+		});
+
+        return out != null ? out : defaultResponse;
 	}
 
 	@Override
-	public Response respond(HttpRequest request, HttpChunkTrailer lastChunk, ByteAccumulator body, ConnectionInfo connectionInfo) {
-
-		final String uri = request.getUri();
-
-		for(HttpObject next : objects){
-		    final PathPattern pattern = next.pattern();
-			if(pattern.matches(uri)){
-				HttpObject match = null;
-				match = next;
-				Request in = readRequest(pattern, request, lastChunk, body, connectionInfo);
-				Method m = Method.fromString(request.getMethod().getName());
-				Response out = HttpObjectUtil.invokeMethod(match, m, in);
-				if(out!=null) return out;
+	public CompletionStage<Response> respondAsync(final HttpRequest request, final HttpChunkTrailer lastChunk, final ByteAccumulator body, final ConnectionInfo connectionInfo) {
+
+		final String path = pathOf(request.getUri());
+		final Method m = Method.fromString(request.getMethod().getName());
+
+		final CompletionStage<Response> out = router.routeAsync(path, m, new HttpObjectRouter.AsyncAttempt() {
+			@Override
+			public CompletionStage<Response> attempt(HttpObject next, Path match) {
+				final long limit = next.maxRequestBodySize(path);
+				if (RequestBodyLimit.exceeds(limit, HttpHeaders.getContentLength(request, -1))) {
+					return AsyncHttpObject.completed(RequestBodyLimit.tooLarge());
+				}
+				Request in = readRequest(next.pattern(), match, request, lastChunk, body, connectionInfo, limit);
+				return RequestBodyLimit.invokeMethodAsync(next, m, in);
 			}
-		}
+		});
+
+		return out.thenApply(new Function<Response, Response>() {
+			@Override
+			public Response apply(Response response) {
+				return response != null ? response : defaultResponse;
+			}
+		});
+	}
+
+	/**
+	 * @return the uri without its query or fragment, which is what requests are routed (and
+	 *         their routes cached) by, so that e.g. cache-busting parameters all share one route
+	 */
+	private static String pathOf(String uri) {
+		int end = uri.indexOf('?');
+		final int fragment = uri.indexOf('#');
+		if (end == -1 || (fragment != -1 && fragment < end)) end = fragment;
+		return end == -1 ? uri : uri.substring(0, end);
+	}
 
-        return defaultResponse;
+	/**
+	 * @return true when the uri has no query, fragment or authority, i.e. when it is already
+	 *         what {@link URL#getPath()} would give back for it
+	 */
+	private static boolean isJustAPath(String uri) {
+		return uri.startsWith("/") && uri.indexOf('?') == -1 && uri.indexOf('#') == -1;
 	}
 
-	private Request readRequest(final PathPattern pathPattern, final HttpRequest request, final HttpChunkTrailer lastChunk, final ByteAccumulator body, final ConnectionInfo connectionInfo) {
+	private Request readRequest(final PathPattern pathPattern, final Path match, final HttpRequest request, final HttpChunkTrailer lastChunk, final ByteAccumulator body, final ConnectionInfo connectionInfo, final long limit) {
 		return new Request(){
 
 			@Override
@@ -112,11 +184,13 @@ public class NettyHttpobjectsRequestHandler implements HttpChannelHandler.Reques
 
 			@Override
 			public Request immutableCopy() {
-				return this;
+				// the body's buffers go back to be reused once the response is out, so the copy can't share them
+				return RequestSnapshot.of(this);
 			}
 
 			@Override
 			public Path path() {
+			    if(isJustAPath(request.getUri())) return match;
 			    return pathPattern.match(jdkURL().getPath());
 			}
 
@@ -139,7 +213,7 @@ public class NettyHttpobjectsRequestHandler implements HttpChannelHandler.Reques
 				String contentType = request.headers().get("ContentType");
 				InputStream data = body != null ? body.toStream() :
 						new ByteArrayInputStream("".getBytes());
-				return new ImmutableRep(contentType, data);
+				return new StreamingRep(contentType, RequestBodyLimit.limit(data, limit), HttpHeaders.getContentLength(request, -1));
 			}
 		};
 	}
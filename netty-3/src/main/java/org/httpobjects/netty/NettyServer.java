@@ -0,0 +1,81 @@
+package org.httpobjects.netty;
+
+import java.util.concurrent.ExecutorService;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+
+/**
+ * A server started by {@link NettyServerBuilder#serve(int)}: the channel it listens on, and
+ * everything it has to let go of when it's done.
+ * <pre>
+ * NettyServer server = HttpobjectsNettySupport.builder(objects).serve(8080);
+ * ...
+ * server.stop();
+ * </pre>
+ */
+public final class NettyServer {
+    private final ServerBootstrap bootstrap;
+    private final ChannelGroup connections;
+    private final ExecutorService streamWriters;
+    private Channel channel;
+
+    /**
+     * @param streamWriters a pool the server made for itself to produce streamed responses on, or null
+     */
+    NettyServer(ServerBootstrap bootstrap, ExecutorService streamWriters) {
+        this.bootstrap = bootstrap;
+        this.streamWriters = streamWriters;
+        this.connections = new DefaultChannelGroup();
+    }
+
+    /**
+     * @return the same pipelines, with each connection remembered so that {@link #stop()} can close it
+     */
+    ChannelPipelineFactory tracking(final ChannelPipelineFactory pipelines) {
+        return new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                final ChannelPipeline pipeline = pipelines.getPipeline();
+                pipeline.addFirst("connections", new SimpleChannelUpstreamHandler(){
+                    @Override
+                    public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+                        connections.add(e.getChannel());
+                        super.channelOpen(ctx, e);
+                    }
+                });
+                return pipeline;
+            }
+        };
+    }
+
+    void listenOn(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return the channel accepting connections
+     */
+    public Channel channel() {
+        return channel;
+    }
+
+    /**
+     * Stops accepting connections, closes the open ones, and shuts down the server's threads.  This
+     * waits for netty's threads to finish, so it mustn't be called from one of them (i.e. not from
+     * inside an {@link org.httpobjects.HttpObject} run on an I/O thread).
+     */
+    public void stop() {
+        channel.close().awaitUninterruptibly();
+        connections.close().awaitUninterruptibly();
+        bootstrap.releaseExternalResources();
+        if(streamWriters!=null) streamWriters.shutdown();
+    }
+}
@@ -0,0 +1,246 @@
+package org.httpobjects.netty;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.netty.http.ByteAccumulatorFactory;
+import org.httpobjects.netty.http.HandlerExecutor;
+import org.httpobjects.netty.http.HttpChannelHandler;
+import org.httpobjects.netty.http.HttpServerPipelineFactory;
+import org.httpobjects.netty.http.InMemoryByteAccumulatorFactory;
+import org.httpobjects.util.RequestBodyLimit;
+import org.httpobjects.util.RouteCache;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.ChannelException;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+
+/**
+ * Sets up a netty server for some {@link HttpObject}s: its threads, its sockets and how it
+ * handles requests.  Each method gives back a new builder, leaving the one it was called on as it
+ * was.  The server uses non-blocking sockets, with a fixed number of threads shared between all
+ * connections.
+ * <pre>
+ * NettyServer server = HttpobjectsNettySupport.builder(objects)
+ *      .workerThreads(8)
+ *      .tcpNoDelay(true)
+ *      .backlog(1024)
+ *      .serve(8080);
+ * </pre>
+ */
+public final class NettyServerBuilder {
+    
+    private List<HttpObject> objects;
+    private ByteAccumulatorFactory buffers = new InMemoryByteAccumulatorFactory();
+    private boolean streamResponses = false;
+    private HandlerExecutor handlerExecutor = null;
+    private Integer streamWriterThreads = null;
+    private long streamWriteTimeout = HttpChannelHandler.DEFAULT_STREAM_WRITE_TIMEOUT;
+    private RouteCache routeCache = null;
+    private long maxRequestBodySize = RequestBodyLimit.UNLIMITED;
+    private int bossThreads = 1;
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private Boolean tcpNoDelay = null;
+    private Boolean reuseAddress = null;
+    private Boolean keepAlive = null;
+    private Integer backlog = null;
+    private Integer receiveBufferSize = null;
+    private Integer sendBufferSize = null;
+    
+    public NettyServerBuilder(List<HttpObject> objects) {
+        this.objects = new ArrayList<HttpObject>(objects);
+    }
+    
+    private NettyServerBuilder copy() {
+        final NettyServerBuilder copy = new NettyServerBuilder(objects);
+        copy.buffers = buffers;
+        copy.streamResponses = streamResponses;
+        copy.handlerExecutor = handlerExecutor;
+        copy.streamWriterThreads = streamWriterThreads;
+        copy.streamWriteTimeout = streamWriteTimeout;
+        copy.routeCache = routeCache;
+        copy.maxRequestBodySize = maxRequestBodySize;
+        copy.bossThreads = bossThreads;
+        copy.workerThreads = workerThreads;
+        copy.tcpNoDelay = tcpNoDelay;
+        copy.reuseAddress = reuseAddress;
+        copy.keepAlive = keepAlive;
+        copy.backlog = backlog;
+        copy.receiveBufferSize = receiveBufferSize;
+        copy.sendBufferSize = sendBufferSize;
+        return copy;
+    }
+    
+    /**
+     * @param buffers where request bodies are gathered up
+     */
+    public NettyServerBuilder buffers(ByteAccumulatorFactory buffers) {
+        final NettyServerBuilder b = copy();
+        b.buffers = buffers;
+        return b;
+    }
+    
+    /**
+     * @param streamResponses write response bodies out in chunks as they're produced, instead of buffering each one whole.
+     *        The chunks go out whenever the connection can take them; producing them is done on a pool of
+     *        {@link #streamWriterThreads(int)} threads, apart from where the objects are run, since it waits
+     *        whenever the client falls behind.  The pool is shut down when the server is {@link NettyServer#stop()}ped
+     */
+    public NettyServerBuilder streamResponses(boolean streamResponses) {
+        final NettyServerBuilder b = copy();
+        b.streamResponses = streamResponses;
+        return b;
+    }
+    
+    /**
+     * @param streamWriterThreads how many streamed response bodies can be produced at once (by default as
+     *        many as there are {@link #workerThreads(int)})
+     */
+    public NettyServerBuilder streamWriterThreads(int streamWriterThreads) {
+        if(streamWriterThreads<1) throw new IllegalArgumentException("There must be at least one stream writer thread");
+        final NettyServerBuilder b = copy();
+        b.streamWriterThreads = streamWriterThreads;
+        return b;
+    }
+    
+    /**
+     * @param streamWriteTimeout how many milliseconds a streamed response body waits for a client that has
+     *        fallen behind to take some of it, before the connection is closed and its thread freed up
+     */
+    public NettyServerBuilder streamWriteTimeout(long streamWriteTimeout) {
+        if(streamWriteTimeout<1) throw new IllegalArgumentException("The stream write timeout must be positive");
+        final NettyServerBuilder b = copy();
+        b.streamWriteTimeout = streamWriteTimeout;
+        return b;
+    }
+    
+    /**
+     * @param handlerExecutor where to run the objects, or null to run them on netty's I/O threads
+     */
+    public NettyServerBuilder handlerExecutor(HandlerExecutor handlerExecutor) {
+        final NettyServerBuilder b = copy();
+        b.handlerExecutor = handlerExecutor;
+        return b;
+    }
+    
+    /**
+     * @param routeCache remembers where recent paths were routed to; null to route every request from scratch
+     */
+    public NettyServerBuilder routeCache(RouteCache routeCache) {
+        final NettyServerBuilder b = copy();
+        b.routeCache = routeCache;
+        return b;
+    }
+    
+    /**
+     * @param maxRequestBodySize the most bytes any request body may have, or {@link RequestBodyLimit#UNLIMITED};
+     *        objects can set a tighter limit of their own with {@link HttpObject#maxRequestBodySize()}
+     */
+    public NettyServerBuilder maxRequestBodySize(long maxRequestBodySize) {
+        final NettyServerBuilder b = copy();
+        b.maxRequestBodySize = maxRequestBodySize;
+        return b;
+    }
+    
+    /**
+     * @param bossThreads how many threads accept connections
+     */
+    public NettyServerBuilder bossThreads(int bossThreads) {
+        if(bossThreads<1) throw new IllegalArgumentException("There must be at least one boss thread");
+        final NettyServerBuilder b = copy();
+        b.bossThreads = bossThreads;
+        return b;
+    }
+    
+    /**
+     * @param workerThreads how many threads do the reading and writing
+     */
+    public NettyServerBuilder workerThreads(int workerThreads) {
+        if(workerThreads<1) throw new IllegalArgumentException("There must be at least one worker thread");
+        final NettyServerBuilder b = copy();
+        b.workerThreads = workerThreads;
+        return b;
+    }
+    
+    public NettyServerBuilder tcpNoDelay(boolean tcpNoDelay) {
+        final NettyServerBuilder b = copy();
+        b.tcpNoDelay = tcpNoDelay;
+        return b;
+    }
+    
+    public NettyServerBuilder reuseAddress(boolean reuseAddress) {
+        final NettyServerBuilder b = copy();
+        b.reuseAddress = reuseAddress;
+        return b;
+    }
+    
+    public NettyServerBuilder keepAlive(boolean keepAlive) {
+        final NettyServerBuilder b = copy();
+        b.keepAlive = keepAlive;
+        return b;
+    }
+    
+    /**
+     * @param backlog how many connections can wait to be accepted
+     */
+    public NettyServerBuilder backlog(int backlog) {
+        final NettyServerBuilder b = copy();
+        b.backlog = backlog;
+        return b;
+    }
+    
+    public NettyServerBuilder receiveBufferSize(int receiveBufferSize) {
+        final NettyServerBuilder b = copy();
+        b.receiveBufferSize = receiveBufferSize;
+        return b;
+    }
+    
+    public NettyServerBuilder sendBufferSize(int sendBufferSize) {
+        final NettyServerBuilder b = copy();
+        b.sendBufferSize = sendBufferSize;
+        return b;
+    }
+    
+    /**
+     * Binds to the port and starts accepting connections.
+     * 
+     * @return the running server, to be {@link NettyServer#stop()}ped once it's no longer wanted
+     */
+    public NettyServer serve(int port) {
+        final ServerBootstrap bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+                                                                    Executors.newFixedThreadPool(bossThreads), bossThreads, 
+                                                                    Executors.newFixedThreadPool(workerThreads), workerThreads));
+        final ExecutorService streamWriters = streamResponses ? 
+                                                Executors.newFixedThreadPool(streamWriterThreads!=null ? streamWriterThreads : workerThreads) : null;
+        final NettyServer server = new NettyServer(bootstrap, streamWriters);
+        
+        // options on the listening socket are plain, the ones for accepted connections are "child."
+        if(reuseAddress!=null) bootstrap.setOption("reuseAddress", reuseAddress);
+        if(backlog!=null) bootstrap.setOption("backlog", backlog);
+        if(tcpNoDelay!=null) bootstrap.setOption("child.tcpNoDelay", tcpNoDelay);
+        if(keepAlive!=null) bootstrap.setOption("child.keepAlive", keepAlive);
+        if(receiveBufferSize!=null) bootstrap.setOption("child.receiveBufferSize", receiveBufferSize);
+        if(sendBufferSize!=null) bootstrap.setOption("child.sendBufferSize", sendBufferSize);
+        
+        bootstrap.setPipelineFactory(server.tracking(new HttpServerPipelineFactory(
+                                            new NettyHttpobjectsRequestHandler(objects, routeCache), 
+                                            buffers, 
+                                            streamResponses, 
+                                            handlerExecutor, 
+                                            maxRequestBodySize,
+                                            streamWriters,
+                                            streamWriteTimeout)));
+        
+        try {
+            server.listenOn(bootstrap.bind(new InetSocketAddress(port)));
+        } catch (ChannelException e) {
+            bootstrap.releaseExternalResources();
+            if(streamWriters!=null) streamWriters.shutdown();
+            throw e;
+        }
+        return server;
+    }
+}
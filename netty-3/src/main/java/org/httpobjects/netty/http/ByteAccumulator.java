@@ -17,5 +17,9 @@ public interface ByteAccumulator {
      * @return the stream by which bytes can be added to this accumulator
      */
     OutputStream out();
+    
+    /**
+     * Lets go of whatever is being held onto, after which the accumulator is empty.
+     */
     void dispose();
 }
\ No newline at end of file
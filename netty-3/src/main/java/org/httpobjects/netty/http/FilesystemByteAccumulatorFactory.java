@@ -1,5 +1,6 @@
 package org.httpobjects.netty.http;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -23,6 +24,7 @@ public class FilesystemByteAccumulatorFactory implements ByteAccumulatorFactory
                 @Override
                 public InputStream toStream() {
                     try {
+                        if(!path.exists()) return new ByteArrayInputStream(new byte[0]);
                         return new FileInputStream(path);
                     } catch (Exception e) {
                         throw new RuntimeException(e);
@@ -32,14 +34,14 @@ public class FilesystemByteAccumulatorFactory implements ByteAccumulatorFactory
                 @Override
                 public OutputStream out() {
                     try {
-                        return new FileOutputStream(path);
+                        return new FileOutputStream(path, true);
                     } catch (Exception e) {
                         throw new RuntimeException(e);
                     }
                 }
                 @Override
                 public void dispose() {
-                    if(!path.delete()) throw new RuntimeException("Unable to delete " + path.getAbsolutePath());
+                    if(path.exists() && !path.delete()) throw new RuntimeException("Unable to delete " + path.getAbsolutePath());
                 }
             };
         } catch (Exception e) {
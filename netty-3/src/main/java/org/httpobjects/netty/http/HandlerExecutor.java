@@ -0,0 +1,143 @@
+package org.httpobjects.netty.http;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.httpobjects.DSL;
+import org.httpobjects.Response;
+
+/**
+ * Runs request handling somewhere other than netty's I/O threads, so that a slow
+ * {@link org.httpobjects.HttpObject} only holds up its own connection.
+ * <p>
+ * Everything for a given connection is still done in the order it arrived (so pipelined keep-alive
+ * requests are answered in order), but different connections are handled in parallel on the
+ * given executor, be it a bounded pool, virtual threads, or anything else.  If the executor
+ * refuses work, the connection's requests are answered with the saturated response from the
+ * calling thread, without being handled.
+ * <p>
+ * At most maxQueued requests are let in at a time (counting both waiting and running ones); any
+ * beyond that are answered with the saturated response, without being handled.
+ */
+public class HandlerExecutor {
+    private final Executor executor;
+    private final int maxQueued;
+    private final Response saturatedResponse;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong saturated = new AtomicLong();
+    
+    public HandlerExecutor(Executor executor, int maxQueued) {
+        this(executor, maxQueued, DSL.SERVICE_UNAVAILABLE());
+    }
+    
+    public HandlerExecutor(Executor executor, int maxQueued, Response saturatedResponse) {
+        this.executor = executor;
+        this.maxQueued = maxQueued;
+        this.saturatedResponse = saturatedResponse;
+    }
+    
+    /**
+     * @return how many requests are waiting for, or being handled by, the executor
+     */
+    public int queued() {
+        return queued.get();
+    }
+    
+    /**
+     * @return how many requests have been turned away with the saturated response
+     */
+    public long saturated() {
+        return saturated.get();
+    }
+    
+    Response saturatedResponse() {
+        return saturatedResponse;
+    }
+    
+    /**
+     * @return true if there's room for another request, which must then be {@link #release()}d
+     */
+    boolean admit() {
+        if(queued.incrementAndGet() > maxQueued){
+            queued.decrementAndGet();
+            saturated.incrementAndGet();
+            return false;
+        }else{
+            return true;
+        }
+    }
+    
+    void release() {
+        queued.decrementAndGet();
+    }
+    
+    /**
+     * @return an executor that runs what it's given on this one, one at a time, in order
+     */
+    Ordered ordered() {
+        return new Ordered();
+    }
+    
+    /**
+     * Runs what it's given on the executor, one at a time, in order.  When the executor refuses
+     * it, the work is done on the calling thread instead, but with {@link #turnedAway()} true for
+     * the while, so that requests are answered with the saturated response rather than handled.
+     */
+    final class Ordered implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        private boolean running;
+        private boolean turnedAway;
+        
+        private final Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                while(true){
+                    final Runnable next;
+                    synchronized(tasks){
+                        next = tasks.poll();
+                        if(next==null){
+                            running = false;
+                            return;
+                        }
+                    }
+                    try {
+                        next.run();
+                    } catch (Throwable t) {
+                        // the connection's later work still has to be done
+                        t.printStackTrace();
+                    }
+                }
+            }
+        };
+        
+        /**
+         * @return true while running work the executor refused
+         */
+        boolean turnedAway() {
+            return turnedAway;
+        }
+        
+        @Override
+        public void execute(Runnable task) {
+            synchronized(tasks){
+                tasks.add(task);
+                if(running) return;
+                running = true;
+            }
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                turnedAway = true;
+                try {
+                    drain.run();
+                } finally {
+                    turnedAway = false;
+                }
+            }
+        }
+    }
+}
@@ -27,21 +27,39 @@ import static org.jboss.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
+import org.httpobjects.AsyncHttpObject;
 import org.httpobjects.ConnectionInfo;
 import org.httpobjects.Response;
 import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.representation.ImmutableRep;
+import org.httpobjects.util.RequestBodyLimit;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.DefaultFileRegion;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
@@ -55,27 +73,344 @@ import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.stream.ChunkedWriteHandler;
 
 public class HttpChannelHandler extends SimpleChannelUpstreamHandler {
 	
 	public static interface RequestHandler {
 		Response respond(HttpRequest request, HttpChunkTrailer lastChunk, ByteAccumulator body, ConnectionInfo connection);
+		
+		/**
+		 * Asked as soon as the request's headers are in, before any of its body is read.
+		 * 
+		 * @return the most bytes the request's body may have (on top of the server's own limit),
+		 *         or {@link RequestBodyLimit#UNLIMITED}
+		 */
+		default long maxRequestBodySize(HttpRequest request) {
+			return RequestBodyLimit.UNLIMITED;
+		}
 	}
 	
+	/**
+	 * Answers in its own time.  Until it does, nothing more is read from the connection, and
+	 * anything that was already read waits its turn.
+	 */
+	public static interface AsyncRequestHandler extends RequestHandler {
+		/**
+		 * @return the response, which may not be there yet
+		 */
+		CompletionStage<Response> respondAsync(HttpRequest request, HttpChunkTrailer lastChunk, ByteAccumulator body, ConnectionInfo connection);
+	}
+	
+	/**
+	 * How big the pieces of a streamed response body are.
+	 */
+	public static final int RESPONSE_CHUNK_SIZE = 8192;
+	
+	/**
+	 * How many of those pieces a streamed response can get ahead of the client.
+	 */
+	public static final int MAX_QUEUED_CHUNKS = 16;
+	
+	/**
+	 * How long, by default, the writing of a streamed response waits for the client to take
+	 * some of it before giving up on the client and hanging up.
+	 */
+	public static final long DEFAULT_STREAM_WRITE_TIMEOUT = 30000;
+	
 	private final RequestHandler handler;
-	private final ByteAccumulator contentAccumulator;
+	private final ByteAccumulatorFactory accumulators;
+	private final boolean streamResponses;
+	private final HandlerExecutor handlerExecutor;
+	private final HandlerExecutor.Ordered ordered;
+	private final long maxRequestBodySize;
+	private final Executor streamWriters;
+	private final long streamWriteTimeout;
     private HttpRequest request;
     private boolean readingChunks;
+    /** the body of the request being read, which is disposed of once its response has gone out */
+    private ByteAccumulator body;
+    private OutputStream bodyOut;
+    /** how much of the body has come in so far */
+    private long bodySize;
+    /** the most the body may come to: the server's limit, or the handler's for the request when that's tighter */
+    private long bodyLimit;
+    /** whether the connection is being hung up on, for a body that was too big */
+    private boolean rejected;
+    /** messages that came in while a response was on its way; guarded by this handler */
+    private final Queue<Waiting> waiting = new ArrayDeque<Waiting>();
+    /** whether a response is on its way (or the waiting messages are being caught up on) */
+    private boolean responding;
+    
+    /**
+     * @deprecated every request on the connection would share the one accumulator; use
+     *             {@link #HttpChannelHandler(RequestHandler, ByteAccumulatorFactory)}
+     */
+    @Deprecated
+    public HttpChannelHandler(RequestHandler handler, final ByteAccumulator contentAccumulator) {
+		this(handler, new ByteAccumulatorFactory() {
+			@Override
+			public ByteAccumulator newAccumulator() {
+				return new ByteAccumulator() {
+					@Override
+					public InputStream toStream() {
+						return contentAccumulator.toStream();
+					}
+					@Override
+					public OutputStream out() {
+						return contentAccumulator.out();
+					}
+					@Override
+					public void dispose() {
+					}
+				};
+			}
+		});
+	}
+    
+    /**
+     * @param accumulators where each request's body is gathered up
+     */
+    public HttpChannelHandler(RequestHandler handler, ByteAccumulatorFactory accumulators) {
+		this(handler, accumulators, false);
+	}
+    
+    /**
+     * @param streamResponses when true, response bodies are written out in chunks as the
+     *        representation produces them, rather than being gathered up first
+     */
+    public HttpChannelHandler(RequestHandler handler, ByteAccumulatorFactory accumulators, boolean streamResponses) {
+		this(handler, accumulators, streamResponses, null);
+	}
+    
+    /**
+     * @param handlerExecutor where to handle requests, or null to handle them on the I/O thread
+     */
+    public HttpChannelHandler(RequestHandler handler, ByteAccumulatorFactory accumulators, boolean streamResponses, HandlerExecutor handlerExecutor) {
+		this(handler, accumulators, streamResponses, handlerExecutor, RequestBodyLimit.UNLIMITED);
+	}
     
-    public HttpChannelHandler(RequestHandler handler, ByteAccumulator contentAccumulator) {
+    /**
+     * @param maxRequestBodySize the most bytes a request body may have, or {@link RequestBodyLimit#UNLIMITED};
+     *        a bigger one is answered with a 413, and the connection closed, as soon as that's clear
+     */
+    public HttpChannelHandler(RequestHandler handler, ByteAccumulatorFactory accumulators, boolean streamResponses, HandlerExecutor handlerExecutor, long maxRequestBodySize) {
+		this(handler, accumulators, streamResponses, handlerExecutor, maxRequestBodySize, null, DEFAULT_STREAM_WRITE_TIMEOUT);
+	}
+    
+    /**
+     * @param streamWriters where streamed response bodies are produced, or null to produce them
+     *        on the thread that handled the request.  Only the producing waits on the client (the
+     *        chunks go out as the channel can take them), so that's best done somewhere other
+     *        than netty's I/O threads, where it can only run ahead of the client without limit.
+     * @param streamWriteTimeout how long the producing of a streamed body waits for the client
+     *        to take some of it before the connection is given up on
+     */
+    public HttpChannelHandler(RequestHandler handler, ByteAccumulatorFactory accumulators, boolean streamResponses, HandlerExecutor handlerExecutor, long maxRequestBodySize, Executor streamWriters, long streamWriteTimeout) {
 		this.handler = handler;
-		this.contentAccumulator = contentAccumulator;
+		this.accumulators = accumulators;
+		this.streamResponses = streamResponses;
+		this.handlerExecutor = handlerExecutor;
+		this.ordered = handlerExecutor==null ? null : handlerExecutor.ordered();
+		this.maxRequestBodySize = maxRequestBodySize;
+		this.streamWriters = streamWriters;
+		this.streamWriteTimeout = streamWriteTimeout;
 	}
 
 	@Override
-    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+    public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) throws Exception {
+        if (handlerExecutor == null) {
+            handle(ctx, e, false);
+            return;
+        }
+        
+        // the whole conversation goes through the connection's ordered executor, so the body
+        // still accumulates in order and pipelined requests are answered in order
+        final boolean completesRequest = completesRequest(e.getMessage());
+        final boolean admitted = !completesRequest || handlerExecutor.admit();
+        ordered.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handle(ctx, e, !admitted || ordered.turnedAway());
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                    e.getChannel().close();
+                } finally {
+                    if (completesRequest && admitted) handlerExecutor.release();
+                }
+            }
+        });
+    }
+    
+    private static boolean completesRequest(Object message) {
+        if (message instanceof HttpRequest) {
+            return !((HttpRequest) message).isChunked();
+        } else {
+            return ((HttpChunk) message).isLast();
+        }
+    }
+    
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        if (handlerExecutor == null) {
+            abandonBody();
+        } else {
+            ordered.execute(new Runnable() {
+                @Override
+                public void run() {
+                    abandonBody();
+                }
+            });
+        }
+        super.channelClosed(ctx, e);
+    }
+    
+    private void abandonBody() {
+        synchronized (this) {
+            waiting.clear();
+        }
+        if (body != null) {
+            body.dispose();
+            body = null;
+            bodyOut = null;
+        }
+    }
+    
+    /**
+     * @return false when the response is still on its way
+     */
+    private boolean finishRequest(final Channel channel, HttpChunkTrailer lastChunk, final ChannelHandlerContext ctx, boolean saturated) throws IOException {
+        final ByteAccumulator body = this.body;
+        this.body = null;
+        bodyOut.close();
+        bodyOut = null;
+        
+        final CompletableFuture<Response> pending;
+        try {
+            if (saturated) {
+                pending = CompletableFuture.completedFuture(handlerExecutor.saturatedResponse());
+            } else if (handler instanceof AsyncRequestHandler) {
+                pending = ((AsyncRequestHandler) handler).respondAsync(request, lastChunk, body, connectionInfo(ctx)).toCompletableFuture();
+            } else {
+                pending = CompletableFuture.completedFuture(handler.respond(request, lastChunk, body, connectionInfo(ctx)));
+            }
+        } catch (RuntimeException e) {
+            body.dispose();
+            throw e;
+        }
+        
+        if (pending.isDone()) {
+            respond(channel, body, pending);
+            return true;
+        }
+        
+        synchronized (this) {
+            responding = true;
+        }
+        channel.setReadable(false);
+        pending.whenComplete(new BiConsumer<Response, Throwable>() {
+            @Override
+            public void accept(Response response, Throwable error) {
+                try {
+                    respond(channel, body, pending);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                    channel.close();
+                }
+                channel.setReadable(true);
+                if (ordered == null) {
+                    catchUp(ctx);
+                } else {
+                    ordered.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            catchUp(ctx);
+                        }
+                    });
+                }
+            }
+        });
+        return false;
+    }
+    
+    private void respond(Channel channel, final ByteAccumulator body, CompletableFuture<Response> pending) {
+        ChannelFuture written = null;
+        try {
+            written = writeResponse(channel, AsyncHttpObject.await(pending));
+        } finally {
+            if (written == null) {
+                body.dispose();
+            } else {
+                written.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        body.dispose();
+                    }
+                });
+            }
+        }
+    }
+    
+    /**
+     * Handles the messages that came in while a response was on its way, until they run out or
+     * another one has to be waited for.
+     */
+    private void catchUp(ChannelHandlerContext ctx) {
+        while (true) {
+            final Waiting next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    responding = false;
+                    return;
+                }
+            }
+            try {
+                if (!handleNow(ctx, next.event, next.saturated || turnedAway())) return;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                next.event.getChannel().close();
+            }
+        }
+    }
+    
+    /**
+     * @return true when the handler executor refused the work being done, which is then done here
+     *         only as far as answering with the saturated response
+     */
+    private boolean turnedAway() {
+        return ordered != null && ordered.turnedAway();
+    }
+    
+    private void handle(ChannelHandlerContext ctx, MessageEvent e, boolean saturated) throws Exception {
+        synchronized (this) {
+            if (responding) {
+                waiting.add(new Waiting(e, saturated));
+                return;
+            }
+        }
+        handleNow(ctx, e, saturated);
+    }
+    
+    /**
+     * @return false when the message finished a request whose response is still on its way
+     */
+    private boolean handleNow(ChannelHandlerContext ctx, MessageEvent e, boolean saturated) throws Exception {
+        if (rejected) {
+            return true;
+        }
         if (!readingChunks) {
             HttpRequest request = this.request = (HttpRequest) e.getMessage();
+            bodyLimit = RequestBodyLimit.tighter(maxRequestBodySize, handler.maxRequestBodySize(request));
+            if (RequestBodyLimit.exceeds(bodyLimit, HttpHeaders.getContentLength(request, -1))) {
+                reject(e.getChannel());
+                return true;
+            }
+            body = accumulators.newAccumulator();
+            bodyOut = body.out();
+            bodySize = 0;
 
             if (is100ContinueExpected(request)) {
                 send100Continue(e);
@@ -85,11 +420,12 @@ public class HttpChannelHandler extends SimpleChannelUpstreamHandler {
                 readingChunks = true;
             } else {
                 ChannelBuffer content = request.getContent();
-                if (content.readable()) {
-                	writeToBuffer(content);
+                if (content.readable() && !writeToBuffer(content)) {
+                    reject(e.getChannel());
+                    return true;
                 }
                 
-            	writeResponse(e.getChannel(), handler.respond(request, null, contentAccumulator, connectionInfo(ctx)));
+            	return finishRequest(e.getChannel(), null, ctx, saturated);
             }
         } else {
             HttpChunk chunk = (HttpChunk) e.getMessage();
@@ -97,12 +433,26 @@ public class HttpChannelHandler extends SimpleChannelUpstreamHandler {
                 readingChunks = false;
 
                 HttpChunkTrailer trailer = (HttpChunkTrailer) chunk;
-                writeToBuffer(trailer.getContent());
-            	writeResponse(e.getChannel(), handler.respond(request, trailer, contentAccumulator, connectionInfo(ctx)));
-            } else {
-            	writeToBuffer(chunk.getContent());
+                if (!writeToBuffer(trailer.getContent())) {
+                    reject(e.getChannel());
+                    return true;
+                }
+            	return finishRequest(e.getChannel(), trailer, ctx, saturated);
+            } else if (!writeToBuffer(chunk.getContent())) {
+                reject(e.getChannel());
             }
         }
+        return true;
+    }
+    
+    private static final class Waiting {
+        final MessageEvent event;
+        final boolean saturated;
+        
+        Waiting(MessageEvent event, boolean saturated) {
+            this.event = event;
+            this.saturated = saturated;
+        }
     }
     
 	@SuppressWarnings("unchecked")
@@ -119,8 +469,30 @@ public class HttpChannelHandler extends SimpleChannelUpstreamHandler {
                         remote.getPort());
     }
     
-    private void writeToBuffer(ChannelBuffer content) throws IOException {
-    	content.getBytes(0, contentAccumulator.out(), content.capacity());
+    /**
+     * @return false when that's more than the body is allowed, in which case none of it is kept
+     */
+    private boolean writeToBuffer(ChannelBuffer content) throws IOException {
+        bodySize += content.readableBytes();
+        if (RequestBodyLimit.exceeds(bodyLimit, bodySize)) {
+            return false;
+        }
+    	content.getBytes(content.readerIndex(), bodyOut, content.readableBytes());
+    	return true;
+    }
+    
+    /**
+     * Turns the request away without reading any more of it, and hangs up.
+     */
+    private void reject(Channel channel) {
+        rejected = true;
+        readingChunks = false;
+        if (body != null) {
+            body.dispose();
+            body = null;
+            bodyOut = null;
+        }
+        writeResponse(channel, RequestBodyLimit.tooLarge()).addListener(ChannelFutureListener.CLOSE);
     }
     
     private byte[] read(Response out) {
@@ -133,17 +505,34 @@ public class HttpChannelHandler extends SimpleChannelUpstreamHandler {
             throw new RuntimeException(e);
         }
     }
-    private void writeResponse(/*MessageEvent e*/ Channel sink, Response r) {
+    private ChannelFuture writeResponse(/*MessageEvent e*/ Channel sink, Response r) {
     	
         // Decide whether to close the connection or not.
         boolean keepAlive = isKeepAlive(request);
+        
+        // a file goes from the disk to the socket as it is
+        final FileRep file = r.hasRepresentation() && r.representation() instanceof FileRep ? 
+                                (FileRep) r.representation() : null;
+        final long fileLength = file != null ? file.length() : 0;
+        
+        // HTTP/1.0 clients can't be sent chunks, and there's nothing to gain from chunking what's already in memory
+        boolean stream = file == null && streamResponses && r.hasRepresentation() && 
+                            !(r.representation() instanceof ImmutableRep) &&
+                            !request.getProtocolVersion().equals(HttpVersion.HTTP_1_0);
 
         // Build the response object.
         HttpResponseStatus status = HttpResponseStatus.valueOf(r.code().value());
         
         HttpResponse response = new DefaultHttpResponse(HTTP_1_1, status);
         if(r.hasRepresentation()){
-        	response.setContent(ChannelBuffers.copiedBuffer(read(r)));
+        	if(stream){
+        		response.setChunked(true);
+        		HttpHeaders.setTransferEncodingChunked(response);
+        	}else if(file != null){
+        		response.headers().set(CONTENT_LENGTH, fileLength);
+        	}else{
+        		response.setContent(ChannelBuffers.copiedBuffer(read(r)));
+        	}
         	if(r.representation().contentType() != null)
         		response.headers().set(CONTENT_TYPE, r.representation().contentType());
         }
@@ -152,9 +541,11 @@ public class HttpChannelHandler extends SimpleChannelUpstreamHandler {
             response.headers().add(field.name(), field.value());
         }
 
-        if (keepAlive) {
+        if (keepAlive && stream) {
+            response.headers().set(CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+        } else if (keepAlive) {
             // Add 'Content-Length' header only for a keep-alive connection.
-            response.headers().set(CONTENT_LENGTH, response.getContent().readableBytes());
+            response.headers().set(CONTENT_LENGTH, file != null ? fileLength : response.getContent().readableBytes());
             // Add keep alive header as per:
             // - http://www.w3.org/Protocols/HTTP/1.1/draft-ietf-http-v11-spec-01.html#Connection
             response.headers().set(CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
@@ -177,11 +568,99 @@ public class HttpChannelHandler extends SimpleChannelUpstreamHandler {
 
         // Write the response.
           ChannelFuture future = sink.write(response);
+          if(stream){
+              future = writeChunks(sink, r);
+          }else if(file != null){
+              future = writeFile(sink, file, fileLength);
+          }
 
         // Close the non-keep-alive connection after the write operation is done.
         if (!keepAlive) {
             future.addListener(ChannelFutureListener.CLOSE);
         }
+        return future;
+    }
+
+    /**
+     * Hands the channel the chunks as they're produced, to go out whenever it can take them (see
+     * {@link HttpChunkOutputStream}), and produces them on the stream writers when there are any.
+     * 
+     * @return done once the body has been produced and written
+     */
+    private ChannelFuture writeChunks(final Channel sink, final Response r) {
+        final HttpChunkOutputStream out = new HttpChunkOutputStream(sink, RESPONSE_CHUNK_SIZE, MAX_QUEUED_CHUNKS, streamWriteTimeout);
+        final ChannelFuture written = chunkedWriter(sink).write(out.input());
+        if (streamWriters == null) {
+            produce(sink, r, out);
+            return written;
+        }
+        
+        final ChannelFuture done = Channels.future(sink);
+        streamWriters.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    produce(sink, r, out);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+                written.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        if (future.isSuccess()) {
+                            done.setSuccess();
+                        } else {
+                            done.setFailure(future.getCause());
+                        }
+                    }
+                });
+            }
+        });
+        return done;
+    }
+    
+    private static void produce(Channel sink, Response r, HttpChunkOutputStream out) {
+        boolean produced = false;
+        try {
+            r.representation().write(out);
+            out.finish();
+            produced = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // the status has already gone out, so if the body can't follow all that's left is to hang up
+            if (!produced) sink.close();
+        }
+    }
+    
+    /**
+     * @return the channel, with a {@link ChunkedWriteHandler} in its pipeline just ahead of this
+     *         handler (unless there's one there already)
+     */
+    private Channel chunkedWriter(Channel sink) {
+        final ChannelPipeline pipeline = sink.getPipeline();
+        synchronized (pipeline) {
+            if (pipeline.get(ChunkedWriteHandler.class) == null) {
+                pipeline.addBefore(pipeline.getContext(this).getName(), "chunkedWriter", new ChunkedWriteHandler());
+            }
+        }
+        return sink;
+    }
+
+    /**
+     * Sends the file as a {@link DefaultFileRegion}, which netty hands to the socket with
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, i.e.
+     * with sendfile where the OS has it.
+     */
+    private ChannelFuture writeFile(Channel sink, FileRep file, long length) {
+        try {
+            final FileChannel channel = new RandomAccessFile(file.file(), "r").getChannel();
+            return sink.write(new DefaultFileRegion(channel, file.offset(), length, true));
+        } catch (IOException e) {
+            // the status has already gone out, so all that's left is to hang up
+            sink.close();
+            throw new RuntimeException(e);
+        }
     }
 
     private static void send100Continue(MessageEvent e) {
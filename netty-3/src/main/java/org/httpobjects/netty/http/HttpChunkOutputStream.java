@@ -0,0 +1,174 @@
+package org.httpobjects.netty.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.stream.ChunkedInput;
+import org.jboss.netty.handler.stream.ChunkedWriteHandler;
+import org.jboss.netty.util.internal.DeadLockProofWorker;
+
+/**
+ * Turns whatever is written to it into {@link HttpChunk}s of (at most) a fixed size, each in a
+ * buffer from the channel's own buffer factory, so a response body never has to be held in
+ * memory all at once.
+ * <p>
+ * The chunks aren't written to the channel here: they're queued up for the {@link #input()},
+ * which is written to the channel instead, and which the channel's {@link ChunkedWriteHandler}
+ * takes them from whenever the channel is writable.  So nothing waits on the client but the
+ * writer, and that only once it's maxQueued chunks ahead; if the client doesn't take any of
+ * them for the timeout, the writer gets an {@link IOException}.  (On one of netty's I/O threads
+ * it can't wait at all, since that's the thread that does the taking, so there chunks just
+ * queue up without limit.)
+ */
+public class HttpChunkOutputStream extends OutputStream {
+    private final Channel channel;
+    private final int chunkSize;
+    private final int maxQueued;
+    private final long timeoutMillis;
+    /** guarded by itself */
+    private final Queue<HttpChunk> queued = new ArrayDeque<HttpChunk>();
+    private final Input input = new Input();
+    private ChannelBuffer chunk;
+    private boolean closed;
+    /** whether the input has been let go of (the body all sent, or the connection gone); guarded by queued */
+    private boolean abandoned;
+    /** whether the last chunk has been taken; guarded by queued */
+    private boolean ended;
+
+    /**
+     * @param maxQueued how many chunks the writer can get ahead of the client
+     * @param timeoutMillis how long the writer waits for the client to take one, once it's that far ahead
+     */
+    public HttpChunkOutputStream(Channel channel, int chunkSize, int maxQueued, long timeoutMillis) {
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        this.maxQueued = maxQueued;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return what's to be written to the channel (once, behind the response's headers), for its
+     *         {@link ChunkedWriteHandler} to take the chunks from
+     */
+    public ChunkedInput input() {
+        return input;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        chunk().writeByte(b);
+        if(!chunk.writable()) flush();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len>0){
+            final ChannelBuffer chunk = chunk();
+            final int n = Math.min(len, chunk.writableBytes());
+            chunk.writeBytes(b, off, n);
+            off += n;
+            len -= n;
+            if(!chunk.writable()) flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if(chunk!=null && chunk.readable()){
+            queue(new DefaultHttpChunk(chunk));
+        }
+        chunk = null;
+    }
+
+    /**
+     * Queues up anything left over, followed by the last chunk.
+     */
+    public void finish() throws IOException {
+        if(!closed){
+            flush();
+            queue(HttpChunk.LAST_CHUNK);
+            closed = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    private ChannelBuffer chunk() throws IOException {
+        if(closed) throw new IOException("Already closed");
+        if(chunk==null){
+            chunk = channel.getConfig().getBufferFactory().getBuffer(chunkSize);
+        }
+        return chunk;
+    }
+
+    private void queue(HttpChunk next) throws IOException {
+        final boolean onIoThread = DeadLockProofWorker.PARENT.get()!=null;
+        synchronized(queued){
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            while(!onIoThread && !abandoned && queued.size() >= maxQueued){
+                final long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) throw new IOException("The client took nothing for " + timeoutMillis + "ms");
+                try {
+                    queued.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            if(abandoned) throw new IOException("The connection was closed");
+            queued.add(next);
+        }
+        final ChunkedWriteHandler writer = channel.getPipeline().get(ChunkedWriteHandler.class);
+        if(writer!=null) writer.resumeTransfer();
+    }
+
+    private final class Input implements ChunkedInput {
+        @Override
+        public boolean hasNextChunk() {
+            synchronized(queued){
+                return !queued.isEmpty();
+            }
+        }
+
+        /**
+         * @return the next chunk, or null when there isn't one yet (the writer resumes the
+         *         transfer once there is)
+         */
+        @Override
+        public Object nextChunk() {
+            synchronized(queued){
+                final HttpChunk next = queued.poll();
+                if(next!=null){
+                    ended = next.isLast();
+                    queued.notifyAll();
+                }
+                return next;
+            }
+        }
+
+        @Override
+        public boolean isEndOfInput() {
+            synchronized(queued){
+                return ended;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized(queued){
+                abandoned = true;
+                queued.clear();
+                queued.notifyAll();
+            }
+        }
+    }
+}
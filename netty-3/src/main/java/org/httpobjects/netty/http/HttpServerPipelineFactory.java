@@ -16,23 +16,62 @@
 package org.httpobjects.netty.http;
 
 import static org.jboss.netty.channel.Channels.pipeline;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.PARTIAL_CONTENT;
+import static org.jboss.netty.handler.codec.http.HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
+
+import java.util.concurrent.Executor;
 
 import org.httpobjects.netty.http.HttpChannelHandler.RequestHandler;
+import org.httpobjects.util.RequestBodyLimit;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
 import org.jboss.netty.handler.codec.http.HttpContentCompressor;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMessage;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 
 public class HttpServerPipelineFactory implements ChannelPipelineFactory {
-	
+
 	private final RequestHandler handler;
 	private final ByteAccumulatorFactory accumulatorFactory;
-	
+	private final boolean streamResponses;
+	private final HandlerExecutor handlerExecutor;
+	private final long maxRequestBodySize;
+	private final Executor streamWriters;
+	private final long streamWriteTimeout;
+
     public HttpServerPipelineFactory(RequestHandler handler, ByteAccumulatorFactory accumulatorFactory) {
+		this(handler, accumulatorFactory, false);
+	}
+
+    public HttpServerPipelineFactory(RequestHandler handler, ByteAccumulatorFactory accumulatorFactory, boolean streamResponses) {
+		this(handler, accumulatorFactory, streamResponses, null);
+	}
+
+    public HttpServerPipelineFactory(RequestHandler handler, ByteAccumulatorFactory accumulatorFactory, boolean streamResponses, HandlerExecutor handlerExecutor) {
+		this(handler, accumulatorFactory, streamResponses, handlerExecutor, RequestBodyLimit.UNLIMITED);
+	}
+
+    public HttpServerPipelineFactory(RequestHandler handler, ByteAccumulatorFactory accumulatorFactory, boolean streamResponses, HandlerExecutor handlerExecutor, long maxRequestBodySize) {
+		this(handler, accumulatorFactory, streamResponses, handlerExecutor, maxRequestBodySize, null, HttpChannelHandler.DEFAULT_STREAM_WRITE_TIMEOUT);
+	}
+
+    /**
+     * @see HttpChannelHandler#HttpChannelHandler(RequestHandler, ByteAccumulatorFactory, boolean, HandlerExecutor, long, Executor, long)
+     */
+    public HttpServerPipelineFactory(RequestHandler handler, ByteAccumulatorFactory accumulatorFactory, boolean streamResponses, HandlerExecutor handlerExecutor, long maxRequestBodySize, Executor streamWriters, long streamWriteTimeout) {
 		super();
 		this.handler = handler;
 		this.accumulatorFactory = accumulatorFactory;
+		this.streamResponses = streamResponses;
+		this.handlerExecutor = handlerExecutor;
+		this.maxRequestBodySize = maxRequestBodySize;
+		this.streamWriters = streamWriters;
+		this.streamWriteTimeout = streamWriteTimeout;
 	}
 
 	public ChannelPipeline getPipeline() throws Exception {
@@ -49,8 +88,23 @@ public class HttpServerPipelineFactory implements ChannelPipelineFactory {
         //pipeline.addLast("aggregator", new HttpChunkAggregator(1048576));
         pipeline.addLast("encoder", new HttpResponseEncoder());
         // Remove the following line if you don't want automatic content compression.
-        pipeline.addLast("deflater", new HttpContentCompressor());
-        pipeline.addLast("handler", new HttpChannelHandler(handler, accumulatorFactory.newAccumulator()));
+        pipeline.addLast("deflater", new HttpContentCompressor(){
+            @Override
+            protected EncoderEmbedder<ChannelBuffer> newContentEncoder(HttpMessage msg, String acceptEncoding) throws Exception {
+                // the offsets in a partial response are offsets into the body as it is, so it has to go as it is
+                if (isPartial(msg)) return null;
+                return super.newContentEncoder(msg, acceptEncoding);
+            }
+        });
+        pipeline.addLast("handler", new HttpChannelHandler(handler, accumulatorFactory, streamResponses, handlerExecutor, maxRequestBodySize, streamWriters, streamWriteTimeout));
         return pipeline;
     }
+
+    private static boolean isPartial(HttpMessage msg) {
+        if (!(msg instanceof HttpResponse)) return false;
+        final int code = ((HttpResponse) msg).getStatus().getCode();
+        return code == PARTIAL_CONTENT.getCode() ||
+               code == REQUESTED_RANGE_NOT_SATISFIABLE.getCode() ||
+               msg.headers().contains(HttpHeaders.Names.CONTENT_RANGE);
+    }
 }
\ No newline at end of file
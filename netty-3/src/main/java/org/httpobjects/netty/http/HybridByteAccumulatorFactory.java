@@ -0,0 +1,256 @@
+package org.httpobjects.netty.http;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps bodies in memory, in blocks of direct memory that are shared between accumulators, until
+ * they get bigger than a threshold, at which point they're moved out to a temp file.  Small bodies
+ * never touch the disk, and big ones don't hold onto memory.
+ * <p>
+ * Blocks go back to the pool when an accumulator is {@link ByteAccumulator#dispose() disposed},
+ * up to a limit on how many the pool keeps; any stream still reading from them stops working
+ * then, rather than go on to read whatever the next accumulator puts in them.
+ */
+public class HybridByteAccumulatorFactory implements ByteAccumulatorFactory {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    
+    private final File tempDir;
+    private final String prefix = getClass().getSimpleName();
+    private final int threshold;
+    private final int blockSize;
+    /** null when blocks aren't pooled at all */
+    private final BlockingQueue<ByteBuffer> pool;
+    
+    /**
+     * @param threshold how many bytes a body can have before it's moved to disk
+     */
+    public HybridByteAccumulatorFactory(File tempDir, int threshold) {
+        this(tempDir, threshold, DEFAULT_BLOCK_SIZE, 1024);
+    }
+    
+    /**
+     * @param threshold how many bytes a body can have before it's moved to disk
+     * @param blockSize how big each block of memory is
+     * @param maxPooledBlocks how many unused blocks to keep around (0 for none: each accumulator
+     *        then allocates its own, and lets go of them when it's done)
+     */
+    public HybridByteAccumulatorFactory(File tempDir, int threshold, int blockSize, int maxPooledBlocks) {
+        if(maxPooledBlocks<0) throw new IllegalArgumentException("maxPooledBlocks can't be negative: " + maxPooledBlocks);
+        this.tempDir = tempDir;
+        this.threshold = threshold;
+        this.blockSize = blockSize;
+        this.pool = maxPooledBlocks==0 ? null : new ArrayBlockingQueue<ByteBuffer>(maxPooledBlocks);
+    }
+    
+    /**
+     * @return how many unused blocks are waiting in the pool
+     */
+    public int pooledBlocks() {
+        return pool==null ? 0 : pool.size();
+    }
+    
+    @Override
+    public ByteAccumulator newAccumulator() {
+        return new HybridByteAccumulator();
+    }
+    
+    private ByteBuffer takeBlock() {
+        final ByteBuffer block = pool==null ? null : pool.poll();
+        return block != null ? block : ByteBuffer.allocateDirect(blockSize);
+    }
+    
+    private void giveBack(ByteBuffer block) {
+        if(pool!=null){
+            block.clear();
+            pool.offer(block);
+        }
+    }
+    
+    private class HybridByteAccumulator implements ByteAccumulator {
+        private final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+        /** the streams reading from the blocks that haven't been closed yet; guarded by this */
+        private final List<BlocksInputStream> streams = new ArrayList<BlocksInputStream>();
+        private long size;
+        private File file;
+        private OutputStream fileOut;
+        
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                size += len;
+                if(file==null && size > threshold){
+                    spill();
+                }
+                
+                if(file!=null){
+                    fileOut.write(b, off, len);
+                }else{
+                    while(len>0){
+                        ByteBuffer block = blocks.isEmpty() ? null : blocks.get(blocks.size()-1);
+                        if(block==null || !block.hasRemaining()){
+                            block = takeBlock();
+                            blocks.add(block);
+                        }
+                        final int n = Math.min(len, block.remaining());
+                        block.put(b, off, n);
+                        off += n;
+                        len -= n;
+                    }
+                }
+            }
+            
+            @Override
+            public void flush() throws IOException {
+                if(fileOut!=null) fileOut.flush();
+            }
+        };
+        
+        private void spill() throws IOException {
+            file = File.createTempFile(prefix, ".body", tempDir);
+            fileOut = new BufferedOutputStream(new FileOutputStream(file), blockSize);
+            synchronized(this){
+                for(ByteBuffer block : blocks){
+                    final ByteBuffer contents = (ByteBuffer) block.duplicate().flip();
+                    final byte[] bytes = new byte[contents.remaining()];
+                    contents.get(bytes);
+                    fileOut.write(bytes);
+                    // a stream that's still reading them can go on doing so; they're just not reused
+                    if(streams.isEmpty()) giveBack(block);
+                }
+                blocks.clear();
+            }
+        }
+        
+        @Override
+        public OutputStream out() {
+            return out;
+        }
+        
+        @Override
+        public InputStream toStream() {
+            try {
+                if(file!=null){
+                    fileOut.flush();
+                    return new FileInputStream(file);
+                }else{
+                    synchronized(this){
+                        final BlocksInputStream stream = new BlocksInputStream(this, blocks);
+                        streams.add(stream);
+                        return stream;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+        @Override
+        public void dispose() {
+            synchronized(this){
+                for(BlocksInputStream stream : streams){
+                    stream.disposed = true;
+                }
+                streams.clear();
+                for(ByteBuffer block : blocks){
+                    giveBack(block);
+                }
+                blocks.clear();
+            }
+            size = 0;
+            
+            if(file!=null){
+                try {
+                    fileOut.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                if(!file.delete()) throw new RuntimeException("Unable to delete " + file.getAbsolutePath());
+                file = null;
+                fileOut = null;
+            }
+        }
+    }
+    
+    /**
+     * Reads the accumulator's blocks, for as long as it hasn't been disposed of.
+     */
+    private static class BlocksInputStream extends InputStream {
+        private final HybridByteAccumulator owner;
+        private final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+        private int current = 0;
+        /** guarded by the owner */
+        private boolean disposed;
+        
+        BlocksInputStream(HybridByteAccumulator owner, List<ByteBuffer> blocks) {
+            this.owner = owner;
+            for(ByteBuffer block : blocks){
+                this.blocks.add((ByteBuffer) block.duplicate().flip());
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xff);
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            synchronized(owner){
+                checkNotDisposed();
+                if(len==0) return 0;
+                while(current<blocks.size() && !blocks.get(current).hasRemaining()){
+                    current++;
+                }
+                if(current==blocks.size()) return -1;
+                
+                final ByteBuffer block = blocks.get(current);
+                final int n = Math.min(len, block.remaining());
+                block.get(b, off, n);
+                return n;
+            }
+        }
+        
+        @Override
+        public int available() throws IOException {
+            synchronized(owner){
+                checkNotDisposed();
+                int available = 0;
+                for(int x=current;x<blocks.size();x++){
+                    available += blocks.get(x).remaining();
+                }
+                return available;
+            }
+        }
+        
+        /**
+         * Lets the accumulator know it can reuse the blocks, as far as this stream is concerned.
+         */
+        @Override
+        public void close() {
+            synchronized(owner){
+                owner.streams.remove(this);
+            }
+        }
+        
+        private void checkNotDisposed() throws IOException {
+            if(disposed) throw new IOException("The body has been disposed of");
+        }
+    }
+}
@@ -21,6 +21,7 @@ public class InMemoryByteAccumulatorFactory implements ByteAccumulatorFactory {
             }
             @Override
             public void dispose() {
+                buf.reset();
             }
         };
     }
@@ -0,0 +1,70 @@
+package org.httpobjects.netty.http;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands out accumulators from another factory, taking them back for reuse once they're
+ * {@link ByteAccumulator#dispose() disposed} (up to a limit on how many are kept idle).
+ */
+public class RecyclingByteAccumulatorFactory implements ByteAccumulatorFactory {
+    private final ByteAccumulatorFactory factory;
+    private final BlockingQueue<ByteAccumulator> idle;
+    
+    public RecyclingByteAccumulatorFactory(ByteAccumulatorFactory factory, int maxIdle) {
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<ByteAccumulator>(maxIdle);
+    }
+    
+    /**
+     * @return how many accumulators are waiting to be reused
+     */
+    public int idle() {
+        return idle.size();
+    }
+    
+    @Override
+    public ByteAccumulator newAccumulator() {
+        final ByteAccumulator reused = idle.poll();
+        return new Recycled(reused != null ? reused : factory.newAccumulator());
+    }
+    
+    /**
+     * Lends out an accumulator until it's disposed, after which it's no longer this one's to use
+     * (it may well be someone else's by then).
+     */
+    private class Recycled implements ByteAccumulator {
+        /** null once disposed */
+        private ByteAccumulator delegate;
+        
+        Recycled(ByteAccumulator delegate) {
+            this.delegate = delegate;
+        }
+        
+        @Override
+        public InputStream toStream() {
+            return delegate().toStream();
+        }
+        
+        @Override
+        public OutputStream out() {
+            return delegate().out();
+        }
+        
+        @Override
+        public void dispose() {
+            final ByteAccumulator disposed = delegate;
+            if(disposed==null) return;
+            delegate = null;
+            disposed.dispose();
+            idle.offer(disposed);
+        }
+        
+        private ByteAccumulator delegate() {
+            if(delegate==null) throw new IllegalStateException("Already disposed");
+            return delegate;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.netty.http.HybridByteAccumulatorFactory;
+import org.httpobjects.util.HttpObjectUtil;
+import org.junit.Test;
+
+public class NettyImmutableCopyTest {
+
+    @Test
+    public void immutableCopiesKeepTheirBodiesOnceTheBuffersAreReused() throws Exception {
+        // given
+        final List<Request> kept = new ArrayList<Request>();
+        int port = findFreePort();
+        NettyServer server = new NettyServerBuilder(Arrays.<HttpObject>asList(
+                new HttpObject("/keep"){
+                    @Override
+                    public Response post(Request req) {
+                        synchronized (kept) {
+                            kept.add(req.immutableCopy());
+                        }
+                        return OK(Text("kept"));
+                    }
+                }))
+                // one small pooled block per body, so the second request gets the first one's block back
+                .buffers(new HybridByteAccumulatorFactory(new File(System.getProperty("java.io.tmpdir")), 1024, 64, 1))
+                .serve(port);
+
+        try {
+            // when
+            assertEquals("kept", send(port, post("/keep", "first body")));
+            assertEquals("kept", send(port, post("/keep", "SECOND BODY")));
+
+            // then
+            assertEquals("first body", HttpObjectUtil.toUtf8(kept.get(0).representation()));
+            assertEquals("SECOND BODY", HttpObjectUtil.toUtf8(kept.get(1).representation()));
+            assertEquals("first body", HttpObjectUtil.toUtf8(kept.get(0).representation()));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static String send(int port, String request) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes("ASCII"));
+            out.flush();
+            return readBody(socket.getInputStream());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static String post(String path, String body) {
+        return "POST " + path + " HTTP/1.1\r\n" +
+               "Host: localhost\r\n" +
+               "Content-Length: " + body.length() + "\r\n" +
+               "\r\n" +
+               body;
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        int contentLength = -1;
+        String line;
+        while(!(line = readLine(in)).isEmpty()){
+            if(line.toLowerCase().startsWith("content-length:")){
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] content = new byte[contentLength];
+        int read = 0;
+        while(read < contentLength){
+            read += in.read(content, read, contentLength - read);
+        }
+        return new String(content, "UTF-8");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n'){
+            if(c == -1) throw new IOException("The connection was closed");
+            if(c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+    
+    private int findFreePort() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+            return port;
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.netty.http.FilesystemByteAccumulatorFactory;
+import org.httpobjects.util.HttpObjectUtil;
+import org.jboss.netty.channel.Channel;
+import org.junit.Test;
+
+public class NettyKeepAliveTest {
+    
+    @Test
+    public void eachRequestOnAConnectionGetsItsOwnBody() throws Exception {
+        // given
+        File tempDir = tempDir();
+        int port = findFreePort();
+        Channel server = HttpobjectsNettySupport.serve(port, Arrays.<HttpObject>asList(new HttpObject("/echo"){
+            @Override
+            public Response post(Request req) {
+                return OK(Text(HttpObjectUtil.toUtf8(req.representation())));
+            }
+        }), new FilesystemByteAccumulatorFactory(tempDir));
+        
+        try {
+            Socket socket = new Socket("localhost", port);
+            
+            // when
+            String first = post(socket, "first");
+            String second = post(socket, "second");
+            socket.close();
+            
+            // then
+            assertEquals("first", first);
+            assertEquals("second", second);
+            assertTrue(waitUntilEmpty(tempDir));
+        } finally {
+            server.unbind().awaitUninterruptibly();
+        }
+    }
+    
+    private static String post(Socket socket, String body) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("POST /echo HTTP/1.1\r\n" + 
+                   "Host: localhost\r\n" + 
+                   "Content-Length: " + body.length() + "\r\n" + 
+                   "\r\n" + 
+                   body).getBytes("ASCII"));
+        out.flush();
+        
+        InputStream in = socket.getInputStream();
+        int contentLength = -1;
+        String line;
+        while(!(line = readLine(in)).isEmpty()){
+            if(line.toLowerCase().startsWith("content-length:")){
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] content = new byte[contentLength];
+        int read = 0;
+        while(read < contentLength){
+            read += in.read(content, read, contentLength - read);
+        }
+        return new String(content, "UTF-8");
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n'){
+            if(c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+    
+    private static boolean waitUntilEmpty(File dir) throws InterruptedException {
+        for(int x=0;x<50;x++){
+            if(dir.list().length == 0) return true;
+            Thread.sleep(20);
+        }
+        return false;
+    }
+    
+    private int findFreePort() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+            return port;
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+    
+    private File tempDir(){
+        try {
+            File d = File.createTempFile(getClass().getSimpleName(), ".dir");
+            if(!(d.delete() && d.mkdirs())) throw new RuntimeException("Could not create directory: " + d.getAbsolutePath());
+            return d;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.util.HttpObjectUtil;
+import org.httpobjects.util.RequestBodyLimit;
+import org.junit.Test;
+
+public class NettyRequestBodyLimitTest {
+    
+    @Test
+    public void bodiesThatSayTheyreTooBigAreTurnedAwayUnread() throws Exception {
+        // given
+        int port = findFreePort();
+        NettyServer server = serve(port, 10);
+        
+        try {
+            // when
+            String small = exchange(port, "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nsmall");
+            // (none of the body is sent, nor would it be read)
+            String big = exchange(port, "POST /echo HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000000\r\n\r\n");
+            
+            // then
+            assertEquals("200 small", small);
+            assertEquals("413 413 Client Error: Request Entity Too Large", big);
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void chunkedBodiesAreCutOffOnceTheyGetTooBig() throws Exception {
+        // given
+        int port = findFreePort();
+        NettyServer server = serve(port, 10);
+        
+        try {
+            // when
+            String big = exchange(port, "POST /echo HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" + 
+                                        "8\r\n12345678\r\n" + 
+                                        "8\r\n12345678\r\n" + 
+                                        "0\r\n\r\n");
+            
+            // then
+            assertEquals("413 413 Client Error: Request Entity Too Large", big);
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void objectsCanHaveTighterLimitsOfTheirOwn() throws Exception {
+        // given
+        int port = findFreePort();
+        NettyServer server = serve(port, 10);
+        
+        try {
+            // when
+            String fits = exchange(port, "POST /tight HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3\r\n\r\nabc");
+            String chunked = exchange(port, "POST /tight HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" + 
+                                            "4\r\nabcd\r\n" + 
+                                            "0\r\n\r\n");
+            String declared = exchange(port, "POST /tight HTTP/1.1\r\nHost: localhost\r\nContent-Length: 4\r\n\r\nabcd");
+            
+            // then
+            assertEquals("200 abc", fits);
+            assertEquals("413 413 Client Error: Request Entity Too Large", chunked);
+            assertEquals("413 413 Client Error: Request Entity Too Large", declared);
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test
+    public void objectsLimitsAreSeenToBeforeTheBodyIsRead() throws Exception {
+        // given
+        int port = findFreePort();
+        NettyServer server = serve(port, RequestBodyLimit.UNLIMITED);
+        
+        try {
+            // when
+            // (none of the bodies are sent, so they'd be waited on for good if they were to be read)
+            String declared = exchange(port, "POST /tight HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000000\r\n\r\n");
+            String masked = exchange(port, "POST /masked/tight HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000000\r\n\r\n");
+            String chunked = exchange(port, "POST /tight HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" + 
+                                            "8\r\n12345678\r\n");
+            String maskedFits = exchange(port, "POST /masked/loose HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n\r\nloose");
+            
+            // then
+            assertEquals("413 413 Client Error: Request Entity Too Large", declared);
+            assertEquals("413 413 Client Error: Request Entity Too Large", masked);
+            assertEquals("413 413 Client Error: Request Entity Too Large", chunked);
+            assertEquals("200 loose", maskedFits);
+        } finally {
+            server.stop();
+        }
+    }
+    
+    private static NettyServer serve(int port, long maxRequestBodySize) {
+        return HttpobjectsNettySupport.builder(Arrays.<HttpObject>asList(
+                new HttpObject("/echo"){
+                    @Override
+                    public Response post(Request req) {
+                        return OK(Text(HttpObjectUtil.toUtf8(req.representation())));
+                    }
+                },
+                new HttpObject("/tight"){
+                    @Override
+                    public long maxRequestBodySize() {
+                        return 3;
+                    }
+                    
+                    @Override
+                    public Response post(Request req) {
+                        return OK(Text(HttpObjectUtil.toUtf8(req.representation())));
+                    }
+                },
+                new HttpObject("/masked/tight"){
+                    @Override
+                    public long maxRequestBodySize() {
+                        return 3;
+                    }
+                }.mask(new HttpObject("/masked/loose"){
+                    @Override
+                    public Response post(Request req) {
+                        return OK(Text(HttpObjectUtil.toUtf8(req.representation())));
+                    }
+                })))
+                .maxRequestBodySize(maxRequestBodySize)
+                .serve(port);
+    }
+    
+    /**
+     * @return the status code and the body
+     */
+    private static String exchange(int port, String request) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes("ASCII"));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String status = readLine(in).split(" ")[1];
+            return status + " " + readBody(in);
+        } finally {
+            socket.close();
+        }
+    }
+    
+    private static String readBody(InputStream in) throws IOException {
+        int contentLength = -1;
+        String line;
+        while(!(line = readLine(in)).isEmpty()){
+            if(line.toLowerCase().startsWith("content-length:")){
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] content = new byte[contentLength];
+        int read = 0;
+        while(read < contentLength){
+            read += in.read(content, read, contentLength - read);
+        }
+        return new String(content, "UTF-8");
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n'){
+            if(c == -1) throw new IOException("The connection was closed");
+            if(c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+    
+    private int findFreePort() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+            return port;
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+}
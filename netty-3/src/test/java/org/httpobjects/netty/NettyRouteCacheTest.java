@@ -0,0 +1,51 @@
+package org.httpobjects.netty;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.httpobjects.ConnectionInfo;
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.util.HttpObjectUtil;
+import org.httpobjects.util.RouteCache;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Test;
+
+public class NettyRouteCacheTest {
+    private final ConnectionInfo connection = new ConnectionInfo("127.0.0.1", 8080, "127.0.0.1", 40000);
+
+    @Test
+    public void urisThatOnlyDifferInTheirQueryShareOneRoute() throws Exception {
+        // given
+        RouteCache cache = new RouteCache(10);
+        NettyHttpobjectsRequestHandler handler = new NettyHttpobjectsRequestHandler(Arrays.<HttpObject>asList(
+                new HttpObject("/other"),
+                new HttpObject("/app.js"){
+                    @Override
+                    public Response get(Request req) {
+                        return OK(Text("app " + req.query().valueFor("_")));
+                    }
+                }), cache);
+
+        // when
+        Response first = handler.respond(get("/app.js?_=1"), null, null, connection);
+        Response second = handler.respond(get("/app.js?_=2&utm_source=x"), null, null, connection);
+        Response third = handler.respond(get("/app.js"), null, null, connection);
+
+        // then
+        assertEquals("app 1", HttpObjectUtil.toUtf8(first.representation()));
+        assertEquals("app 2", HttpObjectUtil.toUtf8(second.representation()));
+        assertEquals("app null", HttpObjectUtil.toUtf8(third.representation()));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.misses());
+        assertEquals(2, cache.hits());
+    }
+
+    private static DefaultHttpRequest get(String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Representation;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.junit.Test;
+
+public class NettyServerTest {
+    
+    @Test
+    public void stoppingClosesConnectionsAndLetsGoOfThePortAndThreads() throws Exception {
+        // given
+        int port = findFreePort();
+        Set<Thread> threadsBefore = nettyThreads();
+        NettyServer server = HttpobjectsNettySupport.builder(new HttpObject("/hello"){
+            @Override
+            public Response get(Request req) {
+                return OK(Text("hello"));
+            }
+        }).bossThreads(1).workerThreads(2).serve(port);
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        assertEquals("HTTP/1.1 200 OK", get(socket, "/hello"));
+        
+        // when
+        server.stop();
+        
+        // then
+        assertEquals(-1, readToEnd(socket.getInputStream()));
+        socket.close();
+        // (other tests' servers may be starting or stopping threads of their own meanwhile)
+        Set<Thread> threadsLeft = nettyThreads();
+        threadsLeft.removeAll(threadsBefore);
+        for(Thread thread : threadsLeft){
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+        NettyServer again = HttpobjectsNettySupport.builder(new HttpObject("/hello")).serve(port);
+        again.stop();
+    }
+    
+    @Test
+    public void streamedResponsesAreProducedOnABoundedPoolThatStopsWithTheServer() throws Exception {
+        // given
+        int port = findFreePort();
+        final Set<Thread> writers = Collections.synchronizedSet(new HashSet<Thread>());
+        NettyServer server = HttpobjectsNettySupport.builder(new HttpObject("/hello"){
+            @Override
+            public Response get(Request req) {
+                return OK(new Representation() {
+                    @Override
+                    public String contentType() {
+                        return "text/plain";
+                    }
+                    
+                    @Override
+                    public void write(OutputStream out) {
+                        writers.add(Thread.currentThread());
+                        try {
+                            out.write("hello".getBytes("ASCII"));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+        }).streamWriterThreads(2).streamResponses(true).serve(port);
+        
+        // when
+        for(int x=0;x<10;x++){
+            Socket socket = new Socket("localhost", port);
+            socket.setSoTimeout(5000);
+            assertEquals("HTTP/1.1 200 OK", get(socket, "/hello"));
+            socket.close();
+        }
+        server.stop();
+        
+        // then
+        assertTrue(writers.size() <= 2);
+        for(Thread writer : writers){
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+        }
+    }
+    
+    private static String get(Socket socket, String path) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\n" + 
+                   "Host: localhost\r\n" + 
+                   "\r\n").getBytes("ASCII"));
+        out.flush();
+        return readLine(socket.getInputStream());
+    }
+    
+    private static int readToEnd(InputStream in) throws IOException {
+        int c;
+        while((c = in.read()) != -1){}
+        return c;
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n'){
+            if(c == -1) throw new IOException("The connection was closed");
+            if(c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+    
+    private static Set<Thread> nettyThreads() {
+        Set<Thread> threads = new HashSet<Thread>();
+        for(Thread thread : Thread.getAllStackTraces().keySet()){
+            if(thread.isAlive() && thread.getName().startsWith("New I/O")) threads.add(thread);
+        }
+        return threads;
+    }
+    
+    private int findFreePort() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+            return port;
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+}
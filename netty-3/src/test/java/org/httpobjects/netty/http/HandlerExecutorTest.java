@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class HandlerExecutorTest {
+    
+    @Test
+    public void turnsAwayRequestsBeyondTheLimit() {
+        // given
+        HandlerExecutor executor = new HandlerExecutor(sameThread(), 2);
+        
+        // when
+        boolean first = executor.admit();
+        boolean second = executor.admit();
+        boolean third = executor.admit();
+        executor.release();
+        boolean fourth = executor.admit();
+        
+        // then
+        assertTrue(first);
+        assertTrue(second);
+        assertFalse(third);
+        assertTrue(fourth);
+        assertEquals(2, executor.queued());
+        assertEquals(1, executor.saturated());
+    }
+    
+    @Test
+    public void runsAConnectionsWorkInOrder() {
+        // given
+        final List<Runnable> submitted = new ArrayList<Runnable>();
+        HandlerExecutor executor = new HandlerExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submitted.add(command);
+            }
+        }, 10);
+        Executor connection = executor.ordered();
+        final List<Integer> ran = new ArrayList<Integer>();
+        
+        // when
+        for(int x=0;x<3;x++){
+            final int n = x;
+            connection.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(n);
+                }
+            });
+        }
+        submitted.get(0).run();
+        
+        // then
+        assertEquals(1, submitted.size());
+        assertEquals(3, ran.size());
+        assertEquals(0, ran.get(0).intValue());
+        assertEquals(1, ran.get(1).intValue());
+        assertEquals(2, ran.get(2).intValue());
+    }
+    
+    @Test
+    public void keepsRunningAConnectionsWorkAfterATaskThrows() {
+        // given
+        final List<Runnable> submitted = new ArrayList<Runnable>();
+        HandlerExecutor executor = new HandlerExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submitted.add(command);
+            }
+        }, 10);
+        Executor connection = executor.ordered();
+        final List<String> ran = new ArrayList<String>();
+        
+        // when
+        connection.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("bad handler");
+            }
+        });
+        connection.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("second");
+            }
+        });
+        submitted.get(0).run();
+        connection.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("third");
+            }
+        });
+        submitted.get(1).run();
+        
+        // then
+        assertEquals(2, submitted.size());
+        assertEquals(2, ran.size());
+        assertEquals("second", ran.get(0));
+        assertEquals("third", ran.get(1));
+    }
+    
+    @Test
+    public void turnsAwayWorkTheExecutorRefuses() {
+        // given
+        HandlerExecutor executor = new HandlerExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, 10);
+        final HandlerExecutor.Ordered connection = executor.ordered();
+        final List<Boolean> turnedAway = new ArrayList<Boolean>();
+        
+        // when
+        connection.execute(new Runnable() {
+            @Override
+            public void run() {
+                turnedAway.add(connection.turnedAway());
+            }
+        });
+        
+        // then
+        assertEquals(1, turnedAway.size());
+        assertTrue(turnedAway.get(0));
+        assertFalse(connection.turnedAway());
+    }
+    
+    private static Executor sameThread() {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class HybridByteAccumulatorFactoryTest {
+    
+    @Test
+    public void keepsSmallBodiesInMemory() throws Exception {
+        // given
+        File dir = tempDir();
+        HybridByteAccumulatorFactory factory = new HybridByteAccumulatorFactory(dir, 16, 4, 10);
+        ByteAccumulator accumulator = factory.newAccumulator();
+        
+        // when
+        accumulator.out().write("hello ".getBytes("UTF-8"));
+        accumulator.out().write("world".getBytes("UTF-8"));
+        String result = read(accumulator.toStream());
+        
+        // then
+        assertEquals("hello world", result);
+        assertEquals(0, dir.list().length);
+    }
+    
+    @Test
+    public void movesBigBodiesToDisk() throws Exception {
+        // given
+        File dir = tempDir();
+        HybridByteAccumulatorFactory factory = new HybridByteAccumulatorFactory(dir, 16, 4, 10);
+        ByteAccumulator accumulator = factory.newAccumulator();
+        
+        // when
+        accumulator.out().write("hello ".getBytes("UTF-8"));
+        accumulator.out().write("world, how are you today?".getBytes("UTF-8"));
+        String result = read(accumulator.toStream());
+        int filesBeforeDisposal = dir.list().length;
+        accumulator.dispose();
+        
+        // then
+        assertEquals("hello world, how are you today?", result);
+        assertEquals(1, filesBeforeDisposal);
+        assertEquals(0, dir.list().length);
+    }
+    
+    @Test
+    public void reusesBlocksOnceDisposed() throws Exception {
+        // given
+        HybridByteAccumulatorFactory factory = new HybridByteAccumulatorFactory(tempDir(), 16, 4, 10);
+        ByteAccumulator first = factory.newAccumulator();
+        first.out().write("0123456789".getBytes("UTF-8"));
+        
+        // when
+        first.dispose();
+        int pooledAfterDisposal = factory.pooledBlocks();
+        ByteAccumulator second = factory.newAccumulator();
+        second.out().write("abc".getBytes("UTF-8"));
+        
+        // then
+        assertEquals(3, pooledAfterDisposal);
+        assertEquals(2, factory.pooledBlocks());
+        assertEquals("abc", read(second.toStream()));
+    }
+    
+    @Test
+    public void streamsStopWorkingOnceTheBlocksAreGivenBack() throws Exception {
+        // given
+        HybridByteAccumulatorFactory factory = new HybridByteAccumulatorFactory(tempDir(), 16, 4, 10);
+        ByteAccumulator first = factory.newAccumulator();
+        first.out().write("0123456789".getBytes("UTF-8"));
+        InputStream stale = first.toStream();
+        
+        // when
+        first.dispose();
+        ByteAccumulator second = factory.newAccumulator();
+        second.out().write("abcdefghij".getBytes("UTF-8"));
+        IOException error = null;
+        try {
+            stale.read();
+        } catch (IOException e) {
+            error = e;
+        }
+        
+        // then
+        assertNotNull(error);
+        assertEquals("abcdefghij", read(second.toStream()));
+    }
+    
+    @Test
+    public void keepsNoBlocksAroundWhenThePoolIsEmpty() throws Exception {
+        // given
+        HybridByteAccumulatorFactory factory = new HybridByteAccumulatorFactory(tempDir(), 16, 4, 0);
+        ByteAccumulator accumulator = factory.newAccumulator();
+        
+        // when
+        accumulator.out().write("0123456789".getBytes("UTF-8"));
+        String result = read(accumulator.toStream());
+        accumulator.dispose();
+        
+        // then
+        assertEquals("0123456789", result);
+        assertEquals(0, factory.pooledBlocks());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void poolsCantBeNegative() {
+        new HybridByteAccumulatorFactory(tempDir(), 16, 4, -1);
+    }
+    
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int n;
+        while((n = in.read(buffer))!=-1){
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+    
+    private File tempDir(){
+        try {
+            File d = File.createTempFile(getClass().getSimpleName(), ".dir");
+            if(!(d.delete() && d.mkdirs())) throw new RuntimeException("Could not create directory: " + d.getAbsolutePath());
+            return d;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.httpobjects.netty4;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+
+import io.netty.channel.Channel;
+
+public class HttpobjectsNettySupport {
+
+      public static Channel serve(int port, HttpObject ... objects) {
+          return serve(port, Arrays.asList(objects));
+      }
+
+      public static Channel serve(int port, List<HttpObject> objects) {
+          return builder(objects).serve(port);
+      }
+
+      /**
+       * @return a builder for a server with more say over its threads and sockets
+       */
+      public static NettyServerBuilder builder(HttpObject ... objects) {
+          return builder(Arrays.asList(objects));
+      }
+
+      public static NettyServerBuilder builder(List<HttpObject> objects) {
+          return new NettyServerBuilder(objects);
+      }
+
+      public static void main(String[] args) {
+          int port;
+          if (args.length > 0) {
+              port = Integer.parseInt(args[0]);
+          } else {
+              port = 8080;
+          }
+          HttpobjectsNettySupport.serve(port, Arrays.<HttpObject>asList(
+                  new HttpObject("/") {
+                      public Response get(Request req) {
+                          return OK(Html("<html><body>Welcome.  Click <a href=\"/yo\">here</a> for a special message.</body></html>"));
+                      }
+                  },
+                  new HttpObject("/yo") {
+                      public Response get(Request req) {
+                          return OK(Text("Hello world"));
+                      }
+                  }
+                  ));
+      }
+}
@@ -0,0 +1,240 @@
+package org.httpobjects.netty4;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.httpobjects.AsyncHttpObject;
+import org.httpobjects.ConnectionInfo;
+import org.httpobjects.DSL;
+import org.httpobjects.HttpObject;
+import org.httpobjects.Query;
+import org.httpobjects.Representation;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.header.GenericHeaderField;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.header.request.AuthorizationField;
+import org.httpobjects.header.request.CookieField;
+import org.httpobjects.header.request.RequestHeader;
+import org.httpobjects.impl.RequestSnapshot;
+import org.httpobjects.netty4.http.HttpChannelHandler;
+import org.httpobjects.path.Path;
+import org.httpobjects.path.PathPattern;
+import org.httpobjects.representation.ImmutableRep;
+import org.httpobjects.representation.StreamingRep;
+import org.httpobjects.util.HttpObjectRouter;
+import org.httpobjects.util.HttpObjectUtil;
+import org.httpobjects.util.Method;
+import org.httpobjects.util.RequestBodyLimit;
+import org.httpobjects.util.RouteCache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+
+public class NettyHttpobjectsRequestHandler implements HttpChannelHandler.AsyncRequestHandler {
+	private final HttpObjectRouter router;
+    private final Response defaultResponse = DSL.NOT_FOUND();
+
+	public NettyHttpobjectsRequestHandler(List<HttpObject> objects) {
+		this(objects, null);
+	}
+
+	/**
+	 * @param routeCache remembers where recent paths were routed to; null to route every request from scratch
+	 */
+	public NettyHttpobjectsRequestHandler(List<HttpObject> objects, RouteCache routeCache) {
+		super();
+		this.router = new HttpObjectRouter(objects, routeCache);
+	}
+
+	/**
+	 * Routes the request on its headers alone, so that the limit of the object it goes to is seen
+	 * to before its body is read.
+	 */
+	@Override
+	public long maxRequestBodySize(HttpRequest request) {
+		if (HttpUtil.getContentLength(request, -1L) <= 0) return RequestBodyLimit.UNLIMITED;
+		final String path = pathOf(request.uri());
+		final HttpObject first = router.firstMatch(path, Method.fromString(request.method().name()));
+		return first == null ? RequestBodyLimit.UNLIMITED : first.maxRequestBodySize(path);
+	}
+
+	@Override
+	public Response respond(final FullHttpRequest request, final ConnectionInfo connectionInfo) {
+
+		final String path = pathOf(request.uri());
+		final Method m = Method.fromString(request.method().name());
+
+		final Response out = router.route(path, m, new HttpObjectRouter.Attempt() {
+			@Override
+			public Response attempt(HttpObject next, Path match) {
+				// the server's own limit was seen to by the aggregator, which has the whole body by now
+				if (RequestBodyLimit.exceeds(next.maxRequestBodySize(path), request.content().readableBytes())) {
+					return RequestBodyLimit.tooLarge();
+				}
+				Request in = readRequest(next.pattern(), match, request, connectionInfo);
+				return HttpObjectUtil.invokeMethod(next, m, in);
+			}
+		});
+
+        return out != null ? out : defaultResponse;
+	}
+
+	@Override
+	public CompletionStage<Response> respondAsync(final FullHttpRequest request, final ConnectionInfo connectionInfo) {
+
+		final String path = pathOf(request.uri());
+		final Method m = Method.fromString(request.method().name());
+
+		// the body has to stay put for as long as the handler may still be reading it
+		request.retain();
+		final CompletionStage<Response> out;
+		try {
+			out = router.routeAsync(path, m, new HttpObjectRouter.AsyncAttempt() {
+				@Override
+				public CompletionStage<Response> attempt(HttpObject next, Path match) {
+					if (RequestBodyLimit.exceeds(next.maxRequestBodySize(path), request.content().readableBytes())) {
+						return AsyncHttpObject.completed(RequestBodyLimit.tooLarge());
+					}
+					Request in = readRequest(next.pattern(), match, request, connectionInfo);
+					return HttpObjectUtil.invokeMethodAsync(next, m, in);
+				}
+			});
+		} catch (RuntimeException e) {
+			request.release();
+			throw e;
+		}
+
+		return out.whenComplete(new BiConsumer<Response, Throwable>() {
+			@Override
+			public void accept(Response response, Throwable error) {
+				request.release();
+			}
+		}).thenApply(new Function<Response, Response>() {
+			@Override
+			public Response apply(Response response) {
+				return response != null ? response : defaultResponse;
+			}
+		});
+	}
+
+	/**
+	 * @return the uri without its query or fragment, which is what requests are routed (and
+	 *         their routes cached) by, so that e.g. cache-busting parameters all share one route
+	 */
+	private static String pathOf(String uri) {
+		int end = uri.indexOf('?');
+		final int fragment = uri.indexOf('#');
+		if (end == -1 || (fragment != -1 && fragment < end)) end = fragment;
+		return end == -1 ? uri : uri.substring(0, end);
+	}
+
+	/**
+	 * @return true when the uri has no query, fragment or authority, i.e. when it is already
+	 *         what {@link URL#getPath()} would give back for it
+	 */
+	private static boolean isJustAPath(String uri) {
+		return uri.startsWith("/") && uri.indexOf('?') == -1 && uri.indexOf('#') == -1;
+	}
+
+	private Request readRequest(final PathPattern pathPattern, final Path match, final FullHttpRequest request, final ConnectionInfo connectionInfo) {
+		return new Request(){
+
+			@Override
+			public Method method() {
+				return Method.fromString(request.method().name().toUpperCase());
+			}
+
+			@Override
+			public boolean hasRepresentation() {
+			    return true;
+			}
+
+			@Override
+			public ConnectionInfo connectionInfo() {
+			    return connectionInfo;
+			}
+
+			@Override
+			public RequestHeader header() {
+				List<HeaderField> results = new ArrayList<HeaderField>();
+				final HttpHeaders headers = request.headers();
+				for(Map.Entry<String, String> entry : headers){
+					final String name = entry.getKey();
+					final String value = entry.getValue();
+					final HeaderField field;
+					if(name.equalsIgnoreCase("Cookie")){
+						field = new CookieField(value);
+					}else if(name.equalsIgnoreCase("Authorization")){
+						field = AuthorizationField.parse(value);
+					}else{
+						field = new GenericHeaderField(name, value);
+					}
+					results.add(field);
+				}
+				return new RequestHeader(results){
+					@Override
+					public AuthorizationField authorization() {
+						final String value = headers.get(HttpHeaderNames.AUTHORIZATION);
+						if (value == null) return null;
+						try {
+							return AuthorizationField.parse(value);
+						} catch (AuthorizationField.ParsingException ex) {
+							return null;
+						}
+					}
+				};
+			}
+
+			@Override
+			public Request immutableCopy() {
+				// the body's buffer is pooled, and goes back to the pool once the response is out
+				final String contentType = request.headers().get(HttpHeaderNames.CONTENT_TYPE);
+				return RequestSnapshot.of(this, new ImmutableRep(contentType, ByteBufUtil.getBytes(request.content())));
+			}
+
+			@Override
+			public Path path() {
+			    if(isJustAPath(request.uri())) return match;
+			    return pathPattern.match(jdkURL().getPath());
+			}
+
+			private URL jdkURL(){
+                try {
+                    return new URL("http://foo" + request.uri());
+                } catch (MalformedURLException e) {
+                    throw new RuntimeException(e);
+                }
+			}
+
+			@Override
+			public Query query() {
+			    return new Query(jdkURL().getQuery());
+			}
+
+			@Override
+			public Representation representation() {
+				final String contentType = request.headers().get(HttpHeaderNames.CONTENT_TYPE);
+				final ByteBuf content = request.content();
+				final InputStream data = content.isReadable() ? 
+						new ByteBufInputStream(content.duplicate()) : 
+						new ByteArrayInputStream(new byte[0]);
+				return new StreamingRep(contentType, data, content.readableBytes(), true);
+			}
+		};
+	}
+}
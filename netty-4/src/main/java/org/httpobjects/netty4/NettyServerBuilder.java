@@ -0,0 +1,376 @@
+package org.httpobjects.netty4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.netty4.http.HttpChannelHandler;
+import org.httpobjects.netty4.http.HttpServerInitializer;
+import org.httpobjects.netty4.http2.Http2ServerInitializer;
+import org.httpobjects.util.RouteCache;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Sets up a netty 4 server for some {@link HttpObject}s: its threads, its sockets and how it
+ * handles requests.  Each method gives back a new builder, leaving the one it was called on as it
+ * was.  Bodies, both coming and going, are kept in buffers from netty's pooled allocator.
+ * <pre>
+ * HttpobjectsNettySupport.builder(objects)
+ *      .transport(Transport.EPOLL)
+ *      .workerThreads(8)
+ *      .tcpNoDelay(true)
+ *      .serve(8080);
+ * </pre>
+ */
+public final class NettyServerBuilder {
+    
+    public enum Transport {
+        /** java's non-blocking sockets; works everywhere */
+        NIO,
+        /** linux's epoll, straight through JNI; needs netty-transport-native-epoll on the classpath */
+        EPOLL
+    }
+    
+    private List<HttpObject> objects;
+    private RouteCache routeCache = null;
+    private Transport transport = Transport.NIO;
+    private int bossThreads = 1;
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int handlerThreads = 0;
+    private int maxContentLength = HttpServerInitializer.DEFAULT_MAX_CONTENT_LENGTH;
+    private boolean streamResponses = false;
+    private Integer streamWriterThreads = null;
+    private long streamWriteTimeout = HttpChannelHandler.DEFAULT_STREAM_WRITE_TIMEOUT;
+    private boolean http2 = false;
+    private Long maxConcurrentStreams = null;
+    private Integer initialWindowSize = null;
+    private Boolean tcpNoDelay = null;
+    private Boolean reuseAddress = null;
+    private Boolean reusePort = null;
+    private Boolean keepAlive = null;
+    private Integer backlog = null;
+    private Integer receiveBufferSize = null;
+    private Integer sendBufferSize = null;
+    
+    public NettyServerBuilder(List<HttpObject> objects) {
+        this.objects = new ArrayList<HttpObject>(objects);
+    }
+    
+    private NettyServerBuilder copy() {
+        final NettyServerBuilder copy = new NettyServerBuilder(objects);
+        copy.routeCache = routeCache;
+        copy.transport = transport;
+        copy.bossThreads = bossThreads;
+        copy.workerThreads = workerThreads;
+        copy.handlerThreads = handlerThreads;
+        copy.maxContentLength = maxContentLength;
+        copy.streamResponses = streamResponses;
+        copy.streamWriterThreads = streamWriterThreads;
+        copy.streamWriteTimeout = streamWriteTimeout;
+        copy.http2 = http2;
+        copy.maxConcurrentStreams = maxConcurrentStreams;
+        copy.initialWindowSize = initialWindowSize;
+        copy.tcpNoDelay = tcpNoDelay;
+        copy.reuseAddress = reuseAddress;
+        copy.reusePort = reusePort;
+        copy.keepAlive = keepAlive;
+        copy.backlog = backlog;
+        copy.receiveBufferSize = receiveBufferSize;
+        copy.sendBufferSize = sendBufferSize;
+        return copy;
+    }
+    
+    /**
+     * @param routeCache remembers where recent paths were routed to; null to route every request from scratch
+     */
+    public NettyServerBuilder routeCache(RouteCache routeCache) {
+        final NettyServerBuilder b = copy();
+        b.routeCache = routeCache;
+        return b;
+    }
+    
+    /**
+     * @throws IllegalStateException when asking for {@link Transport#EPOLL} where it isn't available
+     */
+    public NettyServerBuilder transport(Transport transport) {
+        if(transport==Transport.EPOLL && !Epolls.isAvailable()){
+            throw new IllegalStateException("epoll isn't available here");
+        }
+        final NettyServerBuilder b = copy();
+        b.transport = transport;
+        return b;
+    }
+    
+    /**
+     * @param bossThreads how many threads accept connections
+     */
+    public NettyServerBuilder bossThreads(int bossThreads) {
+        if(bossThreads<1) throw new IllegalArgumentException("There must be at least one boss thread");
+        final NettyServerBuilder b = copy();
+        b.bossThreads = bossThreads;
+        return b;
+    }
+    
+    /**
+     * @param workerThreads how many threads do the reading and writing
+     */
+    public NettyServerBuilder workerThreads(int workerThreads) {
+        if(workerThreads<1) throw new IllegalArgumentException("There must be at least one worker thread");
+        final NettyServerBuilder b = copy();
+        b.workerThreads = workerThreads;
+        return b;
+    }
+    
+    /**
+     * @param handlerThreads how many threads run the objects, so they can block without holding up
+     *        any I/O; 0 runs them on the worker threads
+     */
+    public NettyServerBuilder handlerThreads(int handlerThreads) {
+        if(handlerThreads<0) throw new IllegalArgumentException("There can't be fewer than zero handler threads");
+        final NettyServerBuilder b = copy();
+        b.handlerThreads = handlerThreads;
+        return b;
+    }
+    
+    /**
+     * @param maxContentLength the biggest request body that will be taken; bigger ones are answered with a 413
+     *        (as soon as the Content-Length says so, or the body gets past it).  Objects can set a
+     *        tighter limit of their own with {@link HttpObject#maxRequestBodySize()}, which is seen to
+     *        from the Content-Length too.  Each body is gathered up in memory, so unlike the other
+     *        servers there's no going without a limit: it's {@link HttpServerInitializer#DEFAULT_MAX_CONTENT_LENGTH}
+     *        unless set here
+     */
+    public NettyServerBuilder maxContentLength(int maxContentLength) {
+        if(maxContentLength<0) throw new IllegalArgumentException("The max content length can't be negative");
+        final NettyServerBuilder b = copy();
+        b.maxContentLength = maxContentLength;
+        return b;
+    }
+    
+    /**
+     * @param streamResponses write response bodies out in chunks as they're produced, instead of buffering each one whole.
+     *        The chunks go out whenever the connection (or HTTP/2 stream) can take them; producing them is done
+     *        on a pool of {@link #streamWriterThreads(int)} threads, apart from where the objects are run, since
+     *        it waits whenever the client falls behind.  The pool is shut down along with the server
+     */
+    public NettyServerBuilder streamResponses(boolean streamResponses) {
+        final NettyServerBuilder b = copy();
+        b.streamResponses = streamResponses;
+        return b;
+    }
+    
+    /**
+     * @param streamWriterThreads how many streamed response bodies can be produced at once (by default as
+     *        many as there are {@link #workerThreads(int)})
+     */
+    public NettyServerBuilder streamWriterThreads(int streamWriterThreads) {
+        if(streamWriterThreads<1) throw new IllegalArgumentException("There must be at least one stream writer thread");
+        final NettyServerBuilder b = copy();
+        b.streamWriterThreads = streamWriterThreads;
+        return b;
+    }
+    
+    /**
+     * @param streamWriteTimeout how many milliseconds a streamed response body waits for a client that has
+     *        fallen behind to take some of it, before the connection is closed and its thread freed up
+     */
+    public NettyServerBuilder streamWriteTimeout(long streamWriteTimeout) {
+        if(streamWriteTimeout<1) throw new IllegalArgumentException("The stream write timeout must be positive");
+        final NettyServerBuilder b = copy();
+        b.streamWriteTimeout = streamWriteTimeout;
+        return b;
+    }
+    
+    /**
+     * @param http2 also speak cleartext HTTP/2 (h2c), both to clients that ask to upgrade and to
+     *        ones that start right in with it; each stream is answered on its own
+     */
+    public NettyServerBuilder http2(boolean http2) {
+        final NettyServerBuilder b = copy();
+        b.http2 = http2;
+        return b;
+    }
+    
+    /**
+     * @param maxConcurrentStreams how many HTTP/2 streams a client may have open on a connection at once
+     */
+    public NettyServerBuilder maxConcurrentStreams(long maxConcurrentStreams) {
+        if(maxConcurrentStreams<1) throw new IllegalArgumentException("There must be at least one stream");
+        final NettyServerBuilder b = copy();
+        b.maxConcurrentStreams = maxConcurrentStreams;
+        return b;
+    }
+    
+    /**
+     * @param initialWindowSize how many bytes of a HTTP/2 request body a client may send before
+     *        waiting to hear that they've been read, per stream
+     */
+    public NettyServerBuilder initialWindowSize(int initialWindowSize) {
+        final NettyServerBuilder b = copy();
+        b.initialWindowSize = initialWindowSize;
+        return b;
+    }
+    
+    public NettyServerBuilder tcpNoDelay(boolean tcpNoDelay) {
+        final NettyServerBuilder b = copy();
+        b.tcpNoDelay = tcpNoDelay;
+        return b;
+    }
+    
+    public NettyServerBuilder reuseAddress(boolean reuseAddress) {
+        final NettyServerBuilder b = copy();
+        b.reuseAddress = reuseAddress;
+        return b;
+    }
+    
+    /**
+     * @param reusePort let several servers listen on the same port (only used by {@link Transport#EPOLL})
+     */
+    public NettyServerBuilder reusePort(boolean reusePort) {
+        final NettyServerBuilder b = copy();
+        b.reusePort = reusePort;
+        return b;
+    }
+    
+    public NettyServerBuilder keepAlive(boolean keepAlive) {
+        final NettyServerBuilder b = copy();
+        b.keepAlive = keepAlive;
+        return b;
+    }
+    
+    /**
+     * @param backlog how many connections can wait to be accepted
+     */
+    public NettyServerBuilder backlog(int backlog) {
+        final NettyServerBuilder b = copy();
+        b.backlog = backlog;
+        return b;
+    }
+    
+    public NettyServerBuilder receiveBufferSize(int receiveBufferSize) {
+        final NettyServerBuilder b = copy();
+        b.receiveBufferSize = receiveBufferSize;
+        return b;
+    }
+    
+    public NettyServerBuilder sendBufferSize(int sendBufferSize) {
+        final NettyServerBuilder b = copy();
+        b.sendBufferSize = sendBufferSize;
+        return b;
+    }
+    
+    /**
+     * Binds to the port and starts accepting connections.  Closing the channel that comes back
+     * stops the server and its threads.
+     */
+    public Channel serve(int port) {
+        final EventLoopGroup bosses, workers;
+        final Class<? extends ServerChannel> channelType;
+        if(transport==Transport.EPOLL){
+            bosses = Epolls.group(bossThreads);
+            workers = Epolls.group(workerThreads);
+            channelType = Epolls.channelType();
+        }else{
+            bosses = new NioEventLoopGroup(bossThreads);
+            workers = new NioEventLoopGroup(workerThreads);
+            channelType = NioServerSocketChannel.class;
+        }
+        final EventExecutorGroup handlers = handlerThreads>0 ? new DefaultEventExecutorGroup(handlerThreads) : null;
+        final ExecutorService streamWriters = streamResponses ? 
+                                                Executors.newFixedThreadPool(streamWriterThreads!=null ? streamWriterThreads : workerThreads) : null;
+        
+        final ServerBootstrap bootstrap = new ServerBootstrap()
+                                                .group(bosses, workers)
+                                                .channel(channelType)
+                                                .childHandler(initializer(handlers, streamWriters));
+        
+        bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        bootstrap.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        if(reuseAddress!=null) bootstrap.option(ChannelOption.SO_REUSEADDR, reuseAddress);
+        if(backlog!=null) bootstrap.option(ChannelOption.SO_BACKLOG, backlog);
+        if(reusePort!=null && transport==Transport.EPOLL) Epolls.reusePort(bootstrap, reusePort);
+        if(tcpNoDelay!=null) bootstrap.childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if(keepAlive!=null) bootstrap.childOption(ChannelOption.SO_KEEPALIVE, keepAlive);
+        if(receiveBufferSize!=null) bootstrap.childOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        if(sendBufferSize!=null) bootstrap.childOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+        
+        final ChannelFuture bound = bootstrap.bind(port).awaitUninterruptibly();
+        if(!bound.isSuccess()){
+            shutdown(bosses, workers, handlers, streamWriters);
+            throw new RuntimeException("Couldn't listen on port " + port, bound.cause());
+        }
+        
+        final Channel channel = bound.channel();
+        channel.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                shutdown(bosses, workers, handlers, streamWriters);
+            }
+        });
+        return channel;
+    }
+    
+    private ChannelHandler initializer(EventExecutorGroup handlers, ExecutorService streamWriters) {
+        final NettyHttpobjectsRequestHandler handler = new NettyHttpobjectsRequestHandler(objects, routeCache);
+        if(http2){
+            final Http2Settings settings = Http2Settings.defaultSettings();
+            if(maxConcurrentStreams!=null) settings.maxConcurrentStreams(maxConcurrentStreams);
+            if(initialWindowSize!=null) settings.initialWindowSize(initialWindowSize);
+            return new Http2ServerInitializer(handler, maxContentLength, streamResponses, handlers, settings, streamWriters, streamWriteTimeout);
+        }else{
+            return new HttpServerInitializer(handler, maxContentLength, streamResponses, handlers, streamWriters, streamWriteTimeout);
+        }
+    }
+    
+    private static void shutdown(EventLoopGroup bosses, EventLoopGroup workers, EventExecutorGroup handlers, ExecutorService streamWriters) {
+        bosses.shutdownGracefully();
+        workers.shutdownGracefully();
+        if(handlers!=null) handlers.shutdownGracefully();
+        if(streamWriters!=null) streamWriters.shutdown();
+    }
+    
+    /**
+     * Everything that touches the epoll classes, kept apart so the rest works without them.
+     */
+    private static final class Epolls {
+        static boolean isAvailable() {
+            try {
+                return Epoll.isAvailable();
+            } catch (NoClassDefFoundError e) {
+                return false;
+            }
+        }
+        
+        static EventLoopGroup group(int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+        
+        static Class<? extends ServerChannel> channelType() {
+            return EpollServerSocketChannel.class;
+        }
+        
+        static void reusePort(ServerBootstrap bootstrap, boolean reusePort) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, reusePort);
+        }
+    }
+}
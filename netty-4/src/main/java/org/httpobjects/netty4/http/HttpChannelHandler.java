@@ -0,0 +1,381 @@
+package org.httpobjects.netty4.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import org.httpobjects.AsyncHttpObject;
+import org.httpobjects.ConnectionInfo;
+import org.httpobjects.Response;
+import org.httpobjects.header.HeaderField;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.representation.ImmutableRep;
+import org.httpobjects.util.RequestBodyLimit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+/**
+ * Answers each (aggregated) request with whatever the {@link RequestHandler} says.  Requests on a
+ * connection are handled one at a time, in the order they arrived, so pipelined requests get
+ * their responses in order too.
+ * <p>
+ * The request, and the buffer its body is in, are held onto until its response has been
+ * written, and are released after that.
+ * <p>
+ * An {@link AsyncRequestHandler} can answer later, without holding up the thread.  Until it
+ * does, nothing more is read from the connection, and any requests that were already read wait
+ * their turn.
+ */
+public class HttpChannelHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+	
+	public static interface RequestHandler {
+		Response respond(FullHttpRequest request, ConnectionInfo connection);
+		
+		/**
+		 * Asked as soon as the request's headers are in, before any of its body is read.
+		 * 
+		 * @return the most bytes the request's body may have (on top of the server's own limit),
+		 *         or {@link RequestBodyLimit#UNLIMITED}
+		 */
+		default long maxRequestBodySize(HttpRequest request) {
+			return RequestBodyLimit.UNLIMITED;
+		}
+	}
+	
+	public static interface AsyncRequestHandler extends RequestHandler {
+		/**
+		 * @return the response, which may not be there yet
+		 */
+		CompletionStage<Response> respondAsync(FullHttpRequest request, ConnectionInfo connection);
+	}
+	
+	/**
+	 * How big the pieces of a streamed response body are.
+	 */
+	public static final int RESPONSE_CHUNK_SIZE = 8192;
+	
+	/**
+	 * How many of those pieces a streamed response can get ahead of the client.
+	 */
+	public static final int MAX_QUEUED_CHUNKS = 16;
+	
+	/**
+	 * How long, by default, the writing of a streamed response waits for the client to take
+	 * some of it before giving up on the client and hanging up.
+	 */
+	public static final long DEFAULT_STREAM_WRITE_TIMEOUT = 30000;
+	
+	private final RequestHandler handler;
+	private final boolean streamResponses;
+	private final Executor streamWriters;
+	private final long streamWriteTimeout;
+	/** requests that came in while an earlier one was still waiting on its response */
+	private final Queue<FullHttpRequest> waiting = new ArrayDeque<FullHttpRequest>();
+	private boolean responding;
+	
+	public HttpChannelHandler(RequestHandler handler) {
+		this(handler, false);
+	}
+	
+	/**
+	 * @param streamResponses when true, response bodies are written out in chunks as the
+	 *        representation produces them, rather than being gathered up first.  The chunks go
+	 *        out through a {@link ChunkedWriteHandler}, which has to be in the pipeline ahead of
+	 *        this handler.
+	 */
+	public HttpChannelHandler(RequestHandler handler, boolean streamResponses) {
+		this(handler, streamResponses, null, DEFAULT_STREAM_WRITE_TIMEOUT);
+	}
+	
+	/**
+	 * @param streamWriters where streamed response bodies are produced, or null to produce them
+	 *        on the thread that handled the request.  Only the producing waits on the client (the
+	 *        chunks go out as the channel can take them), so that's best done somewhere other
+	 *        than the event loop, where it can only run ahead of the client without limit.
+	 * @param streamWriteTimeout how long the producing of a streamed body waits for the client
+	 *        to take some of it before the connection is given up on
+	 */
+	public HttpChannelHandler(RequestHandler handler, boolean streamResponses, Executor streamWriters, long streamWriteTimeout) {
+		super(false);
+		this.handler = handler;
+		this.streamResponses = streamResponses;
+		this.streamWriters = streamWriters;
+		this.streamWriteTimeout = streamWriteTimeout;
+	}
+	
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, final FullHttpRequest request) throws Exception {
+		if (responding) {
+			waiting.add(request);
+		} else {
+			handle(ctx, request);
+		}
+	}
+	
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		FullHttpRequest next;
+		while ((next = waiting.poll()) != null) {
+			next.release();
+		}
+		super.channelInactive(ctx);
+	}
+	
+	private void handle(final ChannelHandlerContext ctx, final FullHttpRequest request) {
+		if (!(handler instanceof AsyncRequestHandler)) {
+			respond(ctx, request, null);
+			return;
+		}
+		
+		final CompletableFuture<Response> pending;
+		try {
+			pending = ((AsyncRequestHandler) handler).respondAsync(request, connectionInfo(ctx.channel())).toCompletableFuture();
+		} catch (RuntimeException e) {
+			request.release();
+			throw e;
+		}
+		if (pending.isDone()) {
+			respond(ctx, request, pending);
+			return;
+		}
+		
+		responding = true;
+		ctx.channel().config().setAutoRead(false);
+		pending.whenComplete(new BiConsumer<Response, Throwable>() {
+			@Override
+			public void accept(Response response, Throwable error) {
+				// back onto the thread this handler runs on, which is the only one that touches its state
+				try {
+					ctx.executor().execute(new Runnable() {
+						@Override
+						public void run() {
+							responding = false;
+							try {
+								respond(ctx, request, pending);
+								ctx.channel().config().setAutoRead(true);
+								FullHttpRequest next;
+								while (!responding && (next = waiting.poll()) != null) {
+									handle(ctx, next);
+								}
+							} catch (Throwable t) {
+								ctx.fireExceptionCaught(t);
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// shutting down
+					request.release();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * @param pending the response, when it was given asynchronously (and has arrived); null to
+	 *        ask for it now
+	 */
+	private void respond(ChannelHandlerContext ctx, final FullHttpRequest request, CompletableFuture<Response> pending) {
+		ChannelFuture written = null;
+		try {
+			final Response response = pending == null ? 
+					handler.respond(request, connectionInfo(ctx.channel())) : 
+					AsyncHttpObject.await(pending);
+			written = writeResponse(ctx.channel(), request, response);
+		} finally {
+			if (written == null) {
+				request.release();
+			} else {
+				written.addListener(new ChannelFutureListener() {
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+						request.release();
+					}
+				});
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <O, T extends O> T cast(O o){return (T)o;}
+	
+	private ConnectionInfo connectionInfo(Channel channel) {
+		final InetSocketAddress local = cast(channel.localAddress());
+		final InetSocketAddress remote = cast(channel.remoteAddress());
+		return new ConnectionInfo(
+						local.getAddress().getHostAddress(),
+						local.getPort(),
+						remote.getAddress().getHostAddress(),
+						remote.getPort());
+	}
+	
+	private ChannelFuture writeResponse(Channel sink, FullHttpRequest request, Response r) {
+		
+		// Decide whether to close the connection or not.
+		final boolean keepAlive = HttpUtil.isKeepAlive(request);
+		
+		// a file goes from the disk to the socket as it is (though not as HTTP/2 frames)
+		final FileRep file = r.hasRepresentation() && r.representation() instanceof FileRep && 
+							!(sink instanceof Http2StreamChannel) ? (FileRep) r.representation() : null;
+		
+		// HTTP/1.0 clients can't be sent chunks, and there's nothing to gain from chunking what's already in memory
+		final boolean stream = file == null && streamResponses && r.hasRepresentation() && 
+							!(r.representation() instanceof ImmutableRep) &&
+							!request.protocolVersion().equals(HttpVersion.HTTP_1_0);
+		
+		final HttpResponseStatus status = HttpResponseStatus.valueOf(r.code().value());
+		
+		final HttpResponse response;
+		final long fileLength = file != null ? file.length() : 0;
+		if(file != null){
+			response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+			HttpUtil.setContentLength(response, fileLength);
+		}else if(stream){
+			response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+			HttpUtil.setTransferEncodingChunked(response, true);
+		}else{
+			final ByteBuf content = r.hasRepresentation() ? read(sink, r) : sink.alloc().buffer(0);
+			response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+			HttpUtil.setContentLength(response, content.readableBytes());
+		}
+		if(r.hasRepresentation() && r.representation().contentType() != null){
+			response.headers().set(HttpHeaderNames.CONTENT_TYPE, r.representation().contentType());
+		}
+		
+		for(HeaderField field : r.header()){
+			response.headers().add(field.name(), field.value());
+		}
+		
+		if (keepAlive) {
+			response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+		}
+		
+		ChannelFuture future = sink.writeAndFlush(response);
+		if(stream){
+			future = writeChunks(sink, r);
+		}else if(file != null){
+			// sent with FileChannel.transferTo, i.e. sendfile where the OS (or the epoll transport) has it
+			sink.write(new DefaultFileRegion(file.file(), file.offset(), fileLength));
+			future = sink.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+		}
+		
+		// Close the non-keep-alive connection after the write operation is done.
+		if (!keepAlive) {
+			future.addListener(ChannelFutureListener.CLOSE);
+		}
+		return future;
+	}
+	
+	/**
+	 * @return the representation, written into a buffer from the channel's (pooled) allocator
+	 */
+	private ByteBuf read(Channel channel, Response r) {
+		final ByteBuf content = channel.alloc().buffer();
+		try {
+			final ByteBufOutputStream out = new ByteBufOutputStream(content);
+			r.representation().write(out);
+			out.close();
+			return content;
+		} catch (IOException e) {
+			content.release();
+			throw new RuntimeException(e);
+		} catch (RuntimeException e) {
+			content.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Hands the channel the chunks as they're produced, to go out whenever it can take them (see
+	 * {@link HttpContentOutputStream}), and produces them on the stream writers when there are any.
+	 * 
+	 * @return done once the body has been produced and written
+	 */
+	private ChannelFuture writeChunks(final Channel sink, final Response r) {
+		final HttpContentOutputStream out = new HttpContentOutputStream(sink, RESPONSE_CHUNK_SIZE, MAX_QUEUED_CHUNKS, streamWriteTimeout);
+		final ChannelFuture written = sink.writeAndFlush(out.input());
+		if (streamWriters == null) {
+			produce(sink, r, out);
+			return written;
+		}
+		
+		final ChannelPromise done = sink.newPromise();
+		try {
+			streamWriters.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						produce(sink, r, out);
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
+					written.addListener(new ChannelFutureListener() {
+						@Override
+						public void operationComplete(ChannelFuture future) throws Exception {
+							if (future.isSuccess()) {
+								done.setSuccess();
+							} else {
+								done.setFailure(future.cause());
+							}
+						}
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			out.discard();
+			sink.close();
+			done.setFailure(e);
+		}
+		return done;
+	}
+	
+	private static void produce(Channel sink, Response r, HttpContentOutputStream out) {
+		boolean produced = false;
+		try {
+			r.representation().write(out);
+			out.finish();
+			produced = true;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			// the status has already gone out, so if the body can't follow all that's left is to hang up
+			if (!produced) {
+				out.discard();
+				sink.close();
+			}
+		}
+	}
+	
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+		cause.printStackTrace();
+		ctx.close();
+	}
+}
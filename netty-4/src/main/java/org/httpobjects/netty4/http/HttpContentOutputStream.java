@@ -0,0 +1,216 @@
+package org.httpobjects.netty4.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+/**
+ * Turns whatever is written to it into {@link HttpContent}s of (at most) a fixed size, each in a
+ * buffer from the channel's own allocator, so a response body never has to be held in memory
+ * all at once.
+ * <p>
+ * The chunks aren't written to the channel here: they're queued up for the {@link #input()},
+ * which is written to the channel instead, and which the channel's {@link ChunkedWriteHandler}
+ * takes them from whenever the channel is writable (for a HTTP/2 stream, whenever the stream's
+ * window has room).  So nothing waits on the client but the writer, and that only once it's
+ * maxQueued chunks ahead; if the client doesn't take any of them for the timeout, the writer
+ * gets an {@link IOException}.  (On the channel's event loop it can't wait at all, since that's
+ * the thread that does the taking, so there chunks just queue up without limit.)
+ */
+public class HttpContentOutputStream extends OutputStream {
+    private final Channel channel;
+    private final int chunkSize;
+    private final int maxQueued;
+    private final long timeoutMillis;
+    /** guarded by itself */
+    private final Queue<HttpContent> queued = new ArrayDeque<HttpContent>();
+    private final Input input = new Input();
+    private ByteBuf chunk;
+    private boolean closed;
+    /** whether the input has been let go of (the body all sent, or the connection gone); guarded by queued */
+    private boolean abandoned;
+    /** whether the last chunk has been taken; guarded by queued */
+    private boolean ended;
+    /** how many bytes have been taken; guarded by queued */
+    private long taken;
+
+    /**
+     * @param maxQueued how many chunks the writer can get ahead of the client
+     * @param timeoutMillis how long the writer waits for the client to take one, once it's that far ahead
+     */
+    public HttpContentOutputStream(Channel channel, int chunkSize, int maxQueued, long timeoutMillis) {
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        this.maxQueued = maxQueued;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return what's to be written to the channel (once, behind the response's headers), for its
+     *         {@link ChunkedWriteHandler} to take the chunks from
+     */
+    public ChunkedInput<HttpContent> input() {
+        return input;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        chunk().writeByte(b);
+        if(!chunk.isWritable()) flush();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len>0){
+            final ByteBuf chunk = chunk();
+            final int n = Math.min(len, chunk.writableBytes());
+            chunk.writeBytes(b, off, n);
+            off += n;
+            len -= n;
+            if(!chunk.isWritable()) flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        final ByteBuf chunk = this.chunk;
+        this.chunk = null;
+        if(chunk!=null){
+            if(chunk.isReadable()){
+                queue(new DefaultHttpContent(chunk));
+            }else{
+                chunk.release();
+            }
+        }
+    }
+
+    /**
+     * Queues up anything left over, followed by the last chunk.
+     */
+    public void finish() throws IOException {
+        if(!closed){
+            flush();
+            queue(LastHttpContent.EMPTY_LAST_CONTENT);
+            closed = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    /**
+     * Lets go of any chunk that hasn't been queued yet, for when the response is being given up on.
+     */
+    public void discard() {
+        if(chunk!=null){
+            chunk.release();
+            chunk = null;
+        }
+        closed = true;
+    }
+
+    private ByteBuf chunk() throws IOException {
+        if(closed) throw new IOException("Already closed");
+        if(chunk==null){
+            chunk = channel.alloc().buffer(chunkSize, chunkSize);
+        }
+        return chunk;
+    }
+
+    private void queue(HttpContent next) throws IOException {
+        final boolean onEventLoop = channel.eventLoop().inEventLoop();
+        synchronized(queued){
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            while(!onEventLoop && !abandoned && queued.size() >= maxQueued){
+                final long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0){
+                    next.release();
+                    throw new IOException("The client took nothing for " + timeoutMillis + "ms");
+                }
+                try {
+                    queued.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    next.release();
+                    throw new IOException(e);
+                }
+            }
+            if(abandoned){
+                next.release();
+                throw new IOException("The connection was closed");
+            }
+            queued.add(next);
+        }
+        final ChunkedWriteHandler writer = channel.pipeline().get(ChunkedWriteHandler.class);
+        if(writer!=null) writer.resumeTransfer();
+    }
+
+    private final class Input implements ChunkedInput<HttpContent> {
+        @Override
+        public boolean isEndOfInput() {
+            synchronized(queued){
+                return ended;
+            }
+        }
+
+        @Override
+        @Deprecated
+        public HttpContent readChunk(ChannelHandlerContext ctx) {
+            return readChunk(ctx.alloc());
+        }
+
+        /**
+         * @return the next chunk, or null when there isn't one yet (the writer resumes the
+         *         transfer once there is)
+         */
+        @Override
+        public HttpContent readChunk(ByteBufAllocator allocator) {
+            synchronized(queued){
+                final HttpContent next = queued.poll();
+                if(next!=null){
+                    ended = next instanceof LastHttpContent;
+                    taken += next.content().readableBytes();
+                    queued.notifyAll();
+                }
+                return next;
+            }
+        }
+
+        @Override
+        public long length() {
+            return -1;
+        }
+
+        @Override
+        public long progress() {
+            synchronized(queued){
+                return taken;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized(queued){
+                abandoned = true;
+                HttpContent next;
+                while((next = queued.poll()) != null){
+                    next.release();
+                }
+                queued.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.httpobjects.netty4.http;
+
+import java.util.concurrent.Executor;
+
+import org.httpobjects.netty4.http.HttpChannelHandler.RequestHandler;
+
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+public class HttpServerInitializer extends ChannelInitializer<SocketChannel> {
+	
+	/**
+	 * The most a request body may be, unless told otherwise.  Unlike the other servers, this one
+	 * holds each request body in memory whole, so there's no going without a limit.
+	 */
+	public static final int DEFAULT_MAX_CONTENT_LENGTH = 10 * 1024 * 1024;
+	
+	private final RequestHandler handler;
+	private final int maxContentLength;
+	private final boolean streamResponses;
+	private final EventExecutorGroup handlerGroup;
+	private final Executor streamWriters;
+	private final long streamWriteTimeout;
+	
+	public HttpServerInitializer(RequestHandler handler) {
+		this(handler, DEFAULT_MAX_CONTENT_LENGTH, false, null);
+	}
+	
+	/**
+	 * @param maxContentLength the biggest request body that will be taken; bigger ones are
+	 *        answered with a 413
+	 * @param handlerGroup where to run the handler, or null to run it on the channel's event loop.
+	 *        Each connection sticks to one of the group's threads, so its requests are still
+	 *        answered in order.
+	 */
+	public HttpServerInitializer(RequestHandler handler, int maxContentLength, boolean streamResponses, EventExecutorGroup handlerGroup) {
+		this(handler, maxContentLength, streamResponses, handlerGroup, null, HttpChannelHandler.DEFAULT_STREAM_WRITE_TIMEOUT);
+	}
+	
+	/**
+	 * @see HttpChannelHandler#HttpChannelHandler(RequestHandler, boolean, Executor, long)
+	 */
+	public HttpServerInitializer(RequestHandler handler, int maxContentLength, boolean streamResponses, EventExecutorGroup handlerGroup, Executor streamWriters, long streamWriteTimeout) {
+		super();
+		this.handler = handler;
+		this.maxContentLength = maxContentLength;
+		this.streamResponses = streamResponses;
+		this.handlerGroup = handlerGroup;
+		this.streamWriters = streamWriters;
+		this.streamWriteTimeout = streamWriteTimeout;
+	}
+	
+	@Override
+	protected void initChannel(SocketChannel channel) throws Exception {
+		final ChannelPipeline pipeline = channel.pipeline();
+		pipeline.addLast("codec", new HttpServerCodec());
+		// also takes care of "Expect: 100-continue"
+		pipeline.addLast("aggregator", new RequestAggregator(handler, maxContentLength));
+		if (streamResponses) {
+			pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
+		}
+		pipeline.addLast(handlerGroup, "handler", new HttpChannelHandler(handler, streamResponses, streamWriters, streamWriteTimeout));
+	}
+}
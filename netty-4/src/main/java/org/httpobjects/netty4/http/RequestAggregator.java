@@ -0,0 +1,33 @@
+package org.httpobjects.netty4.http;
+
+import org.httpobjects.netty4.http.HttpChannelHandler.RequestHandler;
+import org.httpobjects.util.RequestBodyLimit;
+
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+
+/**
+ * Gathers up requests whole, as {@link HttpObjectAggregator} does, but also turns away those
+ * whose Content-Length is more than the handler will take for them (with a 413, before any of
+ * the body is read), rather than only those that are more than the server will.
+ */
+public class RequestAggregator extends HttpObjectAggregator {
+	private final RequestHandler handler;
+	
+	/**
+	 * @param maxContentLength the biggest request body that will be gathered up, for any request
+	 */
+	public RequestAggregator(RequestHandler handler, int maxContentLength) {
+		super(maxContentLength);
+		this.handler = handler;
+	}
+	
+	@Override
+	protected boolean isContentLengthInvalid(HttpMessage start, int maxContentLength) {
+		if (super.isContentLengthInvalid(start, maxContentLength)) return true;
+		return start instanceof HttpRequest && 
+		       RequestBodyLimit.exceeds(handler.maxRequestBodySize((HttpRequest) start), HttpUtil.getContentLength(start, -1L));
+	}
+}
@@ -0,0 +1,135 @@
+package org.httpobjects.netty4.http2;
+
+import java.util.concurrent.Executor;
+
+import org.httpobjects.netty4.http.HttpChannelHandler;
+import org.httpobjects.netty4.http.HttpChannelHandler.RequestHandler;
+import org.httpobjects.netty4.http.RequestAggregator;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler.UpgradeCodecFactory;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Sets up a cleartext connection that speaks HTTP/2, whether the client starts with the HTTP/2
+ * preface ("prior knowledge") or asks to upgrade from HTTP/1.1 (h2c), and plain HTTP/1.1
+ * otherwise.
+ * <p>
+ * Each HTTP/2 stream gets a child channel of its own, which turns the stream's frames back into
+ * an HTTP request and answers it with an {@link HttpChannelHandler}, just as a HTTP/1.1
+ * connection would be.  Streams are flow controlled one by one: the request body is
+ * acknowledged as it's read, and a streamed response waits on the stream's window.
+ */
+public class Http2ServerInitializer extends ChannelInitializer<SocketChannel> {
+	
+	private final RequestHandler handler;
+	private final int maxContentLength;
+	private final boolean streamResponses;
+	private final EventExecutorGroup handlerGroup;
+	private final Http2Settings settings;
+	private final Executor streamWriters;
+	private final long streamWriteTimeout;
+	
+	/**
+	 * @param handlerGroup where to run the handler, or null to run it on the connection's event loop.
+	 *        Each stream sticks to one of the group's threads, so the streams on a connection
+	 *        can be handled side by side.
+	 * @param settings what to tell clients about this end, e.g. how many streams they may have
+	 *        open at once and how big each one's flow control window starts out
+	 */
+	public Http2ServerInitializer(RequestHandler handler, int maxContentLength, boolean streamResponses, EventExecutorGroup handlerGroup, Http2Settings settings) {
+		this(handler, maxContentLength, streamResponses, handlerGroup, settings, null, HttpChannelHandler.DEFAULT_STREAM_WRITE_TIMEOUT);
+	}
+	
+	/**
+	 * @see HttpChannelHandler#HttpChannelHandler(RequestHandler, boolean, Executor, long)
+	 */
+	public Http2ServerInitializer(RequestHandler handler, int maxContentLength, boolean streamResponses, EventExecutorGroup handlerGroup, Http2Settings settings, Executor streamWriters, long streamWriteTimeout) {
+		super();
+		this.handler = handler;
+		this.maxContentLength = maxContentLength;
+		this.streamResponses = streamResponses;
+		this.handlerGroup = handlerGroup;
+		this.settings = settings;
+		this.streamWriters = streamWriters;
+		this.streamWriteTimeout = streamWriteTimeout;
+	}
+	
+	@Override
+	protected void initChannel(SocketChannel channel) throws Exception {
+		final HttpServerCodec codec = new HttpServerCodec();
+		final HttpServerUpgradeHandler upgrades = new HttpServerUpgradeHandler(codec, new UpgradeCodecFactory() {
+			@Override
+			public UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+				if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+					return new Http2ServerUpgradeCodec(frameCodec(), multiplexer());
+				} else {
+					return null;
+				}
+			}
+		}, maxContentLength);
+		
+		final ChannelPipeline pipeline = channel.pipeline();
+		// puts the codec and the upgrade handler in right after itself
+		pipeline.addLast("h2c", new CleartextHttp2ServerUpgradeHandler(codec, upgrades, new ChannelInitializer<Channel>() {
+			@Override
+			protected void initChannel(Channel channel) throws Exception {
+				// prior knowledge: no HTTP/1.1 will be coming
+				final ChannelPipeline pipeline = channel.pipeline();
+				pipeline.remove("aggregator");
+				if (streamResponses) pipeline.remove("chunkedWriter");
+				pipeline.remove("handler");
+				pipeline.addLast(frameCodec(), multiplexer());
+			}
+		}));
+		pipeline.addLast("aggregator", new RequestAggregator(handler, maxContentLength));
+		if (streamResponses) {
+			pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
+		}
+		pipeline.addLast(handlerGroup, "handler", handler());
+	}
+	
+	private HttpChannelHandler handler() {
+		return new HttpChannelHandler(handler, streamResponses, streamWriters, streamWriteTimeout);
+	}
+	
+	private Http2FrameCodec frameCodec() {
+		return Http2FrameCodecBuilder.forServer().initialSettings(settings).build();
+	}
+	
+	private ChannelHandler multiplexer() {
+		final ChannelHandler streams = new ChannelInitializer<Http2StreamChannel>() {
+			@Override
+			protected void initChannel(Http2StreamChannel stream) throws Exception {
+				final ChannelPipeline pipeline = stream.pipeline();
+				pipeline.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+				pipeline.addLast(new RequestAggregator(handler, maxContentLength));
+				if (streamResponses) {
+					// a stream's channel is only writable while its window has room
+					pipeline.addLast("chunkedWriter", new ChunkedWriteHandler());
+				}
+				pipeline.addLast(handlerGroup, "handler", handler());
+			}
+		};
+		// the request that asked for the upgrade is answered on stream 1, the same as any other
+		return new Http2MultiplexHandler(streams, streams);
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty4;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpClientUpgradeHandler;
+import io.netty.handler.codec.http.HttpClientUpgradeHandler.UpgradeEvent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http2.Http2ClientUpgradeCodec;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+
+/**
+ * A HTTP/2 client for the tests: one connection, with a stream of its own for each request.  It
+ * either starts right in on HTTP/2 ("prior knowledge"), or asks to upgrade to it (h2c) with its
+ * first request, the way a client that doesn't know what the server speaks would.
+ */
+final class Http2Client {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_CONTENT_LENGTH = 1024 * 1024;
+    
+    /** the settings the server sent, as they arrived */
+    final BlockingQueue<Http2Settings> settings = new LinkedBlockingQueue<Http2Settings>();
+    /** what became of the upgrade, if one was asked for */
+    final BlockingQueue<UpgradeEvent> upgrades = new LinkedBlockingQueue<UpgradeEvent>();
+    private final EventLoopGroup threads = new NioEventLoopGroup(1);
+    private Channel connection;
+    
+    /**
+     * Connects, speaking HTTP/2 from the start.
+     */
+    void connect(int port) throws Exception {
+        connection = bootstrap(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            protected void initChannel(SocketChannel ch) throws Exception {
+                                ch.pipeline().addLast(
+                                        Http2FrameCodecBuilder.forClient().build(), 
+                                        new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()),
+                                        events());
+                            }
+                        })
+                        .connect("localhost", port).sync().channel();
+    }
+    
+    /**
+     * Connects speaking HTTP/1.1, and asks for the request to be answered over HTTP/2.
+     * 
+     * @return where the answer turns up, which (if the upgrade goes through) is on stream 1
+     */
+    BlockingQueue<FullHttpResponse> upgrade(int port, FullHttpRequest request) throws Exception {
+        final BlockingQueue<FullHttpResponse> response = new LinkedBlockingQueue<FullHttpResponse>();
+        connection = bootstrap(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            protected void initChannel(SocketChannel ch) throws Exception {
+                                final HttpClientCodec codec = new HttpClientCodec();
+                                final Http2ConnectionHandler frameCodec = Http2FrameCodecBuilder.forClient().build();
+                                // stream 1, which the request is answered on, gets the same handling as any other
+                                final Http2MultiplexHandler streams = new Http2MultiplexHandler(new ChannelInboundHandlerAdapter(), collecting(response));
+                                final Http2ClientUpgradeCodec upgradeCodec = new Http2ClientUpgradeCodec(frameCodec, streams);
+                                ch.pipeline().addLast(
+                                        codec,
+                                        new HttpClientUpgradeHandler(codec, upgradeCodec, MAX_CONTENT_LENGTH),
+                                        events());
+                            }
+                        })
+                        .connect("localhost", port).sync().channel();
+        // the upgrade handler adds the "Upgrade" and "HTTP2-Settings" headers
+        connection.writeAndFlush(request).sync();
+        return response;
+    }
+    
+    BlockingQueue<FullHttpResponse> send(HttpMethod method, String path, String body) throws Exception {
+        return send(request(method, path, body));
+    }
+    
+    /**
+     * @return where the answer turns up, on a stream of the request's own
+     */
+    BlockingQueue<FullHttpResponse> send(FullHttpRequest request) throws Exception {
+        final BlockingQueue<FullHttpResponse> response = new LinkedBlockingQueue<FullHttpResponse>();
+        Http2StreamChannel stream = new Http2StreamChannelBootstrap(connection)
+                .handler(collecting(response))
+                .open().sync().getNow();
+        stream.writeAndFlush(request).sync();
+        return response;
+    }
+    
+    void close() {
+        if(connection!=null) connection.close().awaitUninterruptibly();
+        threads.shutdownGracefully();
+    }
+    
+    static FullHttpRequest request(HttpMethod method, String path, String body) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, method, path, 
+                                        Unpooled.copiedBuffer(body, UTF8));
+        request.headers().set(HttpHeaderNames.HOST, "localhost");
+        HttpUtil.setContentLength(request, request.content().readableBytes());
+        return request;
+    }
+    
+    private Bootstrap bootstrap(ChannelHandler handler) {
+        return new Bootstrap()
+                    .group(threads)
+                    .channel(NioSocketChannel.class)
+                    .handler(handler);
+    }
+    
+    private ChannelHandler events() {
+        return new ChannelInboundHandlerAdapter(){
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                if(msg instanceof Http2SettingsFrame){
+                    settings.add(((Http2SettingsFrame) msg).settings());
+                }
+                super.channelRead(ctx, msg);
+            }
+            
+            @Override
+            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                if(evt instanceof UpgradeEvent){
+                    upgrades.add((UpgradeEvent) evt);
+                }
+                super.userEventTriggered(ctx, evt);
+            }
+        };
+    }
+    
+    private static ChannelHandler collecting(final BlockingQueue<FullHttpResponse> response) {
+        return new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ch.pipeline().addLast(
+                        new Http2StreamFrameToHttpObjectCodec(false),
+                        new HttpObjectAggregator(MAX_CONTENT_LENGTH),
+                        new SimpleChannelInboundHandler<FullHttpResponse>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) throws Exception {
+                                response.add(msg.retain());
+                            }
+                        });
+            }
+        };
+    }
+}
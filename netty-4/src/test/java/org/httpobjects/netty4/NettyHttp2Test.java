@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty4;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Representation;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.util.HttpObjectUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http2.Http2Settings;
+
+public class NettyHttp2Test {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /** more than a stream's window starts out at */
+    private static final int BIG = 256 * 1024;
+    
+    private final int streams = 4;
+    private final CountDownLatch allArrived = new CountDownLatch(streams);
+    private Channel server;
+    private Http2Client client;
+    
+    @Before
+    public void setUp() throws Exception {
+        int port = findFreePort();
+        server = HttpobjectsNettySupport.builder(new HttpObject("/echo"){
+                        @Override
+                        public Response post(Request req) {
+                            allArrived.countDown();
+                            try {
+                                // they're only all here at once if they're being handled side by side
+                                allArrived.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                            return OK(Text(HttpObjectUtil.toUtf8(req.representation())));
+                        }
+                    }, new HttpObject("/big"){
+                        @Override
+                        public Response get(Request req) {
+                            return OK(new Representation() {
+                                @Override
+                                public String contentType() {
+                                    return "application/octet-stream";
+                                }
+                                
+                                @Override
+                                public void write(OutputStream out) {
+                                    try {
+                                        out.write(new byte[BIG]);
+                                    } catch (IOException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                }
+                            });
+                        }
+                    })
+                    .http2(true)
+                    .streamResponses(true)
+                    .handlerThreads(streams)
+                    .maxConcurrentStreams(10)
+                    .serve(port);
+        
+        client = new Http2Client();
+        client.connect(port);
+    }
+    
+    @After
+    public void tearDown() {
+        client.close();
+        server.close().awaitUninterruptibly();
+    }
+    
+    @Test
+    public void streamsOnOneConnectionAreHandledSideBySide() throws Exception {
+        // given
+        List<BlockingQueue<FullHttpResponse>> responses = new ArrayList<BlockingQueue<FullHttpResponse>>();
+        
+        // when
+        for(int x=0;x<streams;x++){
+            responses.add(post("stream " + x));
+        }
+        
+        // then
+        for(int x=0;x<streams;x++){
+            FullHttpResponse response = responses.get(x).poll(10, TimeUnit.SECONDS);
+            try {
+                assertEquals(200, response.status().code());
+                assertEquals("stream " + x, response.content().toString(UTF8));
+            } finally {
+                response.release();
+            }
+        }
+    }
+    
+    @Test
+    public void streamedResponsesGoOutAsTheStreamsWindowAllows() throws Exception {
+        // when
+        FullHttpResponse response = client.send(HttpMethod.GET, "/big", "").poll(10, TimeUnit.SECONDS);
+        
+        // then
+        try {
+            assertEquals(200, response.status().code());
+            assertEquals(BIG, response.content().readableBytes());
+        } finally {
+            response.release();
+        }
+    }
+    
+    @Test
+    public void tellsClientsHowManyStreamsTheyMayOpen() throws Exception {
+        // when
+        Http2Settings received = client.settings.poll(10, TimeUnit.SECONDS);
+        
+        // then
+        assertTrue(received != null);
+        assertEquals(Long.valueOf(10), received.maxConcurrentStreams());
+    }
+    
+    private BlockingQueue<FullHttpResponse> post(String body) throws Exception {
+        return client.send(HttpMethod.POST, "/echo", body);
+    }
+    
+    private int findFreePort() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+            return port;
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+}
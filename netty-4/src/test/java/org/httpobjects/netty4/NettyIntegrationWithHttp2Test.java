@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.tck.IntegrationTest;
+import org.httpobjects.util.HttpObjectUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientUpgradeHandler.UpgradeEvent;
+import io.netty.handler.codec.http.HttpMethod;
+
+/**
+ * The TCK, over HTTP/1.1 to a server that also speaks HTTP/2; and then the heart of it again
+ * over HTTP/2 itself, both to a client that knows to start right in on it and to one that asks
+ * to upgrade.
+ */
+public class NettyIntegrationWithHttp2Test extends IntegrationTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	Channel server;
+	private Http2Client client;
+	private final List<FullHttpResponse> responses = new ArrayList<FullHttpResponse>();
+	
+	@Override
+	protected void serve(int port, HttpObject... objects) {
+		server = HttpobjectsNettySupport.builder(objects)
+		            .http2(true)
+		            .serve(port);
+	}
+	
+	@Override
+	protected void stopServing() {
+		server.close().awaitUninterruptibly();
+	}
+	
+	@After
+	public void closeClient() {
+		for(FullHttpResponse response : responses){
+			response.release();
+		}
+		if(client!=null) client.close();
+	}
+	
+	@Test
+	public void upgradesToHttp2WhenAsked() throws Exception {
+		// given
+		client = new Http2Client();
+		
+		// when
+		FullHttpResponse response = received(client.upgrade(port, Http2Client.request(HttpMethod.GET, "/app", "")));
+		
+		// then
+		assertEquals(UpgradeEvent.UPGRADE_ISSUED, client.upgrades.poll(10, TimeUnit.SECONDS));
+		assertEquals(UpgradeEvent.UPGRADE_SUCCESSFUL, client.upgrades.poll(10, TimeUnit.SECONDS));
+		assertEquals(200, response.status().code());
+		assertEquals("Welcome to the app", response.content().toString(UTF8));
+		
+		// and the connection goes on speaking HTTP/2
+		FullHttpResponse next = received(client.send(HttpMethod.GET, "/echoQuery?a=1&b=2", ""));
+		assertEquals(200, next.status().code());
+		assertEquals("a=1\nb=2", next.content().toString(UTF8));
+	}
+	
+	@Test
+	public void happyPathForGetOverHttp2() throws Exception {
+		assertResource(HttpMethod.GET, "/app", "", "Welcome to the app", 200);
+	}
+	
+	@Test
+	public void happyPathForPostOverHttp2() throws Exception {
+		assertResource(HttpMethod.POST, "/app/inbox", "", "Message Received", 200);
+	}
+	
+	@Test
+	public void happyPathForPutOverHttp2() throws Exception {
+		assertResource(HttpMethod.PUT, "/app/inbox/abc", "hello world", "hello world", 200);
+	}
+	
+	@Test
+	public void queryParametersOverHttp2() throws Exception {
+		assertResource(HttpMethod.GET, "/echoQuery?a=1&b=2", "", "a=1\nb=2", 200);
+	}
+	
+	@Test
+	public void parsesPathVarsOverHttp2() throws Exception {
+		assertResource(HttpMethod.GET, "/pows/marty/private/abc123", "", "private marty, abc123", 200);
+	}
+	
+	@Test
+	public void returnsNotFoundIfThereIsNoMatchingPatternOverHttp2() throws Exception {
+		assertResource(HttpMethod.GET, "/bob", "", null, 404);
+	}
+	
+	@Test
+	public void methodNotAllowedOverHttp2() throws Exception {
+		assertResource(HttpMethod.GET, "/app/inbox", "", "405 Client Error: Method Not Allowed", 405);
+	}
+	
+	@Test
+	public void redirectsAndSetsCookiesOverHttp2() throws Exception {
+		// when
+		FullHttpResponse response = overHttp2(Http2Client.request(HttpMethod.POST, "/app/message", ""));
+		
+		// then
+		assertEquals(303, response.status().code());
+		assertEquals("/app", response.headers().get("Location"));
+		assertEquals("name=frank", response.headers().get("Set-Cookie"));
+	}
+	
+	@Test
+	public void servesPartsOfBodiesOverHttp2() throws Exception {
+		// given
+		FullHttpRequest request = Http2Client.request(HttpMethod.GET, "/ranges", "");
+		request.headers().set("Range", "bytes=10-109");
+		
+		// when
+		FullHttpResponse response = overHttp2(request);
+		
+		// then
+		final byte[] contents = compressibleContents();
+		assertEquals(206, response.status().code());
+		assertEquals("bytes 10-109/" + contents.length, response.headers().get("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(contents, 10, 110), bytes(response));
+	}
+	
+	@Test
+	public void servesGzippedAssetsOverHttp2() throws Exception {
+		// given
+		FullHttpRequest request = Http2Client.request(HttpMethod.GET, "/assets/compressible.txt", "");
+		request.headers().set("Accept-Encoding", "gzip");
+		
+		// when
+		FullHttpResponse response = overHttp2(request);
+		
+		// then
+		assertEquals(200, response.status().code());
+		assertEquals("gzip", response.headers().get("Content-Encoding"));
+		assertArrayEquals(compressibleContents(), 
+				HttpObjectUtil.toByteArray(new GZIPInputStream(new ByteBufInputStream(response.content().duplicate())), -1));
+	}
+	
+	private void assertResource(HttpMethod method, String path, String body, String expectedBody, int expectedResponseCode) throws Exception {
+		FullHttpResponse response = overHttp2(Http2Client.request(method, path, body));
+		assertEquals(expectedResponseCode, response.status().code());
+		if(expectedBody!=null) assertEquals(expectedBody, response.content().toString(UTF8));
+	}
+	
+	/**
+	 * Sends the request on a stream of its own, over a connection that speaks HTTP/2 from the start.
+	 */
+	private FullHttpResponse overHttp2(FullHttpRequest request) throws Exception {
+		if(client==null){
+			client = new Http2Client();
+			client.connect(port);
+		}
+		return received(client.send(request));
+	}
+	
+	private FullHttpResponse received(BlockingQueue<FullHttpResponse> answers) throws Exception {
+		FullHttpResponse response = answers.poll(10, TimeUnit.SECONDS);
+		assertNotNull("No response", response);
+		responses.add(response);
+		return response;
+	}
+	
+	private static byte[] bytes(FullHttpResponse response) {
+		final byte[] bytes = new byte[response.content().readableBytes()];
+		response.content().getBytes(response.content().readerIndex(), bytes);
+		return bytes;
+	}
+	
+	private static byte[] compressibleContents() throws Exception {
+		return HttpObjectUtil.toByteArray(IntegrationTest.class.getResourceAsStream("compressible.txt"), -1);
+	}
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty4;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import org.httpobjects.AsyncHttpObject;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.httpobjects.util.HttpObjectUtil;
+import org.junit.Test;
+
+import io.netty.channel.Channel;
+
+public class NettyPipeliningTest {
+    
+    private final HttpObject echo = new HttpObject("/echo"){
+        @Override
+        public Response post(Request req) {
+            return OK(Text(HttpObjectUtil.toUtf8(req.representation())));
+        }
+    };
+    
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws Exception {
+        // given
+        int port = findFreePort();
+        Channel server = HttpobjectsNettySupport.builder(echo).handlerThreads(2).serve(port);
+        
+        try {
+            Socket socket = new Socket("localhost", port);
+            
+            // when
+            OutputStream out = socket.getOutputStream();
+            out.write((post("first") + post("second") + post("third")).getBytes("ASCII"));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String first = readResponse(in);
+            String second = readResponse(in);
+            String third = readResponse(in);
+            socket.close();
+            
+            // then
+            assertEquals("200 first", first);
+            assertEquals("200 second", second);
+            assertEquals("200 third", third);
+        } finally {
+            server.close().awaitUninterruptibly();
+        }
+    }
+    
+    @Test
+    public void laterResponsesWaitForEarlierAsyncOnes() throws Exception {
+        // given
+        int port = findFreePort();
+        HttpObject slow = new AsyncHttpObject("/slow"){
+            @Override
+            public CompletionStage<Response> postAsync(Request req) {
+                final String body = HttpObjectUtil.toUtf8(req.representation());
+                return CompletableFuture.supplyAsync(new Supplier<Response>() {
+                    @Override
+                    public Response get() {
+                        try {
+                            Thread.sleep(200);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return OK(Text("slow " + body));
+                    }
+                });
+            }
+        };
+        Channel server = HttpobjectsNettySupport.builder(slow, echo).serve(port);
+        
+        try {
+            Socket socket = new Socket("localhost", port);
+            
+            // when
+            OutputStream out = socket.getOutputStream();
+            out.write((post("/slow", "first") + post("second")).getBytes("ASCII"));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            String first = readResponse(in);
+            String second = readResponse(in);
+            socket.close();
+            
+            // then
+            assertEquals("200 slow first", first);
+            assertEquals("200 second", second);
+        } finally {
+            server.close().awaitUninterruptibly();
+        }
+    }
+    
+    @Test
+    public void bodiesBiggerThanTheLimitAreTurnedAway() throws Exception {
+        // given
+        int port = findFreePort();
+        Channel server = HttpobjectsNettySupport.builder(echo).maxContentLength(4).serve(port);
+        
+        try {
+            Socket socket = new Socket("localhost", port);
+            
+            // when
+            OutputStream out = socket.getOutputStream();
+            out.write(post("too big").getBytes("ASCII"));
+            out.flush();
+            String response = readResponse(socket.getInputStream());
+            socket.close();
+            
+            // then
+            assertEquals("413 ", response);
+        } finally {
+            server.close().awaitUninterruptibly();
+        }
+    }
+    
+    @Test
+    public void immutableCopiesKeepTheirBodiesOnceTheBuffersAreReused() throws Exception {
+        // given
+        int port = findFreePort();
+        final List<Request> kept = new ArrayList<Request>();
+        HttpObject keep = new HttpObject("/keep"){
+            @Override
+            public Response post(Request req) {
+                synchronized (kept) {
+                    kept.add(req.immutableCopy());
+                }
+                return OK(Text("kept"));
+            }
+        };
+        Channel server = HttpobjectsNettySupport.builder(keep).serve(port);
+        
+        try {
+            // when
+            String first = send(port, post("/keep", "first body"));
+            String second = send(port, post("/keep", "SECOND BODY"));
+            
+            // then
+            assertEquals("200 kept", first);
+            assertEquals("200 kept", second);
+            assertEquals("first body", HttpObjectUtil.toUtf8(kept.get(0).representation()));
+            assertEquals("SECOND BODY", HttpObjectUtil.toUtf8(kept.get(1).representation()));
+        } finally {
+            server.close().awaitUninterruptibly();
+        }
+    }
+    
+    private static String send(int port, String request) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes("ASCII"));
+            out.flush();
+            return readResponse(socket.getInputStream());
+        } finally {
+            socket.close();
+        }
+    }
+    
+    private static String post(String body) {
+        return post("/echo", body);
+    }
+    
+    private static String post(String path, String body) {
+        return "POST " + path + " HTTP/1.1\r\n" + 
+               "Host: localhost\r\n" + 
+               "Content-Length: " + body.length() + "\r\n" + 
+               "\r\n" + 
+               body;
+    }
+    
+    /**
+     * @return the status code and the body
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        String status = readLine(in).split(" ")[1];
+        int contentLength = 0;
+        String line;
+        while(!(line = readLine(in)).isEmpty()){
+            if(line.toLowerCase().startsWith("content-length:")){
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] content = new byte[contentLength];
+        int read = 0;
+        while(read < contentLength){
+            read += in.read(content, read, contentLength - read);
+        }
+        return status + " " + new String(content, "UTF-8");
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n'){
+            if(c == -1) throw new IOException("The connection was closed");
+            if(c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+    
+    private int findFreePort() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+            return port;
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2011, 2012 Commission Junction Inc.
+ *
+ * This file is part of httpobjects.
+ *
+ * httpobjects is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ *
+ * httpobjects is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with httpobjects; see the file COPYING.  If not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301 USA.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library.  Thus, the terms and
+ * conditions of the GNU General Public License cover the whole
+ * combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent
+ * modules, and to copy and distribute the resulting executable under
+ * terms of your choice, provided that you also meet, for each linked
+ * independent module, the terms and conditions of the license of that
+ * module.  An independent module is a module which is not derived from
+ * or based on this library.  If you modify this library, you may extend
+ * this exception to your version of the library, but you are not
+ * obligated to do so.  If you do not wish to do so, delete this
+ * exception statement from your version.
+ */
+
+package org.httpobjects.netty4;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.httpobjects.HttpObject;
+import org.httpobjects.Representation;
+import org.httpobjects.Request;
+import org.httpobjects.Response;
+import org.junit.Test;
+
+import io.netty.channel.Channel;
+
+public class NettyStreamingBackpressureTest {
+    private static final int CHUNK = 8192;
+    private static final int CHUNKS = 8192;
+    
+    @Test
+    public void streamedResponsesWaitForSlowClients() throws Exception {
+        // given
+        final AtomicLong produced = new AtomicLong();
+        int port = findFreePort();
+        Channel server = new NettyServerBuilder(Arrays.<HttpObject>asList(big(produced)))
+                .streamResponses(true)
+                .sendBufferSize(CHUNK)
+                .serve(port);
+        
+        try {
+            Socket socket = new Socket();
+            socket.setReceiveBufferSize(CHUNK);
+            socket.connect(new InetSocketAddress("localhost", port));
+            
+            // when
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /big HTTP/1.1\r\n" + 
+                       "Host: localhost\r\n" + 
+                       "Connection: close\r\n" + 
+                       "\r\n").getBytes("ASCII"));
+            out.flush();
+            Thread.sleep(500);
+            final long producedWhileNotReading = produced.get();
+            final long received = readAll(socket.getInputStream());
+            socket.close();
+            
+            // then
+            assertTrue("produced " + producedWhileNotReading + " bytes that the client wasn't taking", 
+                        producedWhileNotReading < CHUNK * CHUNKS / 4);
+            assertEquals((long) CHUNK * CHUNKS, produced.get());
+            assertTrue(received > (long) CHUNK * CHUNKS);
+        } finally {
+            server.close().awaitUninterruptibly();
+        }
+    }
+    
+    @Test
+    public void clientsThatStopReadingDontHoldUpAnyoneElse() throws Exception {
+        // given
+        int port = findFreePort();
+        Channel server = new NettyServerBuilder(Arrays.<HttpObject>asList(
+                big(new AtomicLong()),
+                new HttpObject("/small"){
+                    @Override
+                    public Response get(Request req) {
+                        return OK(Text("small"));
+                    }
+                }))
+                .streamResponses(true)
+                .workerThreads(1)
+                .streamWriterThreads(1)
+                .streamWriteTimeout(500)
+                .sendBufferSize(CHUNK)
+                .serve(port);
+        
+        try {
+            Socket stalled = new Socket();
+            stalled.setReceiveBufferSize(CHUNK);
+            stalled.connect(new InetSocketAddress("localhost", port));
+            stalled.setSoTimeout(5000);
+            send(stalled, "/big");
+            Thread.sleep(200);
+            
+            // when
+            Socket other = new Socket("localhost", port);
+            other.setSoTimeout(5000);
+            send(other, "/small");
+            final String otherStatus = readLine(other.getInputStream());
+            other.close();
+            
+            // then
+            assertEquals("HTTP/1.1 200 OK", otherStatus);
+            Thread.sleep(1500);
+            assertTrue(readAll(stalled.getInputStream()) < (long) CHUNK * CHUNKS);
+            stalled.close();
+        } finally {
+            server.close().awaitUninterruptibly();
+        }
+    }
+    
+    private static HttpObject big(final AtomicLong produced) {
+        return new HttpObject("/big"){
+            @Override
+            public Response get(Request req) {
+                return OK(new Representation() {
+                    @Override
+                    public String contentType() {
+                        return "application/octet-stream";
+                    }
+                    
+                    @Override
+                    public void write(OutputStream out) {
+                        try {
+                            final byte[] chunk = new byte[CHUNK];
+                            for(int x=0;x<CHUNKS;x++){
+                                out.write(chunk);
+                                produced.addAndGet(chunk.length);
+                            }
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+        };
+    }
+    
+    private static void send(Socket socket, String path) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\n" + 
+                   "Host: localhost\r\n" + 
+                   "Connection: close\r\n" + 
+                   "\r\n").getBytes("ASCII"));
+        out.flush();
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while((c = in.read()) != '\n'){
+            if(c == -1) throw new IOException("The connection was closed");
+            if(c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+    
+    private static long readAll(InputStream in) throws IOException {
+        final byte[] buffer = new byte[CHUNK];
+        long total = 0;
+        for(int n=in.read(buffer);n!=-1;n=in.read(buffer)){
+            total += n;
+        }
+        return total;
+    }
+    
+    private int findFreePort() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+            return port;
+        } catch(Exception e){
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -40,6 +40,10 @@ package org.httpobjects.servlet;
 import org.httpobjects.path.PathPattern;
 
 public interface PathMatchObserver {
+    /**
+     * Called for each object in the order they were given, up to the one that answers (or for
+     * all of them, when none does).
+     */
     void checkingPathAgainstPattern(String path,PathPattern pathPattern);
     void pathMatchedPattern(String path,PathPattern pathPattern);
     public static PathMatchObserver DO_NOTHING = new PathMatchObserver(){
@@ -39,13 +39,19 @@ package org.httpobjects.servlet;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.httpobjects.AsyncHttpObject;
 import org.httpobjects.HttpObject;
+import org.httpobjects.Representation;
 import org.httpobjects.Request;
 import org.httpobjects.Response;
 import org.httpobjects.header.GenericHeaderField;
@@ -57,15 +63,23 @@ import org.httpobjects.header.response.AllowField;
 import org.httpobjects.header.response.LocationField;
 import org.httpobjects.header.response.SetCookieField;
 import org.httpobjects.header.response.WWWAuthenticateField;
+import org.httpobjects.path.Path;
+import org.httpobjects.representation.FileRep;
+import org.httpobjects.servlet.impl.HttpServletRequestUtil;
+import org.httpobjects.servlet.impl.ImmutableHttpServletRequestRepresentation;
 import org.httpobjects.servlet.impl.ImmutableRequestImpl;
-import org.httpobjects.util.HttpObjectUtil;
+import org.httpobjects.util.ByteRanges;
+import org.httpobjects.util.HttpObjectRouter;
 import org.httpobjects.util.Method;
+import org.httpobjects.util.RequestBodyLimit;
+import org.httpobjects.util.RouteCache;
 
 public class ServletMethodInvoker {
-	private final HttpObject[] objects;
+	private final HttpObjectRouter router;
 	private final Response notFoundResponse;
 	private final List<? extends HeaderField> defaultResponseHeaders;
     private final PathMatchObserver pathMatchObserver;
+    private final long maxRequestBodySize;
 	
 	public ServletMethodInvoker(HttpObject[] objects) {
 		this(HttpObject.NOT_FOUND(HttpObject.Text("Error: NOT_FOUND")), objects);
@@ -79,27 +93,46 @@ public class ServletMethodInvoker {
     }
 
     public ServletMethodInvoker(PathMatchObserver pathMatchObserver, List<? extends HeaderField> defaultResponseHeader, Response notFoundResponse, HttpObject[] objects) {
+        this(pathMatchObserver, defaultResponseHeader, notFoundResponse, objects, null);
+    }
+
+    /**
+     * @param routeCache remembers where recent paths were routed to; null to route every request from scratch
+     */
+    public ServletMethodInvoker(PathMatchObserver pathMatchObserver, List<? extends HeaderField> defaultResponseHeader, Response notFoundResponse, HttpObject[] objects, RouteCache routeCache) {
+        this(pathMatchObserver, defaultResponseHeader, notFoundResponse, objects, routeCache, RequestBodyLimit.UNLIMITED);
+    }
+
+    /**
+     * @param maxRequestBodySize the most bytes any request body may have, or {@link RequestBodyLimit#UNLIMITED};
+     *        objects can set a tighter limit of their own with {@link HttpObject#maxRequestBodySize()}
+     */
+    public ServletMethodInvoker(PathMatchObserver pathMatchObserver, List<? extends HeaderField> defaultResponseHeader, Response notFoundResponse, HttpObject[] objects, RouteCache routeCache, long maxRequestBodySize) {
         this.pathMatchObserver = pathMatchObserver;
         this.notFoundResponse = notFoundResponse;
-        this.objects = objects;
+        this.router = new HttpObjectRouter(Arrays.asList(objects), routeCache);
         this.defaultResponseHeaders = defaultResponseHeader;
+        this.maxRequestBodySize = maxRequestBodySize;
     }
 
-    public boolean invokeFirstPathMatchIfAble(String path, HttpServletRequest r, HttpServletResponse httpResponse) {
-        Response lastResponse = null;
-        for (HttpObject next : objects) {
-            pathMatchObserver.checkingPathAgainstPattern(path, next.pattern());
-            if (next.pattern().matches(path)) {
-                lastResponse = invoke(r, httpResponse, next);
-                if (lastResponse != null) {
+    public boolean invokeFirstPathMatchIfAble(final String path, final HttpServletRequest r, HttpServletResponse httpResponse) {
+        final Method m = Method.fromString(r.getMethod());
+        final Checking checking = new Checking(path);
+        final Response lastResponse = router.route(path, m, new HttpObjectRouter.Attempt() {
+            @Override
+            public Response attempt(HttpObject next, Path match) {
+                checking.upTo(next);
+                final Response response = invoke(r, m, next, path, match);
+                if (response != null) {
                     pathMatchObserver.pathMatchedPattern(path, next.pattern());
-                    returnResponse(lastResponse, httpResponse);
-                    break;
                 }
+                return response;
             }
-        }
+        });
+        if (lastResponse == null) checking.toTheEnd();
 
         if (lastResponse != null) {
+            returnResponse(lastResponse, httpResponse);
             return true;
         } else if (notFoundResponse != null) {
             returnResponse(notFoundResponse, httpResponse);
@@ -109,34 +142,158 @@ public class ServletMethodInvoker {
         }
     }
 
-    private Response invoke(HttpServletRequest r, HttpServletResponse httpResponse, HttpObject object) {
-		final Method m = Method.fromString(r.getMethod());
-		final Request input = new ImmutableRequestImpl(object.pattern().match(r.getRequestURI()), r);
+    /**
+     * Like {@link #invokeFirstPathMatchIfAble(String, HttpServletRequest, HttpServletResponse)},
+     * but {@link AsyncHttpObject}s are left to answer in their own time, and nothing is written:
+     * that's up to the caller, with {@link #returnResponse(Response, HttpServletResponse)}, once
+     * the response is there.  (A container that has Servlet 3's <code>startAsync()</code> can
+     * give the thread back in the meantime.)
+     * 
+     * @return the response, which turns out to be null if there isn't one to give
+     */
+    public CompletionStage<Response> respondAsync(final String path, final HttpServletRequest r) {
+        return respondAsync(path, r, null);
+    }
+
+    /**
+     * @param body the request's body, when it has already been read (e.g. without blocking);
+     *        null to read it from the request
+     */
+    public CompletionStage<Response> respondAsync(final String path, final HttpServletRequest r, final Representation body) {
+        final Method m = Method.fromString(r.getMethod());
+        final Checking checking = new Checking(path);
+        final CompletionStage<Response> response = router.routeAsync(path, m, new HttpObjectRouter.AsyncAttempt() {
+            @Override
+            public CompletionStage<Response> attempt(final HttpObject next, Path match) {
+                checking.upTo(next);
+                final long limit = RequestBodyLimit.forObject(maxRequestBodySize, next, path);
+                if (RequestBodyLimit.exceeds(limit, HttpServletRequestUtil.contentLength(r))) {
+                    return AsyncHttpObject.completed(RequestBodyLimit.tooLarge());
+                }
+                final Request input = request(r, next, path, match, body, limit);
+                return RequestBodyLimit.invokeMethodAsync(next, m, input).thenApply(new Function<Response, Response>() {
+                    @Override
+                    public Response apply(Response response) {
+                        if (response != null) {
+                            pathMatchObserver.pathMatchedPattern(path, next.pattern());
+                        }
+                        return response;
+                    }
+                });
+            }
+        });
+        
+        return response.thenApply(new Function<Response, Response>() {
+            @Override
+            public Response apply(Response response) {
+                if (response == null) checking.toTheEnd();
+                return response != null ? response : notFoundResponse;
+            }
+        });
+    }
+
+    /**
+     * Tells the {@link PathMatchObserver} about the objects in the order they were given, as though
+     * each were checked in turn: the router skips the ones whose patterns can't match the path, but
+     * the observer still hears about every one up to the object that answers (or all of them, when
+     * none does).
+     */
+    private final class Checking {
+        private final String path;
+        private final Iterator<HttpObject> remaining;
+
+        Checking(String path) {
+            this.path = path;
+            this.remaining = pathMatchObserver == PathMatchObserver.DO_NOTHING ? Collections.<HttpObject>emptyIterator() : router.objects().iterator();
+        }
+
+        synchronized void upTo(HttpObject object) {
+            while (remaining.hasNext()) {
+                final HttpObject next = remaining.next();
+                pathMatchObserver.checkingPathAgainstPattern(path, next.pattern());
+                if (next == object) return;
+            }
+        }
+
+        void toTheEnd() {
+            upTo(null);
+        }
+    }
+
+    /**
+     * @return the most bytes the request's body may have: the server's limit, or that of the
+     *         object the request would go to first, when it's tighter (for reading the body
+     *         before the request is routed)
+     */
+    public long maxRequestBodySize(String path, HttpServletRequest r) {
+        final HttpObject first = router.firstMatch(path, Method.fromString(r.getMethod()));
+        return first == null ? maxRequestBodySize : RequestBodyLimit.forObject(maxRequestBodySize, first, path);
+    }
 
-		return HttpObjectUtil.invokeMethod(object, m, input);
+    private Response invoke(HttpServletRequest r, Method m, HttpObject object, String path, Path match) {
+		final long limit = RequestBodyLimit.forObject(maxRequestBodySize, object, path);
+		if (RequestBodyLimit.exceeds(limit, HttpServletRequestUtil.contentLength(r))) {
+			return RequestBodyLimit.tooLarge();
+		}
+		return RequestBodyLimit.invokeMethod(object, m, request(r, object, path, match, null, limit));
+	}
+
+    private Request request(HttpServletRequest r, HttpObject object, String path, Path match, Representation body, long limit) {
+		final String uri = r.getRequestURI();
+		final Path vars = uri.equals(path) ? match : object.pattern().match(uri);
+		return new ImmutableRequestImpl(vars, r, body != null ? body : ImmutableHttpServletRequestRepresentation.of(r, 0, limit));
 	}
 
 
-	private void returnResponse(Response r, final HttpServletResponse resp)  {
+	public void returnResponse(Response r, final HttpServletResponse resp)  {
 
 		try {
-			resp.setStatus(r.code().value());
+			returnHeaders(r, resp);
 			
-			for(HeaderField next : r.header()){
-				next.accept(new HeaderFieldVisitor() {
+			if(r.hasRepresentation()){
+				final long length = lengthOf(r.representation());
+				if(length != -1 && length <= Integer.MAX_VALUE) resp.setContentLength((int) length);
+				OutputStream out = resp.getOutputStream();
+				r.representation().write(out);
+				out.close();
+			}
+			
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return how long the body is, when that can be told without reading it; otherwise -1
+	 */
+	private static long lengthOf(Representation representation) {
+		if(representation instanceof FileRep) return ((FileRep) representation).length();
+		if(representation instanceof ByteRanges.MultipartByteRanges) return ((ByteRanges.MultipartByteRanges) representation).length();
+		return -1;
+	}
 
-					@Override
-					public Void visit(CookieField cookieField) {
-						resp.setHeader(cookieField.name(), cookieField.value());
-						return null;
-					}
+	/**
+	 * Sets everything but the body: the status, the headers (including the default ones) and the
+	 * content type.
+	 */
+	public void returnHeaders(Response r, final HttpServletResponse resp)  {
+		resp.setStatus(r.code().value());
+		
+		for(HeaderField next : r.header()){
+			next.accept(new HeaderFieldVisitor() {
 
-					@Override
-					public Void visit(GenericHeaderField other) {
+				@Override
+				public Void visit(CookieField cookieField) {
+					resp.setHeader(cookieField.name(), cookieField.value());
+					return null;
+				}
+
+				@Override
+				public Void visit(GenericHeaderField other) {
                         // TODO: This might not work right with multiple headers of the same name
-						resp.setHeader(other.name(), other.value());
-						return null;
-					}
+					resp.setHeader(other.name(), other.value());
+					return null;
+				}
 
                     @Override
                     public Void visit(AllowField allowField) {
@@ -145,41 +302,34 @@ public class ServletMethodInvoker {
                     }
 
                     @Override
-					public Void visit(LocationField location) {
-						resp.setHeader(location.name(), location.value());
-						return null;
-					}
-
-					@Override
-					public Void visit(SetCookieField setCookieField) {
-						resp.addHeader(setCookieField.name(), setCookieField.value());
-						return null;
-					}
-
-					@Override
-					public Void visit(WWWAuthenticateField wwwAuthorizationField) {
-						resp.setHeader(wwwAuthorizationField.name(), wwwAuthorizationField.value());
-						return null;
-					}
-					@Override
-					public Void visit(AuthorizationField authorizationField) {
-						throw new RuntimeException("Illegal header for request: " + authorizationField.getClass());
-					}
-
-				});
-			}
-			
-			addDefaultHeadersAsApplicable(r, resp);
-			
-			if(r.hasRepresentation()){
-				resp.setContentType(r.representation().contentType());
-				OutputStream out = resp.getOutputStream();
-				r.representation().write(out);
-				out.close();
-			}
-			
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+				public Void visit(LocationField location) {
+					resp.setHeader(location.name(), location.value());
+					return null;
+				}
+
+				@Override
+				public Void visit(SetCookieField setCookieField) {
+					resp.addHeader(setCookieField.name(), setCookieField.value());
+					return null;
+				}
+
+				@Override
+				public Void visit(WWWAuthenticateField wwwAuthorizationField) {
+					resp.setHeader(wwwAuthorizationField.name(), wwwAuthorizationField.value());
+					return null;
+				}
+				@Override
+				public Void visit(AuthorizationField authorizationField) {
+					throw new RuntimeException("Illegal header for request: " + authorizationField.getClass());
+				}
+
+			});
+		}
+		
+		addDefaultHeadersAsApplicable(r, resp);
+		
+		if(r.hasRepresentation()){
+			resp.setContentType(r.representation().contentType());
 		}
 	}
 	
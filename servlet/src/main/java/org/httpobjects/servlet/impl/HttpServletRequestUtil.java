@@ -59,6 +59,19 @@ public class HttpServletRequestUtil {
                                   request.getRemoteAddr(), request.getRemotePort());
     }
     
+    /**
+     * @return the length the body says it is, or -1 when it doesn't say (e.g. when it's chunked)
+     */
+    public static long contentLength(HttpServletRequest request){
+        final String value = request.getHeader("Content-Length");
+        if(value==null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
 	public static List<SetCookieField> buildCookies(HttpServletRequest request) {
 		javax.servlet.http.Cookie[] servletCookies = request.getCookies();
 		final List<SetCookieField> cookies;
@@ -37,21 +37,34 @@
  */
 package org.httpobjects.servlet.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.httpobjects.Representation;
+import org.httpobjects.representation.StreamingRep;
+import org.httpobjects.util.RequestBodyLimit;
 
 public class ImmutableHttpServletRequestRepresentation {
 
 	public static Representation of(HttpServletRequest request, int tries) {
+	    return of(request, tries, RequestBodyLimit.UNLIMITED);
+	}
+
+	/**
+	 * @param limit the most bytes that may be read from the body
+	 */
+	public static Representation of(HttpServletRequest request, int tries, long limit) {
 	    try {
             String contentType = request.getContentType();
-            return new LazyRep(contentType, request.getInputStream());
+            InputStream input = request.getInputStream();
+            InputStream data = input != null ? input : new ByteArrayInputStream(new byte[0]);
+            return new StreamingRep(contentType, RequestBodyLimit.limit(data, limit), HttpServletRequestUtil.contentLength(request));
         } catch (IOException err) {
 	        if (tries > 10) throw new RuntimeException(err);
-	        else return of(request, tries + 1);
+	        else return of(request, tries + 1, limit);
         }
     }
 }
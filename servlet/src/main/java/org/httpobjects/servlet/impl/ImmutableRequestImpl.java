@@ -45,6 +45,7 @@ import org.httpobjects.Representation;
 import org.httpobjects.Request;
 import org.httpobjects.header.request.RequestHeader;
 import org.httpobjects.path.Path;
+import org.httpobjects.representation.StreamingRep;
 import org.httpobjects.util.Method;
 
 public class ImmutableRequestImpl implements Request {
@@ -57,12 +58,19 @@ public class ImmutableRequestImpl implements Request {
 	private final Method method;
 
 	public ImmutableRequestImpl(Path vars, HttpServletRequest request) {
+		this(vars, request, ImmutableHttpServletRequestRepresentation.of(request, 0));
+	}
+
+	/**
+	 * @param representation the body, for when it has already been read from the request
+	 */
+	public ImmutableRequestImpl(Path vars, HttpServletRequest request, Representation representation) {
 		this.vars = vars;
 		this.contentType = request.getContentType();
 		this.query = request.getQueryString();
 		this.connectionInfo = HttpServletRequestUtil.connectionInfo(request);
         this.header = HttpServletRequestUtil.buildHeader(request);
-		this.representation = ImmutableHttpServletRequestRepresentation.of(request, 0);
+		this.representation = representation;
 		this.method = Method.fromString(request.getMethod().toUpperCase());
 	}
 
@@ -100,8 +108,17 @@ public class ImmutableRequestImpl implements Request {
 		return representation;
 	}
 
+	/**
+	 * Buffers the body, so that the copy can give it back more than once.  When it has already
+	 * been read there's nothing left to buffer: the copy is still made, and its body says that it
+	 * was already read (when shown, or when read again) instead.
+	 */
 	@Override
 	public Request immutableCopy() {
+		if (representation instanceof StreamingRep) {
+			final StreamingRep body = (StreamingRep) representation;
+			if (!body.isSpent()) body.buffered();
+		}
 		return this;
 	}
 
@@ -44,7 +44,7 @@ import java.io.InputStream;
 import javax.servlet.http.HttpServletRequest;
 
 import org.httpobjects.Representation;
-import org.httpobjects.representation.ImmutableRep;
+import org.httpobjects.representation.StreamingRep;
 
 public class LazyHttpServletRequestRepresentation {
 
@@ -53,7 +53,7 @@ public class LazyHttpServletRequestRepresentation {
 			String contentType = request.getContentType();
 			InputStream input = request.getInputStream();
 			InputStream data = input != null ? input : new ByteArrayInputStream(new byte[0]);
-			return new ImmutableRep(contentType, data);
+			return new StreamingRep(contentType, data, HttpServletRequestUtil.contentLength(request));
 		} catch (IOException err) {
 			if (tries > 10) throw new RuntimeException(err);
 			else return of(request, tries + 1);
@@ -1,8 +1,8 @@
 package org.httpobjects.servlet.impl;
 
 import org.httpobjects.Representation;
+import org.httpobjects.util.HttpObjectUtil;
 
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
@@ -11,11 +11,20 @@ public class LazyRep implements Representation {
 
     private final String contentType;
     private final InputStream input;
+    private final long length;
     private byte[] data;
 
     public LazyRep(String contentType, InputStream inputStream) {
+        this(contentType, inputStream, -1);
+    }
+
+    /**
+     * @param length how many bytes there are (e.g. the request's Content-Length), or -1 when that isn't known
+     */
+    public LazyRep(String contentType, InputStream inputStream, long length) {
         this.contentType = contentType;
         this.input = inputStream;
+        this.length = length;
         this.data = null;
     }
 
@@ -24,14 +33,8 @@ public class LazyRep implements Representation {
             if (input == null) {
                 data = new byte[0];
             } else {
-                byte[] b = new byte[256];
-                ByteArrayOutputStream buf = new ByteArrayOutputStream();
-                int n;
-                while ((n = input.read(b)) != -1) {
-                    buf.write(b, 0, n);
-                }
+                data = HttpObjectUtil.toByteArray(input, length);
                 input.close();
-                data = buf.toByteArray();
             }
         }
         return data;
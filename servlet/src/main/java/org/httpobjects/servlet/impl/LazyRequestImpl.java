@@ -49,6 +49,7 @@ import org.httpobjects.util.Method;
 public class LazyRequestImpl implements Request {
 	private final HttpServletRequest request;
 	private final Path vars;
+	private Representation representation;
 
 	public LazyRequestImpl(Path vars, HttpServletRequest request) {
 		super();
@@ -89,13 +90,19 @@ public class LazyRequestImpl implements Request {
 		return HttpServletRequestUtil.buildHeader(request);
 	}
 
+	/**
+	 * @return the same body every time; the container's stream underneath can only be read once
+	 */
 	@Override
-	public Representation representation() {
-		return LazyHttpServletRequestRepresentation.of(request, 0);
+	public synchronized Representation representation() {
+		if (representation == null) {
+			representation = LazyHttpServletRequestRepresentation.of(request, 0);
+		}
+		return representation;
 	}
 
 	@Override
 	public Request immutableCopy() {
-		return new ImmutableRequestImpl(vars, request);
+		return new ImmutableRequestImpl(vars, request, representation()).immutableCopy();
 	}
 }
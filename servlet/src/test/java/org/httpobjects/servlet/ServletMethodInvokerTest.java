@@ -38,12 +38,16 @@
 package org.httpobjects.servlet;
 
 import org.httpobjects.HttpObject;
+import org.httpobjects.Request;
 import org.httpobjects.Response;
+import org.httpobjects.ResponseCode;
 import org.httpobjects.header.HeaderField;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
 import java.util.Collections;
 import java.util.List;
 
@@ -82,4 +86,51 @@ public class ServletMethodInvokerTest {
         assertEquals("/user/123/account/blah", pathMatchObserver.pathMatchedPatternInvocations.get(0).path);
         assertEquals("/user/{id}/account/{name}", pathMatchObserver.pathMatchedPatternInvocations.get(0).pathPattern.raw());
     }
+
+    @Test
+    public void theObserverHearsAboutEveryObjectUpToTheOneThatAnswers() throws Exception {
+        //given
+        HttpObject[] objects = new HttpObject[]{
+                new HttpObject("/foo/baz"),
+                new HttpObject("/user/{id}/account/{name}") {
+                    @Override
+                    public Response get(Request req) {
+                        return OK(Text("found"));
+                    }
+                },
+                new HttpObject("/bar/baz"),
+        };
+        FakePathMatchObserver pathMatchObserver = new FakePathMatchObserver();
+        ServletMethodInvoker servletMethodInvoker = new ServletMethodInvoker(
+                pathMatchObserver, Collections.<HeaderField>emptyList(), HttpObject.NOT_FOUND(), objects);
+
+        //when
+        Response response = servletMethodInvoker.respondAsync("/user/123/account/blah", get("/user/123/account/blah")).toCompletableFuture().get();
+
+        //then
+        assertEquals(ResponseCode.OK, response.code());
+        assertEquals(2, pathMatchObserver.checkingPathAgainstPatternInvocations.size());
+        assertEquals("/foo/baz", pathMatchObserver.checkingPathAgainstPatternInvocations.get(0).pathPattern.raw());
+        assertEquals("/user/{id}/account/{name}", pathMatchObserver.checkingPathAgainstPatternInvocations.get(1).pathPattern.raw());
+        assertEquals(1, pathMatchObserver.pathMatchedPatternInvocations.size());
+        assertEquals("/user/{id}/account/{name}", pathMatchObserver.pathMatchedPatternInvocations.get(0).pathPattern.raw());
+    }
+
+    private static HttpServletRequest get(final String uri) {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                ServletMethodInvokerTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+                        final String name = method.getName();
+                        if (name.equals("getMethod")) return "GET";
+                        if (name.equals("getRequestURI")) return uri;
+                        if (name.equals("getLocalAddr") || name.equals("getRemoteAddr")) return "127.0.0.1";
+                        if (name.equals("getHeaderNames")) return Collections.enumeration(Collections.<String>emptyList());
+                        if (method.getReturnType() == int.class) return 0;
+                        return null;
+                    }
+                });
+    }
 }
@@ -0,0 +1,86 @@
+package org.httpobjects.servlet.impl;
+
+import org.httpobjects.Request;
+import org.httpobjects.path.Path;
+import org.httpobjects.util.HttpObjectUtil;
+import org.junit.Test;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImmutableRequestImplTest {
+
+    @Test
+    public void copiesCanReadTheBodyMoreThanOnce() throws Exception {
+        // given
+        Request request = new ImmutableRequestImpl(new Path("/foo"), post("hello"));
+
+        // when
+        Request copy = request.immutableCopy();
+
+        // then
+        assertEquals("hello", HttpObjectUtil.toUtf8(copy.representation()));
+        assertEquals("hello", HttpObjectUtil.toUtf8(copy.representation()));
+    }
+
+    @Test
+    public void copiesAreStillMadeOnceTheBodyHasBeenRead() throws Exception {
+        // given
+        Request request = new ImmutableRequestImpl(new Path("/foo"), post("hello"));
+        assertEquals("hello", HttpObjectUtil.toUtf8(request.representation()));
+
+        // when
+        Request copy = request.immutableCopy();
+
+        // then
+        assertTrue(copy.show(), copy.show().contains("already read"));
+    }
+
+    @Test
+    public void lazyRequestsGiveBackTheSameBodyEveryTime() throws Exception {
+        // given
+        Request request = new LazyRequestImpl(new Path("/foo"), post("hello"));
+        assertEquals("hello", HttpObjectUtil.toUtf8(request.representation()));
+
+        // when
+        Request copy = request.immutableCopy();
+
+        // then
+        assertTrue(copy.show(), copy.show().contains("already read"));
+    }
+
+    private static HttpServletRequest post(String body) {
+        final ByteArrayInputStream data = new ByteArrayInputStream(body.getBytes(UTF_8));
+        final ServletInputStream input = new ServletInputStream() {
+            @Override
+            public int read() {
+                return data.read();
+            }
+        };
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                ImmutableRequestImplTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        final String name = method.getName();
+                        if (name.equals("getMethod")) return "POST";
+                        if (name.equals("getContentType")) return "text/plain";
+                        if (name.equals("getInputStream")) return input;
+                        if (name.equals("getLocalAddr") || name.equals("getRemoteAddr")) return "127.0.0.1";
+                        if (name.equals("getHeaderNames")) return Collections.enumeration(Collections.<String>emptyList());
+                        if (method.getReturnType() == int.class) return 0;
+                        return null;
+                    }
+                });
+    }
+}
@@ -54,15 +54,22 @@ import org.httpobjects.header.request.credentials.BasicCredentials;
 import org.httpobjects.header.response.SetCookieField;
 import org.httpobjects.header.response.WWWAuthenticateField.Method;
 import org.httpobjects.path.Path;
+import org.httpobjects.util.ByteRanges;
+import org.httpobjects.util.ClasspathResourcesObject;
+import org.httpobjects.util.FilesystemResourcesObject;
 import org.httpobjects.util.HttpObjectUtil;
 import org.junit.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.util.*;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.httpobjects.util.HttpObjectUtil.toAscii;
 import static org.junit.Assert.assertEquals;
@@ -266,9 +273,92 @@ public abstract class IntegrationTest {
             public Response options(Request req) {
                 return OK(Text(""), new GenericHeaderField("foo", "bar"));
             }
+        },
+        new HttpObject("/file"){
+            @Override
+            public Response get(Request req) {
+                return OK(File("application/octet-stream", bigFile()));
+            }
+        },
+        new FilesystemResourcesObject("/files/{resource*}", bigFile().getParentFile()),
+        new ClasspathResourcesObject("/assets/{resource*}", IntegrationTest.class),
+        new FilesystemResourcesObject("/precompressed/{resource*}", precompressedDir()),
+        new HttpObject("/ranges"){
+            @Override
+            public Response get(Request req) {
+                return ByteRanges.respond(req, "text/plain", compressibleContents());
+            }
         });
     }
 
+    private static byte[] compressibleContents() {
+        try {
+            return HttpObjectUtil.toByteArray(IntegrationTest.class.getResourceAsStream("compressible.txt"), -1);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static File bigFile;
+
+    private static synchronized File bigFile() {
+        if (bigFile == null) {
+            try {
+                bigFile = File.createTempFile("httpobjects-tck", ".bin");
+                bigFile.deleteOnExit();
+                final FileOutputStream out = new FileOutputStream(bigFile);
+                try {
+                    out.write(bigFileContents());
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return bigFile;
+    }
+
+    private static File precompressedDir;
+
+    /**
+     * Holds <code>app.txt</code>, with an <code>app.txt.gz</code> beside it.
+     */
+    private static synchronized File precompressedDir() {
+        if (precompressedDir == null) {
+            try {
+                precompressedDir = File.createTempFile("httpobjects-tck", "");
+                if (!precompressedDir.delete() || !precompressedDir.mkdir()) throw new IOException("Couldn't make " + precompressedDir);
+                precompressedDir.deleteOnExit();
+                final File plain = new File(precompressedDir, "app.txt");
+                final File gzipped = new File(precompressedDir, "app.txt.gz");
+                plain.deleteOnExit();
+                gzipped.deleteOnExit();
+                final FileOutputStream out = new FileOutputStream(plain);
+                try {
+                    out.write(bigFileContents());
+                } finally {
+                    out.close();
+                }
+                final GZIPOutputStream gzip = new GZIPOutputStream(new FileOutputStream(gzipped));
+                try {
+                    gzip.write(bigFileContents());
+                } finally {
+                    gzip.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return precompressedDir;
+    }
+
+    private static byte[] bigFileContents() {
+        final byte[] contents = new byte[300 * 1024 + 17];
+        for (int x = 0; x < contents.length; x++) contents[x] = (byte) (x * 31 + x / 256);
+        return contents;
+    }
+
     class PatchMethod extends EntityEnclosingMethod {
 
         public PatchMethod(String uri) {
@@ -311,6 +401,135 @@ public abstract class IntegrationTest {
         assertEquals("bar", request.getResponseHeader("foo").getValue());
     }
 
+    @Test
+    public void servesFiles() throws Exception {
+        // given
+        HttpClient client = new HttpClient();
+        GetMethod request = new GetMethod("http://localhost:" + port + "/file");
+
+        // when
+        int responseCode = client.executeMethod(request);
+
+        // then
+        assertEquals(200, responseCode);
+        assertEquals("application/octet-stream", request.getResponseHeader("Content-Type").getValue());
+        assertEquals(String.valueOf(bigFileContents().length), request.getResponseHeader("Content-Length").getValue());
+        Assert.assertArrayEquals(bigFileContents(), request.getResponseBody());
+    }
+
+    @Test
+    public void servesPartsOfFiles() throws Exception {
+        // given
+        HttpClient client = new HttpClient();
+        GetMethod request = new GetMethod("http://localhost:" + port + "/files/" + bigFile().getName());
+        request.setRequestHeader("Range", "bytes=100000-100999");
+
+        // when
+        int responseCode = client.executeMethod(request);
+
+        // then
+        assertEquals(206, responseCode);
+        assertEquals("bytes 100000-100999/" + bigFileContents().length, request.getResponseHeader("Content-Range").getValue());
+        assertEquals("1000", request.getResponseHeader("Content-Length").getValue());
+        Assert.assertArrayEquals(Arrays.copyOfRange(bigFileContents(), 100000, 101000), request.getResponseBody());
+    }
+
+    @Test
+    public void servesPartsOfBodiesAsTheyAreToThoseThatTakeCompression() throws Exception {
+        // given
+        HttpClient client = new HttpClient();
+        GetMethod request = new GetMethod("http://localhost:" + port + "/ranges");
+        request.setRequestHeader("Accept-Encoding", "gzip, deflate");
+        request.setRequestHeader("Range", "bytes=10-109");
+
+        // when
+        int responseCode = client.executeMethod(request);
+
+        // then
+        assertEquals(206, responseCode);
+        assertIdentityEncoded(request);
+        assertEquals("bytes 10-109/" + compressibleContents().length, request.getResponseHeader("Content-Range").getValue());
+        Assert.assertArrayEquals(Arrays.copyOfRange(compressibleContents(), 10, 110), request.getResponseBody());
+    }
+
+    @Test
+    public void servesSeveralPartsOfBodiesAsTheyAreToThoseThatTakeCompression() throws Exception {
+        // given
+        HttpClient client = new HttpClient();
+        GetMethod request = new GetMethod("http://localhost:" + port + "/ranges");
+        request.setRequestHeader("Accept-Encoding", "gzip, deflate");
+        request.setRequestHeader("Range", "bytes=0-49,200-249");
+
+        // when
+        int responseCode = client.executeMethod(request);
+
+        // then
+        assertEquals(206, responseCode);
+        assertIdentityEncoded(request);
+        assertTrue(request.getResponseHeader("Content-Type").getValue().startsWith("multipart/byteranges"));
+        final String body = new String(request.getResponseBody(), "ISO-8859-1");
+        assertTrue(body.contains(new String(Arrays.copyOfRange(compressibleContents(), 0, 50), "ISO-8859-1")));
+        assertTrue(body.contains(new String(Arrays.copyOfRange(compressibleContents(), 200, 250), "ISO-8859-1")));
+    }
+
+    private static void assertIdentityEncoded(HttpMethod response) {
+        final Header encoding = response.getResponseHeader("Content-Encoding");
+        assertTrue(String.valueOf(encoding), encoding == null || "identity".equalsIgnoreCase(encoding.getValue()));
+    }
+
+    @Test
+    public void answersRevalidationsOfFilesWith304() throws Exception {
+        // given
+        HttpClient client = new HttpClient();
+        GetMethod first = new GetMethod("http://localhost:" + port + "/files/" + bigFile().getName());
+        client.executeMethod(first);
+        first.getResponseBody();
+        GetMethod revalidation = new GetMethod("http://localhost:" + port + "/files/" + bigFile().getName());
+        revalidation.setRequestHeader("If-None-Match", first.getResponseHeader("ETag").getValue());
+
+        // when
+        int responseCode = client.executeMethod(revalidation);
+
+        // then
+        assertEquals(304, responseCode);
+        assertEquals(first.getResponseHeader("ETag").getValue(), revalidation.getResponseHeader("ETag").getValue());
+    }
+
+    @Test
+    public void servesGzippedAssetsToThoseThatTakeThem() throws Exception {
+        // given
+        HttpClient client = new HttpClient();
+        GetMethod request = new GetMethod("http://localhost:" + port + "/assets/compressible.txt");
+        request.setRequestHeader("Accept-Encoding", "gzip");
+
+        // when
+        int responseCode = client.executeMethod(request);
+
+        // then
+        assertEquals(200, responseCode);
+        assertEquals("gzip", request.getResponseHeader("Content-Encoding").getValue());
+        final byte[] expected = HttpObjectUtil.toByteArray(IntegrationTest.class.getResourceAsStream("compressible.txt"), -1);
+        // gzipped just the once, whatever the server might otherwise do to compress things
+        Assert.assertArrayEquals(expected, HttpObjectUtil.toByteArray(new GZIPInputStream(request.getResponseBodyAsStream()), -1));
+    }
+
+    @Test
+    public void servesFilesCompressedAheadOfTimeToThoseThatTakeThem() throws Exception {
+        // given
+        HttpClient client = new HttpClient();
+        GetMethod request = new GetMethod("http://localhost:" + port + "/precompressed/app.txt");
+        request.setRequestHeader("Accept-Encoding", "gzip");
+
+        // when
+        int responseCode = client.executeMethod(request);
+
+        // then
+        assertEquals(200, responseCode);
+        assertEquals("gzip", request.getResponseHeader("Content-Encoding").getValue());
+        assertEquals("Accept-Encoding", request.getResponseHeader("Vary").getValue());
+        Assert.assertArrayEquals(bigFileContents(), HttpObjectUtil.toByteArray(new GZIPInputStream(request.getResponseBodyAsStream()), -1));
+    }
+
     @Test
     public void returnsConnectionInfo() throws Exception {
         // given